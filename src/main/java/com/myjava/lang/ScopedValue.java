@@ -0,0 +1,201 @@
+package com.myjava.lang;
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+/**
+ * 在一段代码的执行期间绑定的不可变值，代替用来传递请求上下文的{@link ThreadLocal}。
+ *
+ * ScopedValue<String> USER = ScopedValue.newInstance();
+ *
+ * ScopedValue.where(USER, "duke").run(() -> handle());
+ *
+ * 在run执行期间(包括它调用的所有方法)，USER.get()都返回"duke"，run返回后绑定自动解除；
+ * 嵌套的where可以临时遮蔽外层的绑定。绑定不能被修改，只能在更内层重新绑定。
+ *
+ * 当前线程的所有绑定是一条不可变的链表，每次where只在链表头部增加结点。
+ * 因为链表从不修改，把绑定传给子任务只需要复制一个引用：{@link #wrap(Runnable)}
+ * 在提交时记下当前链表，任务执行时装回去，不需要像InheritableThreadLocal那样
+ * 遍历整个ThreadLocalMap并对每个值调用childValue。
+ * 通过{@code com.myjava.util.concurrent.Executors}的newFixedThreadPool、newSingleThreadExecutor、
+ * newScheduledThreadPool创建的线程池会自动这样包装提交的任务；newWorkStealingPool不包装。
+ *
+ * get()沿链表查找，开销与当前的绑定个数成正比，适合绑定个数不多的上下文。
+ */
+public final class ScopedValue<T> {
+
+    /**
+     * 不可变的绑定链表结点
+     */
+    static final class Binding {
+        final ScopedValue<?> key;
+        final Object value;
+        final Binding prev;
+
+        Binding(ScopedValue<?> key, Object value, Binding prev) {
+            this.key = key;
+            this.value = value;
+            this.prev = prev;
+        }
+    }
+
+    /** 当前线程的绑定链表，在ThreadLocalThread上是一次数组读取 */
+    private static final ThreadLocal<Binding> BINDINGS = new ThreadLocal<>();
+
+    private ScopedValue() {
+    }
+
+    public static <T> ScopedValue<T> newInstance() {
+        return new ScopedValue<>();
+    }
+
+    private Binding find() {
+        for (Binding b = BINDINGS.get(); b != null; b = b.prev)
+            if (b.key == this)
+                return b;
+        return null;
+    }
+
+    /**
+     * 返回当前线程中最内层的绑定值
+     * @throws NoSuchElementException 没有绑定
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        Binding b = find();
+        if (b == null)
+            throw new NoSuchElementException();
+        return (T) b.value;
+    }
+
+    public boolean isBound() {
+        return find() != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T orElse(T other) {
+        Binding b = find();
+        return (b == null) ? other : (T) b.value;
+    }
+
+    /**
+     * 创建一个把key绑定到value的Carrier，用它的run或call执行代码
+     */
+    public static <T> Carrier where(ScopedValue<T> key, T value) {
+        return new Carrier(Objects.requireNonNull(key), value, null);
+    }
+
+    public static <T> void runWhere(ScopedValue<T> key, T value, Runnable op) {
+        where(key, value).run(op);
+    }
+
+    public static <T, R> R callWhere(ScopedValue<T> key, T value, Callable<? extends R> op)
+            throws Exception {
+        return where(key, value).call(op);
+    }
+
+    /**
+     * 一组待绑定的值，本身也是不可变的，可以重复使用
+     */
+    public static final class Carrier {
+        final ScopedValue<?> key;
+        final Object value;
+        final Carrier prev;
+
+        Carrier(ScopedValue<?> key, Object value, Carrier prev) {
+            this.key = key;
+            this.value = value;
+            this.prev = prev;
+        }
+
+        public <T> Carrier where(ScopedValue<T> key, T value) {
+            return new Carrier(Objects.requireNonNull(key), value, this);
+        }
+
+        /**
+         * 返回这个Carrier中key的值(不是当前线程的绑定)
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T get(ScopedValue<T> key) {
+            for (Carrier c = this; c != null; c = c.prev)
+                if (c.key == key)
+                    return (T) c.value;
+            throw new NoSuchElementException();
+        }
+
+        /**
+         * 把这个Carrier的绑定加在当前链表的头部
+         */
+        private Binding bind(Binding top) {
+            Binding b = (prev == null) ? top : prev.bind(top);
+            return new Binding(key, value, b);
+        }
+
+        public void run(Runnable op) {
+            Binding prev = BINDINGS.get();
+            BINDINGS.set(bind(prev));
+            try {
+                op.run();
+            } finally {
+                BINDINGS.set(prev);
+            }
+        }
+
+        public <R> R call(Callable<? extends R> op) throws Exception {
+            Binding prev = BINDINGS.get();
+            BINDINGS.set(bind(prev));
+            try {
+                return op.call();
+            } finally {
+                BINDINGS.set(prev);
+            }
+        }
+    }
+
+    /**
+     * 当前线程是否有任何绑定
+     */
+    public static boolean hasBindings() {
+        return BINDINGS.get() != null;
+    }
+
+    /**
+     * 返回一个在执行时使用当前线程绑定的Runnable，用于提交给其他线程。
+     * 只记下链表头的引用，是O(1)的；没有绑定时返回task本身
+     */
+    public static Runnable wrap(Runnable task) {
+        Objects.requireNonNull(task);
+        final Binding captured = BINDINGS.get();
+        if (captured == null)
+            return task;
+        return () -> {
+            Binding prev = BINDINGS.get();
+            BINDINGS.set(captured);
+            try {
+                task.run();
+            } finally {
+                BINDINGS.set(prev);
+            }
+        };
+    }
+
+    /**
+     * Callable版本的{@link #wrap(Runnable)}
+     */
+    public static <V> Callable<V> wrap(Callable<V> task) {
+        Objects.requireNonNull(task);
+        final Binding captured = BINDINGS.get();
+        if (captured == null)
+            return task;
+        return () -> {
+            Binding prev = BINDINGS.get();
+            BINDINGS.set(captured);
+            try {
+                return task.call();
+            } finally {
+                BINDINGS.set(prev);
+            }
+        };
+    }
+}
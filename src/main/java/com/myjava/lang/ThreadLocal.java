@@ -2,6 +2,7 @@ package com.myjava.lang;
 
 
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
@@ -49,6 +50,35 @@ public class ThreadLocal<T> {
         return nextHashCode.getAndAdd(HASH_INCREMENT);
     }
 
+    /**
+     * 在{@link ThreadLocalThread#indexedVariables}中的下标，每个ThreadLocal一个，不回收
+     */
+    private final int index = nextIndex();
+
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+
+    private static int nextIndex() {
+        int i = nextIndex.getAndIncrement();
+        if (i < 0) {
+            nextIndex.decrementAndGet();
+            throw new IllegalStateException("too many thread-local indexed variables");
+        }
+        return i;
+    }
+
+    /** indexedVariables中没有值的槽位，与set(null)区分 */
+    static final Object UNSET = new Object();
+
+    /** indexedVariables的初始长度 */
+    private static final int INITIAL_INDEXED_CAPACITY = 32;
+
+    /**
+     * 普通线程的ThreadLocalMap。我们不能在java.lang.Thread中增加域，
+     * 所以借助JDK的ThreadLocal把它挂在线程上，线程结束时随之回收
+     */
+    private static final java.lang.ThreadLocal<ThreadLocalMap> threadLocals =
+            new java.lang.ThreadLocal<>();
+
     protected T initialValue() {
         return null;
     }
@@ -60,18 +90,164 @@ public class ThreadLocal<T> {
     public ThreadLocal() {
     }
 
+    /**
+     * 返回当前线程的值，没有则用initialValue()初始化。
+     * {@link ThreadLocalThread}只需要读取一次数组，其他线程在ThreadLocalMap中查找
+     */
+    @SuppressWarnings("unchecked")
     public T get() {
         Thread t = Thread.currentThread();
-       // do something
-        return null;
+        if (t instanceof ThreadLocalThread) {
+            Object[] slots = ((ThreadLocalThread) t).indexedVariables;
+            int i = index;
+            if (slots != null && i < slots.length) {
+                Object v = slots[i];
+                if (v != UNSET)
+                    return (T) v;
+            }
+            return setInitialValue(t);
+        }
+        ThreadLocalMap map = getMap(t);
+        if (map != null) {
+            ThreadLocalMap.Entry e = map.getEntry(this);
+            if (e != null)
+                return (T) e.value;
+        }
+        return setInitialValue(t);
+    }
+
+    private T setInitialValue(Thread t) {
+        T value = initialValue();
+        set(t, value);
+        return value;
     }
 
     public void set(T value) {
-        //do something
+        set(Thread.currentThread(), value);
+    }
+
+    private void set(Thread t, T value) {
+        if (t instanceof ThreadLocalThread) {
+            indexedVariables((ThreadLocalThread) t, index)[index] = value;
+            return;
+        }
+        ThreadLocalMap map = getMap(t);
+        if (map != null)
+            map.set(this, value);
+        else
+            createMap(t, value);
     }
 
     public void remove() {
-        //do something
+        Thread t = Thread.currentThread();
+        if (t instanceof ThreadLocalThread) {
+            Object[] slots = ((ThreadLocalThread) t).indexedVariables;
+            if (slots != null && index < slots.length)
+                slots[index] = UNSET;
+            return;
+        }
+        ThreadLocalMap m = getMap(t);
+        if (m != null)
+            m.remove(this);
+    }
+
+    /**
+     * 返回能容纳下标i的数组，不够时扩容为2的幂
+     */
+    private static Object[] indexedVariables(ThreadLocalThread t, int i) {
+        Object[] slots = t.indexedVariables;
+        if (slots != null && i < slots.length)
+            return slots;
+        int oldLength = (slots == null) ? 0 : slots.length;
+        int newLength = Math.max(INITIAL_INDEXED_CAPACITY, Integer.highestOneBit(i) << 1);
+        if (newLength <= 0) // overflow
+            newLength = Integer.MAX_VALUE - 8;
+        Object[] grown = (slots == null) ? new Object[newLength] : Arrays.copyOf(slots, newLength);
+        Arrays.fill(grown, oldLength, newLength, UNSET);
+        t.indexedVariables = grown;
+        return grown;
+    }
+
+    /**
+     * 普通线程的ThreadLocalMap，只对当前线程调用
+     */
+    ThreadLocalMap getMap(Thread t) {
+        return threadLocals.get();
+    }
+
+    void createMap(Thread t, T firstValue) {
+        threadLocals.set(new ThreadLocalMap(this, firstValue));
+    }
+
+    /**
+     * 当前线程的ThreadLocal存储的统计，用于诊断
+     */
+    public static Stats stats() {
+        Thread t = Thread.currentThread();
+        ThreadLocalMap map = threadLocals.get();
+        int indexedLength = 0, indexedSet = 0;
+        if (t instanceof ThreadLocalThread) {
+            Object[] slots = ((ThreadLocalThread) t).indexedVariables;
+            if (slots != null) {
+                indexedLength = slots.length;
+                for (Object v : slots)
+                    if (v != UNSET)
+                        indexedSet++;
+            }
+        }
+        return (map == null)
+            ? new Stats(0, 0, 0, 0, 0, indexedLength, indexedSet)
+            : map.stats(indexedLength, indexedSet);
+    }
+
+    /**
+     * 清除当前线程ThreadLocalMap中所有key已经被回收的entry，释放它们的值，
+     * 如果剩下的entry很少就缩小table。返回清除的entry个数。
+     *
+     * ThreadLocalMap平时只在探测时顺便清除过期的entry，长期存活的线程上
+     * 过期entry的值可能一直得不到释放。线程池空闲时可以在每个工作线程上调用一次
+     */
+    public static int purgeStale() {
+        ThreadLocalMap map = threadLocals.get();
+        return (map == null) ? 0 : map.purgeStale();
+    }
+
+    /**
+     * 一个线程的ThreadLocal存储在某一时刻的统计
+     */
+    public static final class Stats {
+        /** ThreadLocalMap的table长度 */
+        public final int tableLength;
+        /** key仍然存活的entry数 */
+        public final int live;
+        /** key已经被回收、值还没有释放的entry数 */
+        public final int stale;
+        /** 最长的连续非空槽位数 */
+        public final int longestRun;
+        /** 存活的entry查找时最多需要探测的槽位数 */
+        public final int maxProbe;
+        /** ThreadLocalThread的indexedVariables长度 */
+        public final int indexedLength;
+        /** indexedVariables中有值的槽位数 */
+        public final int indexedSet;
+
+        Stats(int tableLength, int live, int stale, int longestRun, int maxProbe,
+              int indexedLength, int indexedSet) {
+            this.tableLength = tableLength;
+            this.live = live;
+            this.stale = stale;
+            this.longestRun = longestRun;
+            this.maxProbe = maxProbe;
+            this.indexedLength = indexedLength;
+            this.indexedSet = indexedSet;
+        }
+
+        @Override
+        public String toString() {
+            return "table=" + tableLength + ", live=" + live + ", stale=" + stale
+                + ", longestRun=" + longestRun + ", maxProbe=" + maxProbe
+                + ", indexed=" + indexedSet + "/" + indexedLength;
+        }
     }
 
     T childValue(T parentValue) {
@@ -509,6 +685,78 @@ public class ThreadLocal<T> {
             table = newTab;
         }
 
+        /**
+         * 扫描整个table统计live/stale的entry数、最长的连续非空槽位数
+         * 和存活entry离自己散列位置的最远距离。不修改table
+         */
+        Stats stats(int indexedLength, int indexedSet) {
+            ThreadLocalMap.Entry[] tab = table;
+            int len = tab.length;
+            int live = 0, stale = 0, longestRun = 0, maxProbe = 0;
+            // 从一个空槽位之后开始，连续的非空槽位就不会被数组边界切断
+            int start = 0;
+            while (start < len && tab[start] != null)
+                start++;
+            if (start == len) // 不会发生，负载因子不超过2/3
+                return new Stats(len, size, 0, len, len, indexedLength, indexedSet);
+            int run = 0;
+            for (int n = 1; n <= len; n++) {
+                int j = (start + n) & (len - 1);
+                ThreadLocalMap.Entry e = tab[j];
+                if (e == null) {
+                    run = 0;
+                    continue;
+                }
+                longestRun = Math.max(longestRun, ++run);
+                ThreadLocal<?> k = e.get();
+                if (k == null)
+                    stale++;
+                else {
+                    live++;
+                    int h = k.threadLocalHashCode & (len - 1);
+                    maxProbe = Math.max(maxProbe, ((j - h) & (len - 1)) + 1);
+                }
+            }
+            return new Stats(len, live, stale, longestRun, maxProbe, indexedLength, indexedSet);
+        }
+
+        /**
+         * 清除所有过期的entry，然后把table缩小到能以不超过1/4的负载容纳剩下entry的长度
+         * @return 清除的entry个数
+         */
+        int purgeStale() {
+            int before = size;
+            expungeStaleEntries();
+            int purged = before - size;
+            int len = table.length;
+            int newLen = len;
+            while (newLen > INITIAL_CAPACITY && size <= (newLen >>> 1) / 4)
+                newLen >>>= 1;
+            if (newLen != len) {
+                ThreadLocalMap.Entry[] oldTab = table;
+                ThreadLocalMap.Entry[] newTab = new ThreadLocalMap.Entry[newLen];
+                for (ThreadLocalMap.Entry e : oldTab) {
+                    if (e != null) {
+                        ThreadLocal<?> k = e.get();
+                        if (k == null) {
+                            // 扫描之后刚被回收的
+                            e.value = null;
+                            size--;
+                            purged++;
+                            continue;
+                        }
+                        int h = k.threadLocalHashCode & (newLen - 1);
+                        while (newTab[h] != null)
+                            h = nextIndex(h, newLen);
+                        newTab[h] = e;
+                    }
+                }
+                setThreshold(newLen);
+                table = newTab;
+            }
+            return purged;
+        }
+
         /**
          * Expunge all stale entries in the table.
          */
@@ -0,0 +1,40 @@
+package com.myjava.lang;
+
+/**
+ * 自带{@link ThreadLocal}存储的线程。
+ *
+ * 每个ThreadLocal在创建时分配一个递增的下标，这种线程直接把值存放在
+ * indexedVariables[下标]中，get()只需要一次数组读取，不需要在ThreadLocalMap中做散列探测。
+ * 其他线程仍然使用ThreadLocalMap。
+ *
+ * 下标不会回收，数组按照用到的最大下标扩容，所以ThreadLocal应该像通常那样作为静态域长期使用，
+ * 而不是频繁地创建；被回收的ThreadLocal在这个数组中的值要到线程结束或调用remove时才会释放。
+ *
+ * 项目中的线程池通过{@code Executors.defaultThreadFactory()}创建这种线程。
+ */
+public class ThreadLocalThread extends Thread {
+
+    /** 按ThreadLocal的下标存放的值，由ThreadLocal维护，按需扩容 */
+    Object[] indexedVariables;
+
+    public ThreadLocalThread() {
+        super();
+    }
+
+    public ThreadLocalThread(Runnable target) {
+        super(target);
+    }
+
+    public ThreadLocalThread(Runnable target, String name) {
+        super(target, name);
+    }
+
+    public ThreadLocalThread(ThreadGroup group, Runnable target, String name) {
+        super(group, target, name);
+    }
+
+    public ThreadLocalThread(ThreadGroup group, Runnable target, String name,
+                             long stackSize) {
+        super(group, target, name, stackSize);
+    }
+}
@@ -0,0 +1,564 @@
+package com.myjava.util.concurrent;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * {@link ArrayBlockingQueue}和{@link TwoLockArrayBlockingQueue}的公共部分：
+ * items环形数组、takeIndex/putIndex，以及迭代器和跟踪迭代器的Itrs。
+ *
+ * 两个队列的迭代器跟踪约定完全一致，区别只在于用哪把锁保护：
+ * ArrayBlockingQueue是唯一的全局锁，TwoLockArrayBlockingQueue在迭代器操作时
+ * 同时持有两把锁，而出队通知itrs时只持有takeLock。
+ * 子类通过{@link #lockForIterators}、{@link #unlockForIterators}和
+ * {@link #iteratorsLockHeld}说明这一点，通过{@link #itemCount}和{@link #removeAt}
+ * 提供元素个数和内部删除。
+ */
+abstract class AbstractArrayBlockingQueue<E> extends AbstractQueue<E>
+    implements BlockingQueue<E>, java.io.Serializable {
+
+    private static final long serialVersionUID = 2818315281398626542L;
+
+    final Object[] items;
+
+    /** 下一次take、poll、peek或remove的位置 */
+    int takeIndex;
+
+    /** 下一次put、offer或add的位置 */
+    int putIndex;
+
+    /**
+     * 当前活跃的迭代器的共享状态,允许队列操作更新iterator状态，
+     * 由{@link #iteratorsLockHeld}所指的锁保护
+     */
+    transient Itrs itrs = null;
+
+    AbstractArrayBlockingQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException();
+        this.items = new Object[capacity];
+    }
+
+    /**
+     * 循环递减i
+     */
+    static final int dec(int i, int modulus) {
+        if (--i < 0) i = modulus - 1;
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    final E itemAt(int i) {
+        return (E) items[i];
+    }
+
+    /**
+     * 获取迭代器操作需要的锁，之后takeIndex、putIndex和itrs都不会被其他线程修改
+     */
+    abstract void lockForIterators();
+
+    abstract void unlockForIterators();
+
+    /**
+     * 当前线程是否持有保护itrs的锁，只用于断言
+     */
+    abstract boolean iteratorsLockHeld();
+
+    /**
+     * 当前元素个数，只在持有保护itrs的锁时调用
+     */
+    abstract int itemCount();
+
+    /**
+     * 删除removeIndex位置的元素并通知itrs。
+     * 只有在{@link #lockForIterators}之后才会调用
+     */
+    abstract void removeAt(int removeIndex);
+
+    /**
+     * 返回一个弱一致性的迭代器，按照队头到队尾的顺序遍历
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+    /**
+     * 共享迭代器与队列中间的数据，允许队列在元素被删除时更新迭代器
+     *
+     * 为了避免无序性，当一个队列拥有一个或多个迭代器时，它通过下面两种方式
+     * 保证所有的迭代器的状态是一致的：
+     * (1) 跟踪cycles数量
+     * (2) 通过回调无论内部元素何时被清除都通知所有迭代器
+     *
+     * 在一个简单的弱引用linked list上追踪所有活动迭代器(仅当队列的锁被当前线程持有)
+     * 这个list通过下面三种不同的机制进行清除工作：
+     * (1) 每当新的迭代器创建之时,以O(1)复杂度进行过期元素的检测
+     * (2) 每当获取索引到0的时候，检测不再使用的迭代器就多一周
+     * (3) 每当队列空时，所有的迭代器都被通知并且全部的数据结构都被废弃
+     */
+    class Itrs {
+
+        /**
+         * 弱引用指向的linked list上的Node
+         */
+        private class Node extends WeakReference<Itr> {
+            Node next;
+
+            Node(Itr iterator, Node next) {
+                super(iterator);
+                this.next = next;
+            }
+        }
+
+        /** takeIndex绕回0的次数 */
+        int cycles;
+
+        /** 弱引用链表的头结点 */
+        private Node head;
+
+        /** 用于清除过期迭代器 */
+        private Node sweeper;
+
+        private static final int SHORT_SWEEP_PROBES = 4;
+        private static final int LONG_SWEEP_PROBES = 16;
+
+        Itrs(Itr initial) {
+            register(initial);
+        }
+
+        /**
+         * 清除过期的迭代器，只在迭代器线程中调用。
+         * tryHarder为false时只探测少量结点，找到过期的迭代器之后会加大探测次数
+         */
+        void doSomeSweeping(boolean tryHarder) {
+            int probes = tryHarder ? LONG_SWEEP_PROBES : SHORT_SWEEP_PROBES;
+            Node o, p;
+            final Node sweeper = this.sweeper;
+            boolean passedGo;   // 只扫描一遍
+
+            if (sweeper == null) {
+                o = null;
+                p = head;
+                passedGo = true;
+            } else {
+                o = sweeper;
+                p = o.next;
+                passedGo = false;
+            }
+
+            for (; probes > 0; probes--) {
+                if (p == null) {
+                    if (passedGo)
+                        break;
+                    o = null;
+                    p = head;
+                    passedGo = true;
+                }
+                final Itr it = p.get();
+                final Node next = p.next;
+                if (it == null || it.isDetached()) {
+                    // 找到一个废弃或过期的迭代器，多探测一些
+                    probes = LONG_SWEEP_PROBES;
+                    p.clear();
+                    p.next = null;
+                    if (o == null) {
+                        head = next;
+                        if (next == null) {
+                            // 没有迭代器需要跟踪了，退出跟踪
+                            itrs = null;
+                            return;
+                        }
+                    }
+                    else
+                        o.next = next;
+                } else {
+                    o = p;
+                }
+                p = next;
+            }
+
+            this.sweeper = (p == null) ? null : o;
+        }
+
+        /**
+         * 增加新的迭代器到跟踪iterator的linked list上
+         */
+        void register(Itr itr) {
+            head = new Node(itr, head);
+        }
+
+        /**
+         * takeIndex绕回0时调用，通知所有迭代器并清除过期的迭代器
+         */
+        void takeIndexWrapped() {
+            cycles++;
+            for (Node o = null, p = head; p != null;) {
+                final Itr it = p.get();
+                final Node next = p.next;
+                if (it == null || it.takeIndexWrapped()) {
+                    p.clear();
+                    p.next = null;
+                    if (o == null)
+                        head = next;
+                    else
+                        o.next = next;
+                } else {
+                    o = p;
+                }
+                p = next;
+            }
+            if (head == null)   // 没有迭代器需要跟踪了
+                itrs = null;
+        }
+
+        /**
+         * 内部删除(不在takeIndex处)时调用，通知所有迭代器并清除过期的迭代器
+         */
+        void removedAt(int removedIndex) {
+            for (Node o = null, p = head; p != null;) {
+                final Itr it = p.get();
+                final Node next = p.next;
+                if (it == null || it.removedAt(removedIndex)) {
+                    p.clear();
+                    p.next = null;
+                    if (o == null)
+                        head = next;
+                    else
+                        o.next = next;
+                } else {
+                    o = p;
+                }
+                p = next;
+            }
+            if (head == null)   // 没有迭代器需要跟踪了
+                itrs = null;
+        }
+
+        /**
+         * 队列为空时调用，通知所有迭代器失效并废弃整个数据结构
+         */
+        void queueIsEmpty() {
+            for (Node p = head; p != null; p = p.next) {
+                Itr it = p.get();
+                if (it != null) {
+                    p.clear();
+                    it.shutdown();
+                }
+            }
+            head = null;
+            itrs = null;
+        }
+
+        /**
+         * 每当元素出队(在takeIndex处)时调用
+         */
+        void elementDequeued() {
+            if (itemCount() == 0)
+                queueIsEmpty();
+            else if (takeIndex == 0)
+                takeIndexWrapped();
+        }
+    }
+
+    /**
+     * ArrayBlockingQueue和TwoLockArrayBlockingQueue共用的迭代器。
+     *
+     * 当所有的索引都遍历之后使用"detached"模式(允许及时地从itrs中断链而不依赖GC)
+     * 这样使得可以保证跟踪iterator并发更新的准确性,除非用户在hasNext()返回false
+     * 之后调用Iterator.remove()的极端情况。在这种情况下,我们也能保证不会移除错误
+     * 的元素。
+     */
+    private class Itr implements Iterator<E> {
+
+        private int cursor;
+
+        private E nextItem;
+
+        private int nextIndex;
+
+        private E lastItem;
+
+        /**
+         * 最后一项的索引值
+         */
+        private int lastRet;
+
+        private int prevTakeIndex;
+
+        private int prevCycles;
+
+        public static final int NONE = -1;
+
+        public static final int REMOVED = -2;
+
+        public static final int DETACHED = -3;
+
+        Itr() {
+            lastRet = NONE;
+            lockForIterators();
+            try {
+                if (itemCount() == 0) {
+                    cursor = NONE;
+                    nextIndex = NONE;
+                    prevTakeIndex = DETACHED;
+                } else {
+                    final int takeIndex = AbstractArrayBlockingQueue.this.takeIndex;
+                    prevTakeIndex = takeIndex;
+                    nextItem = itemAt(nextIndex = takeIndex);
+                    cursor = incCursor(takeIndex);
+                    if (itrs == null) {
+                        itrs = new Itrs(this);
+                    } else {
+                        itrs.register(this);
+                        itrs.doSomeSweeping(false);
+                    }
+                    prevCycles = itrs.cycles;
+                }
+            } finally {
+                unlockForIterators();
+            }
+        }
+
+        boolean isDetached() {
+            assert iteratorsLockHeld();
+            return prevTakeIndex < 0;
+        }
+
+        private int incCursor(int index) {
+            assert iteratorsLockHeld();
+            if (++index == items.length)
+                index = 0;
+            if (index == putIndex)
+                index = NONE;
+            return index;
+        }
+
+        private boolean invalidated(int index, int prevTakeIndex,
+                                    long dequeues, int length) {
+            if (index < 0)
+                return false;
+            int distance = index - prevTakeIndex;
+            if (distance < 0)
+                distance += length;
+            return dequeues > distance;
+        }
+
+        /**
+         * 根据上次操作之后发生的出队调整索引
+         */
+        private void incorporateDequeues() {
+            assert iteratorsLockHeld();
+            assert itrs != null;
+            assert !isDetached();
+            assert itemCount() > 0;
+
+            final int cycles = itrs.cycles;
+            final int takeIndex = AbstractArrayBlockingQueue.this.takeIndex;
+            final int prevCycles = this.prevCycles;
+            final int prevTakeIndex = this.prevTakeIndex;
+
+            if (cycles != prevCycles || takeIndex != prevTakeIndex) {
+                final int len = items.length;
+                // 从prevTakeIndex到takeIndex之间出队的元素数
+                long dequeues = (long) (cycles - prevCycles) * len
+                    + (takeIndex - prevTakeIndex);
+
+                // 检查索引是否失效
+                if (invalidated(lastRet, prevTakeIndex, dequeues, len))
+                    lastRet = REMOVED;
+                if (invalidated(nextIndex, prevTakeIndex, dequeues, len))
+                    nextIndex = REMOVED;
+                if (invalidated(cursor, prevTakeIndex, dequeues, len))
+                    cursor = takeIndex;
+
+                if (cursor < 0 && nextIndex < 0 && lastRet < 0)
+                    detach();
+                else {
+                    this.prevCycles = cycles;
+                    this.prevTakeIndex = takeIndex;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert !iteratorsLockHeld();
+            if (nextItem != null)
+                return true;
+            noNext();
+            return false;
+        }
+
+        private void noNext() {
+            lockForIterators();
+            try {
+                if (!isDetached()) {
+                    incorporateDequeues();
+                    if (lastRet >= 0) {
+                        lastItem = itemAt(lastRet);
+                        detach();
+                    }
+                }
+            } finally {
+                unlockForIterators();
+            }
+        }
+
+        private void detach() {
+            if (prevTakeIndex >= 0) {
+                prevTakeIndex = DETACHED;
+                itrs.doSomeSweeping(true);
+            }
+        }
+
+        @Override
+        public E next() {
+            final E x = nextItem;
+            if (x == null)
+                throw new NoSuchElementException();
+            lockForIterators();
+            try {
+                if (!isDetached())
+                    incorporateDequeues();
+                // assert nextIndex != NONE;
+                // assert lastItem == null;
+                lastRet = nextIndex;
+                final int cursor = this.cursor;
+                if (cursor >= 0) {
+                    nextItem = itemAt(nextIndex = cursor);
+                    // assert nextItem != null;
+                    this.cursor = incCursor(cursor);
+                } else {
+                    nextIndex = NONE;
+                    nextItem = null;
+                    if (lastRet == REMOVED) detach();
+                }
+            } finally {
+                unlockForIterators();
+            }
+            return x;
+        }
+
+        @Override
+        public void remove() {
+            lockForIterators();
+            try {
+                if (!isDetached())
+                    incorporateDequeues(); // 可能会更新lastRet或者detach
+                final int lastRet = this.lastRet;
+                this.lastRet = NONE;
+                if (lastRet >= 0) {
+                    if (!isDetached())
+                        removeAt(lastRet);
+                    else {
+                        final E lastItem = this.lastItem;
+                        this.lastItem = null;
+                        if (itemAt(lastRet) == lastItem)
+                            removeAt(lastRet);
+                    }
+                } else if (lastRet == NONE)
+                    throw new IllegalStateException();
+                // lastRet == REMOVED时说明元素已经被其他操作删除了，什么都不做
+
+                if (cursor < 0 && nextIndex < 0)
+                    detach();
+            } finally {
+                unlockForIterators();
+            }
+        }
+
+        /**
+         * 通知迭代器队列已经为空，或者已经远远落后于队列，
+         * 它应该放弃所有后续的遍历，只有remove()还可能删除lastItem
+         */
+        void shutdown() {
+            cursor = NONE;
+            if (nextIndex >= 0)
+                nextIndex = REMOVED;
+            if (lastRet >= 0) {
+                lastRet = REMOVED;
+                lastItem = null;
+            }
+            prevTakeIndex = DETACHED;
+            // nextItem不置空，因为hasNext()已经承诺过要返回它
+        }
+
+        private int distance(int index, int prevTakeIndex, int length) {
+            int distance = index - prevTakeIndex;
+            if (distance < 0)
+                distance += length;
+            return distance;
+        }
+
+        /**
+         * 内部删除(不在takeIndex处)时调用
+         *
+         * @return 迭代器需要从itrs中断链时返回true
+         */
+        boolean removedAt(int removedIndex) {
+            if (isDetached())
+                return true;
+
+            final int takeIndex = AbstractArrayBlockingQueue.this.takeIndex;
+            final int prevTakeIndex = this.prevTakeIndex;
+            final int len = items.length;
+            // 被删除的元素到prevTakeIndex的距离
+            final int removedDistance =
+                len * (itrs.cycles - this.prevCycles
+                       + ((removedIndex < takeIndex) ? 1 : 0))
+                + (removedIndex - prevTakeIndex);
+            int cursor = this.cursor;
+            if (cursor >= 0) {
+                int x = distance(cursor, prevTakeIndex, len);
+                if (x == removedDistance) {
+                    if (cursor == putIndex)
+                        this.cursor = cursor = NONE;
+                }
+                else if (x > removedDistance) {
+                    this.cursor = cursor = dec(cursor, len);
+                }
+            }
+            int lastRet = this.lastRet;
+            if (lastRet >= 0) {
+                int x = distance(lastRet, prevTakeIndex, len);
+                if (x == removedDistance)
+                    this.lastRet = lastRet = REMOVED;
+                else if (x > removedDistance)
+                    this.lastRet = lastRet = dec(lastRet, len);
+            }
+            int nextIndex = this.nextIndex;
+            if (nextIndex >= 0) {
+                int x = distance(nextIndex, prevTakeIndex, len);
+                if (x == removedDistance)
+                    this.nextIndex = nextIndex = REMOVED;
+                else if (x > removedDistance)
+                    this.nextIndex = nextIndex = dec(nextIndex, len);
+            }
+            if (cursor < 0 && nextIndex < 0 && lastRet < 0) {
+                this.prevTakeIndex = DETACHED;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * takeIndex绕回0时调用
+         *
+         * @return 迭代器需要从itrs中断链时返回true
+         */
+        boolean takeIndexWrapped() {
+            if (isDetached())
+                return true;
+            if (itrs.cycles - prevCycles > 1) {
+                // 迭代器开始时的元素已经全部出队了
+                shutdown();
+                return true;
+            }
+            return false;
+        }
+    }
+}
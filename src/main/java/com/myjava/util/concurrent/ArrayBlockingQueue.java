@@ -1,11 +1,8 @@
 package com.myjava.util.concurrent;
 
-import java.lang.ref.WeakReference;
-import java.util.AbstractQueue;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
-import java.util.concurrent.BlockingQueue;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -18,17 +15,10 @@ import java.util.concurrent.locks.ReentrantLock;
  * fairness通常降低了吞吐量但是减少了可变性的同时避免了线程处于饥饿的状态
  *
  */
-public class ArrayBlockingQueue<E> extends AbstractQueue<E>
-    implements BlockingQueue<E>, java.io.Serializable {
+public class ArrayBlockingQueue<E> extends AbstractArrayBlockingQueue<E> {
 
     private static final long serialVersionUID = 4121687347861848208L;
 
-    final Object[] items;
-
-    int takeIndex;
-
-    int putIndex;
-
     int count;
 
     /** 全局锁 */
@@ -39,279 +29,591 @@ public class ArrayBlockingQueue<E> extends AbstractQueue<E>
     private final Condition notFull;
 
     /**
-     * 当前活跃的迭代器的共享状态,允许队列操作更新iterator状态
+     * 等待凑够{@link #takeBatch}所需最少元素个数的线程在此等待，
+     * 与notEmpty分开是为了不让凑不够数的批量消费者吞掉单个take()的唤醒信号
      */
-    transient Itrs itrs = null;
+    private final Condition notEmptyBatch;
 
-    @SuppressWarnings("unchecked")
-    final E itemAt(int i) {
-        return (E) items[i];
+    /** 在notEmptyBatch上等待的线程数，只在持有lock时读写 */
+    private int batchWaiters;
+
+    /**
+     * 循环递增i
+     */
+    static final int inc(int i, int modulus) {
+        if (++i >= modulus) i = 0;
+        return i;
     }
 
     /**
-     * 创建一个带有固定能力和特定进入策略的ABQ
-     * @param capacity
-     * @param fair
+     * 在当前put位置插入元素，前移并发出信号
+     * 只有当持有锁时才会调用
      */
-    public ArrayBlockingQueue(int capacity, boolean fair) {
-        if (capacity <= 0)
-            throw new IllegalArgumentException();
-        this.items = new Object[capacity];
-        lock = new ReentrantLock(fair);
-        notEmpty = lock.newCondition();
-        notFull = lock.newCondition();
+    private void enqueue(E e) {
+        final Object[] items = this.items;
+        items[putIndex] = e;
+        if (++putIndex == items.length) putIndex = 0;
+        count++;
+        notEmpty.signal();
+        // 凑批的消费者的min各不相同，只唤醒一个可能唤醒凑不够数的，够数的却继续等待
+        if (batchWaiters > 0)
+            notEmptyBatch.signalAll();
     }
 
-    @Override
-    public Iterator<E> iterator() {
-        return null;
+    /**
+     * 在当前take位置取出元素，前移并发出信号
+     * 只有当持有锁时才会调用
+     */
+    private E dequeue() {
+        final Object[] items = this.items;
+        @SuppressWarnings("unchecked")
+        E e = (E) items[takeIndex];
+        items[takeIndex] = null;
+        if (++takeIndex == items.length) takeIndex = 0;
+        count--;
+        if (itrs != null)
+            itrs.elementDequeued();
+        notFull.signal();
+        return e;
     }
 
+    /**
+     * 删除removeIndex位置的元素。
+     * 只有当持有锁时才会调用
+     */
     @Override
-    public int size() {
-        return 0;
+    void removeAt(final int removeIndex) {
+        final Object[] items = this.items;
+        if (removeIndex == takeIndex) {
+            // 删除的是队头元素，直接前移
+            items[takeIndex] = null;
+            if (++takeIndex == items.length) takeIndex = 0;
+            count--;
+            if (itrs != null)
+                itrs.elementDequeued();
+        } else {
+            // 内部删除，把后面的元素逐个前移直到putIndex
+            for (int i = removeIndex, putIndex = this.putIndex;;) {
+                int pred = i;
+                if (++i == items.length) i = 0;
+                if (i == putIndex) {
+                    items[pred] = null;
+                    this.putIndex = pred;
+                    break;
+                }
+                items[pred] = items[i];
+            }
+            count--;
+            if (itrs != null)
+                itrs.removedAt(removeIndex);
+        }
+        notFull.signal();
     }
 
-    @Override
-    public void put(E e) throws InterruptedException {
+    /**
+     * 批量入队/出队之后唤醒至多n个在cond上等待的线程，没有等待者时立即停止，
+     * 避免逐个元素地signal
+     * 只有当持有锁时才会调用
+     */
+    private void signalWaiters(Condition cond, int n) {
+        for (; n > 0 && lock.hasWaiters(cond); n--)
+            cond.signal();
+    }
 
+    /**
+     * 一次性取出了i个元素、take游标已经走到take之后的收尾工作：
+     * 更新计数和迭代器状态，并唤醒对应数量的生产者
+     * 只有当持有锁时才会调用
+     */
+    private void batchDequeued(int i, int take) {
+        count -= i;
+        takeIndex = take;
+        if (itrs != null) {
+            if (count == 0)
+                itrs.queueIsEmpty();
+            else if (i > take)
+                itrs.takeIndexWrapped();
+        }
+        signalWaiters(notFull, i);
     }
 
-    @Override
-    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
-        return false;
+    /**
+     * 创建一个带有固定能力和默认进入策略的ABQ
+     * @param capacity
+     */
+    public ArrayBlockingQueue(int capacity) {
+        this(capacity, false);
     }
 
-    @Override
-    public E take() throws InterruptedException {
-        return null;
+    /**
+     * 创建一个带有固定能力和特定进入策略的ABQ
+     * @param capacity
+     * @param fair
+     */
+    public ArrayBlockingQueue(int capacity, boolean fair) {
+        super(capacity);
+        lock = new ReentrantLock(fair);
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+        notEmptyBatch = lock.newCondition();
+    }
+
+    /**
+     * 创建一个ABQ并按照集合迭代器的顺序放入初始元素
+     * @param capacity
+     * @param fair
+     * @param c
+     */
+    public ArrayBlockingQueue(int capacity, boolean fair,
+                              Collection<? extends E> c) {
+        this(capacity, fair);
+
+        final ReentrantLock lock = this.lock;
+        lock.lock(); // 不是为了互斥，而是为了可见性
+        try {
+            final Object[] items = this.items;
+            int i = 0;
+            try {
+                for (E e : c)
+                    items[i++] = Objects.requireNonNull(e);
+            } catch (ArrayIndexOutOfBoundsException ex) {
+                throw new IllegalArgumentException();
+            }
+            count = i;
+            putIndex = (i == capacity) ? 0 : i;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
-        return null;
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (count == items.length)
+                return false;
+            else {
+                enqueue(e);
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public int remainingCapacity() {
-        return 0;
+    public void put(E e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count == items.length)
+                notFull.await();
+            enqueue(e);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public int drainTo(Collection<? super E> c) {
-        return 0;
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count == items.length) {
+                if (nanos <= 0L)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public int drainTo(Collection<? super E> c, int maxElements) {
-        return 0;
+    public E poll() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return (count == 0) ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public boolean offer(E e) {
-        return false;
+    public E take() throws InterruptedException {
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0)
+                notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public E poll() {
-        return null;
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0L)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public E peek() {
-        return null;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return itemAt(takeIndex); // 队列为空时返回null
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * 共享迭代器与队列中间的数据，允许队列在元素被删除时更新迭代器
+     * 批量入队：在一次加锁期间把es中的元素尽可能多地放入队列，
+     * 每次腾出空间只唤醒与新元素数量相当的消费者，而不是逐个元素地加锁和signal。
+     * 队列满时最多等待给定的时间，超时后返回已经放入的个数。
      *
-     * 为了避免无序性，当一个队列拥有一个或多个迭代器时，它通过下面两种方式
-     * 保证所有的迭代器的状态是一致的：
-     * (1) 跟踪cycles数量
-     * (2) 通过回调无论内部元素何时被清除都通知所有迭代器
+     * 放入任何元素之前会先检查es中不含null，所以不会出现部分插入后才抛出NPE的情况。
+     * 等待期间被中断时，已经放入的元素仍然保留在队列中。
      *
-     * 在一个简单的弱引用linked list上追踪所有活动迭代器(仅当队列的锁被当前线程持有)
-     * 这个list通过下面三种不同的机制进行清除工作：
-     * (1) 每当新的迭代器创建之时,以O(1)复杂度进行过期元素的检测
-     * (2) 每当获取索引到0的时候，检测不再使用的迭代器就多一周
-     * (3) 每当队列空时，所有的迭代器都被通知并且全部的数据结构都被废弃
+     * @return 实际放入队列的元素个数，按es的顺序从头开始计
+     * @throws InterruptedException 等待空间时被中断
      */
-    class Itrs {
-
-        /**
-         * 弱引用指向的linked list上的Node
-         */
-        private class Node extends WeakReference<Itr> {
-            Node next;
-
-            Node(Itr iterator, Node next) {
-                super(iterator);
-                this.next = next;
+    public int putAll(E[] es, long timeout, TimeUnit unit)
+        throws InterruptedException {
+        for (E e : es)
+            Objects.requireNonNull(e);
+        long nanos = unit.toNanos(timeout);
+        final Object[] items = this.items;
+        final int len = items.length;
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        int n = 0, unsignalled = 0;
+        try {
+            while (n < es.length) {
+                int free = len - count;
+                if (free == 0) {
+                    if (nanos <= 0L)
+                        break;
+                    // 等待之前必须先唤醒消费者，否则双方可能互相等到超时
+                    signalEnqueued(unsignalled);
+                    unsignalled = 0;
+                    nanos = notFull.awaitNanos(nanos);
+                    continue;
+                }
+                int k = Math.min(free, es.length - n);
+                // 最多分两段拷贝：putIndex到数组末尾，再从0开始
+                int put = putIndex;
+                int first = Math.min(k, len - put);
+                System.arraycopy(es, n, items, put, first);
+                if (k > first)
+                    System.arraycopy(es, n + first, items, 0, k - first);
+                put += k;
+                putIndex = (put >= len) ? put - len : put;
+                count += k;
+                n += k;
+                unsignalled += k;
             }
+            return n;
+        } finally {
+            signalEnqueued(unsignalled);
+            lock.unlock();
         }
+    }
 
-        int cycles = 0;
-
-        private Node head;
-
-
-        Itrs(Itr initial) {
-            register(initial);
-        }
-
-        /**
-         * 增加新的迭代器到跟踪iterator的linked list上
-         */
-        void register(Itr itr) {
-            head = new Node(itr, head);
-        }
-
-        void doSomeSweeping(boolean tryHarder) {
+    /**
+     * {@link #putAll(Object[], long, TimeUnit)}的集合版本，按照集合迭代器的顺序入队
+     *
+     * @return 实际放入队列的元素个数
+     * @throws InterruptedException 等待空间时被中断
+     */
+    @SuppressWarnings("unchecked")
+    public int putAll(Collection<? extends E> c, long timeout, TimeUnit unit)
+        throws InterruptedException {
+        if (c == this)
+            throw new IllegalArgumentException();
+        return putAll((E[]) c.toArray(), timeout, unit);
+    }
 
+    /**
+     * 批量入队之后的唤醒：单个take()的消费者按新元素个数唤醒，
+     * 凑批的消费者全部唤醒让它们自己重新判断是否够数
+     * 只有当持有锁时才会调用
+     */
+    private void signalEnqueued(int n) {
+        if (n > 0) {
+            signalWaiters(notEmpty, n);
+            if (batchWaiters > 0)
+                notEmptyBatch.signalAll();
         }
-
     }
 
     /**
-     * ArrayBlockingQueue的迭代器。
+     * 批量出队：等待直到队列中至少有min个元素，然后在一次加锁期间取出
+     * 尽可能多的元素(最多dst.length个)放入dst的开头，并按取出的个数唤醒生产者。
+     * 超时之后不再等待，把当前已有的元素(可能少于min，也可能为0)取出返回。
      *
-     * 当所有的索引都遍历之后使用"detached"模式(允许及时地从itrs中断链而不依赖GC)
-     * 这样使得可以保证跟踪iterator并发更新的准确性,除非用户在hasNext()返回false
-     * 之后调用Iterator.remove()的极端情况。在这种情况下,我们也能保证不会移除错误
-     * 的元素。
+     * @param dst 接收元素的数组
+     * @param min 返回之前至少要凑够的元素个数，1 &lt;= min &lt;= dst.length
+     * @return 实际取出的元素个数
+     * @throws InterruptedException 等待时被中断
      */
-    private class Itr implements Iterator<E> {
-
-        private int cursor;
-
-        private E nextItem;
-
-        private int nextIndex;
-
-        private E lastItem;
-
-        /**
-         * 最后一项的索引值
-         */
-        private int lastRet;
-
-        private int prevTakeIndex;
-
-        private int prevCycles;
-
-        public static final int NONE = -1;
-
-        public static final int REMOVED = -2;
-
-        public static final int DETACHED = -3;
-
-        Itr() {
-            lastRet = NONE;
-            final ReentrantLock lock = ArrayBlockingQueue.this.lock;
-            lock.lock();
+    public int takeBatch(E[] dst, int min, long timeout, TimeUnit unit)
+        throws InterruptedException {
+        if (min <= 0 || min > dst.length)
+            throw new IllegalArgumentException();
+        long nanos = unit.toNanos(timeout);
+        final Object[] items = this.items;
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count < min && nanos > 0L) {
+                batchWaiters++;
+                try {
+                    nanos = notEmptyBatch.awaitNanos(nanos);
+                } finally {
+                    batchWaiters--;
+                }
+            }
+            int n = Math.min(count, dst.length);
+            int take = takeIndex;
+            int i = 0;
             try {
-                if (count == 0) {
-                    cursor = NONE;
-                    nextIndex = NONE;
-                    prevTakeIndex = DETACHED;
-                } else {
-                    final int taskIndex = ArrayBlockingQueue.this.takeIndex;
-                    prevTakeIndex = taskIndex;
-                    nextItem = itemAt(nextIndex = taskIndex);
-                    cursor = incCursor(taskIndex);
-                    if (itrs == null) {
-                        itrs = new Itrs(this);
-                    } else {
-                        itrs.register(this);
-                        itrs.doSomeSweeping(false);
-                    }
-                    prevCycles = itrs.cycles;
+                while (i < n) {
+                    @SuppressWarnings("unchecked")
+                    E e = (E) items[take];
+                    dst[i] = e;
+                    items[take] = null;
+                    if (++take == items.length) take = 0;
+                    i++;
                 }
+                return n;
             } finally {
-                lock.unlock();
+                if (i > 0) {
+                    batchDequeued(i, take);
+                    // dst装满之后剩余的元素留给其他凑批的消费者
+                    if (count > 0 && batchWaiters > 0)
+                        notEmptyBatch.signalAll();
+                }
             }
+        } finally {
+            lock.unlock();
         }
+    }
 
-        boolean isDetached() {
-            assert lock.getHoldCount() == 1;
-            return prevTakeIndex < 0;
+    @Override
+    public int size() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        private int incCursor(int index) {
-            assert lock.getHoldCount() == 1;
-            if (++index == items.length)
-                index = 0;
-            if (index == putIndex)
-                index = NONE;
-            return index;
+    @Override
+    public int remainingCapacity() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return items.length - count;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        private void incorporateDequeues() {
-            assert lock.getHoldCount() == 1;
-            assert itrs != null;
-            assert !isDetached();
-            assert count > 0;
-            //...
-        }
-        @Override
-        public boolean hasNext() {
-            assert lock.getHoldCount() == 0;
-            if (nextItem != null)
-                return true;
-            noNext();
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) return false;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (count > 0) {
+                final Object[] items = this.items;
+                for (int i = takeIndex, end = putIndex,
+                         to = (i < end) ? end : items.length;
+                     ; i = 0, to = end) {
+                    for (; i < to; i++)
+                        if (o.equals(items[i])) {
+                            removeAt(i);
+                            return true;
+                        }
+                    if (to == end) break;
+                }
+            }
             return false;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        private void noNext() {
-            final ReentrantLock lock = ArrayBlockingQueue.this.lock;
-            lock.lock();
-            try {
-                if (!isDetached()) {
-                    incorporateDequeues();
-                    if (lastRet >= 0) {
-                        lastItem = itemAt(lastRet);
-                        detach();
-                    }
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) return false;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (count > 0) {
+                final Object[] items = this.items;
+                for (int i = takeIndex, end = putIndex,
+                         to = (i < end) ? end : items.length;
+                     ; i = 0, to = end) {
+                    for (; i < to; i++)
+                        if (o.equals(items[i]))
+                            return true;
+                    if (to == end) break;
                 }
-            } finally {
-                lock.unlock();
             }
+            return false;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        private void detach() {
-            if (prevTakeIndex >= 0) {
-                prevTakeIndex = DETACHED;
-                itrs.doSomeSweeping(true);
+    @Override
+    public Object[] toArray() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            final Object[] items = this.items;
+            final int end = takeIndex + count;
+            final Object[] a = Arrays.copyOfRange(items, takeIndex, end);
+            if (end != putIndex)
+                System.arraycopy(items, 0, a, items.length - takeIndex, putIndex);
+            return a;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            final Object[] items = this.items;
+            final int count = this.count;
+            final int firstLeg = Math.min(items.length - takeIndex, count);
+            if (a.length < count) {
+                a = (T[]) Arrays.copyOfRange(items, takeIndex, takeIndex + count,
+                                             a.getClass());
+            } else {
+                System.arraycopy(items, takeIndex, a, 0, firstLeg);
+                if (a.length > count)
+                    a[count] = null;
             }
+            if (firstLeg < count)
+                System.arraycopy(items, 0, a, firstLeg, putIndex);
+            return a;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        @Override
-        public E next() {
-            final E x = nextItem;
-            if (x == null)
-                throw new NoSuchElementException();
-            final ReentrantLock lock = ArrayBlockingQueue.this.lock;
-            lock.lock();
+    /**
+     * 原子地清空队列，队列中的迭代器全部失效
+     */
+    @Override
+    public void clear() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int k;
+            if ((k = count) > 0) {
+                final Object[] items = this.items;
+                for (int i = takeIndex; k > 0; k--) {
+                    items[i] = null;
+                    if (++i == items.length) i = 0;
+                }
+                takeIndex = putIndex;
+                count = 0;
+                if (itrs != null)
+                    itrs.queueIsEmpty();
+                signalWaiters(notFull, items.length);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        final Object[] items = this.items;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int n = Math.min(maxElements, count);
+            int take = takeIndex;
+            int i = 0;
             try {
-                if (!isDetached())
-                    incorporateDequeues();
-                // assert nextIndex != NONE;
-                // assert lastItem == null;
-                lastRet = nextIndex;
-                final int cursor = this.cursor;
-                if (cursor >= 0) {
-                    nextItem = itemAt(nextIndex = cursor);
-                    // assert nextItem != null;
-                    this.cursor = incCursor(cursor);
-                } else {
-                    nextIndex = NONE;
-                    nextItem = null;
+                while (i < n) {
+                    @SuppressWarnings("unchecked")
+                    E e = (E) items[take];
+                    c.add(e);
+                    items[take] = null;
+                    if (++take == items.length) take = 0;
+                    i++;
                 }
+                return n;
             } finally {
-                lock.unlock();
+                // c.add()抛出异常时也要恢复不变量
+                if (i > 0)
+                    batchDequeued(i, take);
             }
-            return x;
+        } finally {
+            lock.unlock();
         }
     }
 
+    @Override
+    void lockForIterators() {
+        lock.lock();
+    }
+
+    @Override
+    void unlockForIterators() {
+        lock.unlock();
+    }
+
+    @Override
+    boolean iteratorsLockHeld() {
+        return lock.isHeldByCurrentThread();
+    }
+
+    @Override
+    int itemCount() {
+        return count;
+    }
 }
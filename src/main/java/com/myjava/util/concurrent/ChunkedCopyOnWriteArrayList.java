@@ -0,0 +1,800 @@
+package com.myjava.util.concurrent;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * 分块的{@link CopyOnWriteArrayList}。
+ *
+ * 读操作和CopyOnWriteArrayList一样不加锁，迭代器也是创建时的镜像，
+ * 不会抛出ConcurrentModificationException，也不支持通过迭代器修改。
+ *
+ * 元素按顺序存放在若干个最多{@value #CHUNK_SIZE}个元素的块中，
+ * 所有块的引用和每块的累计结束位置组成一个不可变的索引(Snapshot)。
+ * 写操作只复制被修改的那一块和索引，其他块在新旧镜像之间共享，
+ * 所以对n个元素的列表修改一个元素只需要复制O(CHUNK_SIZE + n / CHUNK_SIZE)个引用，
+ * 而不是整个数组。块超过上限时一分为二，变空时从索引中去掉。
+ *
+ * 除最后一块外所有块都是满的时候(比如只在末尾追加)，get直接用移位计算位置；
+ * 在中间插入删除之后块的大小不再一致，get先按每CHUNK_SIZE个下标一项的提示找到起始块，
+ * 再向后经过几个块。过小的块会与相邻的块合并，所以需要经过的块数是有界的。
+ *
+ * replaceAll只替换有元素变化的块；removeIf只复制有元素删除的块，再把相邻的小块合并；sort需要重建所有块。
+ * spliterator直接在镜像的块上遍历和分割，不复制元素。
+ * subList沿用AbstractList的实现，不是线程安全的视图。
+ */
+public class ChunkedCopyOnWriteArrayList<E> extends AbstractList<E>
+        implements RandomAccess {
+
+    static final int CHUNK_SHIFT = 8;
+
+    /** 每块最多的元素个数 */
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * 不可变的镜像：块和每块的累计结束位置，ends[k]是前k+1块的元素总数。
+     * 块的长度就是其中的元素个数，不留空位
+     */
+    static final class Snapshot {
+        final Object[][] chunks;
+        final int[] ends;
+        /**
+         * 块大小不一致时的定位提示：hints[j]是下标j * CHUNK_SIZE所在的块，
+         * 从它向后最多经过几个块就能找到目标。块大小一致时为null
+         */
+        final int[] hints;
+        final int size;
+
+        Snapshot(Object[][] chunks, int[] ends, int[] hints) {
+            this.chunks = chunks;
+            this.ends = ends;
+            this.hints = hints;
+            this.size = (ends.length == 0) ? 0 : ends[ends.length - 1];
+        }
+
+        /**
+         * 根据块重新计算累计结束位置和定位提示
+         */
+        static Snapshot of(Object[][] chunks) {
+            int n = chunks.length;
+            int[] ends = new int[n];
+            boolean uniform = true;
+            int end = 0;
+            for (int k = 0; k < n; k++) {
+                int len = chunks[k].length;
+                if (len != CHUNK_SIZE && k != n - 1)
+                    uniform = false;
+                ends[k] = end += len;
+            }
+            int[] hints = null;
+            if (!uniform) {
+                hints = new int[(end + CHUNK_MASK) >>> CHUNK_SHIFT];
+                for (int j = 0, k = 0; j < hints.length; j++) {
+                    while (ends[k] <= j << CHUNK_SHIFT)
+                        k++;
+                    hints[j] = k;
+                }
+            }
+            return new Snapshot(chunks, ends, hints);
+        }
+
+        /**
+         * 下标为index的元素所在的块
+         */
+        int chunkOf(int index) {
+            final int[] hints = this.hints;
+            if (hints == null)
+                return index >>> CHUNK_SHIFT;
+            int k = hints[index >>> CHUNK_SHIFT];
+            while (ends[k] <= index)
+                k++;
+            return k;
+        }
+
+        int startOf(int k) {
+            return (k == 0) ? 0 : ends[k - 1];
+        }
+
+        Object get(int index) {
+            if (hints == null)
+                return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+            int k = chunkOf(index);
+            return chunks[k][index - startOf(k)];
+        }
+    }
+
+    static final Snapshot EMPTY = new Snapshot(new Object[0][], new int[0], null);
+
+    final transient Object lock = new Object();
+
+    private transient volatile Snapshot snapshot;
+
+    final Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    final void setSnapshot(Snapshot s) {
+        snapshot = s;
+    }
+
+    public ChunkedCopyOnWriteArrayList() {
+        setSnapshot(EMPTY);
+    }
+
+    public ChunkedCopyOnWriteArrayList(Collection<? extends E> c) {
+        setSnapshot(build(c.toArray()));
+    }
+
+    /**
+     * 把数组切成满块
+     */
+    static Snapshot build(Object[] es) {
+        int n = es.length;
+        if (n == 0)
+            return EMPTY;
+        int count = (n + CHUNK_MASK) >>> CHUNK_SHIFT;
+        Object[][] chunks = new Object[count][];
+        for (int k = 0; k < count; k++) {
+            int from = k << CHUNK_SHIFT;
+            chunks[k] = Arrays.copyOfRange(es, from, Math.min(n, from + CHUNK_SIZE), Object[].class);
+        }
+        return Snapshot.of(chunks);
+    }
+
+    private static void rangeCheck(int index, int size) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(CopyOnWriteArrayList.outOfBounds(index, size));
+    }
+
+    @Override
+    public int size() {
+        return getSnapshot().size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return getSnapshot().size == 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        Snapshot s = getSnapshot();
+        rangeCheck(index, s.size);
+        return (E) s.get(index);
+    }
+
+    /**
+     * 只复制元素所在的块和块的引用数组，累计结束位置不变可以共享
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E set(int index, E element) {
+        synchronized (lock) {
+            Snapshot s = getSnapshot();
+            rangeCheck(index, s.size);
+            int k = s.chunkOf(index);
+            int off = index - s.startOf(k);
+            Object[] chunk = s.chunks[k];
+            E oldValue = (E) chunk[off];
+            if (oldValue != element) {
+                chunk = chunk.clone();
+                chunk[off] = element;
+                Object[][] chunks = s.chunks.clone();
+                chunks[k] = chunk;
+                s = new Snapshot(chunks, s.ends, s.hints);
+            }
+            // 即使没有变化也要写一次volatile，保证happens-before
+            setSnapshot(s);
+            modCount++;
+            return oldValue;
+        }
+    }
+
+    @Override
+    public boolean add(E e) {
+        synchronized (lock) {
+            Snapshot s = getSnapshot();
+            Object[][] chunks = s.chunks;
+            int n = chunks.length;
+            if (n > 0 && chunks[n - 1].length < CHUNK_SIZE) {
+                Object[] last = chunks[n - 1];
+                last = Arrays.copyOf(last, last.length + 1);
+                last[last.length - 1] = e;
+                chunks = chunks.clone();
+                chunks[n - 1] = last;
+            } else {
+                chunks = Arrays.copyOf(chunks, n + 1);
+                chunks[n] = new Object[] { e };
+            }
+            setSnapshot(Snapshot.of(chunks));
+            modCount++;
+            return true;
+        }
+    }
+
+    /**
+     * 在所在的块中插入，超过上限时分成两块
+     */
+    @Override
+    public void add(int index, E element) {
+        synchronized (lock) {
+            Snapshot s = getSnapshot();
+            if (index < 0 || index > s.size)
+                throw new IndexOutOfBoundsException(CopyOnWriteArrayList.outOfBounds(index, s.size));
+            if (index == s.size) {
+                add(element);
+                return;
+            }
+            int k = s.chunkOf(index);
+            int off = index - s.startOf(k);
+            Object[] chunk = s.chunks[k];
+            int len = chunk.length;
+            Object[] grown = new Object[len + 1];
+            System.arraycopy(chunk, 0, grown, 0, off);
+            grown[off] = element;
+            System.arraycopy(chunk, off, grown, off + 1, len - off);
+            Object[][] chunks;
+            if (grown.length <= CHUNK_SIZE) {
+                chunks = s.chunks.clone();
+                chunks[k] = grown;
+            } else {
+                int half = grown.length >>> 1;
+                chunks = new Object[s.chunks.length + 1][];
+                System.arraycopy(s.chunks, 0, chunks, 0, k);
+                chunks[k] = Arrays.copyOfRange(grown, 0, half);
+                chunks[k + 1] = Arrays.copyOfRange(grown, half, grown.length);
+                System.arraycopy(s.chunks, k + 1, chunks, k + 2, s.chunks.length - k - 1);
+            }
+            setSnapshot(Snapshot.of(chunks));
+            modCount++;
+        }
+    }
+
+    @Override
+    public E remove(int index) {
+        synchronized (lock) {
+            Snapshot s = getSnapshot();
+            rangeCheck(index, s.size);
+            E oldValue = elementAt(s, index);
+            removeAt(s, index);
+            return oldValue;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> E elementAt(Snapshot s, int index) {
+        return (E) s.get(index);
+    }
+
+    /**
+     * 从所在的块中删除，块变空时从索引中去掉，
+     * 块小于CHUNK_SIZE / 4时与相邻的块合并，避免定位时经过太多小块
+     * 只有当持有锁时才会调用
+     */
+    private void removeAt(Snapshot s, int index) {
+        int k = s.chunkOf(index);
+        int off = index - s.startOf(k);
+        Object[] chunk = s.chunks[k];
+        int len = chunk.length;
+        Object[][] chunks;
+        if (len == 1) {
+            chunks = new Object[s.chunks.length - 1][];
+            System.arraycopy(s.chunks, 0, chunks, 0, k);
+            System.arraycopy(s.chunks, k + 1, chunks, k, chunks.length - k);
+        } else {
+            Object[] shrunk = new Object[len - 1];
+            System.arraycopy(chunk, 0, shrunk, 0, off);
+            System.arraycopy(chunk, off + 1, shrunk, off, len - off - 1);
+            // 与后一块或前一块合并
+            int m = -1;
+            if (shrunk.length < CHUNK_SIZE >>> 2) {
+                if (k + 1 < s.chunks.length
+                    && shrunk.length + s.chunks[k + 1].length <= CHUNK_SIZE)
+                    m = k;
+                else if (k > 0
+                    && shrunk.length + s.chunks[k - 1].length <= CHUNK_SIZE)
+                    m = k - 1;
+            }
+            if (m < 0) {
+                chunks = s.chunks.clone();
+                chunks[k] = shrunk;
+            } else {
+                Object[] a = (m == k) ? shrunk : s.chunks[m];
+                Object[] b = (m == k) ? s.chunks[k + 1] : shrunk;
+                Object[] merged = Arrays.copyOf(a, a.length + b.length);
+                System.arraycopy(b, 0, merged, a.length, b.length);
+                chunks = new Object[s.chunks.length - 1][];
+                System.arraycopy(s.chunks, 0, chunks, 0, m);
+                chunks[m] = merged;
+                System.arraycopy(s.chunks, m + 2, chunks, m + 1, chunks.length - m - 1);
+            }
+        }
+        setSnapshot(Snapshot.of(chunks));
+        modCount++;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        synchronized (lock) {
+            Snapshot s = getSnapshot();
+            int index = indexOf(s, o);
+            if (index < 0)
+                return false;
+            removeAt(s, index);
+            return true;
+        }
+    }
+
+    /**
+     * 先填满最后一块，剩下的切成新的满块
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        Object[] cs = c.toArray();
+        if (cs.length == 0)
+            return false;
+        synchronized (lock) {
+            Snapshot s = getSnapshot();
+            Object[][] chunks = s.chunks;
+            int n = chunks.length;
+            int from = 0;
+            Object[] last = null;
+            if (n > 0 && chunks[n - 1].length < CHUNK_SIZE) {
+                Object[] old = chunks[n - 1];
+                int fill = Math.min(CHUNK_SIZE - old.length, cs.length);
+                last = Arrays.copyOf(old, old.length + fill);
+                System.arraycopy(cs, 0, last, old.length, fill);
+                from = fill;
+                n--;
+            }
+            int rest = cs.length - from;
+            int extra = (rest + CHUNK_MASK) >>> CHUNK_SHIFT;
+            Object[][] newChunks = Arrays.copyOf(chunks, n + (last != null ? 1 : 0) + extra);
+            int k = n;
+            if (last != null)
+                newChunks[k++] = last;
+            for (; from < cs.length; from += CHUNK_SIZE)
+                newChunks[k++] = Arrays.copyOfRange(cs, from, Math.min(cs.length, from + CHUNK_SIZE), Object[].class);
+            setSnapshot(Snapshot.of(newChunks));
+            modCount++;
+            return true;
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (lock) {
+            setSnapshot(EMPTY);
+            modCount++;
+        }
+    }
+
+    private static int indexOf(Snapshot s, Object o) {
+        int base = 0;
+        for (Object[] chunk : s.chunks) {
+            for (int i = 0; i < chunk.length; i++)
+                if (Objects.equals(o, chunk[i]))
+                    return base + i;
+            base += chunk.length;
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return indexOf(getSnapshot(), o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        Snapshot s = getSnapshot();
+        Object[][] chunks = s.chunks;
+        for (int k = chunks.length - 1; k >= 0; k--) {
+            Object[] chunk = chunks[k];
+            for (int i = chunk.length - 1; i >= 0; i--)
+                if (Objects.equals(o, chunk[i]))
+                    return s.startOf(k) + i;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public Object[] toArray() {
+        Snapshot s = getSnapshot();
+        Object[] a = new Object[s.size];
+        int base = 0;
+        for (Object[] chunk : s.chunks) {
+            System.arraycopy(chunk, 0, a, base, chunk.length);
+            base += chunk.length;
+        }
+        return a;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        Object[] es = toArray();
+        if (a.length < es.length)
+            return (T[]) Arrays.copyOf(es, es.length, a.getClass());
+        System.arraycopy(es, 0, a, 0, es.length);
+        if (a.length > es.length)
+            a[es.length] = null;
+        return a;
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        Objects.requireNonNull(action);
+        for (Object[] chunk : getSnapshot().chunks)
+            for (Object x : chunk) {
+                @SuppressWarnings("unchecked") E e = (E) x;
+                action.accept(e);
+            }
+    }
+
+    /**
+     * 只复制有元素变化的块
+     */
+    @Override
+    public void replaceAll(UnaryOperator<E> operator) {
+        Objects.requireNonNull(operator);
+        synchronized (lock) {
+            Snapshot s = getSnapshot();
+            Object[][] chunks = s.chunks.clone();
+            for (int k = 0; k < chunks.length; k++) {
+                Object[] chunk = chunks[k];
+                Object[] copy = null;
+                for (int i = 0; i < chunk.length; i++) {
+                    @SuppressWarnings("unchecked") E e = (E) chunk[i];
+                    E r = operator.apply(e);
+                    if (r != e) {
+                        if (copy == null)
+                            copy = chunk.clone();
+                        copy[i] = r;
+                    }
+                }
+                if (copy != null)
+                    chunks[k] = copy;
+            }
+            setSnapshot(new Snapshot(chunks, s.ends, s.hints));
+            modCount++;
+        }
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        Objects.requireNonNull(filter);
+        synchronized (lock) {
+            Snapshot s = getSnapshot();
+            ArrayList<Object[]> kept = new ArrayList<>(s.chunks.length);
+            boolean removed = false;
+            for (Object[] chunk : s.chunks) {
+                int w = 0;
+                Object[] copy = null;
+                for (int i = 0; i < chunk.length; i++) {
+                    @SuppressWarnings("unchecked") E e = (E) chunk[i];
+                    if (filter.test(e)) {
+                        if (copy == null)
+                            copy = chunk.clone();
+                    } else if (copy != null)
+                        copy[w++] = e;
+                    else
+                        w++;
+                }
+                if (copy == null)
+                    kept.add(chunk);
+                else {
+                    removed = true;
+                    if (w > 0)
+                        kept.add(Arrays.copyOf(copy, w));
+                }
+            }
+            if (removed) {
+                setSnapshot(Snapshot.of(compact(kept)));
+                modCount++;
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * 合并相邻的块，直到任何一块小于CHUNK_SIZE / 4时都不能再与相邻的块合并，
+     * 与removeAt的规则相同。不需要合并的块原样保留
+     */
+    static Object[][] compact(List<Object[]> chunks) {
+        final int small = CHUNK_SIZE >>> 2;
+        ArrayList<Object[]> out = new ArrayList<>(chunks.size());
+        int from = 0, len = 0;
+        for (int k = 0; k < chunks.size(); k++) {
+            int n = chunks.get(k).length;
+            if (k > from && len + n <= CHUNK_SIZE && (len < small || n < small)) {
+                len += n;
+                continue;
+            }
+            if (k > from)
+                out.add(concat(chunks, from, k, len));
+            from = k;
+            len = n;
+        }
+        if (chunks.size() > from)
+            out.add(concat(chunks, from, chunks.size(), len));
+        return out.toArray(new Object[0][]);
+    }
+
+    /**
+     * chunks[from, to)连接成一块，只有一块时不复制
+     */
+    private static Object[] concat(List<Object[]> chunks, int from, int to, int len) {
+        if (to - from == 1)
+            return chunks.get(from);
+        Object[] merged = new Object[len];
+        for (int k = from, pos = 0; k < to; k++) {
+            Object[] c = chunks.get(k);
+            System.arraycopy(c, 0, merged, pos, c.length);
+            pos += c.length;
+        }
+        return merged;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        return removeIf(e -> c.contains(e));
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        return removeIf(e -> !c.contains(e));
+    }
+
+    /**
+     * subList().clear()使用，重建所有块
+     */
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        synchronized (lock) {
+            Object[] es = toArray();
+            int len = es.length;
+            if (fromIndex < 0 || toIndex > len || toIndex < fromIndex)
+                throw new IndexOutOfBoundsException();
+            Object[] newElements = new Object[len - (toIndex - fromIndex)];
+            System.arraycopy(es, 0, newElements, 0, fromIndex);
+            System.arraycopy(es, toIndex, newElements, fromIndex, len - toIndex);
+            setSnapshot(build(newElements));
+            modCount++;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void sort(Comparator<? super E> c) {
+        synchronized (lock) {
+            Object[] es = toArray();
+            Arrays.sort(es, (Comparator<Object>) c);
+            setSnapshot(build(es));
+            modCount++;
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new COWChunkIterator<E>(getSnapshot(), 0);
+    }
+
+    @Override
+    public ListIterator<E> listIterator() {
+        return new COWChunkIterator<E>(getSnapshot(), 0);
+    }
+
+    @Override
+    public ListIterator<E> listIterator(int index) {
+        Snapshot s = getSnapshot();
+        if (index < 0 || index > s.size)
+            throw new IndexOutOfBoundsException(CopyOnWriteArrayList.outOfBounds(index, s.size));
+        return new COWChunkIterator<E>(s, index);
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        Snapshot s = getSnapshot();
+        return new COWChunkSpliterator<E>(s, 0, s.size,
+                CopyOnWriteArrayList.COWSpliterator.minSplit(s.size));
+    }
+
+    /**
+     * 基于镜像的Spliterator，按下标范围分割，遍历时逐块前进
+     */
+    static final class COWChunkSpliterator<E> implements Spliterator<E> {
+        private final Snapshot snapshot;
+        private int index;        // current index, modified on advance/split
+        private final int fence;  // one past last index
+        private final int minSplit;
+        /** tryAdvance使用的当前块和它的起始下标，分割后重新定位 */
+        private Object[] chunk;
+        private int chunkStart;
+
+        COWChunkSpliterator(Snapshot s, int origin, int fence, int minSplit) {
+            this.snapshot = s;
+            this.index = origin;
+            this.fence = fence;
+            this.minSplit = minSplit;
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            int lo = index, hi = fence;
+            if (hi - lo <= minSplit)
+                return null;
+            int mid = (lo + hi) >>> 1;
+            index = mid;
+            chunk = null;
+            return new COWChunkSpliterator<E>(snapshot, lo, mid, minSplit);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            int i = index, hi = fence;
+            index = hi;
+            if (i >= hi)
+                return;
+            final Snapshot s = snapshot;
+            int k = s.chunkOf(i);
+            int start = s.startOf(k);
+            for (;;) {
+                Object[] c = s.chunks[k++];
+                int end = Math.min(c.length, hi - start);
+                for (int off = i - start; off < end; off++)
+                    action.accept((E) c[off]);
+                if ((start += c.length) >= hi)
+                    break;
+                i = start;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            if (index >= fence)
+                return false;
+            Object[] c = chunk;
+            int off = index - chunkStart;
+            if (c == null || off >= c.length) {
+                int k = snapshot.chunkOf(index);
+                chunk = c = snapshot.chunks[k];
+                chunkStart = snapshot.startOf(k);
+                off = index - chunkStart;
+            }
+            index++;
+            action.accept((E) c[off]);
+            return true;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.IMMUTABLE | Spliterator.ORDERED
+                | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+    }
+
+    /**
+     * 基于镜像的迭代器，顺序遍历时逐块前进，不需要每次定位
+     */
+    static final class COWChunkIterator<E> implements ListIterator<E> {
+        private final Snapshot snapshot;
+        /** 下一次调用next返回的元素下标 */
+        private int cursor;
+        /** 当前块和它的起始下标 */
+        private Object[] chunk;
+        private int chunkIndex;
+        private int chunkStart;
+
+        COWChunkIterator(Snapshot s, int initialCursor) {
+            snapshot = s;
+            cursor = initialCursor;
+            if (s.chunks.length > 0)
+                moveTo(Math.min(initialCursor, s.size - 1));
+        }
+
+        private void moveTo(int index) {
+            int k = snapshot.chunkOf(index);
+            chunkIndex = k;
+            chunk = snapshot.chunks[k];
+            chunkStart = snapshot.startOf(k);
+        }
+
+        public boolean hasNext() {
+            return cursor < snapshot.size;
+        }
+
+        public boolean hasPrevious() {
+            return cursor > 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (! hasNext())
+                throw new NoSuchElementException();
+            int off = cursor - chunkStart;
+            if (off >= chunk.length) {
+                chunkStart += chunk.length;
+                chunk = snapshot.chunks[++chunkIndex];
+                off = 0;
+            } else if (off < 0) {
+                moveTo(cursor);
+                off = cursor - chunkStart;
+            }
+            cursor++;
+            return (E) chunk[off];
+        }
+
+        @SuppressWarnings("unchecked")
+        public E previous() {
+            if (! hasPrevious())
+                throw new NoSuchElementException();
+            int index = --cursor;
+            if (index < chunkStart || index - chunkStart >= chunk.length)
+                moveTo(index);
+            return (E) chunk[index - chunkStart];
+        }
+
+        public int nextIndex() {
+            return cursor;
+        }
+
+        public int previousIndex() {
+            return cursor - 1;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void set(E e) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void add(E e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            while (hasNext()) {
+                int off = cursor - chunkStart;
+                if (off >= chunk.length) {
+                    chunkStart += chunk.length;
+                    chunk = snapshot.chunks[++chunkIndex];
+                    off = 0;
+                } else if (off < 0) {
+                    moveTo(cursor);
+                    off = cursor - chunkStart;
+                }
+                final Object[] c = chunk;
+                for (int i = off; i < c.length; i++)
+                    action.accept((E) c[i]);
+                cursor = chunkStart + c.length;
+            }
+        }
+    }
+}
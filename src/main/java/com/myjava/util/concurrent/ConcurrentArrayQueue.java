@@ -0,0 +1,315 @@
+package com.myjava.util.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 左右各填充一个缓存行，避免producerIndex和consumerIndex与其他字段发生伪共享。
+ * JVM可能重排同一个类中的字段，但不会把父类的字段排到子类的字段之后，
+ * 所以填充字段和计数器分别放在继承链上的不同类中。
+ */
+abstract class ConcurrentArrayQueuePad0<E> extends AbstractQueue<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+abstract class ConcurrentArrayQueueProducerFields<E> extends ConcurrentArrayQueuePad0<E> {
+    /** 下一个要写入的位置，只增不减 */
+    volatile long producerIndex;
+
+    /**
+     * 生产者缓存的可写上限(consumerIndex + 容量)，只有超过它时才去读consumerIndex，
+     * 减少对消费者缓存行的访问
+     */
+    volatile long producerLimit;
+
+    final boolean casProducerIndex(long expect, long newValue) {
+        return PRODUCER_INDEX.weakCompareAndSet(this, expect, newValue);
+    }
+
+    final void soProducerIndex(long newValue) {
+        PRODUCER_INDEX.setRelease(this, newValue);
+    }
+
+    private static final VarHandle PRODUCER_INDEX;
+    static {
+        try {
+            PRODUCER_INDEX = MethodHandles.lookup().findVarHandle(
+                ConcurrentArrayQueueProducerFields.class, "producerIndex", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
+
+abstract class ConcurrentArrayQueuePad1<E> extends ConcurrentArrayQueueProducerFields<E> {
+    long p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class ConcurrentArrayQueueConsumerFields<E> extends ConcurrentArrayQueuePad1<E> {
+    /** 下一个要读取的位置，只增不减 */
+    volatile long consumerIndex;
+
+    final boolean casConsumerIndex(long expect, long newValue) {
+        return CONSUMER_INDEX.weakCompareAndSet(this, expect, newValue);
+    }
+
+    final void soConsumerIndex(long newValue) {
+        CONSUMER_INDEX.setRelease(this, newValue);
+    }
+
+    private static final VarHandle CONSUMER_INDEX;
+    static {
+        try {
+            CONSUMER_INDEX = MethodHandles.lookup().findVarHandle(
+                ConcurrentArrayQueueConsumerFields.class, "consumerIndex", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
+
+abstract class ConcurrentArrayQueuePad2<E> extends ConcurrentArrayQueueConsumerFields<E> {
+    long p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+/**
+ * 基于2的幂大小的环形数组的无锁有界队列的骨架实现。
+ *
+ * 子类只需要实现非阻塞的offer、poll、peek，以及挂起前重新检查用的
+ * {@link #isReadable}/{@link #isWritable}；阻塞方法在这里统一由
+ * {@link WaitStrategy}驱动：每次尝试失败就交给对应一侧的{@link WaitStrategy.Waiter}等待一轮，
+ * 子类在发布元素之后调用notEmpty.signal()，在释放槽位之后调用notFull.signal()。
+ *
+ * 迭代器是弱一致性的，只读，不支持remove；因为不能从环的中间删除元素，
+ * {@link #remove(Object)}同样不被支持。
+ */
+abstract class ConcurrentArrayQueue<E> extends ConcurrentArrayQueuePad2<E>
+    implements BlockingQueue<E> {
+
+    final Object[] buffer;
+
+    final int mask;
+
+    /** 等待非空的消费者 */
+    final WaitStrategy.Waiter notEmpty;
+
+    /** 等待非满的生产者 */
+    final WaitStrategy.Waiter notFull;
+
+    /** 避免每次阻塞都创建新的lambda */
+    private final BooleanSupplier readable = this::isReadable;
+
+    private final BooleanSupplier writable = this::isWritable;
+
+    /**
+     * @param capacity 向上取整为2的幂，至少为2
+     * @param waitStrategy 阻塞方法的等待策略
+     */
+    ConcurrentArrayQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalArgumentException();
+        int n = (capacity < 2) ? 2 : tableSizeFor(capacity);
+        buffer = new Object[n];
+        mask = n - 1;
+        notEmpty = waitStrategy.newWaiter();
+        notFull = waitStrategy.newWaiter();
+    }
+
+    static int tableSizeFor(int c) {
+        int n = -1 >>> Integer.numberOfLeadingZeros(c - 1);
+        return n + 1;
+    }
+
+    /**
+     * 实际的容量
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** 队头元素是否已经发布，必须是volatile读 */
+    abstract boolean isReadable();
+
+    /** 队尾槽位是否已经被释放，必须是volatile读 */
+    abstract boolean isWritable();
+
+    /**
+     * 如果pos位置的元素已经发布而且还没有被取走，返回它，否则返回null。
+     * 只被迭代器使用
+     */
+    abstract E elementAt(long pos);
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        for (int round = 0;;) {
+            if (offer(e))
+                return;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            round = notFull.idle(round, writable, false, 0L);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int round = 0;;) {
+            if (offer(e))
+                return true;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            long nanos = deadline - System.nanoTime();
+            if (nanos <= 0L)
+                return false;
+            round = notFull.idle(round, writable, true, nanos);
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        for (int round = 0;;) {
+            E e = poll();
+            if (e != null)
+                return e;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            round = notEmpty.idle(round, readable, false, 0L);
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int round = 0;;) {
+            E e = poll();
+            if (e != null)
+                return e;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            long nanos = deadline - System.nanoTime();
+            if (nanos <= 0L)
+                return null;
+            round = notEmpty.idle(round, readable, true, nanos);
+        }
+    }
+
+    /**
+     * 返回一个近似的元素个数，并发修改时只是一个估计值
+     */
+    @Override
+    public int size() {
+        for (;;) {
+            long before = consumerIndex;
+            long p = producerIndex;
+            long after = consumerIndex;
+            if (before == after) {
+                long size = p - after;
+                return (size < 0) ? 0 : (size > mask + 1) ? mask + 1 : (int) size;
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return consumerIndex == producerIndex;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity() - size();
+    }
+
+    /**
+     * 不支持从环的中间删除元素
+     *
+     * @throws UnsupportedOperationException 总是抛出
+     */
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        for (E e; n < maxElements && (e = poll()) != null; n++)
+            c.add(e);
+        return n;
+    }
+
+    /**
+     * 返回一个弱一致性的只读迭代器，按照队头到队尾的顺序遍历迭代器创建之后
+     * 仍然没有被取走的元素
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+    private class Itr implements Iterator<E> {
+        /** 下一个要检查的位置 */
+        private long cursor;
+
+        /** 创建迭代器时的producerIndex，之后入队的元素不再遍历 */
+        private final long end;
+
+        private E nextItem;
+
+        Itr() {
+            cursor = consumerIndex;
+            end = producerIndex;
+            advance();
+        }
+
+        /**
+         * 找到cursor之后第一个已经发布而且仍然在队列中的元素
+         */
+        private void advance() {
+            nextItem = null;
+            long pos = Math.max(cursor, consumerIndex);
+            for (; pos < end; pos++) {
+                E e = elementAt(pos);
+                if (e != null) {
+                    nextItem = e;
+                    pos++;
+                    break;
+                }
+            }
+            cursor = pos;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextItem != null;
+        }
+
+        @Override
+        public E next() {
+            final E e = nextItem;
+            if (e == null)
+                throw new NoSuchElementException();
+            advance();
+            return e;
+        }
+    }
+}
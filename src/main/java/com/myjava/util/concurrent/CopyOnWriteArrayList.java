@@ -1,6 +1,9 @@
 package com.myjava.util.concurrent;
 
+import java.lang.reflect.Field;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 
 /**
@@ -10,6 +13,9 @@ import java.util.function.UnaryOperator;
  * 数组在迭代器的生命周期中从不改变，所以会保证不抛出ConcurrentModificationException
  * 迭代器一旦创建就不会影响列表的增删改。而且迭代器上的remove，set和add是不被允许的
  * 这会抛出UnsupportedOperationException异常
+ *
+ * 每次修改都要复制整个数组，连续修改很多次时应该使用{@link #mutate}，
+ * 在一份私有的副本上完成所有修改，最后只发布一次
  */
 public class CopyOnWriteArrayList<E>
 implements List<E>, RandomAccess, Cloneable, java.io.Serializable {
@@ -32,7 +38,16 @@ implements List<E>, RandomAccess, Cloneable, java.io.Serializable {
     }
 
     public CopyOnWriteArrayList(Collection<? extends E> c) {
-        //doSomething
+        Object[] es;
+        if (c.getClass() == CopyOnWriteArrayList.class)
+            es = ((CopyOnWriteArrayList<?>)c).getArray();
+        else {
+            es = c.toArray();
+            // c.toArray可能不返回Object[]
+            if (es.getClass() != Object[].class)
+                es = Arrays.copyOf(es, es.length, Object[].class);
+        }
+        setArray(es);
     }
 
     public CopyOnWriteArrayList(E[] toCopyIn) {
@@ -41,117 +56,379 @@ implements List<E>, RandomAccess, Cloneable, java.io.Serializable {
 
     @Override
     public int size() {
-        return 0;
+        return getArray().length;
     }
 
     @Override
     public boolean isEmpty() {
-        return false;
+        return size() == 0;
+    }
+
+    /**
+     * 在es[from, to)中查找o，找不到返回-1
+     */
+    private static int indexOfRange(Object o, Object[] es, int from, int to) {
+        if (o == null) {
+            for (int i = from; i < to; i++)
+                if (es[i] == null)
+                    return i;
+        } else {
+            for (int i = from; i < to; i++)
+                if (o.equals(es[i]))
+                    return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 在es[from, to)中从后向前查找o，找不到返回-1
+     */
+    private static int lastIndexOfRange(Object o, Object[] es, int from, int to) {
+        if (o == null) {
+            for (int i = to - 1; i >= from; i--)
+                if (es[i] == null)
+                    return i;
+        } else {
+            for (int i = to - 1; i >= from; i--)
+                if (o.equals(es[i]))
+                    return i;
+        }
+        return -1;
     }
 
     @Override
     public boolean contains(Object o) {
-        return false;
+        return indexOf(o) >= 0;
     }
 
+    /**
+     * 返回一个创建时数组的镜像迭代器，不支持remove
+     */
     @Override
     public Iterator<E> iterator() {
-        return null;
+        return new COWIterator<E>(getArray(), 0);
     }
 
     @Override
     public Object[] toArray() {
-        return new Object[0];
+        return getArray().clone();
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T[] toArray(T[] a) {
-        return null;
+        Object[] es = getArray();
+        int len = es.length;
+        if (a.length < len)
+            return (T[]) Arrays.copyOf(es, len, a.getClass());
+        else {
+            System.arraycopy(es, 0, a, 0, len);
+            if (a.length > len)
+                a[len] = null;
+            return a;
+        }
     }
 
     @Override
     public boolean add(E e) {
-        return false;
+        synchronized (lock) {
+            Object[] es = getArray();
+            int len = es.length;
+            es = Arrays.copyOf(es, len + 1);
+            es[len] = e;
+            setArray(es);
+            return true;
+        }
     }
 
+    /**
+     * 删除第一个与o相等的元素
+     * 先在不加锁的镜像中查找，找到了再加锁确认
+     */
     @Override
     public boolean remove(Object o) {
-        return false;
+        Object[] snapshot = getArray();
+        int index = indexOfRange(o, snapshot, 0, snapshot.length);
+        return index >= 0 && remove(o, snapshot, index);
+    }
+
+    /**
+     * 在镜像snapshot的index处找到了o，加锁后如果数组已经变了就重新确认
+     */
+    private boolean remove(Object o, Object[] snapshot, int index) {
+        synchronized (lock) {
+            Object[] current = getArray();
+            int len = current.length;
+            if (snapshot != current) findIndex: {
+                int prefix = Math.min(index, len);
+                for (int i = 0; i < prefix; i++) {
+                    if (current[i] != snapshot[i]
+                        && Objects.equals(o, current[i])) {
+                        index = i;
+                        break findIndex;
+                    }
+                }
+                if (index >= len)
+                    return false;
+                if (current[index] == o)
+                    break findIndex;
+                index = indexOfRange(o, current, index, len);
+                if (index < 0)
+                    return false;
+            }
+            Object[] newElements = new Object[len - 1];
+            System.arraycopy(current, 0, newElements, 0, index);
+            System.arraycopy(current, index + 1,
+                             newElements, index,
+                             len - index - 1);
+            setArray(newElements);
+            return true;
+        }
     }
 
     @Override
     public boolean containsAll(Collection<?> c) {
-        return false;
+        Object[] es = getArray();
+        int len = es.length;
+        for (Object e : c) {
+            if (indexOfRange(e, es, 0, len) < 0)
+                return false;
+        }
+        return true;
     }
 
     @Override
     public boolean addAll(Collection<? extends E> c) {
-        return false;
+        Object[] cs = (c.getClass() == CopyOnWriteArrayList.class) ?
+            ((CopyOnWriteArrayList<?>)c).getArray() : c.toArray();
+        if (cs.length == 0)
+            return false;
+        synchronized (lock) {
+            Object[] es = getArray();
+            int len = es.length;
+            Object[] newElements;
+            if (len == 0 && cs.getClass() == Object[].class)
+                newElements = cs;
+            else {
+                newElements = Arrays.copyOf(es, len + cs.length);
+                System.arraycopy(cs, 0, newElements, len, cs.length);
+            }
+            setArray(newElements);
+            return true;
+        }
     }
 
     @Override
     public boolean addAll(int index, Collection<? extends E> c) {
-        return false;
+        Object[] cs = c.toArray();
+        synchronized (lock) {
+            Object[] es = getArray();
+            int len = es.length;
+            if (index > len || index < 0)
+                throw new IndexOutOfBoundsException(outOfBounds(index, len));
+            if (cs.length == 0)
+                return false;
+            int numMoved = len - index;
+            Object[] newElements;
+            if (numMoved == 0)
+                newElements = Arrays.copyOf(es, len + cs.length);
+            else {
+                newElements = new Object[len + cs.length];
+                System.arraycopy(es, 0, newElements, 0, index);
+                System.arraycopy(es, index,
+                                 newElements, index + cs.length,
+                                 numMoved);
+            }
+            System.arraycopy(cs, 0, newElements, index, cs.length);
+            setArray(newElements);
+            return true;
+        }
     }
 
     @Override
     public boolean removeAll(Collection<?> c) {
-        return false;
+        Objects.requireNonNull(c);
+        return bulkRemove(e -> c.contains(e));
     }
 
     @Override
     public boolean retainAll(Collection<?> c) {
-        return false;
+        Objects.requireNonNull(c);
+        return bulkRemove(e -> !c.contains(e));
     }
 
     @Override
-    public void clear() {
+    public boolean removeIf(Predicate<? super E> filter) {
+        Objects.requireNonNull(filter);
+        return bulkRemove(filter);
+    }
 
+    private boolean bulkRemove(Predicate<? super E> filter) {
+        synchronized (lock) {
+            return bulkRemove(filter, 0, getArray().length);
+        }
+    }
+
+    /**
+     * 删除[i, end)中满足filter的元素，只复制一次数组
+     * 只有当持有锁时才会调用
+     */
+    boolean bulkRemove(Predicate<? super E> filter, int i, int end) {
+        assert Thread.holdsLock(lock);
+        final Object[] es = getArray();
+        // 找到第一个要删除的元素，没有则不需要复制
+        for (; i < end && !filter.test(elementAt(es, i)); i++)
+            ;
+        if (i < end) {
+            final int beg = i;
+            final long[] deathRow = nBits(end - beg);
+            int deleted = 1;
+            deathRow[0] = 1L;   // set bit 0
+            for (i = beg + 1; i < end; i++)
+                if (filter.test(elementAt(es, i))) {
+                    setBit(deathRow, i - beg);
+                    deleted++;
+                }
+            // filter执行期间数组被修改了
+            if (es != getArray())
+                throw new ConcurrentModificationException();
+            final Object[] newElts = Arrays.copyOf(es, es.length - deleted);
+            int w = beg;
+            for (i = beg; i < end; i++)
+                if (isClear(deathRow, i - beg))
+                    newElts[w++] = es[i];
+            System.arraycopy(es, i, newElts, w, es.length - i);
+            setArray(newElts);
+            return true;
+        } else {
+            if (es != getArray())
+                throw new ConcurrentModificationException();
+            return false;
+        }
+    }
+
+    private static long[] nBits(int n) {
+        return new long[((n - 1) >> 6) + 1];
+    }
+    private static void setBit(long[] bits, int i) {
+        bits[i >> 6] |= 1L << i;
+    }
+    private static boolean isClear(long[] bits, int i) {
+        return (bits[i >> 6] & (1L << i)) == 0;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (lock) {
+            setArray(new Object[0]);
+        }
     }
 
     @Override
     public E get(int index) {
-        return null;
+        return elementAt(getArray(), index);
     }
 
     @Override
     public E set(int index, E element) {
-        return null;
+        synchronized (lock) {
+            Object[] es = getArray();
+            E oldValue = elementAt(es, index);
+
+            if (oldValue != element) {
+                es = es.clone();
+                es[index] = element;
+            }
+            // 即使没有变化也要写一次volatile，保证happens-before
+            setArray(es);
+            return oldValue;
+        }
     }
 
     @Override
     public void add(int index, E element) {
-
+        synchronized (lock) {
+            Object[] es = getArray();
+            int len = es.length;
+            if (index > len || index < 0)
+                throw new IndexOutOfBoundsException(outOfBounds(index, len));
+            Object[] newElements;
+            int numMoved = len - index;
+            if (numMoved == 0)
+                newElements = Arrays.copyOf(es, len + 1);
+            else {
+                newElements = new Object[len + 1];
+                System.arraycopy(es, 0, newElements, 0, index);
+                System.arraycopy(es, index, newElements, index + 1,
+                                 numMoved);
+            }
+            newElements[index] = element;
+            setArray(newElements);
+        }
     }
 
     @Override
     public E remove(int index) {
-        return null;
+        synchronized (lock) {
+            Object[] es = getArray();
+            int len = es.length;
+            E oldValue = elementAt(es, index);
+            int numMoved = len - index - 1;
+            Object[] newElements;
+            if (numMoved == 0)
+                newElements = Arrays.copyOf(es, len - 1);
+            else {
+                newElements = new Object[len - 1];
+                System.arraycopy(es, 0, newElements, 0, index);
+                System.arraycopy(es, index + 1, newElements, index,
+                                 numMoved);
+            }
+            setArray(newElements);
+            return oldValue;
+        }
     }
 
     @Override
     public int indexOf(Object o) {
-        return 0;
+        Object[] es = getArray();
+        return indexOfRange(o, es, 0, es.length);
     }
 
     @Override
     public int lastIndexOf(Object o) {
-        return 0;
+        Object[] es = getArray();
+        return lastIndexOfRange(o, es, 0, es.length);
     }
 
     @Override
     public ListIterator<E> listIterator() {
-        return null;
+        return new COWIterator<E>(getArray(), 0);
     }
 
     @Override
     public ListIterator<E> listIterator(int index) {
-        return null;
+        Object[] es = getArray();
+        int len = es.length;
+        if (index < 0 || index > len)
+            throw new IndexOutOfBoundsException(outOfBounds(index, len));
+
+        return new COWIterator<E>(es, index);
     }
 
+    /**
+     * 返回[fromIndex, toIndex)的视图。通过视图的修改会反映到列表上，
+     * 但是如果列表被不经过这个视图修改了，视图上的操作会抛出ConcurrentModificationException
+     */
     @Override
     public List<E> subList(int fromIndex, int toIndex) {
-        return null;
+        synchronized (lock) {
+            Object[] es = getArray();
+            int len = es.length;
+            int size = toIndex - fromIndex;
+            if (fromIndex < 0 || toIndex > len || size < 0)
+                throw new IndexOutOfBoundsException();
+            return new COWSubList(es, fromIndex, size);
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -159,8 +436,20 @@ implements List<E>, RandomAccess, Cloneable, java.io.Serializable {
         return (E) a[index];
     }
 
-    public void replaceAll(UnaryOperator<E> operator) {
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        Objects.requireNonNull(action);
+        for (Object x : getArray()) {
+            @SuppressWarnings("unchecked") E e = (E) x;
+            action.accept(e);
+        }
+    }
 
+    public void replaceAll(UnaryOperator<E> operator) {
+        Objects.requireNonNull(operator);
+        synchronized (lock) {
+            replaceAll(operator, 0, getArray().length);
+        }
     }
 
     void replaceAll(UnaryOperator<E> operator, int i, int end) {
@@ -173,15 +462,48 @@ implements List<E>, RandomAccess, Cloneable, java.io.Serializable {
 
     @Override
     public void sort(Comparator<? super E> c) {
+        synchronized (lock) {
+            sort(c, 0, getArray().length);
+        }
     }
 
     @SuppressWarnings("unchecked")
     void sort(Comparator<? super E> c, int i, int end) {
+        assert Thread.holdsLock(lock);
         final Object[] es = getArray().clone();
         Arrays.sort(es, i, end, (Comparator<Object>)c);
         setArray(es);
     }
 
+    /**
+     * 在一份私有的副本上批量修改，最后只用一次setArray发布。
+     *
+     * action在持有锁期间执行，得到的是一个普通的可变List，可以任意地
+     * add、remove、set；action执行期间其他线程读到的仍然是修改之前的数组，
+     * 写线程会被阻塞。action抛出异常时不发布任何修改。
+     * 连续修改k次只需要O(n + k)，而不是逐个修改的O(n * k)。
+     * action不能在返回之后继续使用这个List，之后的修改不会反映到列表上。
+     *
+     * 锁是可重入的，action中直接修改这个列表(而不是副本)不会被阻塞，但会被最后的发布覆盖。
+     * 所以发布之前检查数组是否还是开始时的那个，不是时抛出异常，副本上的修改不发布，
+     * 直接的修改已经生效
+     *
+     * @param action 对副本的修改
+     * @throws ConcurrentModificationException action直接修改了这个列表
+     */
+    public void mutate(Consumer<? super List<E>> action) {
+        Objects.requireNonNull(action);
+        synchronized (lock) {
+            Object[] es = getArray();
+            @SuppressWarnings("unchecked")
+            List<E> work = new ArrayList<>((List<E>) Arrays.asList(es));
+            action.accept(work);
+            if (getArray() != es)
+                throw new ConcurrentModificationException("list modified directly inside mutate");
+            setArray(work.toArray());
+        }
+    }
+
     /**
      * 当spliterator被构建时Spliterator提供了列表的状态的镜像
      * 当操作时没有进行同步
@@ -189,21 +511,82 @@ implements List<E>, RandomAccess, Cloneable, java.io.Serializable {
      */
     @Override
     public Spliterator<E> spliterator() {
-        return Spliterators.spliterator(
-                getArray(), Spliterator.IMMUTABLE | Spliterator.ORDERED);
+        Object[] es = getArray();
+        return new COWSpliterator<E>(es, 0, es.length);
     }
 
-    public int indexOf(E e, int index) { return 0; }
+    /**
+     * 从index开始向后查找e，找不到返回-1
+     */
+    public int indexOf(E e, int index) {
+        Object[] es = getArray();
+        return indexOfRange(e, es, index, es.length);
+    }
 
-    public int lastIndexOf(E e, int index) { return 0; }
+    /**
+     * 从index开始向前查找e，找不到返回-1
+     */
+    public int lastIndexOf(E e, int index) {
+        Object[] es = getArray();
+        return lastIndexOfRange(e, es, 0, index + 1);
+    }
 
+    /**
+     * 不存在时才添加
+     * 先在不加锁的镜像中查找，没找到再加锁确认
+     */
     public boolean addIfAbsent(E e) {
-        return false;
+        Object[] snapshot = getArray();
+        return indexOfRange(e, snapshot, 0, snapshot.length) < 0
+            && addIfAbsent(e, snapshot);
+    }
+
+    private boolean addIfAbsent(E e, Object[] snapshot) {
+        synchronized (lock) {
+            Object[] current = getArray();
+            int len = current.length;
+            if (snapshot != current) {
+                // 只需要检查镜像之后变化的部分
+                int common = Math.min(snapshot.length, len);
+                for (int i = 0; i < common; i++)
+                    if (current[i] != snapshot[i]
+                        && Objects.equals(e, current[i]))
+                        return false;
+                if (indexOfRange(e, current, common, len) >= 0)
+                        return false;
+            }
+            Object[] newElements = Arrays.copyOf(current, len + 1);
+            newElements[len] = e;
+            setArray(newElements);
+            return true;
+        }
     }
 
+    /**
+     * 把c中列表里还没有的元素按顺序添加到末尾，返回添加的个数
+     */
     public int addAllAbsent(Collection<? extends E> c) {
-        //doSomething
-        return 0;
+        Object[] cs = c.toArray();
+        if (cs.length == 0)
+            return 0;
+        synchronized (lock) {
+            Object[] es = getArray();
+            int len = es.length;
+            int added = 0;
+            // 就地去重，并且去掉已经在列表中的元素
+            for (int i = 0; i < cs.length; ++i) {
+                Object e = cs[i];
+                if (indexOfRange(e, es, 0, len) < 0 &&
+                    indexOfRange(e, cs, 0, added) < 0)
+                    cs[added++] = e;
+            }
+            if (added > 0) {
+                Object[] newElements = Arrays.copyOf(es, len + added);
+                System.arraycopy(cs, 0, newElements, len, added);
+                setArray(newElements);
+            }
+            return added;
+        }
     }
 
     static String outOfBounds(int index, int size) {
@@ -211,9 +594,568 @@ implements List<E>, RandomAccess, Cloneable, java.io.Serializable {
     }
 
     void removeRange(int fromIndex, int toIndex) {
-        //doSomething
+        synchronized (lock) {
+            Object[] es = getArray();
+            int len = es.length;
+
+            if (fromIndex < 0 || toIndex > len || toIndex < fromIndex)
+                throw new IndexOutOfBoundsException();
+            int newlen = len - (toIndex - fromIndex);
+            int numMoved = len - toIndex;
+            if (numMoved == 0)
+                setArray(Arrays.copyOf(es, newlen));
+            else {
+                Object[] newElements = new Object[newlen];
+                System.arraycopy(es, 0, newElements, 0, fromIndex);
+                System.arraycopy(es, toIndex, newElements,
+                                 fromIndex, numMoved);
+                setArray(newElements);
+            }
+        }
+    }
+
+    @Override
+    public Object clone() {
+        try {
+            @SuppressWarnings("unchecked")
+            CopyOnWriteArrayList<E> clone =
+                (CopyOnWriteArrayList<E>) super.clone();
+            clone.resetLock();
+            // 克隆体与原列表共享数组，修改时各自复制
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(getArray());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof List))
+            return false;
+
+        List<?> list = (List<?>)o;
+        Iterator<?> it = list.iterator();
+        for (Object element : getArray())
+            if (!it.hasNext() || !Objects.equals(element, it.next()))
+                return false;
+        return !it.hasNext();
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = 1;
+        for (Object x : getArray())
+            hashCode = 31 * hashCode + (x == null ? 0 : x.hashCode());
+        return hashCode;
+    }
+
+    /**
+     * 先写数组长度，再依次写每个元素
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+        throws java.io.IOException {
+
+        s.defaultWriteObject();
+
+        Object[] es = getArray();
+        s.writeInt(es.length);
+
+        for (Object element : es)
+            s.writeObject(element);
+    }
+
+    private void readObject(java.io.ObjectInputStream s)
+        throws java.io.IOException, ClassNotFoundException {
+
+        s.defaultReadObject();
+
+        // lock是transient final的，反序列化后需要重新设置
+        resetLock();
+
+        int len = s.readInt();
+        Object[] es = new Object[len];
+
+        for (int i = 0; i < len; i++)
+            es[i] = s.readObject();
+        setArray(es);
+    }
+
+    /**
+     * 克隆和反序列化时重新设置final的lock
+     */
+    private void resetLock() {
+        try {
+            Field f = CopyOnWriteArrayList.class.getDeclaredField("lock");
+            f.setAccessible(true);
+            f.set(this, new Object());
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * 基于数组镜像的迭代器
+     */
+    static final class COWIterator<E> implements ListIterator<E> {
+        /** 数组的镜像 */
+        private final Object[] snapshot;
+        /** 下一次调用next返回的元素下标 */
+        private int cursor;
+
+        COWIterator(Object[] es, int initialCursor) {
+            cursor = initialCursor;
+            snapshot = es;
+        }
+
+        public boolean hasNext() {
+            return cursor < snapshot.length;
+        }
+
+        public boolean hasPrevious() {
+            return cursor > 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (! hasNext())
+                throw new NoSuchElementException();
+            return (E) snapshot[cursor++];
+        }
+
+        @SuppressWarnings("unchecked")
+        public E previous() {
+            if (! hasPrevious())
+                throw new NoSuchElementException();
+            return (E) snapshot[--cursor];
+        }
+
+        public int nextIndex() {
+            return cursor;
+        }
+
+        public int previousIndex() {
+            return cursor - 1;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void set(E e) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void add(E e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            final int size = snapshot.length;
+            int i = cursor;
+            cursor = size;
+            for (; i < size; i++)
+                action.accept((E) snapshot[i]);
+        }
+    }
+
+    /**
+     * 基于数组镜像的Spliterator。
+     *
+     * trySplit每次把剩余部分从中间一分为二，左右两半的大小最多相差1，
+     * 所以并行流得到的是一棵平衡的任务树。剩余元素不超过minSplit时不再分割：
+     * minSplit在创建时根据镜像大小和公共ForkJoinPool的并行度确定，
+     * 大约让每个工作线程分到4块，但不小于{@value #MIN_SPLIT}个元素，
+     * 避免在小数组上产生大量细粒度的任务。分割出的子Spliterator沿用同一个minSplit。
+     */
+    static final class COWSpliterator<E> implements Spliterator<E> {
+        /** 每块至少的元素个数 */
+        static final int MIN_SPLIT = 1 << 10;
+
+        private final Object[] array;
+        private int index;        // current index, modified on advance/split
+        private final int fence;  // one past last index
+        private final int minSplit;
+
+        COWSpliterator(Object[] array, int origin, int fence) {
+            this(array, origin, fence, minSplit(fence - origin));
+        }
+
+        private COWSpliterator(Object[] array, int origin, int fence, int minSplit) {
+            this.array = array;
+            this.index = origin;
+            this.fence = fence;
+            this.minSplit = minSplit;
+        }
+
+        static int minSplit(int size) {
+            int parallelism = java.util.concurrent.ForkJoinPool.getCommonPoolParallelism();
+            return Math.max(MIN_SPLIT, size / (parallelism << 2));
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            int lo = index, hi = fence;
+            if (hi - lo <= minSplit)
+                return null;
+            int mid = (lo + hi) >>> 1;
+            index = mid;
+            return new COWSpliterator<E>(array, lo, mid, minSplit);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            // 先检查一次范围，循环中就不需要再检查
+            final Object[] a = array;
+            int i = index, hi = fence;
+            index = hi;
+            if (a.length >= hi && i >= 0 && i < hi) {
+                do {
+                    action.accept((E) a[i]);
+                } while (++i < hi);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            if (index >= 0 && index < fence) {
+                E e = (E) array[index++];
+                action.accept(e);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.IMMUTABLE | Spliterator.ORDERED
+                | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+    }
+
+    /**
+     * subList的实现。每次操作前检查数组是否还是创建或上次修改时的那个，
+     * 不是说明列表被其他途径修改了
+     */
+    private class COWSubList extends AbstractList<E> implements RandomAccess {
+        private final int offset;
+        private int size;
+        private Object[] expectedArray;
+
+        COWSubList(Object[] es, int offset, int size) {
+            // assert Thread.holdsLock(lock);
+            expectedArray = es;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        private void checkForComodification() {
+            // assert Thread.holdsLock(lock);
+            if (getArray() != expectedArray)
+                throw new ConcurrentModificationException();
+        }
+
+        private Object[] getArrayChecked() {
+            // assert Thread.holdsLock(lock);
+            Object[] a = getArray();
+            if (a != expectedArray)
+                throw new ConcurrentModificationException();
+            return a;
+        }
+
+        private void rangeCheck(int index) {
+            // assert Thread.holdsLock(lock);
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException(outOfBounds(index, size));
+        }
+
+        private void rangeCheckForAdd(int index) {
+            // assert Thread.holdsLock(lock);
+            if (index < 0 || index > size)
+                throw new IndexOutOfBoundsException(outOfBounds(index, size));
+        }
+
+        public Object[] toArray() {
+            final Object[] es;
+            final int offset;
+            final int size;
+            synchronized (lock) {
+                es = getArrayChecked();
+                offset = this.offset;
+                size = this.size;
+            }
+            return Arrays.copyOfRange(es, offset, offset + size);
+        }
+
+        public E set(int index, E element) {
+            synchronized (lock) {
+                rangeCheck(index);
+                checkForComodification();
+                E x = CopyOnWriteArrayList.this.set(offset + index, element);
+                expectedArray = getArray();
+                return x;
+            }
+        }
+
+        public E get(int index) {
+            synchronized (lock) {
+                rangeCheck(index);
+                checkForComodification();
+                return CopyOnWriteArrayList.this.get(offset + index);
+            }
+        }
+
+        public int size() {
+            synchronized (lock) {
+                checkForComodification();
+                return size;
+            }
+        }
+
+        public boolean add(E element) {
+            synchronized (lock) {
+                checkForComodification();
+                CopyOnWriteArrayList.this.add(offset + size, element);
+                expectedArray = getArray();
+                size++;
+            }
+            return true;
+        }
+
+        public void add(int index, E element) {
+            synchronized (lock) {
+                checkForComodification();
+                rangeCheckForAdd(index);
+                CopyOnWriteArrayList.this.add(offset + index, element);
+                expectedArray = getArray();
+                size++;
+            }
+        }
+
+        public boolean addAll(Collection<? extends E> c) {
+            synchronized (lock) {
+                final Object[] oldArray = getArrayChecked();
+                boolean modified =
+                    CopyOnWriteArrayList.this.addAll(offset + size, c);
+                size += (expectedArray = getArray()).length - oldArray.length;
+                return modified;
+            }
+        }
+
+        public boolean addAll(int index, Collection<? extends E> c) {
+            synchronized (lock) {
+                rangeCheckForAdd(index);
+                final Object[] oldArray = getArrayChecked();
+                boolean modified =
+                    CopyOnWriteArrayList.this.addAll(offset + index, c);
+                size += (expectedArray = getArray()).length - oldArray.length;
+                return modified;
+            }
+        }
+
+        public void clear() {
+            synchronized (lock) {
+                checkForComodification();
+                CopyOnWriteArrayList.this.removeRange(offset, offset + size);
+                expectedArray = getArray();
+                size = 0;
+            }
+        }
+
+        public E remove(int index) {
+            synchronized (lock) {
+                rangeCheck(index);
+                checkForComodification();
+                E result = CopyOnWriteArrayList.this.remove(offset + index);
+                expectedArray = getArray();
+                size--;
+                return result;
+            }
+        }
+
+        public boolean remove(Object o) {
+            synchronized (lock) {
+                checkForComodification();
+                int index = indexOfRange(o, expectedArray, offset, offset + size);
+                if (index < 0)
+                    return false;
+                CopyOnWriteArrayList.this.remove(index);
+                expectedArray = getArray();
+                size--;
+                return true;
+            }
+        }
+
+        public Iterator<E> iterator() {
+            return listIterator(0);
+        }
+
+        public ListIterator<E> listIterator() {
+            return listIterator(0);
+        }
+
+        public ListIterator<E> listIterator(int index) {
+            synchronized (lock) {
+                checkForComodification();
+                rangeCheckForAdd(index);
+                return new COWSubListIterator<E>(
+                    CopyOnWriteArrayList.this, index, offset, size);
+            }
+        }
+
+        public List<E> subList(int fromIndex, int toIndex) {
+            synchronized (lock) {
+                checkForComodification();
+                if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+                    throw new IndexOutOfBoundsException();
+                return new COWSubList(expectedArray, fromIndex + offset, toIndex - fromIndex);
+            }
+        }
+
+        public void forEach(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            int i, end; final Object[] es;
+            synchronized (lock) {
+                es = getArrayChecked();
+                i = offset;
+                end = i + size;
+            }
+            for (; i < end; i++)
+                action.accept(elementAt(es, i));
+        }
+
+        public void replaceAll(UnaryOperator<E> operator) {
+            Objects.requireNonNull(operator);
+            synchronized (lock) {
+                checkForComodification();
+                CopyOnWriteArrayList.this.replaceAll(operator, offset, offset + size);
+                expectedArray = getArray();
+            }
+        }
+
+        public void sort(Comparator<? super E> c) {
+            synchronized (lock) {
+                checkForComodification();
+                CopyOnWriteArrayList.this.sort(c, offset, offset + size);
+                expectedArray = getArray();
+            }
+        }
+
+        public boolean removeAll(Collection<?> c) {
+            Objects.requireNonNull(c);
+            return bulkRemove(e -> c.contains(e));
+        }
+
+        public boolean retainAll(Collection<?> c) {
+            Objects.requireNonNull(c);
+            return bulkRemove(e -> !c.contains(e));
+        }
+
+        public boolean removeIf(Predicate<? super E> filter) {
+            Objects.requireNonNull(filter);
+            return bulkRemove(filter);
+        }
+
+        private boolean bulkRemove(Predicate<? super E> filter) {
+            synchronized (lock) {
+                final Object[] oldArray = getArrayChecked();
+                boolean modified = CopyOnWriteArrayList.this.bulkRemove(
+                    filter, offset, offset + size);
+                size += (expectedArray = getArray()).length - oldArray.length;
+                return modified;
+            }
+        }
+
+        public Spliterator<E> spliterator() {
+            synchronized (lock) {
+                return new COWSpliterator<E>(getArrayChecked(), offset, offset + size);
+            }
+        }
+
     }
 
+    /**
+     * subList的迭代器，基于父列表的镜像
+     */
+    private static class COWSubListIterator<E> implements ListIterator<E> {
+        private final ListIterator<E> it;
+        private final int offset;
+        private final int size;
+
+        COWSubListIterator(List<E> l, int index, int offset, int size) {
+            this.offset = offset;
+            this.size = size;
+            it = l.listIterator(index + offset);
+        }
+
+        public boolean hasNext() {
+            return nextIndex() < size;
+        }
+
+        public E next() {
+            if (hasNext())
+                return it.next();
+            else
+                throw new NoSuchElementException();
+        }
+
+        public boolean hasPrevious() {
+            return previousIndex() >= 0;
+        }
+
+        public E previous() {
+            if (hasPrevious())
+                return it.previous();
+            else
+                throw new NoSuchElementException();
+        }
 
+        public int nextIndex() {
+            return it.nextIndex() - offset;
+        }
 
+        public int previousIndex() {
+            return it.previousIndex() - offset;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void set(E e) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void add(E e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            while (hasNext()) {
+                action.accept(it.next());
+            }
+        }
+    }
 }
@@ -16,8 +16,28 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
 public class DelayQueue<E extends Delayed> extends AbstractQueue<E>
         implements BlockingQueue<E> {
 
+    /**
+     * 可以记录自己在堆中下标的元素，就像ScheduledFutureTask.heapIndex一样。
+     * 这样的元素remove和contains不需要遍历整个堆，同一时刻只能属于一个队列。
+     * 不在队列中时下标为-1
+     */
+    public interface HeapIndexed extends Delayed {
+        int getHeapIndex();
+
+        void setHeapIndex(int index);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
     private final transient ReentrantLock lock = new ReentrantLock();
-    private final PriorityQueue<E> q = new PriorityQueue<>();
+
+    /**
+     * 按照compareTo排列的二叉堆，queue[0]是最早到期的元素。
+     * 取代了PriorityQueue，这样sift时可以顺便更新HeapIndexed元素的下标
+     */
+    private Object[] queue = new Object[INITIAL_CAPACITY];
+
+    private int size;
 
     /**
      * 用来等待队列头部的元素的线程。这种类似Leader-Follower的设计模式是为了最小化不必要的等待时间。
@@ -31,53 +51,228 @@ public class DelayQueue<E extends Delayed> extends AbstractQueue<E>
 
     public DelayQueue() {}
 
+    public DelayQueue(Collection<? extends E> c) {
+        this.addAll(c);
+    }
+
+    /**
+     * 如果是HeapIndexed元素，记录它的下标
+     */
+    private static void setIndex(Object x, int i) {
+        if (x instanceof HeapIndexed)
+            ((HeapIndexed) x).setHeapIndex(i);
+    }
+
+    /**
+     * 把元素x从下标k向上调整
+     * 只有当持有锁时才会调用
+     */
+    @SuppressWarnings("unchecked")
+    private void siftUp(int k, Object x) {
+        Comparable<Object> key = (Comparable<Object>) x;
+        final Object[] queue = this.queue;
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            Object e = queue[parent];
+            if (key.compareTo(e) >= 0)
+                break;
+            queue[k] = e;
+            setIndex(e, k);
+            k = parent;
+        }
+        queue[k] = x;
+        setIndex(x, k);
+    }
+
+    /**
+     * 把元素x从下标k向下调整
+     * 只有当持有锁时才会调用
+     */
+    @SuppressWarnings("unchecked")
+    private void siftDown(int k, Object x) {
+        Comparable<Object> key = (Comparable<Object>) x;
+        final Object[] queue = this.queue;
+        final int n = size;
+        int half = n >>> 1;
+        while (k < half) {
+            int child = (k << 1) + 1;
+            Object c = queue[child];
+            int right = child + 1;
+            if (right < n && ((Comparable<Object>) c).compareTo(queue[right]) > 0)
+                c = queue[child = right];
+            if (key.compareTo(c) <= 0)
+                break;
+            queue[k] = c;
+            setIndex(c, k);
+            k = child;
+        }
+        queue[k] = x;
+        setIndex(x, k);
+    }
+
+    /**
+     * 扩容50%
+     */
+    private void grow() {
+        int oldCapacity = queue.length;
+        int newCapacity = oldCapacity + (oldCapacity >> 1);
+        if (newCapacity < 0) // overflow
+            newCapacity = Integer.MAX_VALUE;
+        queue = Arrays.copyOf(queue, newCapacity);
+    }
+
+    /**
+     * 元素x在堆中的下标，不存在返回-1。
+     * HeapIndexed元素直接核对记录的下标，其他元素只能遍历
+     * 只有当持有锁时才会调用
+     */
+    private int indexOf(Object x) {
+        if (x != null) {
+            if (x instanceof HeapIndexed) {
+                int i = ((HeapIndexed) x).getHeapIndex();
+                // 核对一下，元素可能属于另一个队列；HeapIndexed元素同一时刻只在一个队列中，
+                // 记录的下标对不上就说明不在这个队列中(已经取出、删除或者从未加入)，不需要遍历
+                return (i >= 0 && i < size && queue[i] == x) ? i : -1;
+            }
+            for (int i = 0; i < size; i++)
+                if (x.equals(queue[i]))
+                    return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 删除下标i的元素：用最后一个元素填补，再向下或向上调整
+     * 只有当持有锁时才会调用
+     */
+    private void removeAt(int i) {
+        setIndex(queue[i], -1);
+        int s = --size;
+        Object replacement = queue[s];
+        queue[s] = null;
+        if (s != i) {
+            siftDown(i, replacement);
+            if (queue[i] == replacement)
+                siftUp(i, replacement);
+        }
+    }
+
+    /**
+     * 取出堆顶并调整，f是堆顶元素
+     * 只有当持有锁时才会调用
+     */
+    @SuppressWarnings("unchecked")
+    private E finishPoll(Object f) {
+        int s = --size;
+        Object x = queue[s];
+        queue[s] = null;
+        if (s != 0)
+            siftDown(0, x);
+        setIndex(f, -1);
+        return (E) f;
+    }
+
+    /**
+     * 堆顶元素已经到期则取出，否则返回null
+     * 只有当持有锁时才会调用
+     */
+    private E pollExpired() {
+        Object first = queue[0];
+        return (first == null || ((Delayed) first).getDelay(NANOSECONDS) > 0)
+                ? null
+                : finishPoll(first);
+    }
+
+    /**
+     * 返回一个基于快照的迭代器，元素没有特定的顺序
+     */
     @Override
     public Iterator<E> iterator() {
-        return null;
+        return new Itr(toArray());
     }
 
     @Override
     public int size() {
-        return 0;
-    }
-
-    public DelayQueue(Collection<? extends E> c) {
-        this.addAll(c);
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            q.offer(e);
-            if (q.peek() == e) {
-                leader = null;
-                available.signal();
-            }
+            enqueue(e);
             return true;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * 只在锁空闲时插入，锁被其他线程持有时立即返回false，不会阻塞。
+     * 供{@link ShardedDelayQueue}在分片有竞争时换一个分片
+     */
+    boolean tryOffer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        final ReentrantLock lock = this.lock;
+        if (!lock.tryLock())
+            return false;
+        try {
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 持有锁时调用
+     */
+    private void enqueue(E e) {
+        int i = size;
+        if (i >= queue.length)
+            grow();
+        size = i + 1;
+        siftUp(i, e);
+        if (queue[0] == e) {
+            leader = null;
+            available.signal();
+        }
+    }
+
     @Override
     public E poll() {
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            E first = q.peek();
-            return (first == null || first.getDelay(TimeUnit.NANOSECONDS) > 0)
-                    ? null
-                    : q.poll();
+            return pollExpired();
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * 返回最早到期的元素(不一定已经到期)，队列为空时返回null
+     */
     @Override
+    @SuppressWarnings("unchecked")
     public E peek() {
-        return null;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return (E) queue[0];
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -96,13 +291,13 @@ public class DelayQueue<E extends Delayed> extends AbstractQueue<E>
         lock.lockInterruptibly();
         try {
             for (;;) {
-                E first = q.peek();
+                Object first = queue[0];
                 if (first == null)
                     available.await();
                 else {
-                    long delay = first.getDelay(TimeUnit.NANOSECONDS);
+                    long delay = ((Delayed) first).getDelay(NANOSECONDS);
                     if (delay <= 0L)
-                        return q.poll();
+                        return finishPoll(first);
                     first = null;
                     if (leader != null)
                         available.await();
@@ -119,7 +314,7 @@ public class DelayQueue<E extends Delayed> extends AbstractQueue<E>
                 }
             }
         } finally {
-            if (leader == null && q.peek() != null)
+            if (leader == null && queue[0] != null)
                 available.signal();
             lock.unlock();
         }
@@ -132,16 +327,16 @@ public class DelayQueue<E extends Delayed> extends AbstractQueue<E>
         lock.lockInterruptibly();
         try {
             for (;;) {
-                E first = q.peek();
+                Object first = queue[0];
                 if (first == null) {
                     if (nanos <= 0L)//
                         return null;//
                     else
                         nanos = available.awaitNanos(nanos);
                 } else {
-                    long delay = first.getDelay(NANOSECONDS);
+                    long delay = ((Delayed) first).getDelay(NANOSECONDS);
                     if (delay <= 0L)
-                        return q.poll();
+                        return finishPoll(first);
                     if (nanos <= 0L)//
                         return null;//
                     first = null; // don't retain ref while waiting
@@ -161,47 +356,146 @@ public class DelayQueue<E extends Delayed> extends AbstractQueue<E>
                 }
             }
         } finally {
-            if (leader == null && q.peek() != null)
+            if (leader == null && queue[0] != null)
                 available.signal();
             lock.unlock();
         }
     }
 
+    /**
+     * 无界队列，总是返回Integer.MAX_VALUE
+     */
     @Override
     public int remainingCapacity() {
-        return 0;
+        return Integer.MAX_VALUE;
     }
 
     @Override
     public int drainTo(Collection<? super E> c) {
-        return 0;
+        return drainTo(c, Integer.MAX_VALUE);
     }
 
+    /**
+     * 在一次加锁期间取出所有已经到期的元素，最多maxElements个
+     */
     @Override
     public int drainTo(Collection<? super E> c, int maxElements) {
-        return 0;
+        Objects.requireNonNull(c);
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int n = 0;
+            for (E e; n < maxElements && (e = pollExpired()) != null; ) {
+                c.add(e);
+                ++n;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                setIndex(queue[i], -1);
+                queue[i] = null;
+            }
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
     }
 
+    @Override
+    public Object[] toArray() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return Arrays.copyOf(queue, size, Object[].class);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (a.length < size)
+                return (T[]) Arrays.copyOf(queue, size, a.getClass());
+            System.arraycopy(queue, 0, a, 0, size);
+            if (a.length > size)
+                a[size] = null;
+            return a;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * HeapIndexed元素是O(1)的，不论是否在队列中；其他元素需要遍历
+     */
+    @Override
+    public boolean contains(Object o) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return indexOf(o) != -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * HeapIndexed元素是O(log n)的，不在队列中(比如已经到期被取出)时是O(1)的；
+     * 其他元素需要先遍历找到下标
+     */
     public boolean remove(Object o) {
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            return q.remove(o);
+            int i = indexOf(o);
+            if (i < 0)
+                return false;
+            removeAt(i);
+            return true;
         } finally {
             lock.unlock();
         }
     }
 
-    void removeEQ(Object o) {
+    /**
+     * 迭代器删除使用的基于引用相等的版本，返回是否删除了元素
+     */
+    boolean removeEQ(Object o) {
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            for (Iterator<E> it = q.iterator(); it.hasNext();) {
-                if (o == it.next()) {
-                    it.remove();
-                    break;
+            if (o instanceof HeapIndexed) {
+                int i = ((HeapIndexed) o).getHeapIndex();
+                if (i >= 0 && i < size && queue[i] == o) {
+                    removeAt(i);
+                    return true;
+                }
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (o == queue[i]) {
+                    removeAt(i);
+                    return true;
                 }
             }
+            return false;
         } finally {
             lock.unlock();
         }
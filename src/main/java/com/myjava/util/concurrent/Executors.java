@@ -1,5 +1,7 @@
 package com.myjava.util.concurrent;
 
+import com.myjava.lang.ThreadLocalThread;
+
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -10,15 +12,21 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class Executors {
 
+    /**
+     * 提交的任务会带上提交线程的{@link com.myjava.lang.ScopedValue}绑定
+     */
     public static ExecutorService newFixedThreadPool(int nThreads) {
-        return new ThreadPoolExecutor(nThreads, nThreads,
+        return new ScopedThreadPoolExecutor(nThreads, nThreads,
                 0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingDeque<Runnable>());
+                new LinkedBlockingDeque<Runnable>(),
+                defaultThreadFactory());
     }
 
     /**
      * 支持给定并发级别的线程池，可以使用多个队列来减少竞争。
      * 线程的实际数量可以动态地增加或减少。不保证任务执行的顺序。
+     * 任务不带{@link com.myjava.lang.ScopedValue}绑定：fork出的子任务不经过提交，无法包装，
+     * 需要时用{@link com.myjava.lang.ScopedValue#wrap}自己包装
      * @since 1.8
      */
     public static ExecutorService newWorkStealingPool(int parallelism) {
@@ -38,23 +46,40 @@ public class Executors {
     }
 
     public static ExecutorService newFixedThreadPool(int nThreads, ThreadFactory threadFactory) {
-        return new ThreadPoolExecutor(nThreads, nThreads,
+        return new ScopedThreadPoolExecutor(nThreads, nThreads,
                 0L, TimeUnit.MILLISECONDS,
                 new LinkedBlockingDeque<Runnable>(),
                 threadFactory);
     }
 
+    /**
+     * 提交的任务会带上提交线程的{@link com.myjava.lang.ScopedValue}绑定
+     */
     public static ExecutorService newSingleThreadExecutor() {
-        return null;
+        return new ScopedThreadPoolExecutor(1, 1,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<Runnable>(),
+                defaultThreadFactory());
     }
 
+    /**
+     * 提交的任务(包括周期任务)会带上提交线程的{@link com.myjava.lang.ScopedValue}绑定
+     */
     public static ScheduledExecutorService newScheduledThreadPool(int corePoolSize) {
-        return new ScheduledThreadPoolExecutor(corePoolSize);
+        return new ScopedScheduledThreadPoolExecutor(corePoolSize, defaultThreadFactory());
     }
 
     public static ScheduledExecutorService newScheduledThreadPool(
             int corePoolSize, ThreadFactory threadFactory) {
-        return new ScheduledThreadPoolExecutor(corePoolSize, threadFactory);
+        return new ScopedScheduledThreadPoolExecutor(corePoolSize, threadFactory);
+    }
+
+    /**
+     * 默认的线程工厂，创建的是{@link ThreadLocalThread}，
+     * 在这些线程上{@link com.myjava.lang.ThreadLocal}走数组下标的快速路径
+     */
+    public static ThreadFactory defaultThreadFactory() {
+        return new DefaultThreadFactory();
     }
 
     static class DefaultThreadFactory implements ThreadFactory {
@@ -74,7 +99,7 @@ public class Executors {
 
         @Override
         public Thread newThread(Runnable r) {
-            Thread t = new Thread(group, r,
+            Thread t = new ThreadLocalThread(group, r,
                     namePrefix + threadNumber.getAndIncrement(), 0);
             if (t.isDaemon())
                 t.setDaemon(false);
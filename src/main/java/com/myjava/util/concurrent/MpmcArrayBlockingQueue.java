@@ -0,0 +1,139 @@
+package com.myjava.util.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+
+/**
+ * 一个无锁的有界多生产者多消费者队列。
+ *
+ * 使用Dmitry Vyukov的有界MPMC环形队列算法：每个槽位都有一个序号，
+ * 生产者在序号等于自己抢到的producerIndex时写入元素，然后把序号加1发布出去；
+ * 消费者在序号等于consumerIndex + 1时取走元素，然后把序号加上容量，留给下一圈的生产者。
+ * offer和poll各只需要一次CAS，不需要加锁，入队出队也不分配任何对象。
+ *
+ * 容量会向上取整为2的幂。
+ *
+ * 阻塞方法默认使用{@link WaitStrategy#blocking()}：先自旋，再yield，都没有等到时才挂起线程。
+ * 挂起时借助一把只在慢路径上使用的锁和条件队列，快路径只在有线程挂起时才会去加锁唤醒，
+ * 所以生产者和消费者都在忙的时候不会有任何park/unpark。
+ */
+public class MpmcArrayBlockingQueue<E> extends ConcurrentArrayQueue<E> {
+
+    /** 每个槽位的序号，见类注释 */
+    final long[] sequences;
+
+    /**
+     * 创建一个至少能容纳capacity个元素的队列
+     * @param capacity 向上取整为2的幂，至少为2
+     */
+    public MpmcArrayBlockingQueue(int capacity) {
+        this(capacity, WaitStrategy.blocking());
+    }
+
+    /**
+     * 创建一个至少能容纳capacity个元素、使用给定等待策略的队列
+     * @param capacity 向上取整为2的幂，至少为2
+     * @param waitStrategy 阻塞方法的等待策略
+     */
+    public MpmcArrayBlockingQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        int n = mask + 1;
+        sequences = new long[n];
+        for (int i = 0; i < n; i++)
+            sequences[i] = i;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        final long[] sequences = this.sequences;
+        final int mask = this.mask;
+        long pos = producerIndex;
+        for (;;) {
+            int idx = (int) pos & mask;
+            long seq = (long) SEQUENCE.getAcquire(sequences, idx);
+            long diff = seq - pos;
+            if (diff == 0) {
+                if (casProducerIndex(pos, pos + 1)) {
+                    buffer[idx] = e;
+                    SEQUENCE.setRelease(sequences, idx, pos + 1);
+                    notEmpty.signal();
+                    return true;
+                }
+                pos = producerIndex;
+            } else if (diff < 0) {
+                // 上一圈的元素还没有被取走
+                return false;
+            } else {
+                pos = producerIndex;
+            }
+        }
+    }
+
+    @Override
+    public E poll() {
+        final long[] sequences = this.sequences;
+        final int mask = this.mask;
+        long pos = consumerIndex;
+        for (;;) {
+            int idx = (int) pos & mask;
+            long seq = (long) SEQUENCE.getAcquire(sequences, idx);
+            long diff = seq - (pos + 1);
+            if (diff == 0) {
+                if (casConsumerIndex(pos, pos + 1)) {
+                    @SuppressWarnings("unchecked")
+                    E e = (E) buffer[idx];
+                    buffer[idx] = null;
+                    SEQUENCE.setRelease(sequences, idx, pos + mask + 1);
+                    notFull.signal();
+                    return e;
+                }
+                pos = consumerIndex;
+            } else if (diff < 0) {
+                // 槽位还没有被这一圈的生产者发布
+                return null;
+            } else {
+                pos = consumerIndex;
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        for (;;) {
+            long pos = consumerIndex;
+            if ((long) SEQUENCE.getAcquire(sequences, (int) pos & mask) != pos + 1)
+                return null;
+            E e = elementAt(pos);
+            if (e != null)
+                return e;
+        }
+    }
+
+    @Override
+    boolean isReadable() {
+        long pos = consumerIndex;
+        return (long) SEQUENCE.getVolatile(sequences, (int) pos & mask) == pos + 1;
+    }
+
+    @Override
+    boolean isWritable() {
+        long pos = producerIndex;
+        return (long) SEQUENCE.getVolatile(sequences, (int) pos & mask) == pos;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    E elementAt(long pos) {
+        int idx = (int) pos & mask;
+        if ((long) SEQUENCE.getAcquire(sequences, idx) != pos + 1)
+            return null;
+        E e = (E) buffer[idx];
+        // 读取期间槽位没有被取走才有效
+        return ((long) SEQUENCE.getAcquire(sequences, idx) == pos + 1) ? e : null;
+    }
+
+    private static final VarHandle SEQUENCE =
+        MethodHandles.arrayElementVarHandle(long[].class);
+}
@@ -0,0 +1,125 @@
+package com.myjava.util.concurrent;
+
+import java.util.Objects;
+
+import static com.myjava.util.concurrent.SpscArrayBlockingQueue.ELEMENT;
+
+/**
+ * 一个无锁的有界多生产者单消费者队列。
+ *
+ * 任意多个线程可以同时入队，同一时刻最多只能有一个线程执行出队方法，
+ * 由使用者保证，队列本身不做检查。
+ *
+ * 生产者通过CAS抢占producerIndex，然后把元素release写入槽位；槽位为null表示可写，
+ * 非null表示可读。生产者共享一个缓存的可写上限，只有超过它时才去读消费者的索引。
+ * 消费者不需要CAS：它独占consumerIndex，取走元素之后把槽位置为null再前移索引。
+ *
+ * 生产者抢到索引和写入元素之间有一个很短的窗口，此时消费者看到的槽位仍是null，
+ * 但队列并不为空；poll会自旋等到元素可见，而不是错误地返回null。
+ *
+ * 容量会向上取整为2的幂。阻塞方法的等待方式由构造时给定的{@link WaitStrategy}决定。
+ */
+public class MpscArrayBlockingQueue<E> extends ConcurrentArrayQueue<E> {
+
+    /**
+     * 创建一个至少能容纳capacity个元素的队列，阻塞方法使用{@link WaitStrategy#blocking()}
+     * @param capacity 向上取整为2的幂，至少为2
+     */
+    public MpscArrayBlockingQueue(int capacity) {
+        this(capacity, WaitStrategy.blocking());
+    }
+
+    /**
+     * 创建一个至少能容纳capacity个元素、使用给定等待策略的队列
+     * @param capacity 向上取整为2的幂，至少为2
+     * @param waitStrategy 阻塞方法的等待策略
+     */
+    public MpscArrayBlockingQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        producerLimit = mask + 1;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        final int capacity = mask + 1;
+        long limit = producerLimit;
+        long p;
+        do {
+            p = producerIndex;
+            if (p >= limit) {
+                limit = consumerIndex + capacity;
+                if (p >= limit)
+                    return false;
+                // 多个生产者可能同时更新，写入较小的值也只是多读一次consumerIndex
+                producerLimit = limit;
+            }
+        } while (!casProducerIndex(p, p + 1));
+        ELEMENT.setRelease(buffer, (int) p & mask, e);
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * 只能由唯一的消费者调用
+     */
+    @Override
+    public E poll() {
+        final Object[] buffer = this.buffer;
+        final long c = consumerIndex;
+        final int idx = (int) c & mask;
+        @SuppressWarnings("unchecked")
+        E e = (E) ELEMENT.getAcquire(buffer, idx);
+        if (e == null) {
+            if (c == producerIndex)
+                return null;
+            // 生产者已经抢到了索引但还没有写入元素
+            do {
+                Thread.onSpinWait();
+            } while ((e = castElement(ELEMENT.getAcquire(buffer, idx))) == null);
+        }
+        ELEMENT.setRelease(buffer, idx, null);
+        soConsumerIndex(c + 1);
+        notFull.signal();
+        return e;
+    }
+
+    /**
+     * 只能由唯一的消费者调用
+     */
+    @Override
+    public E peek() {
+        final Object[] buffer = this.buffer;
+        final long c = consumerIndex;
+        final int idx = (int) c & mask;
+        E e = castElement(ELEMENT.getAcquire(buffer, idx));
+        if (e == null && c != producerIndex) {
+            do {
+                Thread.onSpinWait();
+            } while ((e = castElement(ELEMENT.getAcquire(buffer, idx))) == null);
+        }
+        return e;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> E castElement(Object o) {
+        return (E) o;
+    }
+
+    @Override
+    boolean isReadable() {
+        return ELEMENT.getVolatile(buffer, (int) consumerIndex & mask) != null;
+    }
+
+    @Override
+    boolean isWritable() {
+        return producerIndex - consumerIndex <= mask;
+    }
+
+    @Override
+    E elementAt(long pos) {
+        E e = castElement(ELEMENT.getAcquire(buffer, (int) pos & mask));
+        // 消费者还没有越过pos，槽位就不会被下一圈重用
+        return (e != null && consumerIndex <= pos) ? e : null;
+    }
+}
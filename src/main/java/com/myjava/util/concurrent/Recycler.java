@@ -0,0 +1,321 @@
+package com.myjava.util.concurrent;
+
+import com.myjava.lang.ThreadLocal;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * 基于{@link ThreadLocal}的对象池，用来复用热点路径上的大缓冲区、builder等临时对象。
+ *
+ * Recycler<StringBuilder> BUILDERS = new Recycler<>(() -> new StringBuilder(4096));
+ *
+ * StringBuilder sb = BUILDERS.get();
+ * try { ... } finally { sb.setLength(0); BUILDERS.recycle(sb); }
+ *
+ * 采用magazine结构(Bonwick, "Magazines and Vmem")：每个线程有两个定长的magazine，
+ * loaded和previous，get/recycle只操作本线程的magazine，不需要任何同步。
+ * 两个magazine都空(或都满)时，才和共享的depot交换一个满的magazine，
+ * depot是无锁的栈，所以每magazineSize次操作最多有一次CAS。
+ *
+ * 对象可以在任何线程中recycle，进入的是调用线程的magazine，这样生产者-消费者式的用法中
+ * 对象会通过depot流回分配它的线程。
+ *
+ * 池的大小是有上限的：每个线程最多2 * magazineSize个对象，depot最多maxDepotMagazines个满的magazine，
+ * 超出的对象被丢弃交给GC。线程结束后它的magazine会在下一次depot为空时被收回到depot，
+ * 不会像{@code ThreadLocal.withInitial}那样随线程一起丢掉。
+ *
+ * 命中、未命中、丢弃的计数保存在各线程自己的缓存中，{@link #stats()}汇总时不加锁，是近似值。
+ *
+ * 每个Recycler占用一个ThreadLocal下标，应该像ThreadLocal一样作为静态域长期使用。
+ * 池不会重置对象的状态，调用者需要在recycle之前自己清理。
+ */
+public class Recycler<T> {
+
+    /** magazine的默认容量 */
+    private static final int DEFAULT_MAGAZINE_SIZE = 16;
+
+    /** depot中满的magazine的默认上限 */
+    private static final int DEFAULT_MAX_DEPOT_MAGAZINES = 64;
+
+    /** depot为空的未命中每发生这么多次，才扫描一次结束的线程 */
+    private static final int RECLAIM_INTERVAL = 64;
+
+    private final Supplier<? extends T> factory;
+    private final int magazineSize;
+    private final int maxDepotMagazines;
+
+    /** 满的magazine */
+    private final Depot full = new Depot();
+    /** 空的magazine，用来避免重新分配数组，上限与full相同 */
+    private final Depot empty = new Depot();
+
+    /** 所有线程的缓存，用来汇总计数和收回结束的线程的magazine */
+    private final ConcurrentLinkedQueue<Cache> caches = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean reclaiming = new AtomicBoolean();
+    private final AtomicInteger depotMisses = new AtomicInteger();
+
+    /** 已结束线程的计数 */
+    private final AtomicLong retiredHits = new AtomicLong();
+    private final AtomicLong retiredMisses = new AtomicLong();
+    private final AtomicLong retiredDrops = new AtomicLong();
+
+    private final ThreadLocal<Cache> threadCache = new ThreadLocal<Cache>() {
+        @Override
+        protected Cache initialValue() {
+            Cache c = new Cache(Thread.currentThread(), magazineSize);
+            caches.add(c);
+            return c;
+        }
+    };
+
+    public Recycler(Supplier<? extends T> factory) {
+        this(factory, DEFAULT_MAGAZINE_SIZE, DEFAULT_MAX_DEPOT_MAGAZINES);
+    }
+
+    /**
+     * @param magazineSize 每个magazine的容量
+     * @param maxDepotMagazines depot中最多保留的满的magazine个数，可以为0
+     */
+    public Recycler(Supplier<? extends T> factory, int magazineSize, int maxDepotMagazines) {
+        if (magazineSize <= 0 || maxDepotMagazines < 0)
+            throw new IllegalArgumentException();
+        this.factory = Objects.requireNonNull(factory);
+        this.magazineSize = magazineSize;
+        this.maxDepotMagazines = maxDepotMagazines;
+    }
+
+    /**
+     * 线程私有的缓存，只有owner线程修改，计数在汇总时被其他线程不加锁地读取
+     */
+    static final class Cache {
+        final WeakReference<Thread> owner;
+        Object[] loaded;
+        int loadedCount;
+        Object[] previous;
+        int previousCount;
+        long hits;
+        long misses;
+        long drops;
+
+        Cache(Thread owner, int magazineSize) {
+            this.owner = new WeakReference<>(owner);
+            this.loaded = new Object[magazineSize];
+            this.previous = new Object[magazineSize];
+        }
+
+        void swap() {
+            Object[] m = loaded;
+            int n = loadedCount;
+            loaded = previous;
+            loadedCount = previousCount;
+            previous = m;
+            previousCount = n;
+        }
+    }
+
+    /**
+     * 无锁的magazine栈(Treiber stack)。
+     * 每次push都创建新结点，结点不会重用，所以没有ABA问题
+     */
+    static final class Depot {
+        static final class Node {
+            final Object[] magazine;
+            final Node next;
+
+            Node(Object[] magazine, Node next) {
+                this.magazine = magazine;
+                this.next = next;
+            }
+        }
+
+        final AtomicReference<Node> top = new AtomicReference<>();
+        final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * @return 已达到max时返回false
+         */
+        boolean push(Object[] magazine, int max) {
+            if (count.incrementAndGet() > max) {
+                count.decrementAndGet();
+                return false;
+            }
+            Node h;
+            do {
+                h = top.get();
+            } while (!top.compareAndSet(h, new Node(magazine, h)));
+            return true;
+        }
+
+        Object[] pop() {
+            Node h;
+            do {
+                if ((h = top.get()) == null)
+                    return null;
+            } while (!top.compareAndSet(h, h.next));
+            count.decrementAndGet();
+            return h.magazine;
+        }
+    }
+
+    /**
+     * 从池中取出一个对象，池为空时用factory创建
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        Cache c = threadCache.get();
+        if (c.loadedCount == 0) {
+            if (c.previousCount > 0) {
+                c.swap();
+            } else {
+                Object[] m = full.pop();
+                if (m == null && maybeReclaim() > 0)
+                    m = full.pop();
+                if (m == null) {
+                    c.misses++;
+                    return factory.get();
+                }
+                // previous是空的，留给以后的recycle使用
+                empty.push(c.previous, maxDepotMagazines);
+                c.previous = c.loaded;
+                c.loaded = m;
+                c.loadedCount = m.length;
+            }
+        }
+        c.hits++;
+        Object[] m = c.loaded;
+        int i = --c.loadedCount;
+        Object x = m[i];
+        m[i] = null;
+        return (T) x;
+    }
+
+    /**
+     * 把对象放回池中，可以在任何线程中调用。池满时对象被丢弃
+     */
+    public void recycle(T x) {
+        Objects.requireNonNull(x);
+        Cache c = threadCache.get();
+        if (c.loadedCount == magazineSize) {
+            if (c.previousCount < magazineSize) {
+                c.swap();
+            } else if (full.push(c.previous, maxDepotMagazines)) {
+                Object[] m = empty.pop();
+                c.previous = c.loaded;
+                c.previousCount = magazineSize;
+                c.loaded = (m != null) ? m : new Object[magazineSize];
+                c.loadedCount = 0;
+            } else {
+                c.drops++;
+                return;
+            }
+        }
+        c.loaded[c.loadedCount++] = x;
+    }
+
+    private int maybeReclaim() {
+        if ((depotMisses.incrementAndGet() & (RECLAIM_INTERVAL - 1)) != 0)
+            return 0;
+        return reclaimDeadThreads();
+    }
+
+    /**
+     * 收回已结束的线程的magazine和计数。
+     * get在depot为空时会周期性地调用，也可以手动调用；已有线程在收回时直接返回0
+     * @return 放入depot的满magazine个数
+     */
+    public int reclaimDeadThreads() {
+        if (!reclaiming.compareAndSet(false, true))
+            return 0;
+        int moved = 0;
+        try {
+            for (Iterator<Cache> it = caches.iterator(); it.hasNext(); ) {
+                Cache c = it.next();
+                Thread t = c.owner.get();
+                // isAlive()返回false之后线程的所有写入都是可见的；
+                // 引用被清除说明线程早已结束并被回收
+                if (t != null && t.isAlive())
+                    continue;
+                it.remove();
+                moved += retire(c.loaded, c.loadedCount, c);
+                moved += retire(c.previous, c.previousCount, c);
+                retiredHits.addAndGet(c.hits);
+                retiredMisses.addAndGet(c.misses);
+                retiredDrops.addAndGet(c.drops);
+            }
+        } finally {
+            reclaiming.set(false);
+        }
+        return moved;
+    }
+
+    /**
+     * 满的magazine直接放入depot，不满的丢弃
+     */
+    private int retire(Object[] m, int count, Cache c) {
+        if (count == magazineSize && full.push(m, maxDepotMagazines))
+            return 1;
+        c.drops += count;
+        return 0;
+    }
+
+    /**
+     * 汇总所有线程的计数，不加锁，是近似值
+     */
+    public Stats stats() {
+        long hits = retiredHits.get(), misses = retiredMisses.get(), drops = retiredDrops.get();
+        int threads = 0;
+        long cached = 0;
+        for (Cache c : caches) {
+            threads++;
+            hits += c.hits;
+            misses += c.misses;
+            drops += c.drops;
+            cached += c.loadedCount + c.previousCount;
+        }
+        return new Stats(hits, misses, drops, threads, cached,
+                full.count.get() * (long) magazineSize);
+    }
+
+    /**
+     * {@link #stats()}的结果
+     */
+    public static final class Stats {
+        /** get从池中取到对象的次数 */
+        public final long hits;
+        /** get调用factory创建对象的次数 */
+        public final long misses;
+        /** recycle时因为池满被丢弃的对象个数 */
+        public final long drops;
+        /** 有缓存的线程个数 */
+        public final int threads;
+        /** 线程magazine中的对象个数 */
+        public final long threadCached;
+        /** depot中的对象个数 */
+        public final long depotCached;
+
+        Stats(long hits, long misses, long drops, int threads,
+              long threadCached, long depotCached) {
+            this.hits = hits;
+            this.misses = misses;
+            this.drops = drops;
+            this.threads = threads;
+            this.threadCached = threadCached;
+            this.depotCached = depotCached;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats[hits=" + hits + ", misses=" + misses + ", drops=" + drops +
+                    ", threads=" + threads + ", threadCached=" + threadCached +
+                    ", depotCached=" + depotCached + "]";
+        }
+    }
+}
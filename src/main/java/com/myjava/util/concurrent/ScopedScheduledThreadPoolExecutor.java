@@ -0,0 +1,44 @@
+package com.myjava.util.concurrent;
+
+import com.myjava.lang.ScopedValue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把提交线程的{@link ScopedValue}绑定带到工作线程上的定时线程池。
+ *
+ * execute和submit最终都经过这四个schedule方法，所以只需要在这里包装任务；
+ * 周期任务每次执行都使用提交时的绑定。其他说明见{@link ScopedThreadPoolExecutor}。
+ */
+class ScopedScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor {
+
+    ScopedScheduledThreadPoolExecutor(int corePoolSize, ThreadFactory threadFactory) {
+        super(corePoolSize, threadFactory);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return super.schedule(ScopedValue.wrap(command), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return super.schedule(ScopedValue.wrap(callable), delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+                                                  long period, TimeUnit unit) {
+        return super.scheduleAtFixedRate(ScopedValue.wrap(command), initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+                                                     long delay, TimeUnit unit) {
+        return super.scheduleWithFixedDelay(ScopedValue.wrap(command), initialDelay, delay, unit);
+    }
+}
@@ -0,0 +1,31 @@
+package com.myjava.util.concurrent;
+
+import com.myjava.lang.ScopedValue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把提交线程的{@link ScopedValue}绑定带到工作线程上的线程池。
+ *
+ * submit/invokeAll最终都经过execute，所以只需要在execute中包装任务：
+ * 提交时记下绑定链表的引用，执行时装回去。提交线程没有绑定时任务不会被包装。
+ * 被包装的任务与提交的不是同一个对象，所以remove(Runnable)和shutdownNow返回的列表
+ * 对这些任务不适用。
+ */
+class ScopedThreadPoolExecutor extends ThreadPoolExecutor {
+
+    ScopedThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
+                             long keepAliveTime, TimeUnit unit,
+                             BlockingQueue<Runnable> workQueue,
+                             ThreadFactory threadFactory) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(ScopedValue.wrap(command));
+    }
+}
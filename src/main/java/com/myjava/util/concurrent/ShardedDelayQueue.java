@@ -0,0 +1,413 @@
+package com.myjava.util.concurrent;
+
+import jdk.internal.misc.Unsafe;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * 由多个独立加锁的{@link DelayQueue}分片组成的延迟队列。
+ *
+ * 入队的线程根据自己的探针值(与LongAdder选择Cell的方式相同)选择一个分片，
+ * 只竞争这个分片的锁，所以不同线程的插入可以并行进行。分片的锁被其他线程持有时，
+ * 入队线程用xorshift换一个探针，把这次和之后的插入放到另一个分片上，
+ * 所以碰巧落在同一个分片上的线程会逐渐分散开。
+ *
+ * 出队时扫描所有分片的队头，取出其中最早到期的那个。所有等待的take线程共用一把锁和
+ * 一个条件队列，仍然是Leader-Follower模式：leader按照扫描到的最早到期时间限时等待，
+ * 并把这个时间发布在wakeAt上；入队的线程只有在新元素比wakeAt更早到期时才去加锁唤醒，
+ * 大部分插入不会碰到这把锁。
+ *
+ * 出队顺序的保证比DelayQueue弱：
+ * 每个分片内部仍然严格按照到期时间出队；跨分片时，take/poll返回的元素
+ * 不会晚于扫描开始之前已经入队的任何其他已到期元素，只有与扫描并发、
+ * 插入到已经扫描过的分片中的元素可能被排到后面。因此乱序的窗口不超过一次扫描，
+ * 即依次对N个分片加锁读取队头的时间。drainTo逐个分片取出，只保证分片内有序。
+ */
+public class ShardedDelayQueue<E extends Delayed> extends AbstractQueue<E>
+        implements BlockingQueue<E> {
+
+    private final DelayQueue<E>[] shards;
+
+    private final int mask;
+
+    /** take线程共用的锁，入队时只在需要唤醒leader时才会获取 */
+    private final ReentrantLock takeLock = new ReentrantLock();
+
+    private final Condition available = takeLock.newCondition();
+
+    /** 见DelayQueue.leader，由takeLock保护 */
+    private Thread leader;
+
+    /** 正在take/poll(timeout)中的线程数，由takeLock保护 */
+    private int waiters;
+
+    /**
+     * 入队线程需要唤醒leader的阈值(相对于origin的纳秒)：
+     * 没有线程等待时为Long.MIN_VALUE，有线程在扫描或无限期等待时为Long.MAX_VALUE，
+     * leader限时等待时为它醒来的时间
+     */
+    private volatile long wakeAt = Long.MIN_VALUE;
+
+    private final long origin = System.nanoTime();
+
+    /**
+     * 创建一个分片数为CPU个数(向上取整为2的幂)的队列
+     */
+    public ShardedDelayQueue() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param shards 分片数，向上取整为2的幂
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedDelayQueue(int shards) {
+        if (shards <= 0)
+            throw new IllegalArgumentException();
+        int n = 1;
+        while (n < shards)
+            n <<= 1;
+        this.shards = (DelayQueue<E>[]) new DelayQueue<?>[n];
+        for (int i = 0; i < n; i++)
+            this.shards[i] = new DelayQueue<E>();
+        this.mask = n - 1;
+    }
+
+    public ShardedDelayQueue(Collection<? extends E> c) {
+        this();
+        this.addAll(c);
+    }
+
+    /**
+     * 当前线程的探针值，第一次调用时初始化
+     */
+    private static int getProbe(Thread t) {
+        int probe = U.getInt(t, PROBE);
+        if (probe == 0) {
+            ThreadLocalRandom.current(); // 初始化探针
+            probe = U.getInt(t, PROBE);
+        }
+        return probe;
+    }
+
+    /**
+     * 与Striped64.advanceProbe相同，换一个新的探针值并保存到线程中
+     */
+    private static int advanceProbe(Thread t, int probe) {
+        probe ^= probe << 13;
+        probe ^= probe >>> 17;
+        probe ^= probe << 5;
+        U.putInt(t, PROBE, probe);
+        return probe;
+    }
+
+    /**
+     * 元素的到期时间，相对于origin，不会等于Long.MAX_VALUE
+     */
+    private long deadline(Delayed e, long now) {
+        long delay = e.getDelay(NANOSECONDS);
+        return (delay >= Long.MAX_VALUE - 1 - now) ? Long.MAX_VALUE - 1 : now + delay;
+    }
+
+    private long now() {
+        return System.nanoTime() - origin;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        Thread t = Thread.currentThread();
+        int probe = getProbe(t);
+        if (!shards[probe & mask].tryOffer(e)) {
+            // 分片有竞争，换一个探针，在新的分片上阻塞加锁
+            probe = advanceProbe(t, probe);
+            shards[probe & mask].offer(e);
+        }
+        // 入队对于之后的扫描可见，wakeAt的读取在入队之后，见take。
+        // 没有线程等待时不需要计算到期时间
+        long w = wakeAt;
+        if (w != Long.MIN_VALUE && deadline(e, now()) < w) {
+            final ReentrantLock takeLock = this.takeLock;
+            takeLock.lock();
+            try {
+                leader = null;
+                available.signal();
+            } finally {
+                takeLock.unlock();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void put(E e) {
+        offer(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e);
+    }
+
+    /**
+     * 扫描所有分片，取出最早到期并且已经到期的队头。
+     * 队头之间用compareTo比较，与分片内部的顺序一致，不会因为逐个读取时钟而产生误差。
+     * 没有已到期的元素时返回null，并把最早的到期时间写入deadline[0]，
+     * 所有分片都为空时写入Long.MAX_VALUE
+     */
+    private E scan(long[] deadline) {
+        for (;;) {
+            E first = null;
+            DelayQueue<E> firstShard = null;
+            for (DelayQueue<E> s : shards) {
+                E h = s.peek();
+                if (h != null && (first == null || h.compareTo(first) < 0)) {
+                    first = h;
+                    firstShard = s;
+                }
+            }
+            long now = now();
+            long best = (first == null) ? Long.MAX_VALUE : deadline(first, now);
+            if (best > now) {
+                if (deadline != null)
+                    deadline[0] = best;
+                return null;
+            }
+            E x = firstShard.poll();
+            if (x != null)
+                return x;
+            // 队头被其他线程取走了，重新扫描
+        }
+    }
+
+    @Override
+    public E poll() {
+        return scan(null);
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        final ReentrantLock takeLock = this.takeLock;
+        final long[] deadline = new long[1];
+        takeLock.lockInterruptibly();
+        try {
+            waiters++;
+            for (;;) {
+                if (leader != null) {
+                    available.await();
+                    continue;
+                }
+                // 先发布wakeAt再扫描：与offer的先入队再读wakeAt配合，
+                // 扫描时没有看到的元素，入队线程一定会看到这个值并唤醒
+                wakeAt = Long.MAX_VALUE;
+                E x = scan(deadline);
+                if (x != null)
+                    return x;
+                long d = deadline[0];
+                if (d == Long.MAX_VALUE)
+                    available.await();
+                else {
+                    Thread thisThread = Thread.currentThread();
+                    leader = thisThread;
+                    wakeAt = d;
+                    try {
+                        available.awaitNanos(d - now());
+                    } finally {
+                        if (leader == thisThread)
+                            leader = null;
+                    }
+                }
+            }
+        } finally {
+            afterWait();
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock takeLock = this.takeLock;
+        final long[] deadline = new long[1];
+        takeLock.lockInterruptibly();
+        try {
+            waiters++;
+            for (;;) {
+                if (leader != null) {
+                    if (nanos <= 0L)
+                        return scan(null);
+                    nanos = available.awaitNanos(nanos);
+                    continue;
+                }
+                wakeAt = Long.MAX_VALUE;
+                E x = scan(deadline);
+                if (x != null)
+                    return x;
+                if (nanos <= 0L)
+                    return null;
+                long delay = deadline[0] - now();
+                if (nanos < delay)
+                    nanos = available.awaitNanos(nanos);
+                else {
+                    Thread thisThread = Thread.currentThread();
+                    leader = thisThread;
+                    wakeAt = deadline[0];
+                    try {
+                        long timeLeft = available.awaitNanos(delay);
+                        nanos -= delay - timeLeft;
+                    } finally {
+                        if (leader == thisThread)
+                            leader = null;
+                    }
+                }
+            }
+        } finally {
+            afterWait();
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * take/poll(timeout)返回前调用，持有takeLock
+     */
+    private void afterWait() {
+        if (--waiters == 0)
+            wakeAt = Long.MIN_VALUE;
+        else if (leader == null)
+            available.signal();
+    }
+
+    /**
+     * 返回所有分片队头中最早到期的元素(不一定已经到期)
+     */
+    @Override
+    public E peek() {
+        E first = null;
+        for (DelayQueue<E> s : shards) {
+            E h = s.peek();
+            if (h != null && (first == null || h.compareTo(first) < 0))
+                first = h;
+        }
+        return first;
+    }
+
+    /**
+     * 各分片大小之和，并发修改时不是一个精确的快照
+     */
+    @Override
+    public int size() {
+        long n = 0L;
+        for (DelayQueue<E> s : shards)
+            n += s.size();
+        return (int) Math.min(n, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 逐个分片取出已经到期的元素，每个分片只加锁一次
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        for (DelayQueue<E> s : shards) {
+            if (n >= maxElements)
+                break;
+            n += s.drainTo(c, maxElements - n);
+        }
+        return n;
+    }
+
+    @Override
+    public void clear() {
+        for (DelayQueue<E> s : shards)
+            s.clear();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        for (DelayQueue<E> s : shards)
+            if (s.remove(o))
+                return true;
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        for (DelayQueue<E> s : shards)
+            if (s.contains(o))
+                return true;
+        return false;
+    }
+
+    @Override
+    public Object[] toArray() {
+        ArrayList<Object> list = new ArrayList<>();
+        for (DelayQueue<E> s : shards)
+            Collections.addAll(list, s.toArray());
+        return list.toArray();
+    }
+
+    /**
+     * 返回一个基于各分片快照的迭代器，元素没有特定的顺序
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr(toArray());
+    }
+
+    private class Itr implements Iterator<E> {
+        final Object[] array; // Array of all elements
+        int cursor;           // index of next element to return
+        int lastRet;          // index of last element, or -1 if no such
+
+        Itr(Object[] array) {
+            lastRet = -1;
+            this.array = array;
+        }
+
+        public boolean hasNext() {
+            return cursor < array.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (cursor >= array.length)
+                throw new NoSuchElementException();
+            return (E)array[lastRet = cursor++];
+        }
+
+        public void remove() {
+            if (lastRet < 0)
+                throw new IllegalStateException();
+            Object x = array[lastRet];
+            for (DelayQueue<E> s : shards)
+                if (s.removeEQ(x))
+                    break;
+            lastRet = -1;
+        }
+    }
+
+    private static final Unsafe U = Unsafe.getUnsafe();
+    private static final long PROBE = U.objectFieldOffset(Thread.class, "threadLocalRandomProbe");
+}
@@ -0,0 +1,107 @@
+package com.myjava.util.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+
+/**
+ * 一个无锁的有界单生产者单消费者队列。
+ *
+ * 同一时刻最多只能有一个线程执行入队方法，最多只能有一个线程执行出队方法，
+ * 由使用者保证，队列本身不做检查；违反约定时元素可能会丢失或重复。
+ *
+ * 生产者和消费者各自独占自己的索引，不需要CAS：槽位为null表示可写，非null表示可读，
+ * 元素和索引都用release写、acquire读来发布。生产者缓存了可写的上限，
+ * 只有写满一圈时才去读消费者的索引，两边几乎不会访问对方的缓存行。
+ *
+ * 容量会向上取整为2的幂。阻塞方法的等待方式由构造时给定的{@link WaitStrategy}决定。
+ */
+public class SpscArrayBlockingQueue<E> extends ConcurrentArrayQueue<E> {
+
+    /**
+     * 创建一个至少能容纳capacity个元素的队列，阻塞方法使用{@link WaitStrategy#blocking()}
+     * @param capacity 向上取整为2的幂，至少为2
+     */
+    public SpscArrayBlockingQueue(int capacity) {
+        this(capacity, WaitStrategy.blocking());
+    }
+
+    /**
+     * 创建一个至少能容纳capacity个元素、使用给定等待策略的队列
+     * @param capacity 向上取整为2的幂，至少为2
+     * @param waitStrategy 阻塞方法的等待策略
+     */
+    public SpscArrayBlockingQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        producerLimit = mask + 1;
+    }
+
+    /**
+     * 只能由唯一的生产者调用
+     */
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        final Object[] buffer = this.buffer;
+        final long p = producerIndex;
+        if (p >= producerLimit) {
+            // 只有生产者写producerLimit，不需要CAS
+            long limit = consumerIndex + mask + 1;
+            if (p >= limit)
+                return false;
+            producerLimit = limit;
+        }
+        ELEMENT.setRelease(buffer, (int) p & mask, e);
+        soProducerIndex(p + 1);
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * 只能由唯一的消费者调用
+     */
+    @Override
+    public E poll() {
+        final Object[] buffer = this.buffer;
+        final long c = consumerIndex;
+        final int idx = (int) c & mask;
+        @SuppressWarnings("unchecked")
+        E e = (E) ELEMENT.getAcquire(buffer, idx);
+        if (e == null)
+            return null;
+        ELEMENT.setRelease(buffer, idx, null);
+        soConsumerIndex(c + 1);
+        notFull.signal();
+        return e;
+    }
+
+    /**
+     * 只能由唯一的消费者调用
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        return (E) ELEMENT.getAcquire(buffer, (int) consumerIndex & mask);
+    }
+
+    @Override
+    boolean isReadable() {
+        return ELEMENT.getVolatile(buffer, (int) consumerIndex & mask) != null;
+    }
+
+    @Override
+    boolean isWritable() {
+        return producerIndex - consumerIndex <= mask;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    E elementAt(long pos) {
+        E e = (E) ELEMENT.getAcquire(buffer, (int) pos & mask);
+        // 消费者还没有越过pos，槽位就不会被下一圈重用
+        return (e != null && consumerIndex <= pos) ? e : null;
+    }
+
+    static final VarHandle ELEMENT =
+        MethodHandles.arrayElementVarHandle(Object[].class);
+}
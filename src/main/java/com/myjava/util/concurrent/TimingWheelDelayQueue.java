@@ -0,0 +1,684 @@
+package com.myjava.util.concurrent;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * 基于分层时间轮的{@link DelayQueue}。
+ *
+ * 时间被切分成固定长度的tick，每一层有64个槽位，第0层每个槽位是1个tick，
+ * 第L层每个槽位是64^L个tick，一共{@value #LEVELS}层。元素按照到期的tick放入
+ * 与当前tick的高位相同的最低一层：第0层的槽位一到期就整个移入就绪链表，
+ * 第L层的槽位到期时把其中的元素重新分配到更低的层(级联)。
+ * 每一层用一个long的位图记录哪些槽位非空，所以找下一个到期时间只需要O(层数)，
+ * 空闲时时间轮可以直接跳到下一个非空槽位，而不用逐个tick前进。
+ *
+ * offer是均摊O(1)的：推进时间轮的开销摊到元素上，每个元素最多被级联LEVELS次。
+ * 实现了{@link WheelIndexed}的元素会记录自己所在的结点，就像ScheduledFutureTask
+ * 记录heapIndex一样，remove(Object)也是O(1)的；其他元素的remove需要遍历整个时间轮。
+ *
+ * 与DelayQueue的区别是出队顺序只精确到tick：同一个tick内到期的元素之间没有顺序，
+ * 一个元素最多会晚一个tick被取出。已经到期的元素按到期的先后进入一个先进先出的就绪链表，
+ * offer先把时间轮推进到当前时间，所以加入时已经到期的元素排在此前已经到期的元素之后，
+ * 不会越过还没有被取走的更早到期的元素。元素从就绪链表取出时会再次检查getDelay，
+ * 还没有到期的(比如到期时间被推迟了)会被重新放回时间轮。
+ *
+ * take()和DelayQueue一样使用Leader-Follower模式：只有leader线程按照下一个非空槽位的
+ * 时间限时等待，其他线程无限期等待，避免所有线程同时醒来。
+ */
+public class TimingWheelDelayQueue<E extends Delayed> extends AbstractQueue<E>
+        implements BlockingQueue<E> {
+
+    /**
+     * 可以记录自己在时间轮中位置的元素，这样的元素同一时刻只能属于一个队列。
+     * 队列通过setWheelEntry保存一个不透明的句柄，出队或删除时置为null。
+     */
+    public interface WheelIndexed extends Delayed {
+        Object getWheelEntry();
+
+        void setWheelEntry(Object entry);
+    }
+
+    /** 每层槽位数的位数 */
+    static final int WHEEL_BITS = 6;
+
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /** 层数，一共可以表示64^LEVELS个tick，更远的元素先放在最高层，到期后重新放置 */
+    static final int LEVELS = 8;
+
+    /** 在就绪链表中 */
+    static final int READY = -1;
+
+    /** 已经不在队列中 */
+    static final int DETACHED = -2;
+
+    /** 时间轮中的结点，每个结点只属于一个槽位或就绪链表 */
+    static final class Entry<E> {
+        final TimingWheelDelayQueue<?> owner;
+        final E element;
+        /** 到期的tick */
+        long tick;
+        /** 所在槽位(level * WHEEL_SIZE + index)，或者READY、DETACHED */
+        int slot = DETACHED;
+        Entry<E> prev, next;
+
+        Entry(TimingWheelDelayQueue<?> owner, E element) {
+            this.owner = owner;
+            this.element = element;
+        }
+    }
+
+    private final transient ReentrantLock lock = new ReentrantLock();
+
+    private final Condition available = lock.newCondition();
+
+    /** 见DelayQueue.leader */
+    private Thread leader;
+
+    /** 每个tick的纳秒数 */
+    private final long tickNanos;
+
+    /** tick 0对应的System.nanoTime() */
+    private final long origin;
+
+    /** 已经处理到的tick */
+    private long currentTick;
+
+    /** 每个槽位的链表头 */
+    private final Entry<E>[] buckets;
+
+    /** 每一层的非空槽位 */
+    private final long[] occupied = new long[LEVELS];
+
+    /** 已经到期的结点，先进先出 */
+    private Entry<E> readyHead, readyTail;
+
+    private int count;
+
+    /**
+     * 创建一个tick为1毫秒的时间轮
+     */
+    public TimingWheelDelayQueue() {
+        this(1L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 创建一个给定tick的时间轮。tick越小出队时间越精确，
+     * 但是时间轮前进得越频繁、级联得也越频繁
+     * @param tick
+     * @param unit
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheelDelayQueue(long tick, TimeUnit unit) {
+        long nanos = unit.toNanos(tick);
+        if (nanos <= 0L)
+            throw new IllegalArgumentException();
+        this.tickNanos = nanos;
+        this.origin = System.nanoTime();
+        this.buckets = (Entry<E>[]) new Entry<?>[LEVELS * WHEEL_SIZE];
+    }
+
+    public TimingWheelDelayQueue(Collection<? extends E> c) {
+        this();
+        this.addAll(c);
+    }
+
+    /**
+     * 当前时间所在的tick
+     */
+    private long tickOf(long now) {
+        return (now - origin) / tickNanos;
+    }
+
+    /**
+     * 把结点放入时间轮，到期的放入就绪链表
+     * 只有当持有锁时才会调用
+     */
+    private void place(Entry<E> e) {
+        // 先读时钟再调用getDelay，now + delay不晚于到期时间。反过来的话两次读之间被抢占多久，
+        // 元素就会晚到期多久，并排到本来在它之后到期的元素后面
+        long now = System.nanoTime();
+        long delay = e.element.getDelay(NANOSECONDS);
+        long cur = currentTick;
+        long tick;
+        if (delay <= 0L)
+            tick = cur;
+        else {
+            // 向上取整。槽位到期时元素仍可能早于到期时间(最多早两次读时钟的间隔)，
+            // 取出时检查getDelay后会重新放置，至少放到下一个tick，不会在就绪链表上空转
+            long rel = now - origin;
+            long maxRel = Long.MAX_VALUE - tickNanos;
+            rel = (delay >= maxRel - rel) ? maxRel : rel + delay;
+            tick = Math.max(cur + 1, (rel + tickNanos - 1) / tickNanos);
+        }
+        if (tick > cur && (tick ^ cur) >>> (WHEEL_BITS * LEVELS) != 0L)
+            // 超出时间轮的范围，先放在最远的tick，到期时会再次检查getDelay
+            tick = cur | ((1L << (WHEEL_BITS * LEVELS)) - 1);
+        e.tick = tick;
+        replace(e);
+    }
+
+    private void appendReady(Entry<E> e) {
+        e.slot = READY;
+        e.next = null;
+        e.prev = readyTail;
+        if (readyTail == null)
+            readyHead = e;
+        else
+            readyTail.next = e;
+        readyTail = e;
+    }
+
+    /**
+     * 把结点从所在的槽位或就绪链表中摘除
+     * 只有当持有锁时才会调用
+     */
+    private void unlink(Entry<E> e) {
+        Entry<E> p = e.prev, n = e.next;
+        int slot = e.slot;
+        if (slot == READY) {
+            if (p == null) readyHead = n; else p.next = n;
+            if (n == null) readyTail = p; else n.prev = p;
+        } else {
+            if (p == null) {
+                buckets[slot] = n;
+                if (n == null)
+                    occupied[slot / WHEEL_SIZE] &= ~(1L << (slot & WHEEL_MASK));
+            } else
+                p.next = n;
+            if (n != null) n.prev = p;
+        }
+        e.prev = e.next = null;
+        e.slot = DETACHED;
+    }
+
+    /**
+     * 取下整个槽位的链表
+     */
+    private Entry<E> takeBucket(int level, int index) {
+        int slot = level * WHEEL_SIZE + index;
+        Entry<E> head = buckets[slot];
+        buckets[slot] = null;
+        occupied[level] &= ~(1L << index);
+        return head;
+    }
+
+    /**
+     * 下一个需要处理的tick：最低的非空层中第一个非空槽位的起始tick。
+     * 低层的槽位总是比高层的槽位先到期，所以只需要看最低的一层。
+     * 没有元素时返回Long.MAX_VALUE
+     * 只有当持有锁时才会调用
+     */
+    private long nextEventTick() {
+        final long cur = currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            long bits = occupied[level];
+            if (bits != 0L) {
+                int shift = WHEEL_BITS * level;
+                long index = Long.numberOfTrailingZeros(bits);
+                return ((cur >>> (shift + WHEEL_BITS)) << (shift + WHEEL_BITS))
+                    | (index << shift);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * 把时间轮推进到target，沿途级联高层的槽位并把到期的槽位移入就绪链表。
+     * 中间没有非空槽位的tick直接跳过
+     * 只有当持有锁时才会调用
+     */
+    private void advance(long target) {
+        while (currentTick < target) {
+            long next = nextEventTick();
+            if (next > target) {
+                currentTick = target;
+                return;
+            }
+            currentTick = next;
+            // 从高到低级联，上层落到下层起始槽位的元素会继续被级联
+            for (int level = LEVELS - 1; level > 0; level--) {
+                int shift = WHEEL_BITS * level;
+                if ((next & ((1L << shift) - 1)) == 0L) {
+                    int index = (int) (next >>> shift) & WHEEL_MASK;
+                    for (Entry<E> e = takeBucket(level, index), n; e != null; e = n) {
+                        n = e.next;
+                        replace(e);
+                    }
+                }
+            }
+            for (Entry<E> e = takeBucket(0, (int) next & WHEEL_MASK), n; e != null; e = n) {
+                n = e.next;
+                appendReady(e);
+            }
+        }
+    }
+
+    /**
+     * 按照已经算好的tick放入与当前tick高位相同的最低一层，级联时也用它重新放置
+     * 只有当持有锁时才会调用
+     */
+    private void replace(Entry<E> e) {
+        long tick = e.tick, cur = currentTick;
+        if (tick <= cur) {
+            appendReady(e);
+            return;
+        }
+        int level = (63 - Long.numberOfLeadingZeros(tick ^ cur)) / WHEEL_BITS;
+        int index = (int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+        int slot = level * WHEEL_SIZE + index;
+        Entry<E> head = buckets[slot];
+        e.prev = null;
+        e.next = head;
+        if (head != null)
+            head.prev = e;
+        buckets[slot] = e;
+        e.slot = slot;
+        occupied[level] |= 1L << index;
+    }
+
+    /**
+     * 推进时间轮并取出一个已经到期的元素，没有则返回null
+     * 只有当持有锁时才会调用
+     */
+    private E pollExpired() {
+        advance(tickOf(System.nanoTime()));
+        Entry<E> e;
+        while ((e = readyHead) != null) {
+            unlink(e);
+            if (e.element.getDelay(NANOSECONDS) <= 0L) {
+                count--;
+                detached(e);
+                return e.element;
+            }
+            // 到期时间被推迟了，或者超出时间轮范围的元素，重新放回
+            place(e);
+        }
+        return null;
+    }
+
+    private static void detached(Entry<?> e) {
+        Object x = e.element;
+        if (x instanceof WheelIndexed && ((WheelIndexed) x).getWheelEntry() == e)
+            ((WheelIndexed) x).setWheelEntry(null);
+    }
+
+    /**
+     * 距离下一次需要推进时间轮的纳秒数，没有元素时返回Long.MAX_VALUE
+     * 只有当持有锁时才会调用
+     */
+    private long nanosToNextEvent() {
+        if (readyHead != null)
+            return 0L;
+        long tick = nextEventTick();
+        if (tick == Long.MAX_VALUE)
+            return Long.MAX_VALUE;
+        return origin + tick * tickNanos - System.nanoTime();
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        Entry<E> x = new Entry<>(this, e);
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            // 先推进时间轮，已经到期但还没有被取走的元素排在新元素之前
+            advance(tickOf(System.nanoTime()));
+            long before = (readyHead != null) ? currentTick : nextEventTick();
+            place(x);
+            count++;
+            if (e instanceof WheelIndexed)
+                ((WheelIndexed) e).setWheelEntry(x);
+            // 新元素比原来最早的槽位还早，leader的等待时间失效了
+            if (x.tick < before) {
+                leader = null;
+                available.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E e) {
+        offer(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e);
+    }
+
+    @Override
+    public E poll() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return pollExpired();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            for (;;) {
+                E first = pollExpired();
+                if (first != null)
+                    return first;
+                long delay = nanosToNextEvent();
+                if (delay == Long.MAX_VALUE || leader != null)
+                    available.await();
+                else if (delay > 0L) {
+                    Thread thisThread = Thread.currentThread();
+                    leader = thisThread;
+                    try {
+                        available.awaitNanos(delay);
+                    } finally {
+                        if (leader == thisThread)
+                            leader = null;
+                    }
+                }
+            }
+        } finally {
+            if (leader == null && count > 0)
+                available.signal();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            for (;;) {
+                E first = pollExpired();
+                if (first != null)
+                    return first;
+                if (nanos <= 0L)
+                    return null;
+                long delay = nanosToNextEvent();
+                if (nanos < delay || leader != null)
+                    nanos = available.awaitNanos(nanos);
+                else if (delay > 0L) {
+                    Thread thisThread = Thread.currentThread();
+                    leader = thisThread;
+                    try {
+                        long timeLeft = available.awaitNanos(delay);
+                        nanos -= delay - timeLeft;
+                    } finally {
+                        if (leader == thisThread)
+                            leader = null;
+                    }
+                }
+            }
+        } finally {
+            if (leader == null && count > 0)
+                available.signal();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 返回最早到期的元素(不一定已经到期)，只精确到槽位：
+     * 在最低的非空层中第一个非空槽位里找到期时间最早的元素
+     */
+    @Override
+    public E peek() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (readyHead != null)
+                return readyHead.element;
+            long tick = nextEventTick();
+            if (tick == Long.MAX_VALUE)
+                return null;
+            Entry<E> best = null;
+            for (int level = 0; level < LEVELS && best == null; level++) {
+                long bits = occupied[level];
+                if (bits != 0L) {
+                    int slot = level * WHEEL_SIZE + Long.numberOfTrailingZeros(bits);
+                    for (Entry<E> e = buckets[slot]; e != null; e = e.next)
+                        if (best == null || e.tick < best.tick)
+                            best = e;
+                }
+            }
+            return best.element;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 在一次加锁期间取出所有已经到期的元素
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int n = 0;
+            for (E e; n < maxElements && (e = pollExpired()) != null; ) {
+                c.add(e);
+                ++n;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (Entry<E> e = readyHead; e != null; e = e.next)
+                detached(e);
+            readyHead = readyTail = null;
+            for (int i = 0; i < buckets.length; i++) {
+                for (Entry<E> e = buckets[i]; e != null; e = e.next)
+                    detached(e);
+                buckets[i] = null;
+            }
+            Arrays.fill(occupied, 0L);
+            count = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除一个与o相等的元素。o实现了{@link WheelIndexed}时是O(1)的，
+     * 不论是否在这个队列中(比如已经到期被取出)；其他元素需要遍历整个时间轮
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null)
+            return false;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Entry<E> e = entryOf(o, false);
+            if (e == null)
+                return false;
+            removeEntry(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 迭代器删除使用的基于引用相等的版本
+     */
+    void removeEQ(Object o) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Entry<E> e = entryOf(o, true);
+            if (e != null)
+                removeEntry(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeEntry(Entry<E> e) {
+        boolean wasFirst = (e == readyHead);
+        unlink(e);
+        count--;
+        detached(e);
+        if (wasFirst) {
+            leader = null;
+            available.signal();
+        }
+    }
+
+    /**
+     * o所在的结点，不在队列中返回null。WheelIndexed元素同一时刻只在一个队列中，
+     * 只核对它记录的结点，对不上就说明不在这个队列中，不需要遍历
+     * 只有当持有锁时才会调用
+     */
+    @SuppressWarnings("unchecked")
+    private Entry<E> entryOf(Object o, boolean identity) {
+        if (o instanceof WheelIndexed) {
+            Object h = ((WheelIndexed) o).getWheelEntry();
+            if (h instanceof Entry) {
+                Entry<E> e = (Entry<E>) h;
+                if (e.owner == this && e.element == o && e.slot != DETACHED)
+                    return e;
+            }
+            return null;
+        }
+        return find(o, identity);
+    }
+
+    /**
+     * 遍历整个时间轮，O(n)
+     */
+    private Entry<E> find(Object o, boolean identity) {
+        for (Entry<E> e = readyHead; e != null; e = e.next)
+            if (identity ? o == e.element : o.equals(e.element))
+                return e;
+        for (int level = 0; level < LEVELS; level++) {
+            for (long bits = occupied[level]; bits != 0L; bits &= bits - 1) {
+                int slot = level * WHEEL_SIZE + Long.numberOfTrailingZeros(bits);
+                for (Entry<E> e = buckets[slot]; e != null; e = e.next)
+                    if (identity ? o == e.element : o.equals(e.element))
+                        return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null)
+            return false;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return entryOf(o, false) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Object[] a = new Object[count];
+            int k = 0;
+            for (Entry<E> e = readyHead; e != null; e = e.next)
+                a[k++] = e.element;
+            for (Entry<E> head : buckets)
+                for (Entry<E> e = head; e != null; e = e.next)
+                    a[k++] = e.element;
+            return a;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 返回一个基于快照的迭代器，元素没有特定的顺序
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr(toArray());
+    }
+
+    private class Itr implements Iterator<E> {
+        final Object[] array; // Array of all elements
+        int cursor;           // index of next element to return
+        int lastRet;          // index of last element, or -1 if no such
+
+        Itr(Object[] array) {
+            lastRet = -1;
+            this.array = array;
+        }
+
+        public boolean hasNext() {
+            return cursor < array.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (cursor >= array.length)
+                throw new NoSuchElementException();
+            return (E)array[lastRet = cursor++];
+        }
+
+        public void remove() {
+            if (lastRet < 0)
+                throw new IllegalStateException();
+            removeEQ(array[lastRet]);
+            lastRet = -1;
+        }
+    }
+}
@@ -0,0 +1,518 @@
+package com.myjava.util.concurrent;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ArrayBlockingQueue}的双锁版本。
+ * 仍然使用预先分配好的items环形数组，但像LinkedBlockingQueue一样把全局锁拆成
+ * putLock和takeLock两把锁，count改成原子变量，这样生产者和消费者之间不再互相阻塞。
+ *
+ * 生产者只修改putIndex，消费者只修改takeIndex，二者通过count的volatile读写建立
+ * happens-before关系，所以生产者写入的元素对看到count增加的消费者是可见的，
+ * 反之消费者清空的槽位对看到count减少的生产者也是可见的。
+ *
+ * 迭代器、remove(Object)、contains、toArray和clear需要看到一致的takeIndex和
+ * putIndex，所以同时持有两把锁(先putLock后takeLock)。itrs以及每个迭代器的状态
+ * 由takeLock保护：出队时只持有takeLock就可以通知迭代器，迭代器操作因为持有两把锁
+ * 自然也持有takeLock，迭代器的跟踪约定和ArrayBlockingQueue完全一致。
+ *
+ * 迭代器和Itrs与ArrayBlockingQueue共用，见{@link AbstractArrayBlockingQueue}。
+ *
+ * 注意这并不总是更快：每次put/take之后还要获取另一把锁来signal，count的原子更新
+ * 也在两边之间来回传递缓存行。在TwoLockArrayBlockingQueueTest中，大多数线程数下
+ * 它的吞吐量都低于ArrayBlockingQueue，只有生产者和消费者都在等待的情况较多时才可能占优。
+ * 选用之前应该在实际的负载下测量。
+ */
+public class TwoLockArrayBlockingQueue<E> extends AbstractArrayBlockingQueue<E> {
+
+    private static final long serialVersionUID = -3917365294581370482L;
+
+    /** 当前元素个数 */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /** take、poll等操作持有的锁 */
+    private final ReentrantLock takeLock;
+
+    /** 等待take的条件队列 */
+    private final Condition notEmpty;
+
+    /** put、offer等操作持有的锁 */
+    private final ReentrantLock putLock;
+
+    /** 等待put的条件队列 */
+    private final Condition notFull;
+
+    /**
+     * 通知一个等待的take，只会在put/offer中调用(此时没有持有takeLock)
+     */
+    private void signalNotEmpty() {
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * 通知一个等待的put，只会在take/poll中调用(此时没有持有putLock)
+     */
+    private void signalNotFull() {
+        final ReentrantLock putLock = this.putLock;
+        putLock.lock();
+        try {
+            notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+    }
+
+    /**
+     * 在当前put位置插入元素并前移
+     * 只有当持有putLock时才会调用
+     */
+    private void enqueue(E e) {
+        final Object[] items = this.items;
+        items[putIndex] = e;
+        if (++putIndex == items.length) putIndex = 0;
+    }
+
+    /**
+     * 在当前take位置取出元素并前移，count需要由调用者减少
+     * 只有当持有takeLock时才会调用
+     */
+    private E dequeue() {
+        final Object[] items = this.items;
+        @SuppressWarnings("unchecked")
+        E e = (E) items[takeIndex];
+        items[takeIndex] = null;
+        if (++takeIndex == items.length) takeIndex = 0;
+        return e;
+    }
+
+    /**
+     * 同时锁住put和take，防止两边的修改
+     */
+    void fullyLock() {
+        putLock.lock();
+        takeLock.lock();
+    }
+
+    /**
+     * 同时释放put和take的锁
+     */
+    void fullyUnlock() {
+        takeLock.unlock();
+        putLock.unlock();
+    }
+
+    /**
+     * 创建一个带有固定能力和默认进入策略的队列
+     * @param capacity
+     */
+    public TwoLockArrayBlockingQueue(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * 创建一个带有固定能力和特定进入策略的队列，
+     * fair同时作用于putLock和takeLock
+     * @param capacity
+     * @param fair
+     */
+    public TwoLockArrayBlockingQueue(int capacity, boolean fair) {
+        super(capacity);
+        takeLock = new ReentrantLock(fair);
+        notEmpty = takeLock.newCondition();
+        putLock = new ReentrantLock(fair);
+        notFull = putLock.newCondition();
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        final AtomicInteger count = this.count;
+        final int capacity = items.length;
+        if (count.get() == capacity)
+            return false;
+        final int c;
+        final ReentrantLock putLock = this.putLock;
+        putLock.lock();
+        try {
+            if (count.get() == capacity)
+                return false;
+            enqueue(e);
+            c = count.getAndIncrement();
+            if (c + 1 < capacity)
+                notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0)
+            signalNotEmpty();
+        return true;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        final int c;
+        final int capacity = items.length;
+        final ReentrantLock putLock = this.putLock;
+        final AtomicInteger count = this.count;
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() == capacity)
+                notFull.await();
+            enqueue(e);
+            c = count.getAndIncrement();
+            // 还有空位就把信号传给下一个生产者
+            if (c + 1 < capacity)
+                notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0)
+            signalNotEmpty();
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        long nanos = unit.toNanos(timeout);
+        final int c;
+        final int capacity = items.length;
+        final ReentrantLock putLock = this.putLock;
+        final AtomicInteger count = this.count;
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() == capacity) {
+                if (nanos <= 0L)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(e);
+            c = count.getAndIncrement();
+            if (c + 1 < capacity)
+                notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0)
+            signalNotEmpty();
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        final AtomicInteger count = this.count;
+        if (count.get() == 0)
+            return null;
+        final E x;
+        final int c;
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lock();
+        try {
+            if (count.get() == 0)
+                return null;
+            x = dequeue();
+            c = count.getAndDecrement();
+            if (itrs != null)
+                itrs.elementDequeued();
+            if (c > 1)
+                notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == items.length)
+            signalNotFull();
+        return x;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        final E x;
+        final int c;
+        final AtomicInteger count = this.count;
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0)
+                notEmpty.await();
+            x = dequeue();
+            c = count.getAndDecrement();
+            if (itrs != null)
+                itrs.elementDequeued();
+            // 还有元素就把信号传给下一个消费者
+            if (c > 1)
+                notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == items.length)
+            signalNotFull();
+        return x;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final E x;
+        final int c;
+        long nanos = unit.toNanos(timeout);
+        final AtomicInteger count = this.count;
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                if (nanos <= 0L)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            x = dequeue();
+            c = count.getAndDecrement();
+            if (itrs != null)
+                itrs.elementDequeued();
+            if (c > 1)
+                notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == items.length)
+            signalNotFull();
+        return x;
+    }
+
+    @Override
+    public E peek() {
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lock();
+        try {
+            // 队列为空时count为0，槽位为null；count不为0时槽位的写入对这里可见
+            return (count.get() > 0) ? itemAt(takeIndex) : null;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * 删除removeIndex位置的元素。
+     * 只有当同时持有两把锁时才会调用
+     */
+    @Override
+    void removeAt(final int removeIndex) {
+        final Object[] items = this.items;
+        if (removeIndex == takeIndex) {
+            items[takeIndex] = null;
+            if (++takeIndex == items.length) takeIndex = 0;
+            count.getAndDecrement();
+            if (itrs != null)
+                itrs.elementDequeued();
+        } else {
+            for (int i = removeIndex, putIndex = this.putIndex;;) {
+                int pred = i;
+                if (++i == items.length) i = 0;
+                if (i == putIndex) {
+                    items[pred] = null;
+                    this.putIndex = pred;
+                    break;
+                }
+                items[pred] = items[i];
+            }
+            count.getAndDecrement();
+            if (itrs != null)
+                itrs.removedAt(removeIndex);
+        }
+        notFull.signal();
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return items.length - count.get();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) return false;
+        fullyLock();
+        try {
+            if (count.get() > 0) {
+                final Object[] items = this.items;
+                for (int i = takeIndex, k = count.get(); k > 0; k--) {
+                    if (o.equals(items[i])) {
+                        removeAt(i);
+                        return true;
+                    }
+                    if (++i == items.length) i = 0;
+                }
+            }
+            return false;
+        } finally {
+            fullyUnlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) return false;
+        fullyLock();
+        try {
+            final Object[] items = this.items;
+            for (int i = takeIndex, k = count.get(); k > 0; k--) {
+                if (o.equals(items[i]))
+                    return true;
+                if (++i == items.length) i = 0;
+            }
+            return false;
+        } finally {
+            fullyUnlock();
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        fullyLock();
+        try {
+            final Object[] items = this.items;
+            final int n = count.get();
+            final Object[] a = new Object[n];
+            final int firstLeg = Math.min(items.length - takeIndex, n);
+            System.arraycopy(items, takeIndex, a, 0, firstLeg);
+            if (firstLeg < n)
+                System.arraycopy(items, 0, a, firstLeg, n - firstLeg);
+            return a;
+        } finally {
+            fullyUnlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        fullyLock();
+        try {
+            final Object[] items = this.items;
+            final int n = count.get();
+            if (a.length < n)
+                a = (T[]) java.lang.reflect.Array.newInstance(
+                    a.getClass().getComponentType(), n);
+            final int firstLeg = Math.min(items.length - takeIndex, n);
+            System.arraycopy(items, takeIndex, a, 0, firstLeg);
+            if (firstLeg < n)
+                System.arraycopy(items, 0, a, firstLeg, n - firstLeg);
+            if (a.length > n)
+                a[n] = null;
+            return a;
+        } finally {
+            fullyUnlock();
+        }
+    }
+
+    /**
+     * 原子地清空队列，队列中的迭代器全部失效
+     */
+    @Override
+    public void clear() {
+        fullyLock();
+        try {
+            int k;
+            if ((k = count.get()) > 0) {
+                final Object[] items = this.items;
+                for (int i = takeIndex; k > 0; k--) {
+                    items[i] = null;
+                    if (++i == items.length) i = 0;
+                }
+                takeIndex = putIndex;
+                count.set(0);
+                if (itrs != null)
+                    itrs.queueIsEmpty();
+                notFull.signalAll();
+            }
+        } finally {
+            fullyUnlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        boolean signalNotFull = false;
+        final Object[] items = this.items;
+        final ReentrantLock takeLock = this.takeLock;
+        takeLock.lock();
+        try {
+            int n = Math.min(maxElements, count.get());
+            int take = takeIndex;
+            int i = 0;
+            try {
+                while (i < n) {
+                    @SuppressWarnings("unchecked")
+                    E e = (E) items[take];
+                    c.add(e);
+                    items[take] = null;
+                    if (++take == items.length) take = 0;
+                    i++;
+                }
+                return n;
+            } finally {
+                // c.add()抛出异常时也要恢复不变量
+                if (i > 0) {
+                    takeIndex = take;
+                    signalNotFull = (count.getAndAdd(-i) == items.length);
+                    if (itrs != null) {
+                        if (count.get() == 0)
+                            itrs.queueIsEmpty();
+                        else if (i > take)
+                            itrs.takeIndexWrapped();
+                    }
+                }
+            }
+        } finally {
+            takeLock.unlock();
+            if (signalNotFull)
+                signalNotFull();
+        }
+    }
+
+    /**
+     * 迭代器操作同时持有两把锁，其中的takeLock保护itrs
+     */
+    @Override
+    void lockForIterators() {
+        fullyLock();
+    }
+
+    @Override
+    void unlockForIterators() {
+        fullyUnlock();
+    }
+
+    @Override
+    boolean iteratorsLockHeld() {
+        return takeLock.isHeldByCurrentThread();
+    }
+
+    @Override
+    int itemCount() {
+        return count.get();
+    }
+}
@@ -0,0 +1,238 @@
+package com.myjava.util.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 无锁队列的阻塞方法在条件不满足(队列空或满)时的等待策略。
+ *
+ * 队列的每一侧(等待非空、等待非满)各持有一个{@link Waiter}。阻塞方法每次尝试失败
+ * 就调用一次{@link Waiter#idle}，由策略决定是自旋、yield还是挂起；快路径在条件
+ * 可能已经满足时调用{@link Waiter#signal}。策略越激进，延迟越低，占用的CPU越多：
+ *
+ * <ul>
+ * <li>{@link #busySpin()} 一直自旋，延迟最低，独占一个核</li>
+ * <li>{@link #yielding()} 自旋一段时间之后不断yield</li>
+ * <li>{@link #backoff(long)} 自旋、yield之后用{@code LockSupport.parkNanos}指数退避，
+ * 不需要唤醒，最长等待时间就是退避的上限</li>
+ * <li>{@link #blocking()} 自旋、yield之后挂起，由另一侧唤醒，空闲时不占CPU</li>
+ * </ul>
+ */
+public interface WaitStrategy {
+
+    /**
+     * 为队列的一侧创建一个等待点
+     */
+    Waiter newWaiter();
+
+    interface Waiter {
+
+        /**
+         * 等待一轮
+         *
+         * @param round 本次阻塞调用中已经等待的轮数，从0开始
+         * @param ready 挂起之前用来重新检查条件，必须是volatile读
+         * @param timed 是否限时
+         * @param nanos 限时的时候剩余的纳秒数
+         * @return 下一轮的round
+         * @throws InterruptedException 等待时被中断
+         */
+        int idle(int round, BooleanSupplier ready, boolean timed, long nanos)
+            throws InterruptedException;
+
+        /**
+         * 条件可能已经满足，在发布元素或释放槽位之后调用
+         */
+        void signal();
+    }
+
+    /** 自旋的轮数 */
+    int SPINS = 1 << 7;
+
+    /** 自旋之后yield的轮数 */
+    int YIELDS = 1 << 4;
+
+    static WaitStrategy busySpin() {
+        return BusySpin.INSTANCE;
+    }
+
+    static WaitStrategy yielding() {
+        return Yielding.INSTANCE;
+    }
+
+    /**
+     * @param maxParkNanos 每次park的最长时间
+     */
+    static WaitStrategy backoff(long maxParkNanos) {
+        return new Backoff(maxParkNanos);
+    }
+
+    static WaitStrategy blocking() {
+        return Blocking.INSTANCE;
+    }
+
+    final class BusySpin implements WaitStrategy, Waiter {
+        static final BusySpin INSTANCE = new BusySpin();
+
+        private BusySpin() {}
+
+        @Override
+        public Waiter newWaiter() {
+            return this;
+        }
+
+        @Override
+        public int idle(int round, BooleanSupplier ready, boolean timed, long nanos) {
+            Thread.onSpinWait();
+            return round + 1;
+        }
+
+        @Override
+        public void signal() {}
+    }
+
+    final class Yielding implements WaitStrategy, Waiter {
+        static final Yielding INSTANCE = new Yielding();
+
+        private Yielding() {}
+
+        @Override
+        public Waiter newWaiter() {
+            return this;
+        }
+
+        @Override
+        public int idle(int round, BooleanSupplier ready, boolean timed, long nanos) {
+            if (round < SPINS)
+                Thread.onSpinWait();
+            else
+                Thread.yield();
+            return round + 1;
+        }
+
+        @Override
+        public void signal() {}
+    }
+
+    final class Backoff implements WaitStrategy, Waiter {
+        /** 第一次park的时间 */
+        static final long MIN_PARK_NANOS = 1L << 10;
+
+        private final long maxParkNanos;
+
+        Backoff(long maxParkNanos) {
+            if (maxParkNanos < MIN_PARK_NANOS)
+                throw new IllegalArgumentException();
+            this.maxParkNanos = maxParkNanos;
+        }
+
+        @Override
+        public Waiter newWaiter() {
+            return this;
+        }
+
+        @Override
+        public int idle(int round, BooleanSupplier ready, boolean timed, long nanos) {
+            if (round < SPINS)
+                Thread.onSpinWait();
+            else if (round < SPINS + YIELDS)
+                Thread.yield();
+            else {
+                int shift = Math.min(round - SPINS - YIELDS, 30);
+                long park = Math.min(MIN_PARK_NANOS << shift, maxParkNanos);
+                LockSupport.parkNanos(this, timed ? Math.min(park, nanos) : park);
+            }
+            return round + 1;
+        }
+
+        @Override
+        public void signal() {}
+    }
+
+    final class Blocking implements WaitStrategy {
+        static final Blocking INSTANCE = new Blocking();
+
+        private Blocking() {}
+
+        @Override
+        public Waiter newWaiter() {
+            return new BlockingWaiter();
+        }
+    }
+
+    /**
+     * 等待的线程挂起前先登记自己，再通过ready重新检查条件；
+     * signal先发布(由调用者完成)，再经过一个完整的内存屏障检查有没有登记的线程。
+     * 两边都是先写后读，所以至少有一边能看到对方，不会丢失唤醒。
+     * 锁和条件队列只在慢路径上使用，没有线程挂起时signal不会加锁。
+     */
+    final class BlockingWaiter implements Waiter {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition cond = lock.newCondition();
+
+        /** 登记的线程数 */
+        private volatile int waiters;
+
+        BlockingWaiter() {}
+
+        @Override
+        public int idle(int round, BooleanSupplier ready, boolean timed, long nanos)
+            throws InterruptedException {
+            if (round < SPINS) {
+                Thread.onSpinWait();
+                return round + 1;
+            }
+            if (round < SPINS + YIELDS) {
+                Thread.yield();
+                return round + 1;
+            }
+            final ReentrantLock lock = this.lock;
+            lock.lockInterruptibly();
+            try {
+                WAITERS.getAndAdd(this, 1);
+                try {
+                    if (!ready.getAsBoolean()) {
+                        if (timed)
+                            cond.awaitNanos(nanos);
+                        else
+                            cond.await();
+                    }
+                } finally {
+                    WAITERS.getAndAdd(this, -1);
+                }
+            } finally {
+                lock.unlock();
+            }
+            return round;
+        }
+
+        @Override
+        public void signal() {
+            VarHandle.fullFence();
+            if (waiters != 0) {
+                final ReentrantLock lock = this.lock;
+                lock.lock();
+                try {
+                    cond.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        private static final VarHandle WAITERS;
+        static {
+            try {
+                WAITERS = MethodHandles.lookup().findVarHandle(
+                    BlockingWaiter.class, "waiters", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+}
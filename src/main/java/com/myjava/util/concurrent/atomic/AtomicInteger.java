@@ -29,22 +29,27 @@ public class AtomicInteger extends Number implements Serializable {
 
     @Override
     public int intValue() {
-        return 0;
+        return get();
     }
 
     @Override
     public long longValue() {
-        return 0;
+        return (long) get();
     }
 
     @Override
     public float floatValue() {
-        return 0;
+        return (float) get();
     }
 
     @Override
     public double doubleValue() {
-        return 0;
+        return (double) get();
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toString(get());
     }
 
     /**
@@ -67,8 +72,12 @@ public class AtomicInteger extends Number implements Serializable {
         value = newValue;
     }
 
+    /**
+     * 将值设置成{@code newValue},
+     * 通过{@link VarHandle#setRelease}作用于内存。
+     */
     public final void lazySet(int newValue) {
-        U.putIntRelease(this, value, newValue);
+        U.putIntRelease(this, VALUE, newValue);
     }
 
     public final int getAndSet(int newValue) {
@@ -83,6 +92,30 @@ public class AtomicInteger extends Number implements Serializable {
         return U.weakCompareAndSetIntPlain(this, VALUE, expectedValue, newValue);
     }
 
+    public final int getAndIncrement() {
+        return U.getAndAddInt(this, VALUE, 1);
+    }
+
+    public final int getAndDecrement() {
+        return U.getAndAddInt(this, VALUE, -1);
+    }
+
+    public final int getAndAdd(int delta) {
+        return U.getAndAddInt(this, VALUE, delta);
+    }
+
+    public final int incrementAndGet() {
+        return U.getAndAddInt(this, VALUE, 1) + 1;
+    }
+
+    public final int decrementAndGet() {
+        return U.getAndAddInt(this, VALUE, -1) - 1;
+    }
+
+    public final int addAndGet(int delta) {
+        return U.getAndAddInt(this, VALUE, delta) + delta;
+    }
+
     public final int getAndUpdate(IntUnaryOperator updateFunction) {
         int prev = get(), next = 0;
         for (boolean haveNext = false;;) {
@@ -143,8 +176,57 @@ public class AtomicInteger extends Number implements Serializable {
         return U.compareAndExchangeIntAcquire(this, VALUE, expectedValue, newValue);
     }
 
+    public final int compareAndExchangeRelease(int expectedValue, int newValue) {
+        return U.compareAndExchangeIntRelease(this, VALUE, expectedValue, newValue);
+    }
+
     public final boolean weakCompareAndSetVolatile(int expectedValue, int newValue) {
         return U.weakCompareAndSetInt(this, VALUE, expectedValue, newValue);
     }
+
+    public final boolean weakCompareAndSetAcquire(int expectedValue, int newValue) {
+        return U.weakCompareAndSetIntAcquire(this, VALUE, expectedValue, newValue);
+    }
+
+    public final boolean weakCompareAndSetRelease(int expectedValue, int newValue) {
+        return U.weakCompareAndSetIntRelease(this, VALUE, expectedValue, newValue);
+    }
+
+    /**
+     * 以普通读的方式返回当前值，
+     * 通过{@link VarHandle#get}作用于内存。
+     */
+    public final int getPlain() {
+        return U.getInt(this, VALUE);
+    }
+
+    public final void setPlain(int newValue) {
+        U.putInt(this, VALUE, newValue);
+    }
+
+    /**
+     * 通过{@link VarHandle#getOpaque}作用于内存。
+     */
+    public final int getOpaque() {
+        return U.getIntOpaque(this, VALUE);
+    }
+
+    public final void setOpaque(int newValue) {
+        U.putIntOpaque(this, VALUE, newValue);
+    }
+
+    /**
+     * 通过{@link VarHandle#getAcquire}作用于内存。
+     */
+    public final int getAcquire() {
+        return U.getIntAcquire(this, VALUE);
+    }
+
+    /**
+     * 通过{@link VarHandle#setRelease}作用于内存。
+     */
+    public final void setRelease(int newValue) {
+        U.putIntRelease(this, VALUE, newValue);
+    }
 }
 
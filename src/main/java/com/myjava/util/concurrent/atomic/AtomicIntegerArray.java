@@ -0,0 +1,168 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 元素可以原子地更新的{@code int}数组，每个元素的访问语义与{@link AtomicInteger}相同，
+ * 通过数组元素的{@link VarHandle}作用于内存。
+ *
+ * 相邻的元素位于同一个缓存行，多个线程频繁更新不同的元素时会产生伪共享。
+ */
+public class AtomicIntegerArray implements Serializable {
+    private static final long serialVersionUID = 2862133569453604235L;
+    private static final VarHandle AA
+        = MethodHandles.arrayElementVarHandle(int[].class);
+    private final int[] array;
+
+    public AtomicIntegerArray(int length) {
+        array = new int[length];
+    }
+
+    /**
+     * 复制给定数组中的所有元素
+     */
+    public AtomicIntegerArray(int[] array) {
+        // final域保证了可见性
+        this.array = array.clone();
+    }
+
+    public final int length() {
+        return array.length;
+    }
+
+    public final int get(int i) {
+        return (int) AA.getVolatile(array, i);
+    }
+
+    public final void set(int i, int newValue) {
+        AA.setVolatile(array, i, newValue);
+    }
+
+    public final void lazySet(int i, int newValue) {
+        AA.setRelease(array, i, newValue);
+    }
+
+    public final int getAndSet(int i, int newValue) {
+        return (int) AA.getAndSet(array, i, newValue);
+    }
+
+    public final boolean compareAndSet(int i, int expectedValue, int newValue) {
+        return AA.compareAndSet(array, i, expectedValue, newValue);
+    }
+
+    public final boolean weakCompareAndSetPlain(int i, int expectedValue, int newValue) {
+        return AA.weakCompareAndSetPlain(array, i, expectedValue, newValue);
+    }
+
+    public final int getAndIncrement(int i) {
+        return (int) AA.getAndAdd(array, i, 1);
+    }
+
+    public final int getAndDecrement(int i) {
+        return (int) AA.getAndAdd(array, i, -1);
+    }
+
+    public final int getAndAdd(int i, int delta) {
+        return (int) AA.getAndAdd(array, i, delta);
+    }
+
+    public final int incrementAndGet(int i) {
+        return (int) AA.getAndAdd(array, i, 1) + 1;
+    }
+
+    public final int decrementAndGet(int i) {
+        return (int) AA.getAndAdd(array, i, -1) - 1;
+    }
+
+    public final int addAndGet(int i, int delta) {
+        return (int) AA.getAndAdd(array, i, delta) + delta;
+    }
+
+    public final int getAndUpdate(int i, IntUnaryOperator updateFunction) {
+        int prev = get(i), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = updateFunction.applyAsInt(prev);
+            if (weakCompareAndSetVolatile(i, prev, next))
+                return prev;
+            haveNext = (prev == (prev = get(i)));
+        }
+    }
+
+    public final int updateAndGet(int i, IntUnaryOperator updateFunction) {
+        int prev = get(i), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = updateFunction.applyAsInt(prev);
+            if (weakCompareAndSetVolatile(i, prev, next))
+                return next;
+            haveNext = (prev == (prev = get(i)));
+        }
+    }
+
+    public final int getAndAccumulate(int i, int x, IntBinaryOperator accumulatorFunction) {
+        int prev = get(i), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = accumulatorFunction.applyAsInt(prev, x);
+            if (weakCompareAndSetVolatile(i, prev, next))
+                return prev;
+            haveNext = (prev == (prev = get(i)));
+        }
+    }
+
+    public final int accumulateAndGet(int i, int x, IntBinaryOperator accumulatorFunction) {
+        int prev = get(i), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = accumulatorFunction.applyAsInt(prev, x);
+            if (weakCompareAndSetVolatile(i, prev, next))
+                return next;
+            haveNext = (prev == (prev = get(i)));
+        }
+    }
+
+    public final int compareAndExchange(int i, int expectedValue, int newValue) {
+        return (int) AA.compareAndExchange(array, i, expectedValue, newValue);
+    }
+
+    public final boolean weakCompareAndSetVolatile(int i, int expectedValue, int newValue) {
+        return AA.weakCompareAndSet(array, i, expectedValue, newValue);
+    }
+
+    public final int getAcquire(int i) {
+        return (int) AA.getAcquire(array, i);
+    }
+
+    public final void setRelease(int i, int newValue) {
+        AA.setRelease(array, i, newValue);
+    }
+
+    public final int getOpaque(int i) {
+        return (int) AA.getOpaque(array, i);
+    }
+
+    public final void setOpaque(int i, int newValue) {
+        AA.setOpaque(array, i, newValue);
+    }
+
+    @Override
+    public String toString() {
+        int iMax = array.length - 1;
+        if (iMax == -1)
+            return "[]";
+
+        StringBuilder b = new StringBuilder();
+        b.append('[');
+        for (int i = 0; ; i++) {
+            b.append(get(i));
+            if (i == iMax)
+                return b.append(']').toString();
+            b.append(',').append(' ');
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.myjava.util.concurrent.atomic;
+
+import jdk.internal.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Objects;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 基于反射的工具类，可以原子地更新指定类中的{@code volatile int}字段。
+ * 用于大量的对象各有一个计数器的场合：字段直接内嵌在对象中，
+ * 不需要像{@link AtomicInteger}那样为每个对象再分配一个对象。
+ *
+ * 字段必须是非静态的volatile int，并且调用{@link #newUpdater}的类必须能够访问它。
+ * compareAndSet等方法只对通过这个updater进行的其他更新保证原子性。
+ */
+public abstract class AtomicIntegerFieldUpdater<T> {
+
+    /**
+     * @param tclass 包含字段的类
+     * @param fieldName 字段名
+     * @throws IllegalArgumentException 字段不是volatile int，或者是静态的
+     * @throws RuntimeException 字段不存在或调用者不能访问，原因是反射异常
+     */
+    public static <U> AtomicIntegerFieldUpdater<U> newUpdater(Class<U> tclass,
+                                                              String fieldName) {
+        Class<?> caller = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE)
+                .getCallerClass();
+        return new AtomicIntegerFieldUpdaterImpl<U>(tclass, fieldName, caller);
+    }
+
+    protected AtomicIntegerFieldUpdater() {
+    }
+
+    public abstract boolean compareAndSet(T obj, int expect, int update);
+
+    public abstract boolean weakCompareAndSet(T obj, int expect, int update);
+
+    public abstract void set(T obj, int newValue);
+
+    public abstract void lazySet(T obj, int newValue);
+
+    public abstract int get(T obj);
+
+    public int getAndSet(T obj, int newValue) {
+        int prev;
+        do {
+            prev = get(obj);
+        } while (!compareAndSet(obj, prev, newValue));
+        return prev;
+    }
+
+    public int getAndIncrement(T obj) {
+        return getAndAdd(obj, 1);
+    }
+
+    public int getAndDecrement(T obj) {
+        return getAndAdd(obj, -1);
+    }
+
+    public int getAndAdd(T obj, int delta) {
+        int prev;
+        do {
+            prev = get(obj);
+        } while (!compareAndSet(obj, prev, prev + delta));
+        return prev;
+    }
+
+    public int incrementAndGet(T obj) {
+        return getAndAdd(obj, 1) + 1;
+    }
+
+    public int decrementAndGet(T obj) {
+        return getAndAdd(obj, -1) - 1;
+    }
+
+    public int addAndGet(T obj, int delta) {
+        return getAndAdd(obj, delta) + delta;
+    }
+
+    public final int getAndUpdate(T obj, IntUnaryOperator updateFunction) {
+        int prev, next;
+        do {
+            prev = get(obj);
+            next = updateFunction.applyAsInt(prev);
+        } while (!compareAndSet(obj, prev, next));
+        return prev;
+    }
+
+    public final int updateAndGet(T obj, IntUnaryOperator updateFunction) {
+        int prev, next;
+        do {
+            prev = get(obj);
+            next = updateFunction.applyAsInt(prev);
+        } while (!compareAndSet(obj, prev, next));
+        return next;
+    }
+
+    public final int getAndAccumulate(T obj, int x,
+                                      IntBinaryOperator accumulatorFunction) {
+        int prev, next;
+        do {
+            prev = get(obj);
+            next = accumulatorFunction.applyAsInt(prev, x);
+        } while (!compareAndSet(obj, prev, next));
+        return prev;
+    }
+
+    public final int accumulateAndGet(T obj, int x,
+                                      IntBinaryOperator accumulatorFunction) {
+        int prev, next;
+        do {
+            prev = get(obj);
+            next = accumulatorFunction.applyAsInt(prev, x);
+        } while (!compareAndSet(obj, prev, next));
+        return next;
+    }
+
+    /**
+     * 查找字段并检查caller能否访问它，各个updater共用
+     */
+    static Field findField(Class<?> tclass, String fieldName, Class<?> type, Class<?> caller) {
+        Objects.requireNonNull(tclass);
+        Objects.requireNonNull(fieldName);
+        final Field field;
+        try {
+            field = tclass.getDeclaredField(fieldName);
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+        int modifiers = field.getModifiers();
+        if (!isAccessible(caller, tclass, modifiers))
+            throw new RuntimeException(new IllegalAccessException(
+                    caller.getName() + " cannot access " + modifierString(modifiers) +
+                    "field " + tclass.getName() + "." + fieldName));
+        if (field.getType() != type)
+            throw new IllegalArgumentException("Must be " + type + " type");
+        if (!Modifier.isVolatile(modifiers))
+            throw new IllegalArgumentException("Must be volatile type");
+        if (Modifier.isStatic(modifiers))
+            throw new IllegalArgumentException("Must not be static");
+        return field;
+    }
+
+    /**
+     * java语言的访问规则：private字段只能被同一个类(或嵌套的类)访问，
+     * 包访问的字段只能被同一个包访问，protected还允许子类访问
+     */
+    private static boolean isAccessible(Class<?> caller, Class<?> tclass, int modifiers) {
+        if (caller == tclass || caller.isNestmateOf(tclass))
+            return true;
+        if (Modifier.isPrivate(modifiers))
+            return false;
+        boolean samePackage = caller.getClassLoader() == tclass.getClassLoader()
+                && caller.getPackageName().equals(tclass.getPackageName());
+        if (samePackage)
+            return true;
+        if (!Modifier.isPublic(tclass.getModifiers()))
+            return false;
+        if (Modifier.isPublic(modifiers))
+            return true;
+        return Modifier.isProtected(modifiers) && tclass.isAssignableFrom(caller);
+    }
+
+    private static String modifierString(int modifiers) {
+        String s = Modifier.toString(modifiers);
+        return s.isEmpty() ? "" : s + " ";
+    }
+
+    /**
+     * 通过Unsafe访问字段的实现
+     */
+    private static final class AtomicIntegerFieldUpdaterImpl<T>
+            extends AtomicIntegerFieldUpdater<T> {
+        private static final Unsafe U = Unsafe.getUnsafe();
+        private final long offset;
+        private final Class<T> tclass;
+
+        AtomicIntegerFieldUpdaterImpl(Class<T> tclass, String fieldName, Class<?> caller) {
+            Field field = findField(tclass, fieldName, int.class, caller);
+            this.tclass = tclass;
+            this.offset = U.objectFieldOffset(field);
+        }
+
+        private void accessCheck(T obj) {
+            if (!tclass.isInstance(obj))
+                throw new ClassCastException("Cannot cast " +
+                        (obj == null ? "null" : obj.getClass().getName()) +
+                        " to " + tclass.getName());
+        }
+
+        @Override
+        public boolean compareAndSet(T obj, int expect, int update) {
+            accessCheck(obj);
+            return U.compareAndSetInt(obj, offset, expect, update);
+        }
+
+        @Override
+        public boolean weakCompareAndSet(T obj, int expect, int update) {
+            accessCheck(obj);
+            return U.weakCompareAndSetIntPlain(obj, offset, expect, update);
+        }
+
+        @Override
+        public void set(T obj, int newValue) {
+            accessCheck(obj);
+            U.putIntVolatile(obj, offset, newValue);
+        }
+
+        @Override
+        public void lazySet(T obj, int newValue) {
+            accessCheck(obj);
+            U.putIntRelease(obj, offset, newValue);
+        }
+
+        @Override
+        public int get(T obj) {
+            accessCheck(obj);
+            return U.getIntVolatile(obj, offset);
+        }
+
+        @Override
+        public int getAndSet(T obj, int newValue) {
+            accessCheck(obj);
+            return U.getAndSetInt(obj, offset, newValue);
+        }
+
+        @Override
+        public int getAndAdd(T obj, int delta) {
+            accessCheck(obj);
+            return U.getAndAddInt(obj, offset, delta);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.myjava.util.concurrent.atomic;
+
+import jdk.internal.misc.Unsafe;
+
+import java.io.Serializable;
+import java.lang.invoke.VarHandle;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * {@code long}值的更新是原子的。{@link java.lang.invoke.VarHandle}指定描述了原子访问的属性。
+ * {@code AtomicLong}被用于在应用中原子地增加序列号这样的计数器，而且不能用于代替{@link Long}。然而
+ * 这个类继承了{@code Number}来允许通过工具和实用类指定访问来处理基于数值的类
+ *
+ * 与相邻的域位于同一个缓存行的热点计数器会产生伪共享，这时使用{@link PaddedAtomicLong}。
+ */
+public class AtomicLong extends Number implements Serializable {
+    private static final long serialVersionUID = 1927816293512124184L;
+
+    private static final jdk.internal.misc.Unsafe U = Unsafe.getUnsafe();
+    private static final long VALUE = U.objectFieldOffset(AtomicLong.class, "value");
+
+    private volatile long value;
+
+    public AtomicLong(long initialValue) {
+        this.value = initialValue;
+    }
+
+    public AtomicLong() {
+    }
+
+    @Override
+    public int intValue() {
+        return (int) get();
+    }
+
+    @Override
+    public long longValue() {
+        return get();
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) get();
+    }
+
+    @Override
+    public double doubleValue() {
+        return (double) get();
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+
+    /**
+     * 返回当前值,
+     * 通过{@link VarHandle#getVolatile}作用于内存。
+     *
+     * @return the current value
+     */
+    public final long get() {
+        return value;
+    }
+
+    /**
+     * 将值设置成{@code newValue},
+     * 通过{@link VarHandle#setVolatile}作用于内存。
+     *
+     * @param newValue the new value
+     */
+    public final void set(long newValue) {
+        value = newValue;
+    }
+
+    /**
+     * 将值设置成{@code newValue},
+     * 通过{@link VarHandle#setRelease}作用于内存。
+     */
+    public final void lazySet(long newValue) {
+        U.putLongRelease(this, VALUE, newValue);
+    }
+
+    public final long getAndSet(long newValue) {
+        return U.getAndSetLong(this, VALUE, newValue);
+    }
+
+    public final boolean compareAndSet(long expectedValue, long newValue) {
+        return U.compareAndSetLong(this, VALUE, expectedValue, newValue);
+    }
+
+    public final boolean weakCompareAndSetPlain(long expectedValue, long newValue) {
+        return U.weakCompareAndSetLongPlain(this, VALUE, expectedValue, newValue);
+    }
+
+    public final long getAndIncrement() {
+        return U.getAndAddLong(this, VALUE, 1L);
+    }
+
+    public final long getAndDecrement() {
+        return U.getAndAddLong(this, VALUE, -1L);
+    }
+
+    public final long getAndAdd(long delta) {
+        return U.getAndAddLong(this, VALUE, delta);
+    }
+
+    public final long incrementAndGet() {
+        return U.getAndAddLong(this, VALUE, 1L) + 1L;
+    }
+
+    public final long decrementAndGet() {
+        return U.getAndAddLong(this, VALUE, -1L) - 1L;
+    }
+
+    public final long addAndGet(long delta) {
+        return U.getAndAddLong(this, VALUE, delta) + delta;
+    }
+
+    public final long getAndUpdate(LongUnaryOperator updateFunction) {
+        long prev = get(), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext) {
+                next = updateFunction.applyAsLong(prev);
+            }
+            if (weakCompareAndSetVolatile(prev, next)) {
+                return prev;
+            }
+            haveNext = (prev == (prev = get()));
+        }
+    }
+
+    public final long updateAndGet(LongUnaryOperator updateFunction) {
+        long prev = get(), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext) {
+                next = updateFunction.applyAsLong(prev);
+            }
+            if (weakCompareAndSetVolatile(prev, next)) {
+                return next;
+            }
+            haveNext = (prev == (prev = get()));
+        }
+    }
+
+    public final long getAndAccumulate(long x, LongBinaryOperator accumulatorFunction) {
+        long prev = get(), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext) {
+                next = accumulatorFunction.applyAsLong(prev, x);
+            }
+            if (weakCompareAndSetVolatile(prev, next)) {
+                return prev;
+            }
+            haveNext = (prev == (prev = get()));
+        }
+    }
+
+    public final long accumulateAndGet(long x, LongBinaryOperator accumulatorFunction) {
+        long prev = get(), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext) {
+                next = accumulatorFunction.applyAsLong(prev, x);
+            }
+            if (weakCompareAndSetVolatile(prev, next)) {
+                return next;
+            }
+            haveNext = (prev == (prev = get()));
+        }
+    }
+
+    public final long compareAndExchange(long expectedValue, long newValue) {
+        return U.compareAndExchangeLong(this, VALUE, expectedValue, newValue);
+    }
+
+    public final long compareAndExchangeAcquire(long expectedValue, long newValue) {
+        return U.compareAndExchangeLongAcquire(this, VALUE, expectedValue, newValue);
+    }
+
+    public final long compareAndExchangeRelease(long expectedValue, long newValue) {
+        return U.compareAndExchangeLongRelease(this, VALUE, expectedValue, newValue);
+    }
+
+    public final boolean weakCompareAndSetVolatile(long expectedValue, long newValue) {
+        return U.weakCompareAndSetLong(this, VALUE, expectedValue, newValue);
+    }
+
+    public final boolean weakCompareAndSetAcquire(long expectedValue, long newValue) {
+        return U.weakCompareAndSetLongAcquire(this, VALUE, expectedValue, newValue);
+    }
+
+    public final boolean weakCompareAndSetRelease(long expectedValue, long newValue) {
+        return U.weakCompareAndSetLongRelease(this, VALUE, expectedValue, newValue);
+    }
+
+    /**
+     * 以普通读的方式返回当前值，
+     * 通过{@link VarHandle#get}作用于内存。
+     */
+    public final long getPlain() {
+        return U.getLong(this, VALUE);
+    }
+
+    public final void setPlain(long newValue) {
+        U.putLong(this, VALUE, newValue);
+    }
+
+    /**
+     * 通过{@link VarHandle#getOpaque}作用于内存。
+     */
+    public final long getOpaque() {
+        return U.getLongOpaque(this, VALUE);
+    }
+
+    public final void setOpaque(long newValue) {
+        U.putLongOpaque(this, VALUE, newValue);
+    }
+
+    /**
+     * 通过{@link VarHandle#getAcquire}作用于内存。
+     */
+    public final long getAcquire() {
+        return U.getLongAcquire(this, VALUE);
+    }
+
+    /**
+     * 通过{@link VarHandle#setRelease}作用于内存。
+     */
+    public final void setRelease(long newValue) {
+        U.putLongRelease(this, VALUE, newValue);
+    }
+}
+
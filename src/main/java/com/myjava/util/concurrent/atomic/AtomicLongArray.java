@@ -0,0 +1,168 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * 元素可以原子地更新的{@code long}数组，每个元素的访问语义与{@link AtomicLong}相同，
+ * 通过数组元素的{@link VarHandle}作用于内存。
+ *
+ * 相邻的元素位于同一个缓存行，多个线程频繁更新不同的元素时会产生伪共享。
+ */
+public class AtomicLongArray implements Serializable {
+    private static final long serialVersionUID = -2308431214976778248L;
+    private static final VarHandle AA
+        = MethodHandles.arrayElementVarHandle(long[].class);
+    private final long[] array;
+
+    public AtomicLongArray(int length) {
+        array = new long[length];
+    }
+
+    /**
+     * 复制给定数组中的所有元素
+     */
+    public AtomicLongArray(long[] array) {
+        // final域保证了可见性
+        this.array = array.clone();
+    }
+
+    public final int length() {
+        return array.length;
+    }
+
+    public final long get(int i) {
+        return (long) AA.getVolatile(array, i);
+    }
+
+    public final void set(int i, long newValue) {
+        AA.setVolatile(array, i, newValue);
+    }
+
+    public final void lazySet(int i, long newValue) {
+        AA.setRelease(array, i, newValue);
+    }
+
+    public final long getAndSet(int i, long newValue) {
+        return (long) AA.getAndSet(array, i, newValue);
+    }
+
+    public final boolean compareAndSet(int i, long expectedValue, long newValue) {
+        return AA.compareAndSet(array, i, expectedValue, newValue);
+    }
+
+    public final boolean weakCompareAndSetPlain(int i, long expectedValue, long newValue) {
+        return AA.weakCompareAndSetPlain(array, i, expectedValue, newValue);
+    }
+
+    public final long getAndIncrement(int i) {
+        return (long) AA.getAndAdd(array, i, 1L);
+    }
+
+    public final long getAndDecrement(int i) {
+        return (long) AA.getAndAdd(array, i, -1L);
+    }
+
+    public final long getAndAdd(int i, long delta) {
+        return (long) AA.getAndAdd(array, i, delta);
+    }
+
+    public final long incrementAndGet(int i) {
+        return (long) AA.getAndAdd(array, i, 1L) + 1L;
+    }
+
+    public final long decrementAndGet(int i) {
+        return (long) AA.getAndAdd(array, i, -1L) - 1L;
+    }
+
+    public final long addAndGet(int i, long delta) {
+        return (long) AA.getAndAdd(array, i, delta) + delta;
+    }
+
+    public final long getAndUpdate(int i, LongUnaryOperator updateFunction) {
+        long prev = get(i), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = updateFunction.applyAsLong(prev);
+            if (weakCompareAndSetVolatile(i, prev, next))
+                return prev;
+            haveNext = (prev == (prev = get(i)));
+        }
+    }
+
+    public final long updateAndGet(int i, LongUnaryOperator updateFunction) {
+        long prev = get(i), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = updateFunction.applyAsLong(prev);
+            if (weakCompareAndSetVolatile(i, prev, next))
+                return next;
+            haveNext = (prev == (prev = get(i)));
+        }
+    }
+
+    public final long getAndAccumulate(int i, long x, LongBinaryOperator accumulatorFunction) {
+        long prev = get(i), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = accumulatorFunction.applyAsLong(prev, x);
+            if (weakCompareAndSetVolatile(i, prev, next))
+                return prev;
+            haveNext = (prev == (prev = get(i)));
+        }
+    }
+
+    public final long accumulateAndGet(int i, long x, LongBinaryOperator accumulatorFunction) {
+        long prev = get(i), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = accumulatorFunction.applyAsLong(prev, x);
+            if (weakCompareAndSetVolatile(i, prev, next))
+                return next;
+            haveNext = (prev == (prev = get(i)));
+        }
+    }
+
+    public final long compareAndExchange(int i, long expectedValue, long newValue) {
+        return (long) AA.compareAndExchange(array, i, expectedValue, newValue);
+    }
+
+    public final boolean weakCompareAndSetVolatile(int i, long expectedValue, long newValue) {
+        return AA.weakCompareAndSet(array, i, expectedValue, newValue);
+    }
+
+    public final long getAcquire(int i) {
+        return (long) AA.getAcquire(array, i);
+    }
+
+    public final void setRelease(int i, long newValue) {
+        AA.setRelease(array, i, newValue);
+    }
+
+    public final long getOpaque(int i) {
+        return (long) AA.getOpaque(array, i);
+    }
+
+    public final void setOpaque(int i, long newValue) {
+        AA.setOpaque(array, i, newValue);
+    }
+
+    @Override
+    public String toString() {
+        int iMax = array.length - 1;
+        if (iMax == -1)
+            return "[]";
+
+        StringBuilder b = new StringBuilder();
+        b.append('[');
+        for (int i = 0; ; i++) {
+            b.append(get(i));
+            if (i == iMax)
+                return b.append(']').toString();
+            b.append(',').append(' ');
+        }
+    }
+}
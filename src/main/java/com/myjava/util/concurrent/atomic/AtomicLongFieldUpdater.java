@@ -0,0 +1,183 @@
+package com.myjava.util.concurrent.atomic;
+
+import jdk.internal.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * 基于反射的工具类，可以原子地更新指定类中的{@code volatile long}字段。
+ * 用于大量的对象各有一个计数器的场合：字段直接内嵌在对象中，
+ * 不需要像{@link AtomicLong}那样为每个对象再分配一个对象。
+ *
+ * 字段必须是非静态的volatile long，并且调用{@link #newUpdater}的类必须能够访问它。
+ * compareAndSet等方法只对通过这个updater进行的其他更新保证原子性。
+ */
+public abstract class AtomicLongFieldUpdater<T> {
+
+    /**
+     * @param tclass 包含字段的类
+     * @param fieldName 字段名
+     * @throws IllegalArgumentException 字段不是volatile long，或者是静态的
+     * @throws RuntimeException 字段不存在或调用者不能访问，原因是反射异常
+     */
+    public static <U> AtomicLongFieldUpdater<U> newUpdater(Class<U> tclass,
+                                                              String fieldName) {
+        Class<?> caller = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE)
+                .getCallerClass();
+        return new AtomicLongFieldUpdaterImpl<U>(tclass, fieldName, caller);
+    }
+
+    protected AtomicLongFieldUpdater() {
+    }
+
+    public abstract boolean compareAndSet(T obj, long expect, long update);
+
+    public abstract boolean weakCompareAndSet(T obj, long expect, long update);
+
+    public abstract void set(T obj, long newValue);
+
+    public abstract void lazySet(T obj, long newValue);
+
+    public abstract long get(T obj);
+
+    public long getAndSet(T obj, long newValue) {
+        long prev;
+        do {
+            prev = get(obj);
+        } while (!compareAndSet(obj, prev, newValue));
+        return prev;
+    }
+
+    public long getAndIncrement(T obj) {
+        return getAndAdd(obj, 1L);
+    }
+
+    public long getAndDecrement(T obj) {
+        return getAndAdd(obj, -1L);
+    }
+
+    public long getAndAdd(T obj, long delta) {
+        long prev;
+        do {
+            prev = get(obj);
+        } while (!compareAndSet(obj, prev, prev + delta));
+        return prev;
+    }
+
+    public long incrementAndGet(T obj) {
+        return getAndAdd(obj, 1L) + 1L;
+    }
+
+    public long decrementAndGet(T obj) {
+        return getAndAdd(obj, -1L) - 1L;
+    }
+
+    public long addAndGet(T obj, long delta) {
+        return getAndAdd(obj, delta) + delta;
+    }
+
+    public final long getAndUpdate(T obj, LongUnaryOperator updateFunction) {
+        long prev, next;
+        do {
+            prev = get(obj);
+            next = updateFunction.applyAsLong(prev);
+        } while (!compareAndSet(obj, prev, next));
+        return prev;
+    }
+
+    public final long updateAndGet(T obj, LongUnaryOperator updateFunction) {
+        long prev, next;
+        do {
+            prev = get(obj);
+            next = updateFunction.applyAsLong(prev);
+        } while (!compareAndSet(obj, prev, next));
+        return next;
+    }
+
+    public final long getAndAccumulate(T obj, long x,
+                                      LongBinaryOperator accumulatorFunction) {
+        long prev, next;
+        do {
+            prev = get(obj);
+            next = accumulatorFunction.applyAsLong(prev, x);
+        } while (!compareAndSet(obj, prev, next));
+        return prev;
+    }
+
+    public final long accumulateAndGet(T obj, long x,
+                                      LongBinaryOperator accumulatorFunction) {
+        long prev, next;
+        do {
+            prev = get(obj);
+            next = accumulatorFunction.applyAsLong(prev, x);
+        } while (!compareAndSet(obj, prev, next));
+        return next;
+    }
+
+    /**
+     * 通过Unsafe访问字段的实现
+     */
+    private static final class AtomicLongFieldUpdaterImpl<T>
+            extends AtomicLongFieldUpdater<T> {
+        private static final Unsafe U = Unsafe.getUnsafe();
+        private final long offset;
+        private final Class<T> tclass;
+
+        AtomicLongFieldUpdaterImpl(Class<T> tclass, String fieldName, Class<?> caller) {
+            Field field = AtomicIntegerFieldUpdater.findField(tclass, fieldName, long.class, caller);
+            this.tclass = tclass;
+            this.offset = U.objectFieldOffset(field);
+        }
+
+        private void accessCheck(T obj) {
+            if (!tclass.isInstance(obj))
+                throw new ClassCastException("Cannot cast " +
+                        (obj == null ? "null" : obj.getClass().getName()) +
+                        " to " + tclass.getName());
+        }
+
+        @Override
+        public boolean compareAndSet(T obj, long expect, long update) {
+            accessCheck(obj);
+            return U.compareAndSetLong(obj, offset, expect, update);
+        }
+
+        @Override
+        public boolean weakCompareAndSet(T obj, long expect, long update) {
+            accessCheck(obj);
+            return U.weakCompareAndSetLongPlain(obj, offset, expect, update);
+        }
+
+        @Override
+        public void set(T obj, long newValue) {
+            accessCheck(obj);
+            U.putLongVolatile(obj, offset, newValue);
+        }
+
+        @Override
+        public void lazySet(T obj, long newValue) {
+            accessCheck(obj);
+            U.putLongRelease(obj, offset, newValue);
+        }
+
+        @Override
+        public long get(T obj) {
+            accessCheck(obj);
+            return U.getLongVolatile(obj, offset);
+        }
+
+        @Override
+        public long getAndSet(T obj, long newValue) {
+            accessCheck(obj);
+            return U.getAndSetLong(obj, offset, newValue);
+        }
+
+        @Override
+        public long getAndAdd(T obj, long delta) {
+            accessCheck(obj);
+            return U.getAndAddLong(obj, offset, delta);
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package com.myjava.util.concurrent.atomic;
 
-import sun.misc.Unsafe;
-
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.BinaryOperator;
 import java.util.function.UnaryOperator;
 
 /**
+ * 可以原子地更新的对象引用，通过{@link VarHandle}指定每个方法的内存访问语义。
+ *
+ * getAndUpdate、updateAndGet、getAndAccumulate、accumulateAndGet在CAS失败、
+ * 并且失败的原因是其他线程修改了值(而不是weakCompareAndSet的伪失败)时，
+ * 先随机地退避一段时间再重试，退避的上限每次加倍。
+ * 大量线程同时更新一个写时复制的对象(比如配置)时，每个线程都要重新计算一次新值，
+ * 退避可以让多数线程的计算不必白做，避免CAS风暴。没有竞争时没有额外的开销。
+ *
  * @author luoqi04
  * @version $Id: AtomicReference.java, v 0.1 2018/9/20 上午7:42 luoqi Exp $
  */
@@ -14,19 +23,24 @@ public class AtomicReference<V> implements Serializable {
 
     private static final long serialVersionUID = -2640151739075212071L;
 
-    private static final Unsafe unsafe = Unsafe.getUnsafe();
-    private static final long valueOffset;
-
+    private static final VarHandle VALUE;
     static {
         try {
-            valueOffset = unsafe.objectFieldOffset(
-                    AtomicReference.class.getDeclaredField("value")
-            );
-        } catch (Exception ex) {
-            throw new Error(ex);
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            VALUE = l.findVarHandle(AtomicReference.class, "value", Object.class);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
         }
     }
 
+    private static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /** 第一次退避的自旋次数上限 */
+    private static final int MIN_BACKOFF = 1 << 4;
+
+    /** 自旋次数的上限，达到后每次退避还让出CPU */
+    private static final int MAX_BACKOFF = 1 << 12;
+
     private volatile V value;
 
     public AtomicReference(V initialValue) {
@@ -36,25 +50,129 @@ public class AtomicReference<V> implements Serializable {
     public AtomicReference() {
     }
 
+    /**
+     * 通过{@link VarHandle#getVolatile}作用于内存。
+     */
     public final V get() { return value; }
 
+    /**
+     * 通过{@link VarHandle#setVolatile}作用于内存。
+     */
     public final void set(V newValue) { value = newValue; }
 
+    /**
+     * 通过{@link VarHandle#setRelease}作用于内存。
+     */
     public final void lazySet(V newValue) {
-        unsafe.putOrderedObject(this, valueOffset, newValue);
+        VALUE.setRelease(this, newValue);
     }
 
     public final boolean compareAndSet(V expect, V update) {
-        return unsafe.compareAndSwapObject(this, valueOffset, expect, update);
+        return VALUE.compareAndSet(this, expect, update);
     }
 
+    /**
+     * 可能伪失败，并且不提供任何顺序保证，
+     * 通过{@link VarHandle#weakCompareAndSetPlain}作用于内存。
+     * @deprecated 与{@link #weakCompareAndSetPlain}相同，名字容易与weakCompareAndSetVolatile混淆
+     */
+    @Deprecated
     public final boolean weakCompareAndSet(V expect, V update) {
-        return unsafe.compareAndSwapObject(this, valueOffset, expect, update);
+        return VALUE.weakCompareAndSetPlain(this, expect, update);
+    }
+
+    public final boolean weakCompareAndSetPlain(V expect, V update) {
+        return VALUE.weakCompareAndSetPlain(this, expect, update);
+    }
+
+    public final boolean weakCompareAndSetVolatile(V expect, V update) {
+        return VALUE.weakCompareAndSet(this, expect, update);
+    }
+
+    public final boolean weakCompareAndSetAcquire(V expect, V update) {
+        return VALUE.weakCompareAndSetAcquire(this, expect, update);
+    }
+
+    public final boolean weakCompareAndSetRelease(V expect, V update) {
+        return VALUE.weakCompareAndSetRelease(this, expect, update);
     }
 
     @SuppressWarnings("unchecked")
     public final V getAndSet(V newValue) {
-        return (V) unsafe.getAndSetObject(this, valueOffset, newValue);
+        return (V) VALUE.getAndSet(this, newValue);
+    }
+
+    /**
+     * 返回见证值：成功时等于expect，失败时是当时的值，
+     * 通过{@link VarHandle#compareAndExchange}作用于内存。
+     */
+    @SuppressWarnings("unchecked")
+    public final V compareAndExchange(V expect, V update) {
+        return (V) VALUE.compareAndExchange(this, expect, update);
+    }
+
+    @SuppressWarnings("unchecked")
+    public final V compareAndExchangeAcquire(V expect, V update) {
+        return (V) VALUE.compareAndExchangeAcquire(this, expect, update);
+    }
+
+    @SuppressWarnings("unchecked")
+    public final V compareAndExchangeRelease(V expect, V update) {
+        return (V) VALUE.compareAndExchangeRelease(this, expect, update);
+    }
+
+    /**
+     * 通过{@link VarHandle#get}作用于内存。
+     */
+    @SuppressWarnings("unchecked")
+    public final V getPlain() {
+        return (V) VALUE.get(this);
+    }
+
+    public final void setPlain(V newValue) {
+        VALUE.set(this, newValue);
+    }
+
+    /**
+     * 通过{@link VarHandle#getOpaque}作用于内存。
+     */
+    @SuppressWarnings("unchecked")
+    public final V getOpaque() {
+        return (V) VALUE.getOpaque(this);
+    }
+
+    public final void setOpaque(V newValue) {
+        VALUE.setOpaque(this, newValue);
+    }
+
+    /**
+     * 通过{@link VarHandle#getAcquire}作用于内存。
+     */
+    @SuppressWarnings("unchecked")
+    public final V getAcquire() {
+        return (V) VALUE.getAcquire(this);
+    }
+
+    /**
+     * 通过{@link VarHandle#setRelease}作用于内存。
+     */
+    public final void setRelease(V newValue) {
+        VALUE.setRelease(this, newValue);
+    }
+
+    /**
+     * 随机自旋[0, limit)次，返回下一次的上限。
+     * 单CPU时自旋没有意义，直接让出CPU
+     */
+    private static int backoff(int limit) {
+        if (NCPU == 1 || limit >= MAX_BACKOFF) {
+            Thread.yield();
+            if (NCPU == 1)
+                return limit;
+        }
+        for (int spins = ThreadLocalRandom.current().nextInt(limit); spins > 0; --spins)
+            Thread.onSpinWait();
+        return Math.min(limit << 1, MAX_BACKOFF);
     }
 
     /**
@@ -64,22 +182,78 @@ public class AtomicReference<V> implements Serializable {
      * @return
      */
     public final V getAndUpdate(UnaryOperator<V> updateFunction) {
-        V prev, next;
-        do {
-            prev = get();
-            next = updateFunction.apply(prev);
-        } while (!compareAndSet(prev, next));
-        return prev;
+        V prev = get(), next = null;
+        int limit = MIN_BACKOFF;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = updateFunction.apply(prev);
+            if (weakCompareAndSetVolatile(prev, next))
+                return prev;
+            // 值没有变说明是伪失败，可以直接重试
+            if (!(haveNext = (prev == (prev = get())))) {
+                limit = backoff(limit);
+                prev = get();
+            }
+        }
+    }
+
+    /**
+     * 与{@link #getAndUpdate}相同，但返回更新后的值
+     */
+    public final V updateAndGet(UnaryOperator<V> updateFunction) {
+        V prev = get(), next = null;
+        int limit = MIN_BACKOFF;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = updateFunction.apply(prev);
+            if (weakCompareAndSetVolatile(prev, next))
+                return next;
+            // 值没有变说明是伪失败，可以直接重试
+            if (!(haveNext = (prev == (prev = get())))) {
+                limit = backoff(limit);
+                prev = get();
+            }
+        }
     }
 
+    /**
+     * 用accumulatorFunction(当前值, x)原子地更新，返回先前的值
+     */
     public final V getAndAccumulate(V x,
                                     BinaryOperator<V> accumulatorFunction) {
-        V prev, next;
-        do {
-            prev = get();
-            next = accumulatorFunction.apply(prev, x);
-        } while (!compareAndSet(prev, next));
-        return next;
+        V prev = get(), next = null;
+        int limit = MIN_BACKOFF;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = accumulatorFunction.apply(prev, x);
+            if (weakCompareAndSetVolatile(prev, next))
+                return prev;
+            // 值没有变说明是伪失败，可以直接重试
+            if (!(haveNext = (prev == (prev = get())))) {
+                limit = backoff(limit);
+                prev = get();
+            }
+        }
+    }
+
+    /**
+     * 与{@link #getAndAccumulate}相同，但返回更新后的值
+     */
+    public final V accumulateAndGet(V x,
+                                    BinaryOperator<V> accumulatorFunction) {
+        V prev = get(), next = null;
+        int limit = MIN_BACKOFF;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = accumulatorFunction.apply(prev, x);
+            if (weakCompareAndSetVolatile(prev, next))
+                return next;
+            // 值没有变说明是伪失败，可以直接重试
+            if (!(haveNext = (prev == (prev = get())))) {
+                limit = backoff(limit);
+                prev = get();
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,330 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 在固定的内存中近似地统计每个key的出现频率，用来代替
+ * {@code freqs.computeIfAbsent(key, k -> new LongAdder()).increment()}，比如用于缓存的准入策略。
+ *
+ * 采用count-min sketch：depth行、每行width个计数器，每个key在每一行中散列到一个计数器，
+ * 增加时把这depth个计数器都加上，估计值取其中的最小值。估计值不会小于真实值，
+ * 多出的部分来自散列冲突，width越大误差越小。
+ *
+ * 计数器表和{@link Striped64}的cells一样按竞争扩充：开始时只有一份表，
+ * 对计数器的CAS失败后，线程换一个探针，并把表的份数加倍，直到不小于CPU个数；
+ * 线程按探针选择一份表增加，估计时把各份表中对应的计数器相加。
+ * 所以热点key不会让所有线程争用同一个计数器，而内存最多是一份表的CPU个数倍。
+ *
+ * 老化：每增加sampleSize(默认10 * width)次，所有计数器减半，让过去的热点逐渐被遗忘。
+ * 增加的次数用{@link LongAdder}统计，每段用{@link LongAdder#intervalSum}准确地取出。
+ *
+ * {@link #heavyHitters()}返回估计频率最高的topK个key。完整的估计要读所有份表，正是其他线程在写的缓存行，
+ * 所以增加时不总是更新候选集合：本线程那份表中的最小值(CAS时已经得到，是完整估计的下界)超过当前的门槛、
+ * 而key还不在候选中时才加入；已经在候选中的key只在大约1/TOP_SAMPLE_RATE的增加中更新估计值，
+ * 用普通的读和条件replace，不加锁。所以最热的key的增加不会串行化在同一个锁上。
+ * 候选中的估计值只用来决定淘汰哪个，{@link #heavyHitters()}返回时重新估计；结果是近似的。
+ */
+public class ConcurrentFrequencySketch<K> {
+
+    private static final int DEFAULT_DEPTH = 4;
+    private static final int DEFAULT_TOP_K = 16;
+    private static final int MAX_DEPTH = 8;
+
+    /** 一份计数器表(depth * width)最多的计数器个数 */
+    static final int MAX_COUNTERS = 1 << 30;
+
+    /** 每行的散列种子，都是奇数 */
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L,
+        0x9e3779b97f4a7c15L, 0xbf58476d1ce4e5b9L, 0x94d049bb133111ebL, 0xd6e8feb86659fd93L
+    };
+
+    /** 大约每这么多次增加检查一次是否需要老化 */
+    private static final int AGING_CHECK_MASK = 63;
+
+    /** 已经在候选中的key大约每这么多次增加更新一次估计值，2的幂 */
+    static final int TOP_SAMPLE_RATE = 8;
+
+    private final int width;
+    private final int depth;
+    private final int shift;
+    private final int maxStripes;
+    private final long sampleSize;
+
+    /** 计数器表的各份，每份是depth * width个计数器 */
+    private volatile long[][] tables;
+    /** 扩充tables时的自旋锁 */
+    private volatile int tablesBusy;
+    /** 老化时的自旋锁 */
+    private volatile int aging;
+    /** 上次老化以来增加的次数 */
+    private final LongAdder additions = new LongAdder();
+
+    private final int topK;
+    private final ConcurrentHashMap<K, Long> top = new ConcurrentHashMap<>();
+    /** top满了以后其中最小的估计值，不超过它的key不会进入top */
+    private volatile long threshold;
+
+    /**
+     * @param width 每行的计数器个数，向上取整为2的幂
+     */
+    public ConcurrentFrequencySketch(int width) {
+        this(width, DEFAULT_DEPTH, DEFAULT_TOP_K);
+    }
+
+    /**
+     * @param width 每行的计数器个数，向上取整为2的幂
+     * @param depth 行数，1到8之间
+     * @param topK {@link #heavyHitters()}返回的key的个数，0表示不跟踪
+     */
+    public ConcurrentFrequencySketch(int width, int depth, int topK) {
+        this(width, depth, topK, 0L);
+    }
+
+    /**
+     * @param width 每行的计数器个数，向上取整为2的幂
+     * @param depth 行数，1到8之间
+     * @param topK {@link #heavyHitters()}返回的key的个数，0表示不跟踪
+     * @param sampleSize 每增加这么多次自动老化一次，0表示10 * width，Long.MAX_VALUE表示不自动老化
+     * @throws IllegalArgumentException 参数超出范围，或者取整后depth * width超过2^30
+     */
+    public ConcurrentFrequencySketch(int width, int depth, int topK, long sampleSize) {
+        this(width, depth, topK, sampleSize, 0);
+    }
+
+    /**
+     * @param stripes 0表示开始时只有一份表，按竞争扩充到不小于CPU个数；
+     *                否则是2的幂，开始时就有这么多份表并且不再扩充，用于测试多份表的行为
+     */
+    ConcurrentFrequencySketch(int width, int depth, int topK, long sampleSize, int stripes) {
+        if (width <= 0 || depth < 1 || depth > MAX_DEPTH || topK < 0 || sampleSize < 0
+                || stripes < 0 || (stripes & (stripes - 1)) != 0)
+            throw new IllegalArgumentException();
+        // 先检查再向上取整：width超过2^30时1 << 32会回绕成负数或1
+        if (width > MAX_COUNTERS / depth)
+            throw new IllegalArgumentException("width too large: " + width);
+        int w = Math.max(16, 1 << -Integer.numberOfLeadingZeros(width - 1));
+        if ((long) depth * w > MAX_COUNTERS)
+            throw new IllegalArgumentException("width too large: " + width);
+        this.width = w;
+        this.depth = depth;
+        this.shift = 64 - Integer.numberOfTrailingZeros(w);
+        this.maxStripes = (stripes != 0) ? stripes
+                : Math.max(1, Integer.highestOneBit(Striped64.NCPU * 2 - 1));
+        this.sampleSize = (sampleSize == 0) ? 10L * w : sampleSize;
+        this.topK = topK;
+        long[][] ts = new long[Math.max(1, stripes)][];
+        for (int i = 0; i < ts.length; i++)
+            ts[i] = new long[depth * w];
+        this.tables = ts;
+    }
+
+    private static long spread(Object key) {
+        long h = key.hashCode() * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 32);
+    }
+
+    private int index(long h, int row) {
+        return row * width + (int) ((h * SEEDS[row]) >>> shift);
+    }
+
+    public void increment(K key) {
+        add(key, 1L);
+    }
+
+    /**
+     * 把key的频率增加n
+     */
+    public void add(K key, long n) {
+        if (n <= 0)
+            throw new IllegalArgumentException();
+        long h = spread(Objects.requireNonNull(key));
+        long[][] ts = tables;
+        int probe = 0;
+        long[] t = ts[0];
+        if (ts.length > 1) {
+            if ((probe = Striped64.getProbe()) == 0) {
+                ThreadLocalRandom.current(); // 初始化探针
+                probe = Striped64.getProbe();
+            }
+            t = ts[probe & (ts.length - 1)];
+        }
+        boolean contended = false;
+        long local = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int i = index(h, row);
+            long v = (long) COUNTERS.getVolatile(t, i);
+            if (!COUNTERS.compareAndSet(t, i, v, v + n)) {
+                contended = true;
+                v = (long) COUNTERS.getAndAdd(t, i, n);
+            }
+            local = Math.min(local, v + n);
+        }
+        if (contended)
+            expand(ts, probe);
+        additions.add(n);
+        int r = ThreadLocalRandom.current().nextInt();
+        if ((r & AGING_CHECK_MASK) == 0 && additions.sum() >= sampleSize)
+            age();
+        if (topK > 0 && (((r >>> 16) & (TOP_SAMPLE_RATE - 1)) == 0 ||
+                         (local > threshold && !top.containsKey(key))))
+            offerTop(key, estimate(h));
+    }
+
+    /**
+     * 有竞争时换一个探针，并把表的份数加倍
+     */
+    private void expand(long[][] ts, int probe) {
+        if (probe == 0) {
+            ThreadLocalRandom.current();
+            probe = Striped64.getProbe();
+        }
+        Striped64.advanceProbe(probe);
+        int n = ts.length;
+        if (n >= maxStripes || tables != ts || tablesBusy != 0
+                || !TABLES_BUSY.compareAndSet(this, 0, 1))
+            return;
+        try {
+            if (tables == ts) {
+                long[][] rs = Arrays.copyOf(ts, n << 1);
+                for (int i = n; i < rs.length; i++)
+                    rs[i] = new long[depth * width];
+                tables = rs;
+            }
+        } finally {
+            tablesBusy = 0;
+        }
+    }
+
+    private long estimate(long h) {
+        long[][] ts = tables;
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int i = index(h, row);
+            long sum = 0;
+            for (long[] t : ts)
+                sum += (long) COUNTERS.getVolatile(t, i);
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    /**
+     * 返回key的估计频率，不小于老化以来的真实频率
+     */
+    public long estimate(K key) {
+        return estimate(spread(Objects.requireNonNull(key)));
+    }
+
+    private void offerTop(K key, long est) {
+        if (est <= threshold)
+            return;
+        Long cur = top.get(key);
+        if (cur != null) {
+            while (cur != null && est > cur && !top.replace(key, cur, est))
+                cur = top.get(key);
+            return;
+        }
+        synchronized (top) {
+            top.put(key, est);
+            if (top.size() > topK) {
+                K minKey = null;
+                long min = Long.MAX_VALUE;
+                for (Map.Entry<K, Long> e : top.entrySet()) {
+                    if (e.getValue() < min) {
+                        min = e.getValue();
+                        minKey = e.getKey();
+                    }
+                }
+                top.remove(minKey);
+            }
+            updateThreshold();
+        }
+    }
+
+    /** 调用者持有top的锁 */
+    private void updateThreshold() {
+        long min = 0;
+        if (top.size() >= topK) {
+            min = Long.MAX_VALUE;
+            for (Long v : top.values())
+                min = Math.min(min, v);
+        }
+        threshold = min;
+    }
+
+    /**
+     * 所有计数器减半。增加的次数达到sampleSize时自动调用，
+     * 已有线程在老化时直接返回
+     */
+    public void age() {
+        if (aging != 0 || !AGING.compareAndSet(this, 0, 1))
+            return;
+        try {
+            additions.intervalSum();
+            for (long[] t : tables) {
+                for (int i = 0; i < t.length; i++) {
+                    long v;
+                    do {
+                        v = (long) COUNTERS.getVolatile(t, i);
+                    } while (v != 0 && !COUNTERS.weakCompareAndSet(t, i, v, v >>> 1));
+                }
+            }
+            synchronized (top) {
+                top.replaceAll((k, v) -> v >>> 1);
+                top.values().removeIf(v -> v == 0);
+                updateThreshold();
+            }
+        } finally {
+            aging = 0;
+        }
+    }
+
+    /**
+     * 返回估计频率最高的key及其当前的估计值，按频率从高到低排列
+     */
+    public List<Map.Entry<K, Long>> heavyHitters() {
+        List<Map.Entry<K, Long>> list = new ArrayList<>(topK);
+        for (K k : top.keySet())
+            list.add(new AbstractMap.SimpleImmutableEntry<>(k, estimate(k)));
+        list.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return list;
+    }
+
+    /**
+     * 当前计数器表的份数
+     */
+    public int stripes() {
+        return tables.length;
+    }
+
+    /**
+     * 估算计数器表占用的堆内存(字节)，不包括top
+     */
+    public long footprint() {
+        long[][] ts = tables;
+        return (16 + 4L * ts.length) + ts.length * (16 + 8L * depth * width);
+    }
+
+    private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle TABLES_BUSY;
+    private static final VarHandle AGING;
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            TABLES_BUSY = l.findVarHandle(ConcurrentFrequencySketch.class, "tablesBusy", int.class);
+            AGING = l.findVarHandle(ConcurrentFrequencySketch.class, "aging", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * double版本的{@link LongAccumulator}。
+ *
+ * 函数必须满足交换律和结合律，并且没有副作用。
+ * 对于加法这类受舍入影响的函数，结果依赖于更新的顺序，可能不是确定的。
+ */
+public class DoubleAccumulator extends Striped64 implements Serializable {
+    private static final long serialVersionUID = 7249069246863182397L;
+
+    private final DoubleBinaryOperator function;
+    private final long identity; // 按位存放的单位元
+
+    /**
+     * @param accumulatorFunction 满足交换律和结合律的函数
+     * @param identity 函数的单位元(初始值)
+     */
+    public DoubleAccumulator(DoubleBinaryOperator accumulatorFunction,
+                             double identity) {
+        this.function = accumulatorFunction;
+        base = this.identity = Double.doubleToRawLongBits(identity);
+    }
+
+    public void accumulate(double x) {
+        Cell[] cs; long b, v, r; int m; Cell c;
+        if ((cs = cells) != null
+            || ((r = Double.doubleToRawLongBits
+                (function.applyAsDouble
+                 (Double.longBitsToDouble(b = base), x))) != b
+                && !casBase(b, r))) {
+            boolean uncontended = true;
+            if (cs == null
+                || (m = cs.length - 1) < 0
+                || (c = cs[getProbe() & m]) == null
+                || !(uncontended =
+                     ((r = Double.doubleToRawLongBits
+                       (function.applyAsDouble
+                        (Double.longBitsToDouble(v = c.value), x))) == v)
+                     || c.cas(v, r)))
+                doubleAccumulate(x, function, uncontended);
+        }
+    }
+
+    /**
+     * 返回当前值。有并发更新时不是原子的快照
+     */
+    public double get() {
+        Cell[] cs = cells;
+        double result = Double.longBitsToDouble(base);
+        if (cs != null) {
+            for (Cell c : cs)
+                if (c != null)
+                    result = function.applyAsDouble
+                        (result, Double.longBitsToDouble(c.value));
+        }
+        return result;
+    }
+
+    /**
+     * 把所有变量置为identity，只在没有并发更新时才是准确的
+     */
+    public void reset() {
+        Cell[] cs = cells;
+        base = identity;
+        if (cs != null) {
+            for (Cell c : cs)
+                if (c != null)
+                    c.reset(identity);
+        }
+    }
+
+    /**
+     * 相当于{@link #get}之后再{@link #reset}
+     */
+    public double getThenReset() {
+        Cell[] cs = cells;
+        double result = Double.longBitsToDouble(getAndSetBase(identity));
+        if (cs != null) {
+            for (Cell c : cs) {
+                if (c != null) {
+                    double v = Double.longBitsToDouble(c.getAndSet(identity));
+                    result = function.applyAsDouble(result, v);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Double.toString(get());
+    }
+
+    @Override
+    public double doubleValue() {
+        return get();
+    }
+
+    @Override
+    public long longValue() {
+        return (long) get();
+    }
+
+    @Override
+    public int intValue() {
+        return (int) get();
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) get();
+    }
+
+    private static class SerializationProxy implements Serializable {
+        private static final long serialVersionUID = 7249069246863182397L;
+
+        private final double value;
+        private final DoubleBinaryOperator function;
+        private final long identity;
+
+        SerializationProxy(double value,
+                           DoubleBinaryOperator function,
+                           long identity) {
+            this.value = value;
+            this.function = function;
+            this.identity = identity;
+        }
+
+        private Object readResolve() {
+            double d = Double.longBitsToDouble(identity);
+            DoubleAccumulator a = new DoubleAccumulator(function, d);
+            a.base = Double.doubleToRawLongBits(value);
+            return a;
+        }
+    }
+
+    private Object writeReplace() {
+        return new SerializationProxy(get(), function, identity);
+    }
+
+    private void readObject(ObjectInputStream s) throws InvalidObjectException {
+        throw new InvalidObjectException("Proxy required");
+    }
+}
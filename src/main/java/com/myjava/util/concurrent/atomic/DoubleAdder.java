@@ -0,0 +1,129 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+/**
+ * 共同维护一个double和的一个或多个变量，double版本的{@link LongAdder}。
+ *
+ * 浮点数加法不满足结合律，变量相加的顺序不确定，所以结果可能因为舍入而和顺序相加不同。
+ * 适合统计量这样对舍入不敏感的用途。
+ */
+public class DoubleAdder extends Striped64 implements Serializable {
+    private static final long serialVersionUID = 7249069246863182397L;
+
+    /*
+     * 值按位存放在base和Cell的long中，{@link Striped64#doubleAccumulate}中的apply负责转换
+     */
+
+    public DoubleAdder() {
+    }
+
+    public void add(double x) {
+        Cell[] cs; long b, v; int m; Cell c;
+        if ((cs = cells) != null ||
+            !casBase(b = base,
+                     Double.doubleToRawLongBits
+                     (Double.longBitsToDouble(b) + x))) {
+            boolean uncontended = true;
+            if (cs == null || (m = cs.length - 1) < 0 ||
+                (c = cs[getProbe() & m]) == null ||
+                !(uncontended = c.cas(v = c.value,
+                                      Double.doubleToRawLongBits
+                                      (Double.longBitsToDouble(v) + x))))
+                doubleAccumulate(x, null, uncontended);
+        }
+    }
+
+    /**
+     * 返回当前的和。有并发更新时不是原子的快照
+     */
+    public double sum() {
+        Cell[] cs = cells;
+        double sum = Double.longBitsToDouble(base);
+        if (cs != null) {
+            for (Cell c : cs)
+                if (c != null)
+                    sum += Double.longBitsToDouble(c.value);
+        }
+        return sum;
+    }
+
+    /**
+     * 把所有变量置为0，只在没有并发更新时才是准确的
+     */
+    public void reset() {
+        Cell[] cs = cells;
+        base = 0L; // 0.0的位模式是0L
+        if (cs != null) {
+            for (Cell c : cs)
+                if (c != null)
+                    c.reset();
+        }
+    }
+
+    /**
+     * 相当于{@link #sum}之后再{@link #reset}
+     */
+    public double sumThenReset() {
+        Cell[] cs = cells;
+        double sum = Double.longBitsToDouble(getAndSetBase(0L));
+        if (cs != null) {
+            for (Cell c : cs) {
+                if (c != null)
+                    sum += Double.longBitsToDouble(c.getAndSet(0L));
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return Double.toString(sum());
+    }
+
+    @Override
+    public double doubleValue() {
+        return sum();
+    }
+
+    @Override
+    public long longValue() {
+        return (long) sum();
+    }
+
+    @Override
+    public int intValue() {
+        return (int) sum();
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) sum();
+    }
+
+    private static class SerializationProxy implements Serializable {
+        private static final long serialVersionUID = 7249069246863182397L;
+
+        private final double value;
+
+        SerializationProxy(DoubleAdder a) {
+            value = a.sum();
+        }
+
+        private Object readResolve() {
+            DoubleAdder a = new DoubleAdder();
+            a.base = Double.doubleToRawLongBits(value);
+            return a;
+        }
+    }
+
+    private Object writeReplace() {
+        return new SerializationProxy(this);
+    }
+
+    private void readObject(ObjectInputStream s) throws InvalidObjectException {
+        throw new InvalidObjectException("Proxy required");
+    }
+}
@@ -0,0 +1,149 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * 使用给定函数更新的一个或多个变量，共同维护一个long值。
+ * 有竞争时和{@link LongAdder}一样动态地扩充变量集合以减少竞争，
+ * {@link #get}汇总所有变量返回当前值。
+ *
+ * 变量更新的顺序是不确定的，所以函数必须满足交换律和结合律，并且没有副作用，
+ * 因为有竞争时同一个更新可能被调用多次。比如维护最大值：
+ * new LongAccumulator(Long::max, Long.MIN_VALUE)
+ *
+ * {@link LongAdder}相当于new LongAccumulator((x, y) -> x + y, 0L)，但LongAdder的加法是内联的。
+ */
+public class LongAccumulator extends Striped64 implements Serializable {
+    private static final long serialVersionUID = 7249069246863182397L;
+
+    private final LongBinaryOperator function;
+    private final long identity;
+
+    /**
+     * @param accumulatorFunction 满足交换律和结合律的函数
+     * @param identity 函数的单位元(初始值)
+     */
+    public LongAccumulator(LongBinaryOperator accumulatorFunction,
+                           long identity) {
+        this.function = accumulatorFunction;
+        base = this.identity = identity;
+    }
+
+    public void accumulate(long x) {
+        Cell[] cs; long b, v, r; int m; Cell c;
+        if ((cs = cells) != null
+            || ((r = function.applyAsLong(b = base, x)) != b
+                && !casBase(b, r))) {
+            boolean uncontended = true;
+            if (cs == null
+                || (m = cs.length - 1) < 0
+                || (c = cs[getProbe() & m]) == null
+                || !(uncontended =
+                     (r = function.applyAsLong(v = c.value, x)) == v
+                     || c.cas(v, r)))
+                longAccumulate(x, function, uncontended);
+        }
+    }
+
+    /**
+     * 返回当前值。有并发更新时不是原子的快照
+     */
+    public long get() {
+        Cell[] cs = cells;
+        long result = base;
+        if (cs != null) {
+            for (Cell c : cs)
+                if (c != null)
+                    result = function.applyAsLong(result, c.value);
+        }
+        return result;
+    }
+
+    /**
+     * 把所有变量置为identity，只在没有并发更新时才是准确的
+     */
+    public void reset() {
+        Cell[] cs = cells;
+        base = identity;
+        if (cs != null) {
+            for (Cell c : cs)
+                if (c != null)
+                    c.reset(identity);
+        }
+    }
+
+    /**
+     * 相当于{@link #get}之后再{@link #reset}
+     */
+    public long getThenReset() {
+        Cell[] cs = cells;
+        long result = getAndSetBase(identity);
+        if (cs != null) {
+            for (Cell c : cs) {
+                if (c != null) {
+                    long v = c.getAndSet(identity);
+                    result = function.applyAsLong(result, v);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+
+    @Override
+    public long longValue() {
+        return get();
+    }
+
+    @Override
+    public int intValue() {
+        return (int) get();
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) get();
+    }
+
+    @Override
+    public double doubleValue() {
+        return (double) get();
+    }
+
+    private static class SerializationProxy implements Serializable {
+        private static final long serialVersionUID = 7249069246863182397L;
+
+        private final long value;
+        private final LongBinaryOperator function;
+        private final long identity;
+
+        SerializationProxy(long value,
+                           LongBinaryOperator function,
+                           long identity) {
+            this.value = value;
+            this.function = function;
+            this.identity = identity;
+        }
+
+        private Object readResolve() {
+            LongAccumulator a = new LongAccumulator(function, identity);
+            a.base = value;
+            return a;
+        }
+    }
+
+    private Object writeReplace() {
+        return new SerializationProxy(get(), function, identity);
+    }
+
+    private void readObject(ObjectInputStream s) throws InvalidObjectException {
+        throw new InvalidObjectException("Proxy required");
+    }
+}
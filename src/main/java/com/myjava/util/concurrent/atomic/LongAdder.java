@@ -21,6 +21,15 @@ public class LongAdder extends Striped64 implements Serializable {
     public LongAdder() {
     }
 
+    /**
+     * 紧凑模式的adder，表的大小不超过maxCells。
+     * 配合{@link #shrink}用于大量的、只有偶尔竞争的计数器
+     * @param maxCells 表的最大大小，表一旦创建至少有2个Cell
+     */
+    public LongAdder(int maxCells) {
+        super(maxCells);
+    }
+
     public void add(long x) {
         Cell[] cs; long b,v; int m; Cell c;
         if ((cs = cells) != null || !casBase(b = base, b + x)) {
@@ -28,9 +37,26 @@ public class LongAdder extends Striped64 implements Serializable {
             if (cs == null || (m = cs.length - 1) < 0 ||
                 (c = cs[getProbe() & m]) == null ||
                 !(uncontended = c.cas(v = c.value, v + x)))
-//                longAccumulate(x, null, uncontended);
-            return;
+                longAccumulate(x, null, uncontended);
+            else if (c.retired)
+                foldRetired(c);
+        }
+    }
+
+    /**
+     * 如果自上次调用以来没有发生竞争，收回整个表，值合并到base，之后的更新重新从base开始。
+     * 应该周期性地调用，比如在清理map时；有竞争时返回false并开始新一轮的观察。
+     * 收回的过程中{@link #sum}可能暂时少算正在移动的值，但不会丢失或重复计算
+     * @return 表是否被收回
+     */
+    public boolean shrink() {
+        if (cells == null)
+            return false;
+        if (contention != 0) {
+            contention = 0;
+            return false;
         }
+        return retireCells();
     }
 
     public void increment() {
@@ -53,10 +79,46 @@ public class LongAdder extends Striped64 implements Serializable {
         return sum;
     }
 
-    public void reset() {}
+    /**
+     * 把所有变量置为0。只在没有并发更新时才能得到准确的结果，
+     * 可以代替创建一个新的adder
+     */
+    public void reset() {
+        Cell[] cs = cells;
+        base = 0L;
+        if (cs != null) {
+            for (Cell c : cs)
+                if (c != null)
+                    c.reset();
+        }
+    }
 
+    /**
+     * 相当于{@link #sum}之后再{@link #reset}。
+     * 有并发更新时，返回值不一定是reset之前的值
+     */
     public long sumThenReset() {
-        return 0L;
+        Cell[] cs = cells;
+        long sum = getAndSetBase(0L);
+        if (cs != null) {
+            for (Cell c : cs) {
+                if (c != null)
+                    sum += c.getAndSet(0L);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 返回上次调用以来的增量，用于周期性地导出指标。
+     *
+     * 与{@link #sumThenReset}不同，这个方法先换上一代新的Cell，让新的更新直接进入新的一代，
+     * 再取出旧的一代；在旧Cell上晚到的更新会合并到下一段，而不是丢失或被计算两次。
+     * 所以各段之和恰好等于所有的增量，写线程不需要停止，也不需要等待它们。
+     * 与{@link #reset}混用时各段就不再准确了
+     */
+    public long intervalSum() {
+        return swapGeneration();
     }
 
     @Override
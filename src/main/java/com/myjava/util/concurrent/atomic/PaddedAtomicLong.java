@@ -0,0 +1,179 @@
+package com.myjava.util.concurrent.atomic;
+
+import jdk.internal.misc.Unsafe;
+
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * 左右各填充一个缓存行，避免value与相邻对象中的字段发生伪共享。
+ * 对于不在JDK中的类，{@code @Contended}只有以-XX:-RestrictContended启动时才生效，
+ * 所以和ConcurrentArrayQueue一样把填充字段和value放在继承链上的不同类中。
+ */
+@SuppressWarnings("serial")
+abstract class PaddedAtomicLongPad0 extends Number {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+@SuppressWarnings("serial")
+abstract class PaddedAtomicLongValue extends PaddedAtomicLongPad0 {
+    volatile long value;
+}
+
+@SuppressWarnings("serial")
+abstract class PaddedAtomicLongPad1 extends PaddedAtomicLongValue {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+/**
+ * 独占缓存行的{@link AtomicLong}，用于序列号这样被多个线程频繁更新的计数器。
+ * 每个对象大约占用256字节，只应该用于少数的热点计数器。
+ */
+@SuppressWarnings("serial")
+public class PaddedAtomicLong extends PaddedAtomicLongPad1 {
+
+    private static final Unsafe U = Unsafe.getUnsafe();
+    private static final long VALUE = U.objectFieldOffset(PaddedAtomicLongValue.class, "value");
+
+    public PaddedAtomicLong(long initialValue) {
+        this.value = initialValue;
+    }
+
+    public PaddedAtomicLong() {
+    }
+
+    public final long get() {
+        return value;
+    }
+
+    public final void set(long newValue) {
+        value = newValue;
+    }
+
+    public final void lazySet(long newValue) {
+        U.putLongRelease(this, VALUE, newValue);
+    }
+
+    public final long getAndSet(long newValue) {
+        return U.getAndSetLong(this, VALUE, newValue);
+    }
+
+    public final boolean compareAndSet(long expectedValue, long newValue) {
+        return U.compareAndSetLong(this, VALUE, expectedValue, newValue);
+    }
+
+    public final boolean weakCompareAndSetVolatile(long expectedValue, long newValue) {
+        return U.weakCompareAndSetLong(this, VALUE, expectedValue, newValue);
+    }
+
+    public final long getAndIncrement() {
+        return U.getAndAddLong(this, VALUE, 1L);
+    }
+
+    public final long getAndDecrement() {
+        return U.getAndAddLong(this, VALUE, -1L);
+    }
+
+    public final long getAndAdd(long delta) {
+        return U.getAndAddLong(this, VALUE, delta);
+    }
+
+    public final long incrementAndGet() {
+        return U.getAndAddLong(this, VALUE, 1L) + 1L;
+    }
+
+    public final long decrementAndGet() {
+        return U.getAndAddLong(this, VALUE, -1L) - 1L;
+    }
+
+    public final long addAndGet(long delta) {
+        return U.getAndAddLong(this, VALUE, delta) + delta;
+    }
+
+    public final long getAndUpdate(LongUnaryOperator updateFunction) {
+        long prev = get(), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = updateFunction.applyAsLong(prev);
+            if (weakCompareAndSetVolatile(prev, next))
+                return prev;
+            haveNext = (prev == (prev = get()));
+        }
+    }
+
+    public final long updateAndGet(LongUnaryOperator updateFunction) {
+        long prev = get(), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = updateFunction.applyAsLong(prev);
+            if (weakCompareAndSetVolatile(prev, next))
+                return next;
+            haveNext = (prev == (prev = get()));
+        }
+    }
+
+    public final long getAndAccumulate(long x, LongBinaryOperator accumulatorFunction) {
+        long prev = get(), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = accumulatorFunction.applyAsLong(prev, x);
+            if (weakCompareAndSetVolatile(prev, next))
+                return prev;
+            haveNext = (prev == (prev = get()));
+        }
+    }
+
+    public final long accumulateAndGet(long x, LongBinaryOperator accumulatorFunction) {
+        long prev = get(), next = 0;
+        for (boolean haveNext = false;;) {
+            if (!haveNext)
+                next = accumulatorFunction.applyAsLong(prev, x);
+            if (weakCompareAndSetVolatile(prev, next))
+                return next;
+            haveNext = (prev == (prev = get()));
+        }
+    }
+
+    public final long getAcquire() {
+        return U.getLongAcquire(this, VALUE);
+    }
+
+    public final void setRelease(long newValue) {
+        U.putLongRelease(this, VALUE, newValue);
+    }
+
+    public final long getOpaque() {
+        return U.getLongOpaque(this, VALUE);
+    }
+
+    public final void setOpaque(long newValue) {
+        U.putLongOpaque(this, VALUE, newValue);
+    }
+
+    @Override
+    public int intValue() {
+        return (int) get();
+    }
+
+    @Override
+    public long longValue() {
+        return get();
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) get();
+    }
+
+    @Override
+    public double doubleValue() {
+        return (double) get();
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
@@ -1,11 +1,14 @@
 package com.myjava.util.concurrent.atomic;
 
+import jdk.internal.misc.Unsafe;
 import jdk.internal.vm.annotation.Contended;
 
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
-import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.DoubleBinaryOperator;
+import java.util.function.LongBinaryOperator;
 
 /**
  * 支持动态的64位数据类型。
@@ -14,24 +17,39 @@ import java.util.function.DoubleBinaryOperator;
 public abstract class Striped64 extends Number {
 
     /*
+     * 这个类维护一个延迟初始化的原子更新变量表cells，以及一个额外的base域。
+     * 表的大小是2的幂，下标由每个线程的探针值(threadLocalRandomProbe)掩码得到。
      *
+     * 没有竞争时所有更新都作用在base上。对base的CAS失败后才初始化表，
+     * 之后每个线程更新自己探针对应的Cell。Cell为空时在cellsBusy自旋锁的保护下创建；
+     * 对Cell的CAS失败说明有竞争，线程先用xorshift换一个探针(advanceProbe)重试，
+     * 连续冲突时再把表扩大一倍，直到表的大小不小于CPU个数。
      *
+     * 线程和Cell的映射是不固定的，换探针之后，多个线程最终会分散到不同的Cell上。
+     * 表默认只会扩大不会缩小，线程结束后它用过的Cell仍然保留。
      *
+     * Cell用@Contended填充，避免相邻的Cell位于同一个缓存行而产生伪共享。
+     * 注意对于不在JDK中的类，只有以-XX:-RestrictContended启动时这个注解才生效，
+     * 否则Cell没有填充，每个大约24字节。
+     * double版本把值按位存放在long中，用apply转换。
      *
+     * 紧凑模式：大量的adder(比如map中每个key一个)时，表的大小和Cell的填充会占据大部分内存。
+     * 构造时可以给出maxCells限制表的最大大小；子类还可以在竞争消失后收回整个表(见LongAdder.shrink)。
+     * 收回时先把表置为null，再把每个Cell标记为retired并用getAndSet(0)把值移到base。
+     * 仍然持有旧表的线程可能在移走之后CAS成功，所以加法在CAS成功后检查retired，
+     * 如果已经retired就自己再做一次getAndSet(0)移到base。retired的写入和CAS都是volatile的，
+     * 所以要么收回方的getAndSet看到了这次更新，要么更新方看到了retired，每个增量恰好被移动一次。
+     * 只有加法可以这样合并，所以只有LongAdder会收回表。
      *
-     *
-     *
-     *
-     *
-     *
-     *
-     *
-     *
-     *
+     * 同样的协议用于分段快照(LongAdder.intervalSum)：安装一代新的Cell，把旧的一代标记为retired后
+     * 用getAndSet(0)取出，在旧Cell上晚到的更新自己合并到base，进入下一段。
+     * 所以不需要等待正在进行的更新结束，每个增量也恰好被计入一段。
      */
 
     @Contended static final class Cell {
         volatile long value;
+        /** 已经从表中移除，值要合并到base */
+        volatile boolean retired;
 
         public Cell(long x) {
             this.value = x;
@@ -65,7 +83,24 @@ public abstract class Striped64 extends Number {
     transient volatile Cell[] cells;
     transient volatile long base;
     transient volatile int cellsBusy;
+
+    /** 表的最大大小，达到后不再扩容 */
+    final int maxCells;
+
+    /** 上次检查后换探针的次数，只用来判断竞争是否消失，不要求精确 */
+    transient int contention;
+
     Striped64() {
+        this.maxCells = NCPU;
+    }
+
+    /**
+     * @param maxCells 表的最大大小，表一旦创建至少有2个Cell
+     */
+    Striped64(int maxCells) {
+        if (maxCells < 1)
+            throw new IllegalArgumentException();
+        this.maxCells = maxCells;
     }
 
     final boolean casBase(long cmp, long val) {
@@ -76,22 +111,324 @@ public abstract class Striped64 extends Number {
         return (long) BASE.getAndSet(this, val);
     }
 
+    /**
+     * 把retired的Cell中的值加到base上
+     */
+    final void foldRetired(Cell c) {
+        long v = c.getAndSet(0L);
+        if (v != 0L)
+            BASE.getAndAdd(this, v);
+    }
+
+    /**
+     * 换上一代新的Cell(槽位与原来相同)，取出base和旧Cell中的值之和，只能用于加法。
+     * 旧Cell被标记为retired，之后在旧Cell上完成的更新会自己合并到base
+     */
+    final long swapGeneration() {
+        Cell[] old;
+        for (;;) {
+            if ((old = cells) == null)
+                break;
+            if (cellsBusy == 0 && casCellsBusy()) {
+                boolean swapped = false;
+                try {
+                    if (cells == old) {
+                        Cell[] fresh = new Cell[old.length];
+                        for (int i = 0; i < old.length; i++)
+                            if (old[i] != null)
+                                fresh[i] = new Cell(0L);
+                        cells = fresh;
+                        swapped = true;
+                    }
+                } finally {
+                    cellsBusy = 0;
+                }
+                if (swapped)
+                    break;
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        long sum = getAndSetBase(0L);
+        if (old != null) {
+            for (Cell c : old) {
+                if (c != null) {
+                    c.retired = true;
+                    sum += c.getAndSet(0L);
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 收回整个表，把所有Cell的值加到base上，只能用于加法。
+     * 有线程正在修改表时返回false
+     */
+    final boolean retireCells() {
+        Cell[] cs;
+        if (cells == null || cellsBusy != 0 || !casCellsBusy())
+            return false;
+        try {
+            cs = cells;
+            cells = null;
+        } finally {
+            cellsBusy = 0;
+        }
+        if (cs == null)
+            return false;
+        for (Cell c : cs) {
+            if (c != null) {
+                c.retired = true;
+                foldRetired(c);
+            }
+        }
+        return true;
+    }
+
     final boolean casCellsBusy() {
         return CELLSBUSY.compareAndSet(this, 0, 1);
     }
 
     static final int getProbe() {
-        return (int) THREAD_PROBE.get(Thread.currentThread());
+        return U.getInt(Thread.currentThread(), PROBE);
     }
 
     static final int advanceProbe(int probe) {
         probe ^= probe << 13;
         probe ^= probe >>> 17;
         probe ^= probe << 5;
-        THREAD_PROBE.set(Thread.currentThread(), probe);
+        U.putInt(Thread.currentThread(), PROBE, probe);
         return probe;
     }
 
+    /**
+     * 处理初始化、扩容、创建Cell和竞争的更新。
+     * @param x 值
+     * @param fn 更新函数，null表示相加(对LongAdder省去一次函数调用)
+     * @param wasUncontended 调用前的CAS失败时为false
+     */
+    final void longAccumulate(long x, LongBinaryOperator fn,
+                              boolean wasUncontended) {
+        int h;
+        if ((h = getProbe()) == 0) {
+            ThreadLocalRandom.current(); // 初始化探针
+            h = getProbe();
+            wasUncontended = true;
+        }
+        boolean collide = false;                // 上一次的槽位非空
+        done: for (;;) {
+            Cell[] cs; Cell c; int n; long v;
+            if ((cs = cells) != null && (n = cs.length) > 0) {
+                if ((c = cs[(n - 1) & h]) == null) {
+                    if (cellsBusy == 0) {       // 尝试放入新的Cell
+                        Cell r = new Cell(x);   // 先乐观地创建
+                        if (cellsBusy == 0 && casCellsBusy()) {
+                            try {               // 持有锁时再检查一次
+                                Cell[] rs; int m, j;
+                                if ((rs = cells) != null &&
+                                    (m = rs.length) > 0 &&
+                                    rs[j = (m - 1) & h] == null) {
+                                    rs[j] = r;
+                                    break done;
+                                }
+                            } finally {
+                                cellsBusy = 0;
+                            }
+                            continue;           // 槽位已经非空
+                        }
+                    }
+                    collide = false;
+                }
+                else if (!wasUncontended)       // 已知CAS会失败
+                    wasUncontended = true;      // 换探针后继续
+                else if (c.cas(v = c.value,
+                               (fn == null) ? v + x : fn.applyAsLong(v, x))) {
+                    if (c.retired)              // 表已被收回
+                        foldRetired(c);
+                    break;
+                }
+                else if (n >= maxCells || cells != cs)
+                    collide = false;            // 已达到最大或表已过期
+                else if (!collide)
+                    collide = true;
+                else if (cellsBusy == 0 && casCellsBusy()) {
+                    try {
+                        if (cells == cs)        // 表没有过期时扩容
+                            cells = Arrays.copyOf(cs, n << 1);
+                    } finally {
+                        cellsBusy = 0;
+                    }
+                    collide = false;
+                    continue;                   // 在扩大的表上重试
+                }
+                contention++;
+                h = advanceProbe(h);
+            }
+            else if (cellsBusy == 0 && cells == cs && casCellsBusy()) {
+                try {                           // 初始化表
+                    if (cells == cs) {
+                        Cell[] rs = new Cell[2];
+                        rs[h & 1] = new Cell(x);
+                        cells = rs;
+                        contention++;
+                        break done;
+                    }
+                } finally {
+                    cellsBusy = 0;
+                }
+            }
+            // 退回到base上更新
+            else if (casBase(v = base,
+                             (fn == null) ? v + x : fn.applyAsLong(v, x)))
+                break done;
+        }
+    }
+
+    /**
+     * double版本的{@link #longAccumulate}，值按位存放在long中
+     */
+    final void doubleAccumulate(double x, DoubleBinaryOperator fn,
+                                boolean wasUncontended) {
+        int h;
+        if ((h = getProbe()) == 0) {
+            ThreadLocalRandom.current(); // 初始化探针
+            h = getProbe();
+            wasUncontended = true;
+        }
+        boolean collide = false;
+        done: for (;;) {
+            Cell[] cs; Cell c; int n; long v;
+            if ((cs = cells) != null && (n = cs.length) > 0) {
+                if ((c = cs[(n - 1) & h]) == null) {
+                    if (cellsBusy == 0) {
+                        Cell r = new Cell(Double.doubleToRawLongBits(x));
+                        if (cellsBusy == 0 && casCellsBusy()) {
+                            try {
+                                Cell[] rs; int m, j;
+                                if ((rs = cells) != null &&
+                                    (m = rs.length) > 0 &&
+                                    rs[j = (m - 1) & h] == null) {
+                                    rs[j] = r;
+                                    break done;
+                                }
+                            } finally {
+                                cellsBusy = 0;
+                            }
+                            continue;
+                        }
+                    }
+                    collide = false;
+                }
+                else if (!wasUncontended)
+                    wasUncontended = true;
+                else if (c.cas(v = c.value, apply(fn, v, x)))
+                    break;
+                else if (n >= maxCells || cells != cs)
+                    collide = false;
+                else if (!collide)
+                    collide = true;
+                else if (cellsBusy == 0 && casCellsBusy()) {
+                    try {
+                        if (cells == cs)
+                            cells = Arrays.copyOf(cs, n << 1);
+                    } finally {
+                        cellsBusy = 0;
+                    }
+                    collide = false;
+                    continue;
+                }
+                h = advanceProbe(h);
+            }
+            else if (cellsBusy == 0 && cells == cs && casCellsBusy()) {
+                try {
+                    if (cells == cs) {
+                        Cell[] rs = new Cell[2];
+                        rs[h & 1] = new Cell(Double.doubleToRawLongBits(x));
+                        cells = rs;
+                        break done;
+                    }
+                } finally {
+                    cellsBusy = 0;
+                }
+            }
+            else if (casBase(v = base, apply(fn, v, x)))
+                break done;
+        }
+    }
+
+    /**
+     * 当前表中的Cell个数
+     */
+    public int cellCount() {
+        Cell[] cs = cells;
+        int n = 0;
+        if (cs != null) {
+            for (Cell c : cs)
+                if (c != null)
+                    n++;
+        }
+        return n;
+    }
+
+    /**
+     * 估算这个对象占用的堆内存(字节)，包括表和所有Cell。
+     * 按照64位JVM、压缩指针计算，Cell的填充按照当前JVM的@Contended设置计算
+     */
+    public long footprint() {
+        long bytes = Footprint.align(Footprint.HEADER + 8 + 4 + 4 + 4 + 4);
+        Cell[] cs = cells;
+        if (cs != null) {
+            bytes += Footprint.align(Footprint.ARRAY_HEADER + 4L * cs.length);
+            bytes += (long) cellCount() * Footprint.CELL;
+        }
+        return bytes;
+    }
+
+    /**
+     * 内存使用的简短描述，用于诊断
+     */
+    public String memoryReport() {
+        Cell[] cs = cells;
+        return getClass().getSimpleName() + "[cells=" + cellCount() + "/" +
+                (cs == null ? 0 : cs.length) + ", maxCells=" + maxCells +
+                ", cellBytes=" + Footprint.CELL +
+                (Footprint.PADDED ? " (padded)" : " (unpadded)") +
+                ", footprint=" + footprint() + "B]";
+    }
+
+    /**
+     * footprint的估算参数
+     */
+    static final class Footprint {
+        static final int HEADER = 12;
+        static final int ARRAY_HEADER = 16;
+        static final boolean PADDED;
+        static final long CELL;
+
+        static {
+            boolean padded = false;
+            int width = 128;
+            try {
+                com.sun.management.HotSpotDiagnosticMXBean vm =
+                        java.lang.management.ManagementFactory.getPlatformMXBean(
+                                com.sun.management.HotSpotDiagnosticMXBean.class);
+                padded = "true".equals(vm.getVMOption("EnableContended").getValue())
+                        && "false".equals(vm.getVMOption("RestrictContended").getValue());
+                width = Integer.parseInt(vm.getVMOption("ContendedPaddingWidth").getValue());
+            } catch (RuntimeException | LinkageError e) {
+                // 不是HotSpot，按没有填充估算
+            }
+            PADDED = padded;
+            // value和retired，填充时前后各加width字节
+            CELL = align(HEADER + 8 + 1 + (padded ? 2L * width : 0));
+        }
+
+        static long align(long n) {
+            return (n + 7) & ~7L;
+        }
+    }
+
     private static long apply(DoubleBinaryOperator fn, long v, double x) {
         double d = Double.longBitsToDouble(v);
         d = (fn == null) ? d + x : fn.applyAsDouble(d, x);
@@ -100,7 +437,10 @@ public abstract class Striped64 extends Number {
 
     private static final VarHandle BASE;
     private static final VarHandle CELLSBUSY;
-    private static final VarHandle THREAD_PROBE;
+    // 与LockSupport相同，通过Unsafe访问Thread的探针，不需要对java.lang开放反射
+    private static final Unsafe U = Unsafe.getUnsafe();
+    private static final long PROBE
+            = U.objectFieldOffset(Thread.class, "threadLocalRandomProbe");
     static {
         try {
             MethodHandles.Lookup l = MethodHandles.lookup();
@@ -108,16 +448,6 @@ public abstract class Striped64 extends Number {
                     "base", long.class);
             CELLSBUSY = l.findVarHandle(Striped64.class,
                     "cellsBusy", int.class);
-            l = java.security.AccessController.doPrivileged(
-                    (PrivilegedAction<MethodHandles.Lookup>) () -> {
-                        try {
-                            return MethodHandles.privateLookupIn(Thread.class, MethodHandles.lookup());
-                        } catch (ReflectiveOperationException e) {
-                            throw new Error(e);
-                        }
-                    }
-            );
-            THREAD_PROBE = l.findVarHandle(Thread.class, "threadLocalRandomProbe", int.class);
         } catch (ReflectiveOperationException e) {
             throw new Error(e);
         }
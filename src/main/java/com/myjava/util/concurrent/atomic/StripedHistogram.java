@@ -0,0 +1,350 @@
+package com.myjava.util.concurrent.atomic;
+
+import jdk.internal.vm.annotation.Contended;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 多线程并发记录的直方图，用于统计请求延迟这样的分布。
+ *
+ * 和{@link LongAdder}一样，没有竞争时所有记录写入base，对base的CAS失败后
+ * 按照{@link Striped64}的策略启用cells：线程按探针选择Cell，冲突时换探针，
+ * 连续冲突时把表扩大一倍，直到不小于CPU个数。
+ * 每个Cell是一个完整的桶数组。记录先CAS这个Cell的sum，所有记录都写sum，
+ * 所以落入不同桶的并发记录同样会CAS失败并分散到cells上(相当于{@link Striped64#casBase})；
+ * 成功后再增加桶的计数和max，不分配对象。
+ * 桶数组两端各填充PAD个long，Cell用@Contended填充，不同Cell的桶和sum不会位于同一个缓存行。
+ * 同一个Cell中相邻的桶没有填充：它们只在sum的CAS成功之后写入，有竞争的线程已经被sum分开了。
+ *
+ * 桶是对数-线性的：小于2^subBucketBits的值每个值一个桶；之后每个2的幂区间
+ * 等分为2^subBucketBits个桶。所以任何值落入的桶的宽度不超过这个值的1/2^subBucketBits，
+ * 默认的subBucketBits=4时相对误差不超过6.25%，整个long范围共976个桶。
+ *
+ * {@link #snapshot()}把所有Cell的桶相加得到一个{@link Snapshot}，从中计算百分位数。
+ * 有并发记录时快照不是原子的，各个桶在不同时刻读取。
+ */
+public class StripedHistogram {
+
+    private static final int DEFAULT_SUB_BUCKET_BITS = 4;
+
+    /** 桶数组两端填充的long的个数，128字节 */
+    static final int PAD = 16;
+
+    @Contended static final class Cell {
+        /** 第i个桶在下标PAD + i */
+        final long[] counts;
+        volatile long sum;
+        volatile long max;
+
+        Cell(int buckets) {
+            counts = new long[buckets + 2 * PAD];
+        }
+
+        long count(int i) {
+            return (long) COUNTS.getVolatile(counts, PAD + i);
+        }
+
+        /**
+         * 对sum做一次CAS，失败说明有竞争，这时什么也没有记录
+         */
+        boolean tryRecord(int i, long value) {
+            long s = sum;
+            if (!SUM.compareAndSet(this, s, s + value))
+                return false;
+            finish(i, value);
+            return true;
+        }
+
+        void record(int i, long value) {
+            SUM.getAndAdd(this, value);
+            finish(i, value);
+        }
+
+        private void finish(int i, long value) {
+            COUNTS.getAndAdd(counts, PAD + i, 1L);
+            long m;
+            while (value > (m = max) && !MAX.compareAndSet(this, m, value))
+                ;
+        }
+
+        void reset() {
+            for (int i = PAD; i < counts.length - PAD; i++)
+                COUNTS.setVolatile(counts, i, 0L);
+            sum = 0L;
+            max = 0L;
+        }
+
+        private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+        private static final VarHandle SUM;
+        private static final VarHandle MAX;
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                SUM = l.findVarHandle(Cell.class, "sum", long.class);
+                MAX = l.findVarHandle(Cell.class, "max", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    private final int subBucketBits;
+    private final int bucketCount;
+    private final Cell base;
+    private transient volatile Cell[] cells;
+    private transient volatile int cellsBusy;
+
+    public StripedHistogram() {
+        this(DEFAULT_SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @param subBucketBits 每个2的幂区间等分为2^subBucketBits个桶，1到10之间
+     */
+    public StripedHistogram(int subBucketBits) {
+        if (subBucketBits < 1 || subBucketBits > 10)
+            throw new IllegalArgumentException();
+        this.subBucketBits = subBucketBits;
+        this.bucketCount = (64 - subBucketBits + 1) << subBucketBits;
+        this.base = new Cell(bucketCount);
+    }
+
+    static int bucketIndex(long value, int bits) {
+        if (value < (1L << bits))
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - bits;
+        return ((shift + 1) << bits) + (int) ((value >>> shift) - (1L << bits));
+    }
+
+    static long lowestEquivalent(int index, int bits) {
+        if (index < (1 << bits))
+            return index;
+        int shift = (index >>> bits) - 1;
+        long mantissa = (1L << bits) + (index & ((1 << bits) - 1));
+        return mantissa << shift;
+    }
+
+    static long highestEquivalent(int index, int bits) {
+        if (index < (1 << bits))
+            return index;
+        int shift = (index >>> bits) - 1;
+        return lowestEquivalent(index, bits) + ((1L << shift) - 1);
+    }
+
+    /**
+     * 记录一个值
+     * @throws IllegalArgumentException value为负数
+     */
+    public void record(long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("negative value: " + value);
+        int i = bucketIndex(value, subBucketBits);
+        Cell[] cs; int m; Cell c;
+        if ((cs = cells) != null || !base.tryRecord(i, value)) {
+            boolean uncontended = true;
+            if (cs == null || (m = cs.length - 1) < 0 ||
+                (c = cs[Striped64.getProbe() & m]) == null ||
+                !(uncontended = c.tryRecord(i, value)))
+                recordSlow(i, value, uncontended);
+        }
+    }
+
+    /**
+     * {@link Striped64#longAccumulate}的桶数组版本
+     */
+    private void recordSlow(int i, long value, boolean wasUncontended) {
+        int h;
+        if ((h = Striped64.getProbe()) == 0) {
+            ThreadLocalRandom.current(); // 初始化探针
+            h = Striped64.getProbe();
+            wasUncontended = true;
+        }
+        boolean collide = false;
+        done: for (;;) {
+            Cell[] cs; Cell c; int n;
+            if ((cs = cells) != null && (n = cs.length) > 0) {
+                if ((c = cs[(n - 1) & h]) == null) {
+                    if (cellsBusy == 0) {
+                        Cell r = new Cell(bucketCount);
+                        if (cellsBusy == 0 && casCellsBusy()) {
+                            try {
+                                Cell[] rs; int m, j;
+                                if ((rs = cells) != null &&
+                                    (m = rs.length) > 0 &&
+                                    rs[j = (m - 1) & h] == null) {
+                                    r.record(i, value);
+                                    rs[j] = r;
+                                    break done;
+                                }
+                            } finally {
+                                cellsBusy = 0;
+                            }
+                            continue;
+                        }
+                    }
+                    collide = false;
+                }
+                else if (!wasUncontended)
+                    wasUncontended = true;
+                else if (c.tryRecord(i, value))
+                    break;
+                else if (n >= Striped64.NCPU || cells != cs)
+                    collide = false;
+                else if (!collide)
+                    collide = true;
+                else if (cellsBusy == 0 && casCellsBusy()) {
+                    try {
+                        if (cells == cs)
+                            cells = Arrays.copyOf(cs, n << 1);
+                    } finally {
+                        cellsBusy = 0;
+                    }
+                    collide = false;
+                    continue;
+                }
+                h = Striped64.advanceProbe(h);
+            }
+            else if (cellsBusy == 0 && cells == cs && casCellsBusy()) {
+                try {
+                    if (cells == cs) {
+                        Cell[] rs = new Cell[2];
+                        Cell r = new Cell(bucketCount);
+                        r.record(i, value);
+                        rs[h & 1] = r;
+                        cells = rs;
+                        break done;
+                    }
+                } finally {
+                    cellsBusy = 0;
+                }
+            }
+            else if (base.tryRecord(i, value))
+                break done;
+        }
+    }
+
+    private boolean casCellsBusy() {
+        return CELLSBUSY.compareAndSet(this, 0, 1);
+    }
+
+    /**
+     * 合并所有Cell得到当前的分布
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[bucketCount];
+        long sum = 0, max = 0;
+        Cell[] cs = cells;
+        Cell c = base;
+        for (int k = -1; ; c = cs[k]) {
+            if (c != null) {
+                for (int i = 0; i < counts.length; i++)
+                    counts[i] += c.count(i);
+                sum += c.sum;
+                max = Math.max(max, c.max);
+            }
+            if (cs == null || ++k >= cs.length)
+                break;
+        }
+        return new Snapshot(counts, subBucketBits, sum, max);
+    }
+
+    /**
+     * 清空所有记录，只在没有并发记录时才是准确的
+     */
+    public void reset() {
+        base.reset();
+        Cell[] cs = cells;
+        if (cs != null) {
+            for (Cell c : cs)
+                if (c != null)
+                    c.reset();
+        }
+    }
+
+    /**
+     * 某一时刻的分布，不可变
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final int subBucketBits;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, int subBucketBits, long sum, long max) {
+            this.counts = counts;
+            this.subBucketBits = subBucketBits;
+            long n = 0;
+            for (long c : counts)
+                n += c;
+            this.count = n;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long sum() {
+            return sum;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        public double mean() {
+            return (count == 0) ? 0.0 : (double) sum / count;
+        }
+
+        /**
+         * 最小值所在的桶的下界
+         */
+        public long min() {
+            for (int i = 0; i < counts.length; i++)
+                if (counts[i] != 0)
+                    return lowestEquivalent(i, subBucketBits);
+            return 0L;
+        }
+
+        /**
+         * 返回第percentile百分位数所在的桶的上界(不超过max)
+         * @param percentile 0到100之间
+         */
+        public long percentile(double percentile) {
+            if (!(percentile >= 0.0 && percentile <= 100.0))
+                throw new IllegalArgumentException();
+            if (count == 0)
+                return 0L;
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if ((seen += counts[i]) >= rank)
+                    return Math.min(max, highestEquivalent(i, subBucketBits));
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot[count=" + count + ", mean=" + String.format("%.1f", mean()) +
+                    ", p50=" + percentile(50) + ", p90=" + percentile(90) +
+                    ", p99=" + percentile(99) + ", p999=" + percentile(99.9) +
+                    ", max=" + max + "]";
+        }
+    }
+
+    private static final VarHandle CELLSBUSY;
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            CELLSBUSY = l.findVarHandle(StripedHistogram.class, "cellsBusy", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,1247 @@
+package com.myjava.util.concurrent.locks;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 提供一个框架，用于实现依赖先进先出(FIFO)等待队列的阻塞锁和相关的同步器(信号量、事件等)。
+ * 同步状态用一个原子的int值表示，子类通过{@link #getState}、{@link #setState}、
+ * {@link #compareAndSetState}维护它，并实现tryAcquire、tryRelease、tryAcquireShared、
+ * tryReleaseShared、isHeldExclusively中需要的部分。排队、阻塞和唤醒由这个类完成。
+ *
+ * 等待队列是CLH锁队列的变体：每个结点保存一个线程和它的等待状态，
+ * 前驱结点释放时唤醒后继结点。head是一个哑结点，表示当前持有同步状态的线程；
+ * 入队只需要对tail做一次CAS，出队只需要设置head。
+ *
+ * 自旋：独占获取失败后，线程在入队之前可以先自旋一段时间，
+ * 时长由{@link #spinNanos()}给出，默认不自旋。临界区很短时，
+ * 持有者往往在自旋期间就释放了，省去一次park/unpark的往返。
+ * 入队之前的自旋在队列中有线程时停止，让排队的线程优先；竞争持续时队列几乎总是非空，
+ * 所以排在最前面的结点(head的后继)每次park之前也自旋一次，而且是在把head设为SIGNAL之前，
+ * 这样持有者释放时不需要unpark它。限时的获取同样自旋，时长不超过剩余的时间。
+ * 同时自旋的线程不超过CPU数的一半，单CPU时不自旋。
+ *
+ * @author luoqi04
+ */
+public abstract class AbstractQueuedSynchronizer
+    extends AbstractOwnableSynchronizer {
+
+    private static final long serialVersionUID = 7373984972572414691L;
+
+    protected AbstractQueuedSynchronizer() { }
+
+    /**
+     * 等待队列的结点
+     */
+    static final class Node {
+        /** 表示结点在共享模式下等待 */
+        static final Node SHARED = new Node();
+        /** 表示结点在独占模式下等待 */
+        static final Node EXCLUSIVE = null;
+
+        /** 线程已经取消 */
+        static final int CANCELLED =  1;
+        /** 后继结点的线程需要被唤醒 */
+        static final int SIGNAL    = -1;
+        /** 线程在条件上等待 */
+        static final int CONDITION = -2;
+        /** 下一次共享获取应该无条件地传播 */
+        static final int PROPAGATE = -3;
+
+        volatile int waitStatus;
+
+        volatile Node prev;
+
+        volatile Node next;
+
+        volatile Thread thread;
+
+        /** 条件队列中的下一个结点，或者是SHARED表示共享模式 */
+        Node nextWaiter;
+
+        final boolean isShared() {
+            return nextWaiter == SHARED;
+        }
+
+        final Node predecessor() {
+            Node p = prev;
+            if (p == null)
+                throw new NullPointerException();
+            else
+                return p;
+        }
+
+        /** 用于创建head和SHARED */
+        Node() {
+        }
+
+        /** 用于addWaiter */
+        Node(Node nextWaiter) {
+            this.nextWaiter = nextWaiter;
+            this.thread = Thread.currentThread();
+        }
+
+        /** 用于条件队列 */
+        Node(int waitStatus) {
+            this.waitStatus = waitStatus;
+            this.thread = Thread.currentThread();
+        }
+
+        final boolean compareAndSetWaitStatus(int expect, int update) {
+            return WAITSTATUS.compareAndSet(this, expect, update);
+        }
+
+        final boolean compareAndSetNext(Node expect, Node update) {
+            return NEXT.compareAndSet(this, expect, update);
+        }
+
+        private static final VarHandle NEXT;
+        private static final VarHandle WAITSTATUS;
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                NEXT = l.findVarHandle(Node.class, "next", Node.class);
+                WAITSTATUS = l.findVarHandle(Node.class, "waitStatus", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /** 等待队列的头结点，延迟初始化 */
+    private transient volatile Node head;
+
+    /** 等待队列的尾结点，只通过enq修改 */
+    private transient volatile Node tail;
+
+    /** 同步状态 */
+    private volatile int state;
+
+    /** 正在自旋的线程数 */
+    private transient volatile int spinners;
+
+    protected final int getState() {
+        return state;
+    }
+
+    protected final void setState(int newState) {
+        state = newState;
+    }
+
+    protected final boolean compareAndSetState(int expect, int update) {
+        return STATE.compareAndSet(this, expect, update);
+    }
+
+    // 队列工具
+
+    /** 超时时间小于这个值时自旋而不是park */
+    static final long SPIN_FOR_TIMEOUT_THRESHOLD = 1000L;
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /** 同时自旋的线程数上限 */
+    private static final int MAX_SPINNERS = Math.max(1, NCPU >>> 1);
+
+    /**
+     * 把结点插入队列，必要时初始化
+     * @return 结点的前驱
+     */
+    private Node enq(final Node node) {
+        for (;;) {
+            Node t = tail;
+            if (t == null) { // 必须初始化
+                if (compareAndSetHead(new Node()))
+                    tail = head;
+            } else {
+                node.prev = t;
+                if (compareAndSetTail(t, node)) {
+                    t.next = node;
+                    return t;
+                }
+            }
+        }
+    }
+
+    /**
+     * 为当前线程创建给定模式的结点并入队
+     */
+    private Node addWaiter(Node mode) {
+        Node node = new Node(mode);
+        // 先尝试快速路径，失败时再用enq
+        Node pred = tail;
+        if (pred != null) {
+            node.prev = pred;
+            if (compareAndSetTail(pred, node)) {
+                pred.next = node;
+                return node;
+            }
+        }
+        enq(node);
+        return node;
+    }
+
+    /**
+     * 出队：把node设为head，清除不再需要的字段
+     */
+    private void setHead(Node node) {
+        head = node;
+        node.thread = null;
+        node.prev = null;
+    }
+
+    /**
+     * 唤醒node的后继结点
+     */
+    private void unparkSuccessor(Node node) {
+        int ws = node.waitStatus;
+        if (ws < 0)
+            node.compareAndSetWaitStatus(ws, 0);
+
+        // 后继通常就是next，但如果它被取消或者next为空，从tail向前找到最前面的未取消结点
+        Node s = node.next;
+        if (s == null || s.waitStatus > 0) {
+            s = null;
+            for (Node t = tail; t != null && t != node; t = t.prev)
+                if (t.waitStatus <= 0)
+                    s = t;
+        }
+        if (s != null)
+            LockSupport.unpark(s.thread);
+    }
+
+    /**
+     * 共享模式的释放：唤醒后继并保证传播
+     */
+    private void doReleaseShared() {
+        for (;;) {
+            Node h = head;
+            if (h != null && h != tail) {
+                int ws = h.waitStatus;
+                if (ws == Node.SIGNAL) {
+                    if (!h.compareAndSetWaitStatus(Node.SIGNAL, 0))
+                        continue;            // 重新检查
+                    unparkSuccessor(h);
+                }
+                else if (ws == 0 &&
+                         !h.compareAndSetWaitStatus(0, Node.PROPAGATE))
+                    continue;                // CAS失败时重试
+            }
+            if (h == head)                   // head变化时重试
+                break;
+        }
+    }
+
+    /**
+     * 设置head，如果propagate > 0或者设置了PROPAGATE状态，继续唤醒共享模式的后继
+     */
+    private void setHeadAndPropagate(Node node, int propagate) {
+        Node h = head; // 记录旧的head
+        setHead(node);
+        if (propagate > 0 || h == null || h.waitStatus < 0 ||
+            (h = head) == null || h.waitStatus < 0) {
+            Node s = node.next;
+            if (s == null || s.isShared())
+                doReleaseShared();
+        }
+    }
+
+    /**
+     * 取消一个正在进行的获取
+     */
+    private void cancelAcquire(Node node) {
+        if (node == null)
+            return;
+
+        node.thread = null;
+
+        // 跳过已取消的前驱
+        Node pred = node.prev;
+        while (pred.waitStatus > 0)
+            node.prev = pred = pred.prev;
+
+        Node predNext = pred.next;
+
+        // 这里可以无条件写，之后其他结点会跳过这个结点
+        node.waitStatus = Node.CANCELLED;
+
+        // 如果是tail，直接移除自己
+        if (node == tail && compareAndSetTail(node, pred)) {
+            pred.compareAndSetNext(predNext, null);
+        } else {
+            // 如果后继需要唤醒，尝试把pred的next指向它；否则直接唤醒它
+            int ws;
+            if (pred != head &&
+                ((ws = pred.waitStatus) == Node.SIGNAL ||
+                 (ws <= 0 && pred.compareAndSetWaitStatus(ws, Node.SIGNAL))) &&
+                pred.thread != null) {
+                Node next = node.next;
+                if (next != null && next.waitStatus <= 0)
+                    pred.compareAndSetNext(predNext, next);
+            } else {
+                unparkSuccessor(node);
+            }
+
+            node.next = node; // 帮助GC
+        }
+    }
+
+    /**
+     * 获取失败后检查并更新状态，返回线程是否应该park
+     */
+    private static boolean shouldParkAfterFailedAcquire(Node pred, Node node) {
+        int ws = pred.waitStatus;
+        if (ws == Node.SIGNAL)
+            // 前驱释放时会唤醒这个结点，可以安全地park
+            return true;
+        if (ws > 0) {
+            // 前驱已取消，跳过
+            do {
+                node.prev = pred = pred.prev;
+            } while (pred.waitStatus > 0);
+            pred.next = node;
+        } else {
+            // waitStatus是0或PROPAGATE，先设置SIGNAL，再重试一次再park
+            pred.compareAndSetWaitStatus(ws, Node.SIGNAL);
+        }
+        return false;
+    }
+
+    static void selfInterrupt() {
+        Thread.currentThread().interrupt();
+    }
+
+    private final boolean parkAndCheckInterrupt() {
+        LockSupport.park(this);
+        return Thread.interrupted();
+    }
+
+    // 自旋
+
+    /**
+     * 入队之前自旋的时长(纳秒)，0表示不自旋。
+     * 子类可以根据锁的持有时间等信息调整，每次独占获取失败时调用
+     */
+    protected long spinNanos() {
+        return 0L;
+    }
+
+    /**
+     * 在spinNanos()给出的时间内反复尝试获取
+     * @param first 是否是排在最前面的结点；否则是入队之前，队列中已有线程时停止，让排队的线程优先
+     * @param limit 最多自旋的时间(纳秒)，限时获取时是剩余的时间
+     */
+    private boolean spinAcquire(int arg, boolean first, long limit) {
+        long nanos;
+        if (NCPU == 1 || (nanos = Math.min(spinNanos(), limit)) <= 0L)
+            return false;
+        int s = spinners;
+        if (s >= MAX_SPINNERS || !SPINNERS.compareAndSet(this, s, s + 1))
+            return false;
+        try {
+            final long deadline = System.nanoTime() + nanos;
+            for (int i = 1; ; i++) {
+                Thread.onSpinWait();
+                if (state == 0 && tryAcquire(arg))
+                    return true;
+                // 每次读nanoTime也有开销，隔几次检查一次
+                if ((i & 15) == 0 &&
+                    (System.nanoTime() - deadline >= 0L || (!first && hasQueuedThreads())))
+                    return false;
+            }
+        } finally {
+            SPINNERS.getAndAdd(this, -1);
+        }
+    }
+
+    // 各种获取方式
+
+    /**
+     * 已入队的线程以独占、不可中断的方式获取，也用于条件等待
+     * @return 等待时是否被中断
+     */
+    final boolean acquireQueued(final Node node, int arg) {
+        boolean interrupted = false;
+        boolean spin = true; // 排在最前面之后，每次park之前自旋一次
+        try {
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head && (tryAcquire(arg) ||
+                                  (spin && spinAcquire(arg, true, Long.MAX_VALUE)))) {
+                    setHead(node);
+                    p.next = null; // 帮助GC
+                    return interrupted;
+                }
+                if (p == head)
+                    spin = false;
+                if (shouldParkAfterFailedAcquire(p, node)) {
+                    if (parkAndCheckInterrupt())
+                        interrupted = true;
+                    spin = true;
+                }
+            }
+        } catch (Throwable t) {
+            cancelAcquire(node);
+            if (interrupted)
+                selfInterrupt();
+            throw t;
+        }
+    }
+
+    private void doAcquireInterruptibly(int arg)
+        throws InterruptedException {
+        final Node node = addWaiter(Node.EXCLUSIVE);
+        boolean spin = true;
+        try {
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head && (tryAcquire(arg) ||
+                                  (spin && spinAcquire(arg, true, Long.MAX_VALUE)))) {
+                    setHead(node);
+                    p.next = null;
+                    return;
+                }
+                if (p == head)
+                    spin = false;
+                if (shouldParkAfterFailedAcquire(p, node)) {
+                    if (parkAndCheckInterrupt())
+                        throw new InterruptedException();
+                    spin = true;
+                }
+            }
+        } catch (Throwable t) {
+            cancelAcquire(node);
+            throw t;
+        }
+    }
+
+    private boolean doAcquireNanos(int arg, long nanosTimeout)
+            throws InterruptedException {
+        if (nanosTimeout <= 0L)
+            return false;
+        final long deadline = System.nanoTime() + nanosTimeout;
+        final Node node = addWaiter(Node.EXCLUSIVE);
+        boolean spin = true;
+        try {
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head && (tryAcquire(arg) ||
+                                  (spin && spinAcquire(arg, true, deadline - System.nanoTime())))) {
+                    setHead(node);
+                    p.next = null;
+                    return true;
+                }
+                if (p == head)
+                    spin = false;
+                nanosTimeout = deadline - System.nanoTime();
+                if (nanosTimeout <= 0L) {
+                    cancelAcquire(node);
+                    return false;
+                }
+                if (shouldParkAfterFailedAcquire(p, node) &&
+                    nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD) {
+                    LockSupport.parkNanos(this, nanosTimeout);
+                    spin = true;
+                }
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+            }
+        } catch (Throwable t) {
+            cancelAcquire(node);
+            throw t;
+        }
+    }
+
+    private void doAcquireShared(int arg) {
+        final Node node = addWaiter(Node.SHARED);
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head) {
+                    int r = tryAcquireShared(arg);
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.next = null;
+                        return;
+                    }
+                }
+                if (shouldParkAfterFailedAcquire(p, node) &&
+                    parkAndCheckInterrupt())
+                    interrupted = true;
+            }
+        } catch (Throwable t) {
+            cancelAcquire(node);
+            throw t;
+        } finally {
+            if (interrupted)
+                selfInterrupt();
+        }
+    }
+
+    private void doAcquireSharedInterruptibly(int arg)
+        throws InterruptedException {
+        final Node node = addWaiter(Node.SHARED);
+        try {
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head) {
+                    int r = tryAcquireShared(arg);
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.next = null;
+                        return;
+                    }
+                }
+                if (shouldParkAfterFailedAcquire(p, node) &&
+                    parkAndCheckInterrupt())
+                    throw new InterruptedException();
+            }
+        } catch (Throwable t) {
+            cancelAcquire(node);
+            throw t;
+        }
+    }
+
+    private boolean doAcquireSharedNanos(int arg, long nanosTimeout)
+            throws InterruptedException {
+        if (nanosTimeout <= 0L)
+            return false;
+        final long deadline = System.nanoTime() + nanosTimeout;
+        final Node node = addWaiter(Node.SHARED);
+        try {
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head) {
+                    int r = tryAcquireShared(arg);
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.next = null;
+                        return true;
+                    }
+                }
+                nanosTimeout = deadline - System.nanoTime();
+                if (nanosTimeout <= 0L) {
+                    cancelAcquire(node);
+                    return false;
+                }
+                if (shouldParkAfterFailedAcquire(p, node) &&
+                    nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD)
+                    LockSupport.parkNanos(this, nanosTimeout);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+            }
+        } catch (Throwable t) {
+            cancelAcquire(node);
+            throw t;
+        }
+    }
+
+    // 子类实现的方法
+
+    protected boolean tryAcquire(int arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    protected boolean tryRelease(int arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return 负数表示失败；0表示成功但之后的共享获取不会成功；正数表示之后的共享获取也可能成功
+     */
+    protected int tryAcquireShared(int arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    protected boolean tryReleaseShared(int arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    protected boolean isHeldExclusively() {
+        throw new UnsupportedOperationException();
+    }
+
+    // 公开的获取和释放方法
+
+    /**
+     * 以独占模式获取，忽略中断。先调用tryAcquire，失败时自旋，再失败就入队阻塞
+     */
+    public final void acquire(int arg) {
+        if (!tryAcquire(arg) &&
+            !spinAcquire(arg, false, Long.MAX_VALUE) &&
+            acquireQueued(addWaiter(Node.EXCLUSIVE), arg))
+            selfInterrupt();
+    }
+
+    public final void acquireInterruptibly(int arg)
+            throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (!tryAcquire(arg) && !spinAcquire(arg, false, Long.MAX_VALUE))
+            doAcquireInterruptibly(arg);
+    }
+
+    public final boolean tryAcquireNanos(int arg, long nanosTimeout)
+            throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (tryAcquire(arg))
+            return true;
+        if (nanosTimeout <= 0L)
+            return false;
+        final long deadline = System.nanoTime() + nanosTimeout;
+        return spinAcquire(arg, false, nanosTimeout) ||
+            doAcquireNanos(arg, deadline - System.nanoTime());
+    }
+
+    public final boolean release(int arg) {
+        if (tryRelease(arg)) {
+            Node h = head;
+            if (h != null && h.waitStatus != 0)
+                unparkSuccessor(h);
+            return true;
+        }
+        return false;
+    }
+
+    public final void acquireShared(int arg) {
+        if (tryAcquireShared(arg) < 0)
+            doAcquireShared(arg);
+    }
+
+    public final void acquireSharedInterruptibly(int arg)
+            throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (tryAcquireShared(arg) < 0)
+            doAcquireSharedInterruptibly(arg);
+    }
+
+    public final boolean tryAcquireSharedNanos(int arg, long nanosTimeout)
+            throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        return tryAcquireShared(arg) >= 0 ||
+            doAcquireSharedNanos(arg, nanosTimeout);
+    }
+
+    public final boolean releaseShared(int arg) {
+        if (tryReleaseShared(arg)) {
+            doReleaseShared();
+            return true;
+        }
+        return false;
+    }
+
+    // 队列检查方法
+
+    public final boolean hasQueuedThreads() {
+        for (Node p = tail, h = head; p != h && p != null; p = p.prev)
+            if (p.waitStatus <= 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * 是否曾经有线程竞争过
+     */
+    public final boolean hasContended() {
+        return head != null;
+    }
+
+    public final Thread getFirstQueuedThread() {
+        return (head == tail) ? null : fullGetFirstQueuedThread();
+    }
+
+    private Thread fullGetFirstQueuedThread() {
+        Node h, s;
+        Thread st;
+        if (((h = head) != null && (s = h.next) != null &&
+             s.prev == head && (st = s.thread) != null) ||
+            ((h = head) != null && (s = h.next) != null &&
+             s.prev == head && (st = s.thread) != null))
+            return st;
+
+        // head.next还没有设置，从tail向前找
+        Thread firstThread = null;
+        for (Node p = tail; p != null && p != head; p = p.prev) {
+            Thread t = p.thread;
+            if (t != null)
+                firstThread = t;
+        }
+        return firstThread;
+    }
+
+    public final boolean isQueued(Thread thread) {
+        if (thread == null)
+            throw new NullPointerException();
+        for (Node p = tail; p != null; p = p.prev)
+            if (p.thread == thread)
+                return true;
+        return false;
+    }
+
+    /**
+     * 第一个排队的线程是否在等待独占模式，用于读写锁避免写线程饥饿
+     */
+    final boolean apparentlyFirstQueuedIsExclusive() {
+        Node h, s;
+        return (h = head) != null &&
+            (s = h.next)  != null &&
+            !s.isShared()         &&
+            s.thread != null;
+    }
+
+    /**
+     * 是否有线程比当前线程等待得更久，用于实现公平的tryAcquire
+     */
+    public final boolean hasQueuedPredecessors() {
+        Node h, s;
+        if ((h = head) != null) {
+            if ((s = h.next) == null || s.waitStatus > 0) {
+                s = null; // 从tail向前找
+                for (Node p = tail; p != h && p != null; p = p.prev) {
+                    if (p.waitStatus <= 0)
+                        s = p;
+                }
+            }
+            if (s != null && s.thread != Thread.currentThread())
+                return true;
+        }
+        return false;
+    }
+
+    // 监控
+
+    public final int getQueueLength() {
+        int n = 0;
+        for (Node p = tail; p != null; p = p.prev) {
+            if (p.thread != null)
+                ++n;
+        }
+        return n;
+    }
+
+    public final Collection<Thread> getQueuedThreads() {
+        ArrayList<Thread> list = new ArrayList<>();
+        for (Node p = tail; p != null; p = p.prev) {
+            Thread t = p.thread;
+            if (t != null)
+                list.add(t);
+        }
+        return list;
+    }
+
+    public final Collection<Thread> getExclusiveQueuedThreads() {
+        ArrayList<Thread> list = new ArrayList<>();
+        for (Node p = tail; p != null; p = p.prev) {
+            if (!p.isShared()) {
+                Thread t = p.thread;
+                if (t != null)
+                    list.add(t);
+            }
+        }
+        return list;
+    }
+
+    public final Collection<Thread> getSharedQueuedThreads() {
+        ArrayList<Thread> list = new ArrayList<>();
+        for (Node p = tail; p != null; p = p.prev) {
+            if (p.isShared()) {
+                Thread t = p.thread;
+                if (t != null)
+                    list.add(t);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString()
+            + "[State = " + getState() + ", "
+            + (hasQueuedThreads() ? "non" : "") + "empty queue]";
+    }
+
+    // 条件的内部支持
+
+    /**
+     * 结点(最初在条件队列中)是否已经转移到同步队列上
+     */
+    final boolean isOnSyncQueue(Node node) {
+        if (node.waitStatus == Node.CONDITION || node.prev == null)
+            return false;
+        if (node.next != null) // 有后继一定在队列上
+            return true;
+        // prev非空不代表已经在队列上，入队的CAS可能失败，所以从tail向前找
+        return findNodeFromTail(node);
+    }
+
+    private boolean findNodeFromTail(Node node) {
+        for (Node p = tail;;) {
+            if (p == node)
+                return true;
+            if (p == null)
+                return false;
+            p = p.prev;
+        }
+    }
+
+    /**
+     * 把结点从条件队列转移到同步队列
+     * @return 结点在signal之前已经取消时返回false
+     */
+    final boolean transferForSignal(Node node) {
+        if (!node.compareAndSetWaitStatus(Node.CONDITION, 0))
+            return false;
+
+        // 入队，并设置前驱的状态表示线程(可能)在等待。
+        // 如果前驱已取消或设置状态失败，直接唤醒线程让它重新同步
+        Node p = enq(node);
+        int ws = p.waitStatus;
+        if (ws > 0 || !p.compareAndSetWaitStatus(ws, Node.SIGNAL))
+            LockSupport.unpark(node.thread);
+        return true;
+    }
+
+    /**
+     * 等待被取消后，如果需要就把结点转移到同步队列
+     * @return 在被signal之前取消时返回true
+     */
+    final boolean transferAfterCancelledWait(Node node) {
+        if (node.compareAndSetWaitStatus(Node.CONDITION, 0)) {
+            enq(node);
+            return true;
+        }
+        // 输给了signal，等它完成enq。在未完成的转移中取消很少见而且短暂，所以自旋
+        while (!isOnSyncQueue(node))
+            Thread.yield();
+        return false;
+    }
+
+    /**
+     * 用当前的状态值调用release，返回保存的状态值。失败时取消结点并抛出异常
+     */
+    final int fullyRelease(Node node) {
+        try {
+            int savedState = getState();
+            if (release(savedState))
+                return savedState;
+            throw new IllegalMonitorStateException();
+        } catch (Throwable t) {
+            node.waitStatus = Node.CANCELLED;
+            throw t;
+        }
+    }
+
+    // 条件的检查方法
+
+    public final boolean owns(ConditionObject condition) {
+        return condition.isOwnedBy(this);
+    }
+
+    public final boolean hasWaiters(ConditionObject condition) {
+        if (!owns(condition))
+            throw new IllegalArgumentException("Not owner");
+        return condition.hasWaiters();
+    }
+
+    public final int getWaitQueueLength(ConditionObject condition) {
+        if (!owns(condition))
+            throw new IllegalArgumentException("Not owner");
+        return condition.getWaitQueueLength();
+    }
+
+    public final Collection<Thread> getWaitingThreads(ConditionObject condition) {
+        if (!owns(condition))
+            throw new IllegalArgumentException("Not owner");
+        return condition.getWaitingThreads();
+    }
+
+    /**
+     * 不需要持有锁，见{@link ConditionObject#getApproximateWaitQueueLength}
+     */
+    public final int getApproximateWaitQueueLength(ConditionObject condition) {
+        if (!owns(condition))
+            throw new IllegalArgumentException("Not owner");
+        return condition.getApproximateWaitQueueLength();
+    }
+
+    /**
+     * AQS实现的{@link Condition}，用于独占模式的同步器。
+     * 同时实现了{@link java.util.concurrent.locks.Condition}，所以可以作为{@link Lock#newCondition}的结果。
+     * 条件队列中的结点只在持有锁时访问，所以不需要同步
+     */
+    public class ConditionObject implements Condition, java.util.concurrent.locks.Condition,
+            java.io.Serializable {
+        private static final long serialVersionUID = 1173984872572414699L;
+        /** 条件队列的第一个结点 */
+        private transient Node firstWaiter;
+        /** 条件队列的最后一个结点 */
+        private transient Node lastWaiter;
+        /**
+         * 处于CONDITION状态的结点个数。加入时持有锁，离开(被转移或取消)时不一定持有锁，
+         * 所以原子地修改；不持有锁也可以读取，是近似值
+         */
+        private transient volatile int waiterCount;
+
+        public ConditionObject() { }
+
+        /**
+         * 加入一个新的等待结点
+         */
+        private Node addConditionWaiter() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            Node t = lastWaiter;
+            // 如果lastWaiter已取消，先清除
+            if (t != null && t.waitStatus != Node.CONDITION) {
+                unlinkCancelledWaiters();
+                t = lastWaiter;
+            }
+
+            Node node = new Node(Node.CONDITION);
+            WAITER_COUNT.getAndAdd(this, 1);
+
+            if (t == null)
+                firstWaiter = node;
+            else
+                t.nextWaiter = node;
+            lastWaiter = node;
+            return node;
+        }
+
+        /**
+         * {@link #transferForSignal}，成功时减少waiterCount
+         */
+        private boolean transferWaiter(Node node) {
+            if (!transferForSignal(node))
+                return false;
+            WAITER_COUNT.getAndAdd(this, -1);
+            return true;
+        }
+
+        /**
+         * {@link #transferAfterCancelledWait}，在signal之前取消时减少waiterCount
+         */
+        private boolean cancelWaiter(Node node) {
+            if (!transferAfterCancelledWait(node))
+                return false;
+            WAITER_COUNT.getAndAdd(this, -1);
+            return true;
+        }
+
+        /**
+         * {@link #fullyRelease}，失败时结点被取消，减少waiterCount
+         */
+        private int releaseWaiter(Node node) {
+            try {
+                return fullyRelease(node);
+            } catch (Throwable t) {
+                WAITER_COUNT.getAndAdd(this, -1);
+                throw t;
+            }
+        }
+
+        /**
+         * 转移结点直到遇到一个没有取消的结点或者队列为空
+         */
+        private void doSignal(Node first) {
+            do {
+                if ( (firstWaiter = first.nextWaiter) == null)
+                    lastWaiter = null;
+                first.nextWaiter = null;
+            } while (!transferWaiter(first) &&
+                     (first = firstWaiter) != null);
+        }
+
+        private void doSignalAll(Node first) {
+            lastWaiter = firstWaiter = null;
+            do {
+                Node next = first.nextWaiter;
+                first.nextWaiter = null;
+                transferWaiter(first);
+                first = next;
+            } while (first != null);
+        }
+
+        /**
+         * 从条件队列中移除已取消的结点，只在持有锁时调用
+         */
+        private void unlinkCancelledWaiters() {
+            Node t = firstWaiter;
+            Node trail = null;
+            while (t != null) {
+                Node next = t.nextWaiter;
+                if (t.waitStatus != Node.CONDITION) {
+                    t.nextWaiter = null;
+                    if (trail == null)
+                        firstWaiter = next;
+                    else
+                        trail.nextWaiter = next;
+                    if (next == null)
+                        lastWaiter = trail;
+                }
+                else
+                    trail = t;
+                t = next;
+            }
+        }
+
+        @Override
+        public final void signal() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            Node first = firstWaiter;
+            if (first != null)
+                doSignal(first);
+        }
+
+        @Override
+        public final void signalAll() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            Node first = firstWaiter;
+            if (first != null)
+                doSignalAll(first);
+        }
+
+        @Override
+        public final void awaitUninterruptibly() {
+            Node node = addConditionWaiter();
+            int savedState = releaseWaiter(node);
+            boolean interrupted = false;
+            while (!isOnSyncQueue(node)) {
+                LockSupport.park(this);
+                if (Thread.interrupted())
+                    interrupted = true;
+            }
+            if (acquireQueued(node, savedState) || interrupted)
+                selfInterrupt();
+        }
+
+        /**
+         * 与{@link #awaitUninterruptibly}相同，{@link Condition}接口中的名字
+         */
+        @Override
+        public final void awaitUniterruptibly() {
+            awaitUninterruptibly();
+        }
+
+        /** 退出等待时重新设置中断状态 */
+        private static final int REINTERRUPT =  1;
+        /** 退出等待时抛出InterruptedException */
+        private static final int THROW_IE    = -1;
+
+        /**
+         * 检查中断：在signal之前中断返回THROW_IE，之后中断返回REINTERRUPT，没有中断返回0
+         */
+        private int checkInterruptWhileWaiting(Node node) {
+            return Thread.interrupted() ?
+                (cancelWaiter(node) ? THROW_IE : REINTERRUPT) :
+                0;
+        }
+
+        private void reportInterruptAfterWait(int interruptMode)
+            throws InterruptedException {
+            if (interruptMode == THROW_IE)
+                throw new InterruptedException();
+            else if (interruptMode == REINTERRUPT)
+                selfInterrupt();
+        }
+
+        @Override
+        public final void await() throws InterruptedException {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            Node node = addConditionWaiter();
+            int savedState = releaseWaiter(node);
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                LockSupport.park(this);
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0)
+                    break;
+            }
+            if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
+                interruptMode = REINTERRUPT;
+            if (node.nextWaiter != null) // 取消时清除
+                unlinkCancelledWaiters();
+            if (interruptMode != 0)
+                reportInterruptAfterWait(interruptMode);
+        }
+
+        @Override
+        public final long awaitNanos(long nanosTimeout)
+                throws InterruptedException {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            // 在这里计算截止时间，避免溢出
+            final long deadline = System.nanoTime() + nanosTimeout;
+            long initialNanos = nanosTimeout;
+            Node node = addConditionWaiter();
+            int savedState = releaseWaiter(node);
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                if (nanosTimeout <= 0L) {
+                    cancelWaiter(node);
+                    break;
+                }
+                if (nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD)
+                    LockSupport.parkNanos(this, nanosTimeout);
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0)
+                    break;
+                nanosTimeout = deadline - System.nanoTime();
+            }
+            if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
+                interruptMode = REINTERRUPT;
+            if (node.nextWaiter != null)
+                unlinkCancelledWaiters();
+            if (interruptMode != 0)
+                reportInterruptAfterWait(interruptMode);
+            long remaining = deadline - System.nanoTime(); // 不超过initialNanos
+            return (remaining <= initialNanos) ? remaining : Long.MIN_VALUE;
+        }
+
+        @Override
+        public final boolean awaitUntil(Date deadline)
+                throws InterruptedException {
+            long abstime = deadline.getTime();
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            Node node = addConditionWaiter();
+            int savedState = releaseWaiter(node);
+            boolean timedout = false;
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                if (System.currentTimeMillis() >= abstime) {
+                    timedout = cancelWaiter(node);
+                    break;
+                }
+                LockSupport.parkUntil(this, abstime);
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0)
+                    break;
+            }
+            if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
+                interruptMode = REINTERRUPT;
+            if (node.nextWaiter != null)
+                unlinkCancelledWaiters();
+            if (interruptMode != 0)
+                reportInterruptAfterWait(interruptMode);
+            return !timedout;
+        }
+
+        @Override
+        public final boolean await(long time, TimeUnit unit)
+                throws InterruptedException {
+            long nanosTimeout = unit.toNanos(time);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            final long deadline = System.nanoTime() + nanosTimeout;
+            Node node = addConditionWaiter();
+            int savedState = releaseWaiter(node);
+            boolean timedout = false;
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                if (nanosTimeout <= 0L) {
+                    timedout = cancelWaiter(node);
+                    break;
+                }
+                if (nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD)
+                    LockSupport.parkNanos(this, nanosTimeout);
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0)
+                    break;
+                nanosTimeout = deadline - System.nanoTime();
+            }
+            if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
+                interruptMode = REINTERRUPT;
+            if (node.nextWaiter != null)
+                unlinkCancelledWaiters();
+            if (interruptMode != 0)
+                reportInterruptAfterWait(interruptMode);
+            return !timedout;
+        }
+
+        //  检查方法
+
+        final boolean isOwnedBy(AbstractQueuedSynchronizer sync) {
+            return sync == AbstractQueuedSynchronizer.this;
+        }
+
+        protected final boolean hasWaiters() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            for (Node w = firstWaiter; w != null; w = w.nextWaiter) {
+                if (w.waitStatus == Node.CONDITION)
+                    return true;
+            }
+            return false;
+        }
+
+        protected final int getWaitQueueLength() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            int n = 0;
+            for (Node w = firstWaiter; w != null; w = w.nextWaiter) {
+                if (w.waitStatus == Node.CONDITION)
+                    ++n;
+            }
+            return n;
+        }
+
+        /**
+         * 在这个条件上等待的线程数的估计值，不需要持有锁，也不遍历队列，
+         * 可以被监控线程高频地调用。没有线程正在进入或离开等待时是准确的
+         */
+        public final int getApproximateWaitQueueLength() {
+            return waiterCount;
+        }
+
+        protected final Collection<Thread> getWaitingThreads() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            ArrayList<Thread> list = new ArrayList<>();
+            for (Node w = firstWaiter; w != null; w = w.nextWaiter) {
+                if (w.waitStatus == Node.CONDITION) {
+                    Thread t = w.thread;
+                    if (t != null)
+                        list.add(t);
+                }
+            }
+            return list;
+        }
+    }
+
+    private final boolean compareAndSetHead(Node update) {
+        return HEAD.compareAndSet(this, null, update);
+    }
+
+    private final boolean compareAndSetTail(Node expect, Node update) {
+        return TAIL.compareAndSet(this, expect, update);
+    }
+
+    private static final VarHandle STATE;
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+    private static final VarHandle SPINNERS;
+    private static final VarHandle WAITER_COUNT;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            STATE = l.findVarHandle(AbstractQueuedSynchronizer.class, "state", int.class);
+            HEAD = l.findVarHandle(AbstractQueuedSynchronizer.class, "head", Node.class);
+            TAIL = l.findVarHandle(AbstractQueuedSynchronizer.class, "tail", Node.class);
+            SPINNERS = l.findVarHandle(AbstractQueuedSynchronizer.class, "spinners", int.class);
+            WAITER_COUNT = l.findVarHandle(ConditionObject.class, "waiterCount", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+
+        // 避免第一次调用LockSupport.park时加载类的问题(JDK-8074773)
+        Class<?> ensureLoaded = LockSupport.class;
+    }
+}
@@ -0,0 +1,265 @@
+package com.myjava.util.concurrent.locks;
+
+import com.myjava.util.concurrent.atomic.ConcurrentFrequencySketch;
+import com.myjava.util.concurrent.atomic.LongAdder;
+import com.myjava.util.concurrent.atomic.StripedHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 命名锁的竞争分析器，用来找出哪些锁是热点。
+ *
+ * 用名字构造的{@link ReentrantLock}(比如{@code new ReentrantLock("orderIndex")})会在这里登记，
+ * 同名的锁共用一份统计。{@link #enable()}之后，这些锁记录：
+ * 获取次数、需要等待的获取次数、等待后超时或被中断而没有获取到的次数、
+ * 等待时间和持有时间的直方图(纳秒)，以及抽样得到的等待最多的调用位置。
+ * 没有获取到的等待同样计入需要等待的次数、等待时间和调用位置，
+ * 否则tryLock(timeout)总是超时的锁看起来反而没有竞争。
+ * {@link #disable()}之后停止记录，已有的统计保留。
+ *
+ * 每个名字的统计登记之后不会删除，锁被回收后也一直保留，以便{@link #dump()}报告已经不存在的锁。
+ * 一份统计的大小随竞争增长：两个直方图各有一个约8KB的桶数组，有竞争时按{@link StripedHistogram}
+ * 的策略增加到不小于CPU个数的2的幂个；调用位置表每份8KB，同样最多扩充到CPU个数的两倍以内。
+ * 没有竞争的锁大约24KB，在48核的机器上一个竞争激烈的锁大约1.5MB
+ * (直方图2 * 65 * 8KB，调用位置表64 * 8KB)。所以名字应该取自一个小的固定集合，
+ * 比如按用途命名的static锁；不要把订单号、连接id这样不断变化的值放进名字，那样内存会无限增长。
+ *
+ * 关闭时的开销：命名锁每次lock和unlock多读一次静态的volatile开关，没有名字的锁只多判断一次null，
+ * 不读时钟，不分配对象。所以可以在生产环境中一直使用命名锁，出问题时再打开。
+ *
+ * 打开时：每次获取和释放各读一次System.nanoTime；计数和直方图用{@link LongAdder}和
+ * {@link StripedHistogram}，多个线程同时记录时不会争用同一个缓存行；
+ * 调用位置只在需要等待的获取中按1/CALL_SITE_SAMPLE_RATE抽样，按CALL_SITE_SAMPLE_RATE次计入；
+ * 等待超过SLOW_WAIT_NANOS的获取总是记录，按1次计入，所以偶尔的长时间等待不会被漏掉，
+ * 估计的次数仍然是无偏的。调用位置用StackWalker取得，计入{@link ConcurrentFrequencySketch}，所以内存是固定的；
+ * 这个sketch不自动老化，报告的是{@link #reset()}以来的等待次数(只会因为散列冲突而偏多)。
+ *
+ * {@link #dump()}只读取这些计数器，不获取被统计的锁，可以随时调用。
+ * 持有时间包括可重入的整段持有；在Condition上等待时锁被释放，等待的时间不计入持有时间，
+ * 唤醒后重新获取锁的等待也不计入等待时间。
+ *
+ * 也可以用系统属性{@code -Dmyjava.locks.profile=true}在启动时打开。
+ */
+public final class LockProfiler {
+
+    /** 调用位置的抽样比例 */
+    static final int CALL_SITE_SAMPLE_RATE = 16;
+
+    /** 等待超过这个时间(纳秒)的获取总是记录调用位置，取栈的开销相对可以忽略 */
+    static final long SLOW_WAIT_NANOS = 1_000_000L;
+
+    /** 每个锁报告的调用位置个数 */
+    private static final int TOP_CALL_SITES = 8;
+
+    /** 调用位置统计的宽度 */
+    private static final int CALL_SITE_WIDTH = 256;
+
+    static volatile boolean enabled = Boolean.getBoolean("myjava.locks.profile");
+
+    private static final ConcurrentHashMap<String, Profile> PROFILES = new ConcurrentHashMap<>();
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private LockProfiler() {
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 返回名字对应的统计，不存在时创建。创建的统计永远不会删除
+     */
+    static Profile profile(String name) {
+        return PROFILES.computeIfAbsent(Objects.requireNonNull(name), Profile::new);
+    }
+
+    /**
+     * 所有命名锁的统计，按总等待时间从大到小排列
+     */
+    public static List<Report> dump() {
+        List<Report> reports = new ArrayList<>(PROFILES.size());
+        for (Profile p : PROFILES.values())
+            reports.add(p.report());
+        reports.sort((a, b) -> Long.compare(b.waitNanos.sum(), a.waitNanos.sum()));
+        return reports;
+    }
+
+    /**
+     * {@link #dump()}的文本形式
+     */
+    public static String dumpString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("LockProfiler[enabled=").append(enabled).append("]\n");
+        for (Report r : dump())
+            sb.append(r).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * 清空所有统计，有并发记录时不是原子的
+     */
+    public static void reset() {
+        for (Profile p : PROFILES.values())
+            p.reset();
+    }
+
+    /**
+     * 一个名字的统计
+     */
+    static final class Profile {
+        final String name;
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder contended = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final StripedHistogram waitNanos = new StripedHistogram();
+        final StripedHistogram holdNanos = new StripedHistogram();
+        volatile ConcurrentFrequencySketch<String> callSites = newCallSites();
+
+        Profile(String name) {
+            this.name = name;
+        }
+
+        /** 不自动老化，否则报告的次数每160次左右的抽样就减半一次；reset()时整个换掉 */
+        private static ConcurrentFrequencySketch<String> newCallSites() {
+            return new ConcurrentFrequencySketch<>(CALL_SITE_WIDTH, 4, TOP_CALL_SITES, Long.MAX_VALUE);
+        }
+
+        void acquired() {
+            acquisitions.increment();
+        }
+
+        void acquiredAfterWait(long waited) {
+            acquisitions.increment();
+            waited(waited);
+        }
+
+        /**
+         * 等待后超时或被中断，没有获取到锁
+         */
+        void failedAfterWait(long waited) {
+            failed.increment();
+            waited(waited);
+        }
+
+        private void waited(long waited) {
+            contended.increment();
+            waitNanos.record(waited);
+            if (waited >= SLOW_WAIT_NANOS)
+                callSites.increment(callSite());
+            else if (ThreadLocalRandom.current().nextInt(CALL_SITE_SAMPLE_RATE) == 0)
+                callSites.add(callSite(), CALL_SITE_SAMPLE_RATE);
+        }
+
+        void released(long held) {
+            holdNanos.record(held);
+        }
+
+        void reset() {
+            acquisitions.reset();
+            contended.reset();
+            failed.reset();
+            waitNanos.reset();
+            holdNanos.reset();
+            callSites = newCallSites();
+        }
+
+        Report report() {
+            return new Report(name, acquisitions.sum(), contended.sum(), failed.sum(),
+                    waitNanos.snapshot(), holdNanos.snapshot(),
+                    Collections.unmodifiableList(callSites.heavyHitters()));
+        }
+    }
+
+    /**
+     * 第一个不属于锁实现的栈帧
+     */
+    static String callSite() {
+        Optional<StackWalker.StackFrame> f = WALKER.walk(s -> s
+                .dropWhile(LockProfiler::isLockFrame)
+                .findFirst());
+        return f.map(x -> x.getClassName() + "." + x.getMethodName() +
+                "(" + x.getFileName() + ":" + x.getLineNumber() + ")").orElse("unknown");
+    }
+
+    private static boolean isLockFrame(StackWalker.StackFrame f) {
+        String c = f.getClassName();
+        return isClassOrNested(c, ReentrantLock.class) ||
+               isClassOrNested(c, AbstractQueuedSynchronizer.class) ||
+               isClassOrNested(c, LockProfiler.class);
+    }
+
+    private static boolean isClassOrNested(String className, Class<?> c) {
+        String n = c.getName();
+        return className.startsWith(n) &&
+               (className.length() == n.length() || className.charAt(n.length()) == '$');
+    }
+
+    /**
+     * 一个命名锁在某一时刻的统计，不可变
+     */
+    public static final class Report {
+        public final String name;
+        /** 获取的次数 */
+        public final long acquisitions;
+        /** 需要等待的获取次数，包括最终没有获取到的 */
+        public final long contended;
+        /** 等待后超时或被中断而没有获取到的次数，不计入acquisitions */
+        public final long failed;
+        /** 需要等待的获取的等待时间(纳秒)，包括没有获取到的 */
+        public final StripedHistogram.Snapshot waitNanos;
+        /** 持有时间(纳秒) */
+        public final StripedHistogram.Snapshot holdNanos;
+        /** 等待最多的调用位置和估计的等待次数，从多到少 */
+        public final List<Map.Entry<String, Long>> topCallSites;
+
+        Report(String name, long acquisitions, long contended, long failed,
+               StripedHistogram.Snapshot waitNanos, StripedHistogram.Snapshot holdNanos,
+               List<Map.Entry<String, Long>> topCallSites) {
+            this.name = name;
+            this.acquisitions = acquisitions;
+            this.contended = contended;
+            this.failed = failed;
+            this.waitNanos = waitNanos;
+            this.holdNanos = holdNanos;
+            this.topCallSites = topCallSites;
+        }
+
+        /**
+         * 需要等待的获取在所有获取尝试(包括没有获取到的)中所占的比例
+         */
+        public double contentionRatio() {
+            long attempts = acquisitions + failed;
+            return (attempts == 0) ? 0.0 : (double) contended / attempts;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(name).append(": acquisitions=").append(acquisitions)
+              .append(", contended=").append(contended)
+              .append(String.format(" (%.1f%%)", contentionRatio() * 100))
+              .append(", failed=").append(failed)
+              .append("\n  wait ").append(waitNanos)
+              .append("\n  hold ").append(holdNanos);
+            for (Map.Entry<String, Long> e : topCallSites)
+                sb.append("\n  ~").append(e.getValue()).append(" waits at ").append(e.getKey());
+            return sb.toString();
+        }
+    }
+}
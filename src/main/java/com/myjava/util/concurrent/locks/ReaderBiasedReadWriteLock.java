@@ -0,0 +1,416 @@
+package com.myjava.util.concurrent.locks;
+
+import com.myjava.lang.ThreadLocal;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 偏向读线程的{@link ReadWriteLock}，用于读远多于写的场景，比如配置和索引的查找。
+ *
+ * {@link ReentrantReadWriteLock}的每次读加锁和解锁都要CAS同一个状态字，
+ * 多核上所有读线程争用这一条缓存行，读线程越多越慢。这里采用BRAVO
+ * (Dice, Kogan, "BRAVO: Biased Locking for Reader-Writer Locks")的做法：
+ * 锁在偏向读的状态下，读线程只增加自己的读者指示器，不碰共享的状态；
+ * 指示器是按线程散列的计数器，每个占用单独的缓存行，个数不少于CPU数的两倍，
+ * 所以不同CPU上的读线程通常写不同的缓存行。Java无法取得当前CPU的编号，用线程id散列代替。
+ *
+ * 写线程先获取内部的{@link ReentrantReadWriteLock}的写锁，撤销偏向，
+ * 再等待所有指示器归零。读线程增加指示器之后重新检查偏向，写线程撤销偏向之后检查指示器，
+ * 两边都是volatile的读写，所以要么读线程看到撤销走慢速路径，要么写线程看到它的计数等它离开。
+ *
+ * 撤销的代价和指示器的个数成正比，所以撤销之后的一段时间(撤销耗时的INHIBIT_MULTIPLIER倍)里，
+ * 读线程走内部读写锁的慢速路径；之后第一个慢速的读线程在持有内部读锁时恢复偏向。
+ * 写很频繁时锁自然退化为普通的读写锁，写线程的额外开销有上界。
+ *
+ * 读锁和写锁都可以重入，持有写锁的线程可以获取读锁(降级)，持有读锁时不能获取写锁。
+ * 每个线程的读锁计数和指示器下标保存在ThreadLocal中，计数为0后仍然保留，作为下标的缓存。
+ * 写锁不支持条件：等待条件时内部写锁被释放，读线程可能恢复偏向，唤醒后需要重新撤销。
+ *
+ * @author luoqi04
+ */
+public class ReaderBiasedReadWriteLock implements ReadWriteLock {
+
+    /** 每个指示器占用的long的个数，128字节，避免相邻缓存行预取带来的伪共享 */
+    private static final int STRIDE = 16;
+
+    /** 指示器个数的上限，(MAX_SLOTS + 1) * STRIDE不超过数组的最大长度 */
+    static final int MAX_SLOTS = 1 << 26;
+
+    /** 撤销之后禁止偏向的时间是撤销耗时的这么多倍 */
+    static final int INHIBIT_MULTIPLIER = 9;
+
+    /** 等待读线程离开时，自旋这么多次后让出CPU */
+    private static final int DRAIN_SPINS = 1 << 6;
+    /** 让出CPU这么多次后开始park */
+    private static final int DRAIN_YIELDS = 1 << 7;
+
+    private final ReentrantReadWriteLock delegate;
+    private final ReadLock readerLock;
+    private final WriteLock writerLock;
+
+    /** 读者指示器，第i个在下标(i + 1) * STRIDE */
+    private final long[] indicators;
+    private final int slotShift;
+
+    /** 是否偏向读线程 */
+    private volatile boolean readBias = true;
+    /** 在这个时刻(System.nanoTime)之前不恢复偏向 */
+    private volatile long inhibitUntil;
+    /** 撤销的次数，只在持有写锁时修改 */
+    private volatile long revocations;
+
+    private final ThreadLocal<ReadHolds> holds = new ThreadLocal<ReadHolds>() {
+        @Override
+        protected ReadHolds initialValue() {
+            return new ReadHolds(slotOf(Thread.currentThread()));
+        }
+    };
+
+    /**
+     * 当前线程的读锁计数，只由这个线程访问
+     */
+    static final class ReadHolds {
+        /** 指示器在数组中的下标 */
+        final int slot;
+        /** 通过指示器持有的次数 */
+        int fast;
+        /** 通过内部读锁持有的次数 */
+        int slow;
+
+        ReadHolds(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    public ReaderBiasedReadWriteLock() {
+        this(AbstractQueuedSynchronizer.NCPU << 1);
+    }
+
+    /**
+     * @param slots 读者指示器的个数，向上取整为2的幂，至少为2，每个占用128字节
+     * @throws IllegalArgumentException 如果slots不是正数或者大于2^26
+     */
+    public ReaderBiasedReadWriteLock(int slots) {
+        if (slots <= 0)
+            throw new IllegalArgumentException();
+        // 先检查再取整，否则大于2^30的值会被移位成一个很小的数
+        if (slots > MAX_SLOTS)
+            throw new IllegalArgumentException("slots too large: " + slots);
+        int n = Math.max(2, 1 << -Integer.numberOfLeadingZeros(slots - 1));
+        this.slotShift = 64 - Integer.numberOfTrailingZeros(n);
+        this.indicators = new long[(n + 1) * STRIDE];
+        this.delegate = new ReentrantReadWriteLock();
+        this.readerLock = new ReadLock();
+        this.writerLock = new WriteLock();
+    }
+
+    private int slotOf(Thread t) {
+        long h = LockSupport.getThreadId(t) * 0x9e3779b97f4a7c15L;
+        return ((int) (h >>> slotShift) + 1) * STRIDE;
+    }
+
+    @Override
+    public ReadLock readLock() {
+        return readerLock;
+    }
+
+    @Override
+    public WriteLock writeLock() {
+        return writerLock;
+    }
+
+    /**
+     * 尝试通过指示器获取读锁
+     */
+    private boolean tryFastRead(ReadHolds h) {
+        // 已经通过指示器持有时可以直接重入，写线程一定还在等待这个指示器
+        if (h.fast > 0 || readBias) {
+            INDICATORS.getAndAdd(indicators, h.slot, 1L);
+            if (h.fast > 0 || readBias) {
+                h.fast++;
+                return true;
+            }
+            INDICATORS.getAndAdd(indicators, h.slot, -1L);
+        }
+        return false;
+    }
+
+    /**
+     * 持有内部读锁时调用，禁止期已过就恢复偏向。
+     * 当前线程同时持有写锁(降级)时不能恢复
+     */
+    private void slowReadAcquired(ReadHolds h) {
+        h.slow++;
+        if (!readBias && System.nanoTime() - inhibitUntil >= 0L && !delegate.isWriteLocked())
+            readBias = true;
+    }
+
+    /**
+     * 持有内部写锁时调用，撤销偏向并等待读线程离开。
+     * 失败时恢复偏向，所以偏向撤销时指示器一定都是0
+     * @param timed 是否有截止时刻
+     * @param deadline System.nanoTime的截止时刻
+     * @return 截止时还有读线程时返回false
+     */
+    private boolean revoke(boolean timed, long deadline) throws InterruptedException {
+        if (!readBias)
+            return true;
+        long start = System.nanoTime();
+        boolean revoked = false;
+        readBias = false;
+        try {
+            for (int i = STRIDE; i < indicators.length; i += STRIDE) {
+                for (int spins = 0; (long) INDICATORS.getVolatile(indicators, i) != 0L; spins++) {
+                    if (timed && System.nanoTime() - deadline >= 0L)
+                        return false;
+                    if (spins < DRAIN_SPINS)
+                        Thread.onSpinWait();
+                    else if (spins < DRAIN_YIELDS)
+                        Thread.yield();
+                    else {
+                        LockSupport.parkNanos(this, 10_000L);
+                        if (Thread.interrupted())
+                            throw new InterruptedException();
+                    }
+                }
+            }
+            revoked = true;
+        } finally {
+            if (revoked) {
+                long now = System.nanoTime();
+                inhibitUntil = now + (now - start) * INHIBIT_MULTIPLIER;
+                revocations++;
+            } else
+                readBias = true;
+        }
+        return true;
+    }
+
+    /**
+     * 不可中断地撤销，等待时的中断在返回后恢复
+     */
+    private void revokeUninterruptibly() {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                revoke(false, 0L);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * {@link ReaderBiasedReadWriteLock#readLock}返回的锁
+     */
+    public final class ReadLock implements Lock {
+
+        @Override
+        public void lock() {
+            ReadHolds h = holds.get();
+            if (!tryFastRead(h)) {
+                delegate.readLock().lock();
+                slowReadAcquired(h);
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            ReadHolds h = holds.get();
+            if (!tryFastRead(h)) {
+                delegate.readLock().lockInterruptibly();
+                slowReadAcquired(h);
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            ReadHolds h = holds.get();
+            if (tryFastRead(h))
+                return true;
+            if (!delegate.readLock().tryLock())
+                return false;
+            slowReadAcquired(h);
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            ReadHolds h = holds.get();
+            if (tryFastRead(h))
+                return true;
+            if (!delegate.readLock().tryLock(time, unit))
+                return false;
+            slowReadAcquired(h);
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            ReadHolds h = holds.get();
+            if (h.fast > 0) {
+                h.fast--;
+                INDICATORS.getAndAdd(indicators, h.slot, -1L);
+            } else if (h.slow > 0) {
+                h.slow--;
+                delegate.readLock().unlock();
+            } else
+                throw new IllegalMonitorStateException();
+        }
+
+        /**
+         * 读锁不支持条件
+         * @throws UnsupportedOperationException 总是
+         */
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * {@link ReaderBiasedReadWriteLock#writeLock}返回的锁
+     */
+    public final class WriteLock implements Lock {
+
+        @Override
+        public void lock() {
+            delegate.writeLock().lock();
+            if (delegate.getWriteHoldCount() == 1)
+                revokeUninterruptibly();
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            delegate.writeLock().lockInterruptibly();
+            if (delegate.getWriteHoldCount() == 1) {
+                boolean revoked = false;
+                try {
+                    revoked = revoke(false, 0L);
+                } finally {
+                    if (!revoked)
+                        delegate.writeLock().unlock();
+                }
+            }
+        }
+
+        /**
+         * 写锁可用而且没有读线程时立即获取
+         */
+        @Override
+        public boolean tryLock() {
+            if (!delegate.writeLock().tryLock())
+                return false;
+            if (delegate.getWriteHoldCount() > 1)
+                return true;
+            boolean revoked = false;
+            try {
+                // 截止时刻就是现在，只检查一遍，不会park
+                revoked = revoke(true, System.nanoTime());
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                if (!revoked)
+                    delegate.writeLock().unlock();
+            }
+            return revoked;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(time);
+            if (!delegate.writeLock().tryLock(time, unit))
+                return false;
+            if (delegate.getWriteHoldCount() > 1)
+                return true;
+            boolean revoked = false;
+            try {
+                revoked = revoke(true, deadline);
+            } finally {
+                if (!revoked)
+                    delegate.writeLock().unlock();
+            }
+            return revoked;
+        }
+
+        @Override
+        public void unlock() {
+            delegate.writeLock().unlock();
+        }
+
+        /**
+         * 写锁不支持条件，见类的说明
+         * @throws UnsupportedOperationException 总是
+         */
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean isHeldByCurrentThread() {
+            return delegate.isWriteLockedByCurrentThread();
+        }
+
+        public int getHoldCount() {
+            return delegate.getWriteHoldCount();
+        }
+    }
+
+    // 检查和监控
+
+    public boolean isReadBiased() {
+        return readBias;
+    }
+
+    public boolean isWriteLocked() {
+        return delegate.isWriteLocked();
+    }
+
+    /**
+     * 所有线程持有读锁的次数，不加锁，是近似值
+     */
+    public int getReadLockCount() {
+        long n = delegate.getReadLockCount();
+        for (int i = STRIDE; i < indicators.length; i += STRIDE)
+            n += (long) INDICATORS.getVolatile(indicators, i);
+        return (int) n;
+    }
+
+    public int getReadHoldCount() {
+        ReadHolds h = holds.get();
+        return h.fast + h.slow;
+    }
+
+    /**
+     * 写线程撤销偏向的次数
+     */
+    public long getRevocations() {
+        return revocations;
+    }
+
+    /**
+     * 读者指示器的个数
+     */
+    public int getSlots() {
+        return indicators.length / STRIDE - 1;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + "[readBias=" + readBias +
+                ", Write locks = " + (delegate.isWriteLocked() ? 1 : 0) +
+                ", Read locks = " + getReadLockCount() + "]";
+    }
+
+    private static final VarHandle INDICATORS = MethodHandles.arrayElementVarHandle(long[].class);
+}
@@ -4,13 +4,20 @@ package com.myjava.util.concurrent.locks;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 import java.util.concurrent.locks.Condition;
 
 /**
+ * 可重入的互斥锁，基于本包的{@link AbstractQueuedSynchronizer}。
+ *
+ * 获取失败的线程在入队park之前先自旋一段时间。自旋的时长从最近的持有时间学习：
+ * 每8次获取采样一次从获取到释放的时间，取指数加权平均，自旋时长是平均值的两倍，
+ * 限制在[MIN_SPIN_NANOS, MAX_SPIN_NANOS]之间；平均持有时间超过MAX_SPIN_NANOS时不自旋，
+ * 因为等到的可能性很小，直接park更省CPU。持有时间只由持有者在锁内更新，所以不需要额外的同步。
+ *
+ * 用名字构造的锁可以被{@link LockProfiler}统计，见那里的说明；没有名字的锁不统计。
+ *
  * @author luoqi04
  * @version $Id: ReentrantLock.java, v 0.1 2018/9/20 上午8:13 luoqi Exp $
  */
@@ -19,18 +26,158 @@ public class ReentrantLock implements Lock, Serializable {
 
     private final Sync sync;
 
+    /** 用于统计的名字，可以为null */
+    private final String name;
+
     abstract static class Sync extends AbstractQueuedSynchronizer {
         private static final long serialVersionUID = -8056958068308494397L;
+
+        /** 每这么多次获取采样一次持有时间，必须是2的幂 */
+        private static final int HOLD_SAMPLE_INTERVAL = 8;
+        /** 自旋时长的下限，还没有采样时也用它 */
+        static final long MIN_SPIN_NANOS = 500L;
+        /** 自旋时长的上限，平均持有时间超过它时不自旋 */
+        static final long MAX_SPIN_NANOS = 20_000L;
+
+        /** 获取的次数，只由持有者修改 */
+        private transient int acquisitions;
+        /** 采样的获取时刻，0表示这次没有采样，只由持有者修改 */
+        private transient long holdStart;
+        /** 持有时间的指数加权平均 */
+        private transient volatile long holdNanos;
+
+        /** 命名锁的统计，没有名字时为null，由ReentrantLock的构造方法设置 */
+        transient LockProfiler.Profile profile;
+
         abstract void lock();
 
+        final boolean profiling() {
+            return profile != null && LockProfiler.enabled;
+        }
+
+        /**
+         * 从0获取成功后由持有者调用。统计打开时每次都记录获取时刻
+         */
+        final void startHold() {
+            holdStart = ((++acquisitions & (HOLD_SAMPLE_INTERVAL - 1)) == 0 || profiling()) ?
+                    System.nanoTime() : 0L;
+        }
+
+        /**
+         * 完全释放之前由持有者调用
+         */
+        private void endHold() {
+            long start = holdStart;
+            if (start != 0L) {
+                long h = holdNanos, sample = System.nanoTime() - start;
+                holdNanos = (h == 0L) ? sample : h + ((sample - h) >> 3);
+                if (profiling())
+                    profile.released(sample);
+            }
+        }
+
+        /**
+         * 统计打开时的lock，先尝试一次，失败时记录等待时间
+         */
+        final void profiledLock() {
+            LockProfiler.Profile p = profile;
+            if (tryAcquire(1)) {
+                p.acquired();
+                return;
+            }
+            long start = System.nanoTime();
+            acquire(1);
+            p.acquiredAfterWait(System.nanoTime() - start);
+        }
+
+        final void profiledLockInterruptibly() throws InterruptedException {
+            LockProfiler.Profile p = profile;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (tryAcquire(1)) {
+                p.acquired();
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                acquireInterruptibly(1);
+            } catch (InterruptedException e) {
+                p.failedAfterWait(System.nanoTime() - start);
+                throw e;
+            }
+            p.acquiredAfterWait(System.nanoTime() - start);
+        }
+
+        final boolean profiledTryAcquireNanos(long nanos) throws InterruptedException {
+            LockProfiler.Profile p = profile;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (tryAcquire(1)) {
+                p.acquired();
+                return true;
+            }
+            long start = System.nanoTime();
+            boolean acquired;
+            try {
+                acquired = tryAcquireNanos(1, nanos);
+            } catch (InterruptedException e) {
+                p.failedAfterWait(System.nanoTime() - start);
+                throw e;
+            }
+            if (acquired)
+                p.acquiredAfterWait(System.nanoTime() - start);
+            else
+                p.failedAfterWait(System.nanoTime() - start);
+            return acquired;
+        }
+
         final boolean nonfairTryAcquire(int acquires) {
-            //to do sth...
+            final Thread current = Thread.currentThread();
+            int c = getState();
+            if (c == 0) {
+                if (compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(current);
+                    startHold();
+                    return true;
+                }
+            }
+            else if (current == getExclusiveOwnerThread()) {
+                int nextc = c + acquires;
+                if (nextc < 0) // 溢出
+                    throw new Error("Maximum lock count exceeded");
+                setState(nextc);
+                return true;
+            }
             return false;
         }
 
         protected final boolean tryRelease(int releases) {
-            //to do sth...
-            return false;
+            int c = getState() - releases;
+            if (Thread.currentThread() != getExclusiveOwnerThread())
+                throw new IllegalMonitorStateException();
+            boolean free = false;
+            if (c == 0) {
+                free = true;
+                endHold();
+                setExclusiveOwnerThread(null);
+            }
+            setState(c);
+            return free;
+        }
+
+        @Override
+        protected final long spinNanos() {
+            long h = holdNanos;
+            if (h > MAX_SPIN_NANOS)
+                return 0L;
+            return Math.min(MAX_SPIN_NANOS, Math.max(MIN_SPIN_NANOS, h << 1));
+        }
+
+        /**
+         * 最近的平均持有时间(纳秒)，还没有采样时为0
+         */
+        final long averageHoldNanos() {
+            return holdNanos;
         }
 
         protected final boolean isHeldExclusively() {
@@ -63,9 +210,10 @@ public class ReentrantLock implements Lock, Serializable {
         private static final long serialVersionUID = 9169618947741337315L;
 
         final void lock() {
-            if (compareAndSetState(0, 1))
+            if (compareAndSetState(0, 1)) {
                 setExclusiveOwnerThread(Thread.currentThread());
-            else
+                startHold();
+            } else
                 acquire(1);
         }
 
@@ -81,37 +229,87 @@ public class ReentrantLock implements Lock, Serializable {
             acquire(1);
         }
 
+        /**
+         * 公平版本的tryAcquire，只有在没有线程等待得更久时才获取
+         */
         protected final boolean tryAcquire(int acquires) {
-            //to do sth...
+            final Thread current = Thread.currentThread();
+            int c = getState();
+            if (c == 0) {
+                if (!hasQueuedPredecessors() &&
+                    compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(current);
+                    startHold();
+                    return true;
+                }
+            }
+            else if (current == getExclusiveOwnerThread()) {
+                int nextc = c + acquires;
+                if (nextc < 0)
+                    throw new Error("Maximum lock count exceeded");
+                setState(nextc);
+                return true;
+            }
             return false;
         }
     }
 
     public ReentrantLock() {
-        sync = new NonfairSync();
+        this(false, null);
     }
 
     public ReentrantLock(boolean fair) {
+        this(fair, null);
+    }
+
+    /**
+     * 创建一个可以被{@link LockProfiler}统计的非公平锁，同名的锁共用一份统计。
+     * 每个名字的统计一直保留到JVM退出，name应该取自一个小的固定集合，见{@link LockProfiler}
+     */
+    public ReentrantLock(String name) {
+        this(false, name);
+    }
+
+    /**
+     * @param name 用于{@link LockProfiler}统计的名字，为null时不统计
+     */
+    public ReentrantLock(boolean fair, String name) {
         this.sync = fair ? new FairSync() : new NonfairSync();
+        this.name = name;
+        if (name != null)
+            sync.profile = LockProfiler.profile(name);
     }
 
     @Override
     public void lock() {
-        sync.lock();
+        if (sync.profiling())
+            sync.profiledLock();
+        else
+            sync.lock();
     }
 
     @Override
     public void lockInterruptibly() throws InterruptedException {
-        sync.acquireInterruptibly(1);
+        if (sync.profiling())
+            sync.profiledLockInterruptibly();
+        else
+            sync.acquireInterruptibly(1);
     }
 
     @Override
     public boolean tryLock() {
-        return sync.nonfairTryAcquire(1);
+        if (sync.nonfairTryAcquire(1)) {
+            if (sync.profiling())
+                sync.profile.acquired();
+            return true;
+        }
+        return false;
     }
 
     @Override
     public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (sync.profiling())
+            return sync.profiledTryAcquireNanos(unit.toNanos(timeout));
         return sync.tryAcquireNanos(1, unit.toNanos(timeout));
     }
 
@@ -137,6 +335,13 @@ public class ReentrantLock implements Lock, Serializable {
         return sync.isLocked();
     }
 
+    /**
+     * 构造时指定的名字，没有时返回null
+     */
+    public final String getName() {
+        return name;
+    }
+
     public final boolean isFair() {
         return sync instanceof FairSync;
     }
@@ -153,6 +358,13 @@ public class ReentrantLock implements Lock, Serializable {
         return sync.isQueued(thread);
     }
 
+    /**
+     * 最近的平均持有时间(纳秒)，决定了获取失败的线程自旋多久，还没有采样时为0
+     */
+    public long getAverageHoldNanos() {
+        return sync.averageHoldNanos();
+    }
+
     public final int getQueueLength() {
         return sync.getQueueLength();
     }
@@ -161,25 +373,60 @@ public class ReentrantLock implements Lock, Serializable {
         return sync.getQueuedThreads();
     }
 
+    /**
+     * 是否有线程在与这个锁关联的条件上等待，需要持有锁
+     * @throws IllegalMonitorStateException 没有持有锁
+     * @throws IllegalArgumentException 条件不是这个锁创建的
+     */
     public boolean hasWaiters(Condition condition) {
-        //to do sth...
-        return false;
+        return sync.hasWaiters(conditionObject(condition));
     }
 
+    /**
+     * 在与这个锁关联的条件上等待的线程数，需要持有锁
+     * @throws IllegalMonitorStateException 没有持有锁
+     * @throws IllegalArgumentException 条件不是这个锁创建的
+     */
     public int getWaitQueueLength(Condition condition) {
-        //to do sth...
-        return 1;
+        return sync.getWaitQueueLength(conditionObject(condition));
     }
 
+    /**
+     * 在与这个锁关联的条件上等待的线程，需要持有锁
+     * @throws IllegalMonitorStateException 没有持有锁
+     * @throws IllegalArgumentException 条件不是这个锁创建的
+     */
     protected Collection<Thread> getWaitingThreads(Condition condition) {
-        //to do sth...
-        return new ArrayList<>();
+        return sync.getWaitingThreads(conditionObject(condition));
+    }
+
+    /**
+     * 在与这个锁关联的条件上等待的线程数的估计值。不需要持有锁，也不遍历等待队列，
+     * 用于监控线程高频地轮询；没有线程正在进入或离开等待时是准确的
+     * @throws IllegalArgumentException 条件不是这个锁创建的
+     */
+    public int getApproximateWaitQueueLength(Condition condition) {
+        return sync.getApproximateWaitQueueLength(conditionObject(condition));
+    }
+
+    private static AbstractQueuedSynchronizer.ConditionObject conditionObject(Condition condition) {
+        if (condition == null)
+            throw new NullPointerException();
+        if (!(condition instanceof AbstractQueuedSynchronizer.ConditionObject))
+            throw new IllegalArgumentException("not owner");
+        return (AbstractQueuedSynchronizer.ConditionObject) condition;
+    }
+
+    private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        if (name != null)
+            sync.profile = LockProfiler.profile(name);
     }
 
     @Override
     public String toString() {
         Thread o = sync.getOwner();
-        return super.toString() + ((o==null) ?
+        return super.toString() + ((name == null) ? "" : "[" + name + "]") + ((o==null) ?
                                     "[Unlocked]" :
                                     "[Locked by thread " + o.getName() + "]");
     }
@@ -0,0 +1,588 @@
+package com.myjava.util.concurrent.locks;
+
+import com.myjava.lang.ThreadLocal;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 支持与{@link ReentrantLock}相似语义的{@link ReadWriteLock}实现，基于本包的{@link AbstractQueuedSynchronizer}。
+ *
+ * 获取顺序：非公平模式(默认)下读写线程可以插队，吞吐量更高；
+ * 但如果队列中第一个线程在等待写锁，新的读线程会阻塞，避免写线程饥饿。
+ * 公平模式下线程按照近似的到达顺序获取，只有没有线程等待得更久时才能获取。
+ *
+ * 重入：读线程和写线程都可以重入。持有写锁的线程可以获取读锁，然后释放写锁，实现锁降级；
+ * 持有读锁时不能升级为写锁。
+ *
+ * 同步状态的低16位是写锁的重入次数，高16位是所有线程持有读锁的次数，所以都不能超过65535。
+ * 每个线程的读锁重入次数保存在ThreadLocal中，并缓存第一个读线程和最近一个读线程的计数，
+ * 常见情况下不需要查找ThreadLocal。
+ *
+ * @author luoqi04
+ */
+public class ReentrantReadWriteLock implements ReadWriteLock, Serializable {
+    private static final long serialVersionUID = -6992448646407690164L;
+
+    private final ReadLock readerLock;
+
+    private final WriteLock writerLock;
+
+    final Sync sync;
+
+    public ReentrantReadWriteLock() {
+        this(false);
+    }
+
+    public ReentrantReadWriteLock(boolean fair) {
+        sync = fair ? new FairSync() : new NonfairSync();
+        readerLock = new ReadLock(this);
+        writerLock = new WriteLock(this);
+    }
+
+    @Override
+    public ReentrantReadWriteLock.WriteLock writeLock() { return writerLock; }
+    @Override
+    public ReentrantReadWriteLock.ReadLock  readLock()  { return readerLock; }
+
+    abstract static class Sync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 6317671515068378041L;
+
+        static final int SHARED_SHIFT   = 16;
+        static final int SHARED_UNIT    = (1 << SHARED_SHIFT);
+        static final int MAX_COUNT      = (1 << SHARED_SHIFT) - 1;
+        static final int EXCLUSIVE_MASK = (1 << SHARED_SHIFT) - 1;
+
+        /** 读锁的持有次数 */
+        static int sharedCount(int c)    { return c >>> SHARED_SHIFT; }
+        /** 写锁的重入次数 */
+        static int exclusiveCount(int c) { return c & EXCLUSIVE_MASK; }
+
+        /**
+         * 每个线程的读锁计数，保存线程id而不是线程的引用，避免持有已结束的线程
+         */
+        static final class HoldCounter {
+            int count;
+            final long tid = LockSupport.getThreadId(Thread.currentThread());
+        }
+
+        static final class ThreadLocalHoldCounter
+            extends ThreadLocal<HoldCounter> {
+            @Override
+            protected HoldCounter initialValue() {
+                return new HoldCounter();
+            }
+        }
+
+        /**
+         * 当前线程的读锁计数，计数降为0时移除
+         */
+        private transient ThreadLocalHoldCounter readHolds;
+
+        /**
+         * 最近一个成功获取读锁的线程的计数，通常下一个释放的就是它，不需要查找ThreadLocal。
+         * 不是volatile的，只是一个缓存
+         */
+        private transient HoldCounter cachedHoldCounter;
+
+        /**
+         * 第一个把读锁计数从0变为1的线程，以及它的重入次数。
+         * 没有竞争的读锁不需要任何ThreadLocal
+         */
+        private transient Thread firstReader;
+        private transient int firstReaderHoldCount;
+
+        Sync() {
+            readHolds = new ThreadLocalHoldCounter();
+            setState(getState()); // 保证readHolds的可见性
+        }
+
+        /**
+         * 获取读锁的线程是否应该阻塞，区分公平和非公平
+         */
+        abstract boolean readerShouldBlock();
+
+        /**
+         * 获取写锁的线程是否应该阻塞，区分公平和非公平
+         */
+        abstract boolean writerShouldBlock();
+
+        @Override
+        protected final boolean tryRelease(int releases) {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            int nextc = getState() - releases;
+            boolean free = exclusiveCount(nextc) == 0;
+            if (free)
+                setExclusiveOwnerThread(null);
+            setState(nextc);
+            return free;
+        }
+
+        @Override
+        protected final boolean tryAcquire(int acquires) {
+            /*
+             * 1. 读计数不为0或者写计数不为0而且持有者是其他线程，失败
+             * 2. 计数饱和，失败
+             * 3. 否则如果是重入或者队列策略允许，就可以获取
+             */
+            Thread current = Thread.currentThread();
+            int c = getState();
+            int w = exclusiveCount(c);
+            if (c != 0) {
+                // c != 0 && w == 0说明有读锁
+                if (w == 0 || current != getExclusiveOwnerThread())
+                    return false;
+                if (w + exclusiveCount(acquires) > MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                // 重入
+                setState(c + acquires);
+                return true;
+            }
+            if (writerShouldBlock() ||
+                !compareAndSetState(c, c + acquires))
+                return false;
+            setExclusiveOwnerThread(current);
+            return true;
+        }
+
+        @Override
+        protected final boolean tryReleaseShared(int unused) {
+            Thread current = Thread.currentThread();
+            if (firstReader == current) {
+                if (firstReaderHoldCount == 1)
+                    firstReader = null;
+                else
+                    firstReaderHoldCount--;
+            } else {
+                HoldCounter rh = cachedHoldCounter;
+                if (rh == null || rh.tid != LockSupport.getThreadId(current))
+                    rh = readHolds.get();
+                int count = rh.count;
+                if (count <= 1) {
+                    readHolds.remove();
+                    if (count <= 0)
+                        throw unmatchedUnlockException();
+                }
+                --rh.count;
+            }
+            for (;;) {
+                int c = getState();
+                int nextc = c - SHARED_UNIT;
+                if (compareAndSetState(c, nextc))
+                    // 释放读锁对读线程没有影响，但读锁完全释放后等待的写线程可以继续
+                    return nextc == 0;
+            }
+        }
+
+        private static IllegalMonitorStateException unmatchedUnlockException() {
+            return new IllegalMonitorStateException(
+                "attempt to unlock read lock, not locked by current thread");
+        }
+
+        @Override
+        protected final int tryAcquireShared(int unused) {
+            /*
+             * 1. 其他线程持有写锁，失败
+             * 2. 如果队列策略不要求阻塞，尝试一次CAS，成功后更新计数。
+             *    这里不检查重入，重入的情况交给完整版本处理
+             * 3. 第2步失败时进入完整版本的重试循环
+             */
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (exclusiveCount(c) != 0 &&
+                getExclusiveOwnerThread() != current)
+                return -1;
+            int r = sharedCount(c);
+            if (!readerShouldBlock() &&
+                r < MAX_COUNT &&
+                compareAndSetState(c, c + SHARED_UNIT)) {
+                if (r == 0) {
+                    firstReader = current;
+                    firstReaderHoldCount = 1;
+                } else if (firstReader == current) {
+                    firstReaderHoldCount++;
+                } else {
+                    HoldCounter rh = cachedHoldCounter;
+                    if (rh == null || rh.tid != LockSupport.getThreadId(current))
+                        cachedHoldCounter = rh = readHolds.get();
+                    else if (rh.count == 0)
+                        readHolds.set(rh);
+                    rh.count++;
+                }
+                return 1;
+            }
+            return fullTryAcquireShared(current);
+        }
+
+        /**
+         * 完整版本的获取读锁，处理CAS失败和tryAcquireShared中没有处理的重入
+         */
+        final int fullTryAcquireShared(Thread current) {
+            HoldCounter rh = null;
+            for (;;) {
+                int c = getState();
+                if (exclusiveCount(c) != 0) {
+                    if (getExclusiveOwnerThread() != current)
+                        return -1;
+                    // 否则持有写锁，在这里阻塞会导致死锁
+                } else if (readerShouldBlock()) {
+                    // 重入的读线程不阻塞
+                    if (firstReader == current) {
+                        // assert firstReaderHoldCount > 0;
+                    } else {
+                        if (rh == null) {
+                            rh = cachedHoldCounter;
+                            if (rh == null || rh.tid != LockSupport.getThreadId(current)) {
+                                rh = readHolds.get();
+                                if (rh.count == 0)
+                                    readHolds.remove();
+                            }
+                        }
+                        if (rh.count == 0)
+                            return -1;
+                    }
+                }
+                if (sharedCount(c) == MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    if (sharedCount(c) == 0) {
+                        firstReader = current;
+                        firstReaderHoldCount = 1;
+                    } else if (firstReader == current) {
+                        firstReaderHoldCount++;
+                    } else {
+                        if (rh == null)
+                            rh = cachedHoldCounter;
+                        if (rh == null || rh.tid != LockSupport.getThreadId(current))
+                            rh = readHolds.get();
+                        else if (rh.count == 0)
+                            readHolds.set(rh);
+                        rh.count++;
+                        cachedHoldCounter = rh;
+                    }
+                    return 1;
+                }
+            }
+        }
+
+        /**
+         * 用于tryLock，总是可以插队
+         */
+        final boolean tryWriteLock() {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c != 0) {
+                int w = exclusiveCount(c);
+                if (w == 0 || current != getExclusiveOwnerThread())
+                    return false;
+                if (w == MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+            }
+            if (!compareAndSetState(c, c + 1))
+                return false;
+            setExclusiveOwnerThread(current);
+            return true;
+        }
+
+        /**
+         * 用于tryLock，总是可以插队
+         */
+        final boolean tryReadLock() {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                int c = getState();
+                if (exclusiveCount(c) != 0 &&
+                    getExclusiveOwnerThread() != current)
+                    return false;
+                int r = sharedCount(c);
+                if (r == MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    if (r == 0) {
+                        firstReader = current;
+                        firstReaderHoldCount = 1;
+                    } else if (firstReader == current) {
+                        firstReaderHoldCount++;
+                    } else {
+                        HoldCounter rh = cachedHoldCounter;
+                        if (rh == null || rh.tid != LockSupport.getThreadId(current))
+                            cachedHoldCounter = rh = readHolds.get();
+                        else if (rh.count == 0)
+                            readHolds.set(rh);
+                        rh.count++;
+                    }
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        protected final boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        final ConditionObject newCondition() {
+            return new ConditionObject();
+        }
+
+        final Thread getOwner() {
+            return ((exclusiveCount(getState()) == 0) ?
+                    null :
+                    getExclusiveOwnerThread());
+        }
+
+        final int getReadLockCount() {
+            return sharedCount(getState());
+        }
+
+        final boolean isWriteLocked() {
+            return exclusiveCount(getState()) != 0;
+        }
+
+        final int getWriteHoldCount() {
+            return isHeldExclusively() ? exclusiveCount(getState()) : 0;
+        }
+
+        final int getReadHoldCount() {
+            if (getReadLockCount() == 0)
+                return 0;
+
+            Thread current = Thread.currentThread();
+            if (firstReader == current)
+                return firstReaderHoldCount;
+
+            HoldCounter rh = cachedHoldCounter;
+            if (rh != null && rh.tid == LockSupport.getThreadId(current))
+                return rh.count;
+
+            int count = readHolds.get().count;
+            if (count == 0) readHolds.remove();
+            return count;
+        }
+
+        private void readObject(ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+            s.defaultReadObject();
+            readHolds = new ThreadLocalHoldCounter();
+            setState(0); // 重置为未锁定
+        }
+
+        final int getCount() { return getState(); }
+    }
+
+    static final class NonfairSync extends Sync {
+        private static final long serialVersionUID = -8159625535654395037L;
+        @Override
+        final boolean writerShouldBlock() {
+            return false; // 写线程总是可以插队
+        }
+        @Override
+        final boolean readerShouldBlock() {
+            // 队列中第一个线程在等待写锁时阻塞，避免写线程无限期地饥饿
+            return apparentlyFirstQueuedIsExclusive();
+        }
+    }
+
+    static final class FairSync extends Sync {
+        private static final long serialVersionUID = -2274990926593161451L;
+        @Override
+        final boolean writerShouldBlock() {
+            return hasQueuedPredecessors();
+        }
+        @Override
+        final boolean readerShouldBlock() {
+            return hasQueuedPredecessors();
+        }
+    }
+
+    /**
+     * {@link ReentrantReadWriteLock#readLock}返回的锁
+     */
+    public static class ReadLock implements Lock, Serializable {
+        private static final long serialVersionUID = -5992448646407690164L;
+        private final Sync sync;
+
+        protected ReadLock(ReentrantReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        @Override
+        public void lock() {
+            sync.acquireShared(1);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireSharedInterruptibly(1);
+        }
+
+        /**
+         * 写锁没有被其他线程持有时立即获取，即使是公平模式也会插队
+         */
+        @Override
+        public boolean tryLock() {
+            return sync.tryReadLock();
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return sync.tryAcquireSharedNanos(1, unit.toNanos(timeout));
+        }
+
+        @Override
+        public void unlock() {
+            sync.releaseShared(1);
+        }
+
+        /**
+         * 读锁不支持条件
+         * @throws UnsupportedOperationException 总是
+         */
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            int r = sync.getReadLockCount();
+            return super.toString() +
+                "[Read locks = " + r + "]";
+        }
+    }
+
+    /**
+     * {@link ReentrantReadWriteLock#writeLock}返回的锁
+     */
+    public static class WriteLock implements Lock, Serializable {
+        private static final long serialVersionUID = -4992448646407690164L;
+        private final Sync sync;
+
+        protected WriteLock(ReentrantReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        @Override
+        public void lock() {
+            sync.acquire(1);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireInterruptibly(1);
+        }
+
+        /**
+         * 没有其他线程持有读锁或写锁时立即获取，即使是公平模式也会插队
+         */
+        @Override
+        public boolean tryLock() {
+            return sync.tryWriteLock();
+        }
+
+        @Override
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return sync.tryAcquireNanos(1, unit.toNanos(timeout));
+        }
+
+        @Override
+        public void unlock() {
+            sync.release(1);
+        }
+
+        @Override
+        public Condition newCondition() {
+            return sync.newCondition();
+        }
+
+        @Override
+        public String toString() {
+            Thread o = sync.getOwner();
+            return super.toString() + ((o == null) ?
+                                       "[Unlocked]" :
+                                       "[Locked by thread " + o.getName() + "]");
+        }
+
+        public boolean isHeldByCurrentThread() {
+            return sync.isHeldExclusively();
+        }
+
+        public int getHoldCount() {
+            return sync.getWriteHoldCount();
+        }
+    }
+
+    // 检查和监控
+
+    public final boolean isFair() {
+        return sync instanceof FairSync;
+    }
+
+    protected Thread getOwner() {
+        return sync.getOwner();
+    }
+
+    /**
+     * 所有线程持有读锁的次数，用于监控
+     */
+    public int getReadLockCount() {
+        return sync.getReadLockCount();
+    }
+
+    public boolean isWriteLocked() {
+        return sync.isWriteLocked();
+    }
+
+    public boolean isWriteLockedByCurrentThread() {
+        return sync.isHeldExclusively();
+    }
+
+    public int getWriteHoldCount() {
+        return sync.getWriteHoldCount();
+    }
+
+    public int getReadHoldCount() {
+        return sync.getReadHoldCount();
+    }
+
+    protected Collection<Thread> getQueuedWriterThreads() {
+        return sync.getExclusiveQueuedThreads();
+    }
+
+    protected Collection<Thread> getQueuedReaderThreads() {
+        return sync.getSharedQueuedThreads();
+    }
+
+    public final boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads();
+    }
+
+    public final boolean hasQueuedThread(Thread thread) {
+        return sync.isQueued(thread);
+    }
+
+    public final int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    protected Collection<Thread> getQueuedThreads() {
+        return sync.getQueuedThreads();
+    }
+
+    @Override
+    public String toString() {
+        int c = sync.getCount();
+        int w = Sync.exclusiveCount(c);
+        int r = Sync.sharedCount(c);
+
+        return super.toString() +
+            "[Write locks = " + w + ", Read locks = " + r + "]";
+    }
+}
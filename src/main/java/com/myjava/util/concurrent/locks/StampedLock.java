@@ -0,0 +1,606 @@
+package com.myjava.util.concurrent.locks;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * 基于能力的锁，有三种模式控制读写访问。锁的状态由一个版本号和模式组成，
+ * 获取锁的方法返回一个stamp，释放和转换时需要传入这个stamp。
+ *
+ * 写：{@link #writeLock}独占地获取，返回的stamp用于{@link #unlockWrite}。
+ * 持有写锁时不能获取读锁，所有的乐观读验证都会失败。
+ *
+ * 读：{@link #readLock}非独占地获取，返回的stamp用于{@link #unlockRead}。
+ *
+ * 乐观读：{@link #tryOptimisticRead}在没有写锁时返回一个非0的stamp，
+ * 读取之后用{@link #validate}检查这期间有没有获取过写锁。乐观读不修改锁的状态，
+ * 所以读远多于写时没有读线程之间的缓存行争用。读到的字段可能不一致，
+ * 只有验证成功之后才能使用。
+ *
+ * 这个锁不可重入，也不是{@link ReadWriteLock}，因为readLock和writeLock返回的是stamp；
+ * 和JDK一样，需要{@link Lock}的地方使用{@link #asReadLock}、{@link #asWriteLock}、{@link #asReadWriteLock}的视图。
+ *
+ * 状态是一个long：低7位是读线程数，超过126的部分记在readerOverflow中；
+ * 第8位是写锁；更高的位是版本号，每次释放写锁时加1。
+ * 获取失败的线程在本包的{@link AbstractQueuedSynchronizer}上排队：
+ * 它的同步状态不使用，tryAcquire/tryAcquireShared直接操作这里的状态，
+ * 释放时改完状态后唤醒队列。和JDK一样，队列中第一个线程在等待写锁时新的读线程也排队，避免写线程饥饿。
+ *
+ * @author luoqi04
+ */
+public class StampedLock implements Serializable {
+
+    private static final long serialVersionUID = -6001602636862214147L;
+
+    /** 读线程计数的位数 */
+    private static final int LG_READERS = 7;
+
+    private static final long RUNIT = 1L;
+    private static final long WBIT  = 1L << LG_READERS;
+    private static final long RBITS = WBIT - 1L;
+    private static final long RFULL = RBITS - 1L;
+    private static final long ABITS = RBITS | WBIT;
+    private static final long SBITS = ~RBITS;
+
+    /** 初始状态，避免和失败时返回的0混淆 */
+    private static final long ORIGIN = WBIT << 1;
+
+    /** 读计数溢出时，每这么多次让出一次CPU */
+    private static final int OVERFLOW_YIELD_RATE = 7;
+
+    /** 锁的状态 */
+    private transient volatile long state;
+    /** 读计数饱和时多出的读线程数 */
+    private transient int readerOverflow;
+
+    /** 等待队列 */
+    private transient Waiters waiters;
+
+    private transient ReadLockView readLockView;
+    private transient WriteLockView writeLockView;
+    private transient ReadWriteLockView readWriteLockView;
+
+    public StampedLock() {
+        state = ORIGIN;
+        waiters = new Waiters();
+    }
+
+    /**
+     * 只用作等待队列的AQS，获取和释放都作用于外部的state
+     */
+    final class Waiters extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = -2530215393658012366L;
+
+        @Override
+        protected boolean tryAcquire(int unused) {
+            long s;
+            return ((s = state) & ABITS) == 0L && casState(s, s + WBIT);
+        }
+
+        @Override
+        protected int tryAcquireShared(int unused) {
+            // 队列中第一个是写线程时不插队
+            if (apparentlyFirstQueuedIsExclusive())
+                return -1;
+            return (tryReadLock() != 0L) ? 1 : -1;
+        }
+
+        /**
+         * 状态已经由调用者修改，这里只负责唤醒
+         */
+        @Override
+        protected boolean tryReleaseShared(int unused) {
+            return true;
+        }
+    }
+
+    private boolean casState(long expect, long update) {
+        return STATE.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * 状态改变后唤醒排队的线程
+     */
+    private void signal() {
+        waiters.releaseShared(0);
+    }
+
+    private static long unlockWriteState(long s) {
+        return ((s += WBIT) == 0L) ? ORIGIN : s;
+    }
+
+    private long unlockWriteInternal(long s) {
+        long next = unlockWriteState(s);
+        state = next;
+        signal();
+        return next;
+    }
+
+    /**
+     * 独占地获取锁，必要时阻塞
+     * @return 用于解锁和转换的stamp
+     */
+    public long writeLock() {
+        long s;
+        if (((s = state) & ABITS) == 0L && casState(s, s + WBIT))
+            return s + WBIT;
+        waiters.acquire(1);
+        return state;
+    }
+
+    /**
+     * 锁可用时立即独占地获取
+     * @return stamp，锁不可用时返回0
+     */
+    public long tryWriteLock() {
+        long s, next;
+        return (((s = state) & ABITS) == 0L && casState(s, next = s + WBIT)) ? next : 0L;
+    }
+
+    /**
+     * @return stamp，超时返回0
+     */
+    public long tryWriteLock(long time, TimeUnit unit)
+        throws InterruptedException {
+        long nanos = unit.toNanos(time);
+        if (!Thread.interrupted()) {
+            long next;
+            if ((next = tryWriteLock()) != 0L)
+                return next;
+            if (nanos <= 0L)
+                return 0L;
+            return waiters.tryAcquireNanos(1, nanos) ? state : 0L;
+        }
+        throw new InterruptedException();
+    }
+
+    public long writeLockInterruptibly() throws InterruptedException {
+        waiters.acquireInterruptibly(1);
+        return state;
+    }
+
+    /**
+     * 非独占地获取锁，必要时阻塞
+     * @return 用于解锁和转换的stamp
+     */
+    public long readLock() {
+        long s, next;
+        // 队列为空时直接尝试，否则交给AQS，它会检查队列中的写线程
+        if (!waiters.hasQueuedThreads() && ((s = state) & ABITS) < RFULL &&
+            casState(s, next = s + RUNIT))
+            return next;
+        waiters.acquireShared(1);
+        return state;
+    }
+
+    /**
+     * 锁可用时立即非独占地获取
+     * @return stamp，锁不可用时返回0
+     */
+    public long tryReadLock() {
+        for (;;) {
+            long s, m, next;
+            if ((m = (s = state) & ABITS) == WBIT)
+                return 0L;
+            else if (m < RFULL) {
+                if (casState(s, next = s + RUNIT))
+                    return next;
+            }
+            else if ((next = tryIncReaderOverflow(s)) != 0L)
+                return next;
+        }
+    }
+
+    /**
+     * @return stamp，超时返回0
+     */
+    public long tryReadLock(long time, TimeUnit unit)
+        throws InterruptedException {
+        long nanos = unit.toNanos(time);
+        if (!Thread.interrupted()) {
+            long next;
+            if ((next = tryReadLock()) != 0L)
+                return next;
+            if (nanos <= 0L)
+                return 0L;
+            return waiters.tryAcquireSharedNanos(1, nanos) ? state : 0L;
+        }
+        throw new InterruptedException();
+    }
+
+    public long readLockInterruptibly() throws InterruptedException {
+        waiters.acquireSharedInterruptibly(1);
+        return state;
+    }
+
+    /**
+     * 返回一个可以在之后验证的stamp，有写锁时返回0
+     */
+    public long tryOptimisticRead() {
+        long s;
+        return (((s = state) & WBIT) == 0L) ? (s & SBITS) : 0L;
+    }
+
+    /**
+     * stamp发放之后是否没有获取过写锁。stamp为0时总是返回false。
+     * 之前的读取不会重排序到这个方法之后
+     */
+    public boolean validate(long stamp) {
+        VarHandle.acquireFence();
+        return (stamp & SBITS) == (state & SBITS);
+    }
+
+    /**
+     * @throws IllegalMonitorStateException stamp与当前状态不匹配
+     */
+    public void unlockWrite(long stamp) {
+        if (state != stamp || (stamp & WBIT) == 0L)
+            throw new IllegalMonitorStateException();
+        unlockWriteInternal(stamp);
+    }
+
+    /**
+     * @throws IllegalMonitorStateException stamp与当前状态不匹配
+     */
+    public void unlockRead(long stamp) {
+        long s, m;
+        while (((s = state) & SBITS) == (stamp & SBITS) &&
+               (stamp & ABITS) != 0L && (m = s & ABITS) != 0L && m != WBIT) {
+            if (m < RFULL) {
+                if (casState(s, s - RUNIT)) {
+                    if (m == RUNIT)
+                        signal();
+                    return;
+                }
+            }
+            else if (tryDecReaderOverflow(s) != 0L)
+                return;
+        }
+        throw new IllegalMonitorStateException();
+    }
+
+    /**
+     * 根据stamp释放读锁或写锁
+     */
+    public void unlock(long stamp) {
+        if ((stamp & WBIT) != 0L)
+            unlockWrite(stamp);
+        else
+            unlockRead(stamp);
+    }
+
+    /**
+     * 如果stamp是写锁，直接返回；如果是读锁并且写锁可用，释放读锁并获取写锁；
+     * 如果是乐观读，写锁立即可用时获取写锁。
+     * @return 新的stamp，失败返回0
+     */
+    public long tryConvertToWriteLock(long stamp) {
+        long a = stamp & ABITS, m, s, next;
+        while (((s = state) & SBITS) == (stamp & SBITS)) {
+            if ((m = s & ABITS) == 0L) {
+                if (a != 0L)
+                    break;
+                if (casState(s, next = s + WBIT))
+                    return next;
+            }
+            else if (m == WBIT) {
+                if (a != m)
+                    break;
+                return stamp;
+            }
+            else if (m == RUNIT && a != 0L) {
+                if (casState(s, next = s - RUNIT + WBIT))
+                    return next;
+            }
+            else
+                break;
+        }
+        return 0L;
+    }
+
+    /**
+     * 如果stamp是写锁，释放写锁并获取读锁；如果是读锁，直接返回；
+     * 如果是乐观读，读锁立即可用时获取读锁。
+     * @return 新的stamp，失败返回0
+     */
+    public long tryConvertToReadLock(long stamp) {
+        long a, s, next;
+        while (((s = state) & SBITS) == (stamp & SBITS)) {
+            if ((a = stamp & ABITS) >= WBIT) {
+                // 写锁
+                if (s != stamp)
+                    break;
+                state = next = unlockWriteState(s) + RUNIT;
+                signal();
+                return next;
+            }
+            else if (a == 0L) {
+                // 乐观读
+                if ((s & ABITS) < RFULL) {
+                    if (casState(s, next = s + RUNIT))
+                        return next;
+                }
+                else if ((next = tryIncReaderOverflow(s)) != 0L)
+                    return next;
+            }
+            else {
+                // 已经持有读锁
+                if ((s & ABITS) == 0L)
+                    break;
+                return stamp;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * 如果stamp持有锁，释放它并返回一个乐观读的stamp；如果是乐观读，验证通过时直接返回。
+     * @return 新的stamp，失败返回0
+     */
+    public long tryConvertToOptimisticRead(long stamp) {
+        long a, m, s, next;
+        VarHandle.acquireFence();
+        while (((s = state) & SBITS) == (stamp & SBITS)) {
+            if ((a = stamp & ABITS) >= WBIT) {
+                if (s != stamp)
+                    break;
+                return unlockWriteInternal(s);
+            }
+            else if (a == 0L)
+                return stamp;
+            else if ((m = s & ABITS) == 0L)
+                break;
+            else if (m < RFULL) {
+                if (casState(s, next = s - RUNIT)) {
+                    if (m == RUNIT)
+                        signal();
+                    return next & SBITS;
+                }
+            }
+            else if ((next = tryDecReaderOverflow(s)) != 0L)
+                return next & SBITS;
+        }
+        return 0L;
+    }
+
+    /**
+     * 持有写锁时释放它，不需要stamp，用于出错后的恢复
+     */
+    public boolean tryUnlockWrite() {
+        long s;
+        if (((s = state) & WBIT) != 0L) {
+            unlockWriteInternal(s);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 持有读锁时释放一次，不需要stamp，用于出错后的恢复
+     */
+    public boolean tryUnlockRead() {
+        long s, m;
+        while ((m = (s = state) & ABITS) != 0L && m < WBIT) {
+            if (m < RFULL) {
+                if (casState(s, s - RUNIT)) {
+                    if (m == RUNIT)
+                        signal();
+                    return true;
+                }
+            }
+            else if (tryDecReaderOverflow(s) != 0L)
+                return true;
+        }
+        return false;
+    }
+
+    private int getReadLockCount(long s) {
+        long readers;
+        if ((readers = s & RBITS) >= RFULL)
+            readers = RFULL + readerOverflow;
+        return (int) readers;
+    }
+
+    public boolean isWriteLocked() {
+        return (state & WBIT) != 0L;
+    }
+
+    public boolean isReadLocked() {
+        return (state & RBITS) != 0L;
+    }
+
+    public static boolean isWriteLockStamp(long stamp) {
+        return (stamp & ABITS) == WBIT;
+    }
+
+    public static boolean isReadLockStamp(long stamp) {
+        return (stamp & RBITS) != 0L;
+    }
+
+    public static boolean isLockStamp(long stamp) {
+        return (stamp & ABITS) != 0L;
+    }
+
+    public static boolean isOptimisticReadStamp(long stamp) {
+        return (stamp & ABITS) == 0L && stamp != 0L;
+    }
+
+    /**
+     * 持有读锁的次数，用于监控
+     */
+    public int getReadLockCount() {
+        return getReadLockCount(state);
+    }
+
+    @Override
+    public String toString() {
+        long s = state;
+        return super.toString() +
+            ((s & ABITS) == 0L ? "[Unlocked]" :
+             (s & WBIT) != 0L ? "[Write-locked]" :
+             "[Read-locks:" + getReadLockCount(s) + "]");
+    }
+
+    // 视图
+
+    /**
+     * 返回一个{@link Lock}视图，lock映射到{@link #readLock}，unlock映射到{@link #tryUnlockRead}。
+     * 不支持newCondition
+     */
+    public Lock asReadLock() {
+        ReadLockView v;
+        if ((v = readLockView) != null) return v;
+        return readLockView = new ReadLockView();
+    }
+
+    /**
+     * 返回一个{@link Lock}视图，lock映射到{@link #writeLock}，unlock映射到{@link #tryUnlockWrite}。
+     * 不支持newCondition
+     */
+    public Lock asWriteLock() {
+        WriteLockView v;
+        if ((v = writeLockView) != null) return v;
+        return writeLockView = new WriteLockView();
+    }
+
+    /**
+     * 返回一个{@link ReadWriteLock}视图，readLock和writeLock分别是{@link #asReadLock}和{@link #asWriteLock}
+     */
+    public ReadWriteLock asReadWriteLock() {
+        ReadWriteLockView v;
+        if ((v = readWriteLockView) != null) return v;
+        return readWriteLockView = new ReadWriteLockView();
+    }
+
+    final class ReadLockView implements Lock {
+        @Override
+        public void lock() { readLock(); }
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            readLockInterruptibly();
+        }
+        @Override
+        public boolean tryLock() { return tryReadLock() != 0L; }
+        @Override
+        public boolean tryLock(long time, TimeUnit unit)
+            throws InterruptedException {
+            return tryReadLock(time, unit) != 0L;
+        }
+        @Override
+        public void unlock() { unstampedUnlockRead(); }
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    final class WriteLockView implements Lock {
+        @Override
+        public void lock() { writeLock(); }
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            writeLockInterruptibly();
+        }
+        @Override
+        public boolean tryLock() { return tryWriteLock() != 0L; }
+        @Override
+        public boolean tryLock(long time, TimeUnit unit)
+            throws InterruptedException {
+            return tryWriteLock(time, unit) != 0L;
+        }
+        @Override
+        public void unlock() { unstampedUnlockWrite(); }
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    final class ReadWriteLockView implements ReadWriteLock {
+        @Override
+        public Lock readLock() { return asReadLock(); }
+        @Override
+        public Lock writeLock() { return asWriteLock(); }
+    }
+
+    // 视图的解锁，不需要stamp
+
+    final void unstampedUnlockWrite() {
+        long s;
+        if (((s = state) & WBIT) == 0L)
+            throw new IllegalMonitorStateException();
+        unlockWriteInternal(s);
+    }
+
+    final void unstampedUnlockRead() {
+        if (!tryUnlockRead())
+            throw new IllegalMonitorStateException();
+    }
+
+    private void readObject(ObjectInputStream s)
+        throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        STATE.setVolatile(this, ORIGIN); // 重置为未锁定
+        waiters = new Waiters();
+    }
+
+    // 读计数溢出
+
+    /**
+     * 读计数饱和时，先把状态的读计数设为RBITS作为自旋锁，再增加readerOverflow
+     * @return 新的stamp，失败返回0
+     */
+    private long tryIncReaderOverflow(long s) {
+        if ((s & ABITS) == RFULL) {
+            if (casState(s, s | RBITS)) {
+                ++readerOverflow;
+                STATE.setVolatile(this, s);
+                return s;
+            }
+        }
+        else if ((LockSupport.nextSecondarySeed() & OVERFLOW_YIELD_RATE) == 0)
+            Thread.yield();
+        else
+            Thread.onSpinWait();
+        return 0L;
+    }
+
+    /**
+     * @return 新的stamp，失败返回0
+     */
+    private long tryDecReaderOverflow(long s) {
+        if ((s & ABITS) == RFULL) {
+            if (casState(s, s | RBITS)) {
+                int r; long next;
+                if ((r = readerOverflow) > 0) {
+                    readerOverflow = r - 1;
+                    next = s;
+                }
+                else
+                    next = s - RUNIT;
+                STATE.setVolatile(this, next);
+                return next;
+            }
+        }
+        else if ((LockSupport.nextSecondarySeed() & OVERFLOW_YIELD_RATE) == 0)
+            Thread.yield();
+        else
+            Thread.onSpinWait();
+        return 0L;
+    }
+
+    private static final VarHandle STATE;
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            STATE = l.findVarHandle(StampedLock.class, "state", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
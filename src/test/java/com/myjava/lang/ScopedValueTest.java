@@ -0,0 +1,82 @@
+package com.myjava.lang;
+
+import com.myjava.util.concurrent.Executors;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ScopedValueTest {
+
+    static final ScopedValue<String> USER = ScopedValue.newInstance();
+    static final ScopedValue<Integer> DEPTH = ScopedValue.newInstance();
+
+    static void check(boolean ok, String message) {
+        if (!ok)
+            throw new AssertionError(message);
+    }
+
+    static void binding() throws Exception {
+        // 没有绑定时get抛出异常
+        check(!USER.isBound() && !ScopedValue.hasBindings(), "bound before where");
+        try {
+            USER.get();
+            throw new AssertionError("get without binding");
+        } catch (NoSuchElementException expected) {
+        }
+        check("none".equals(USER.orElse("none")), "orElse");
+
+        ScopedValue.where(USER, "duke").where(DEPTH, 1).run(() -> {
+            check("duke".equals(USER.get()) && DEPTH.get() == 1, "outer binding");
+            // 内层遮蔽外层，返回后恢复
+            ScopedValue.where(USER, "alice").run(() -> {
+                check("alice".equals(USER.get()), "inner shadowing");
+                check(DEPTH.get() == 1, "unshadowed value in inner scope");
+            });
+            check("duke".equals(USER.get()), "outer restored after inner scope");
+        });
+        check(!USER.isBound() && !DEPTH.isBound(), "binding leaked out of run");
+
+        // 抛出异常时也解除绑定
+        try {
+            ScopedValue.where(USER, "bob").run(() -> {
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException expected) {
+        }
+        check(!USER.isBound(), "binding leaked after exception");
+
+        String r = ScopedValue.callWhere(USER, "carol", () -> USER.get() + "!");
+        check("carol!".equals(r), "callWhere returned " + r);
+    }
+
+    /** 提交线程的绑定带到工作线程上，工作线程自己没有残留的绑定 */
+    static void executors() throws Exception {
+        ExecutorService fixed = Executors.newFixedThreadPool(2);
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService scheduled = Executors.newScheduledThreadPool(1);
+        try {
+            for (ExecutorService pool : new ExecutorService[] {fixed, single, scheduled}) {
+                String seen = ScopedValue.where(USER, "duke").call(
+                        () -> pool.submit(() -> USER.orElse("unbound")).get());
+                check("duke".equals(seen), pool + " saw " + seen);
+                String after = pool.submit(() -> USER.orElse("unbound")).get();
+                check("unbound".equals(after), pool + " kept binding: " + after);
+            }
+            String delayed = ScopedValue.where(USER, "duke").call(
+                    () -> scheduled.schedule(() -> USER.orElse("unbound"), 1, TimeUnit.MILLISECONDS).get());
+            check("duke".equals(delayed), "scheduled task saw " + delayed);
+        } finally {
+            fixed.shutdown();
+            single.shutdown();
+            scheduled.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        binding();
+        executors();
+        System.out.println("ScopedValue ok");
+    }
+}
@@ -0,0 +1,79 @@
+package com.myjava.lang;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ThreadLocalTest {
+
+    private static final int LOCALS = 16;
+    private static final int ROUNDS = 20_000_000;
+
+    private static final List<ThreadLocal<Integer>> LOCAL = new ArrayList<>(LOCALS);
+    private static final List<java.lang.ThreadLocal<Integer>> JDK_LOCAL = new ArrayList<>(LOCALS);
+
+    static {
+        for (int i = 0; i < LOCALS; i++) {
+            final int v = i;
+            LOCAL.add(ThreadLocal.withInitial(() -> v));
+            JDK_LOCAL.add(java.lang.ThreadLocal.withInitial(() -> v));
+        }
+    }
+
+    /** 轮流读取LOCALS个变量，返回每次get的平均纳秒数 */
+    static double getLoop(boolean jdk) {
+        long sum = 0, start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            int k = i & (LOCALS - 1);
+            sum += jdk ? JDK_LOCAL.get(k).get() : LOCAL.get(k).get();
+        }
+        double nanos = (System.nanoTime() - start) / (double) ROUNDS;
+        if (sum != (long) ROUNDS / LOCALS * (LOCALS * (LOCALS - 1) / 2))
+            throw new AssertionError(sum);
+        return nanos;
+    }
+
+    static double runIn(Thread t, final AtomicLong result) throws InterruptedException {
+        t.start();
+        t.join();
+        return Double.longBitsToDouble(result.get());
+    }
+
+    static double measure(boolean indexed, final boolean jdk) throws InterruptedException {
+        final AtomicLong result = new AtomicLong();
+        Runnable task = () -> {
+            getLoop(jdk); // warm up
+            result.set(Double.doubleToLongBits(getLoop(jdk)));
+        };
+        return runIn(indexed ? new ThreadLocalThread(task) : new Thread(task), result);
+    }
+
+    /** 创建一批ThreadLocal后丢弃大部分，查看过期entry并清除 */
+    static void purge() throws InterruptedException {
+        Thread t = new Thread(() -> {
+            ThreadLocal<?>[] kept = new ThreadLocal<?>[100];
+            for (int i = 0; i < 1000; i++) {
+                ThreadLocal<byte[]> local = new ThreadLocal<>();
+                local.set(new byte[1024]);
+                if (i % 10 == 0)
+                    kept[i / 10] = local;
+            }
+            System.gc();
+            System.out.println("before purge: " + ThreadLocal.stats());
+            System.out.println("purged " + ThreadLocal.purgeStale() + " stale entries");
+            System.out.println("after purge:  " + ThreadLocal.stats());
+            java.lang.ref.Reference.reachabilityFence(kept);
+        });
+        t.start();
+        t.join();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        purge();
+        for (int i = 0; i < 3; i++) {
+            System.out.printf("ThreadLocalThread (indexed)  %.2f ns/get%n", measure(true, false));
+            System.out.printf("Thread (ThreadLocalMap)      %.2f ns/get%n", measure(false, false));
+            System.out.printf("java.lang.ThreadLocal        %.2f ns/get%n", measure(false, true));
+        }
+    }
+}
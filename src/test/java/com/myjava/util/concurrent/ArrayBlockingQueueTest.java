@@ -0,0 +1,139 @@
+package com.myjava.util.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ArrayBlockingQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 4;
+    private static final int PER_PRODUCER = 500_000;
+    private static final int BATCH = 64;
+    private static final Integer ITEM = 1;
+
+    /** 每个元素都单独put/take */
+    static long single(final ArrayBlockingQueue<Integer> q) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(PRODUCERS + CONSUMERS);
+        final int perConsumer = PER_PRODUCER * PRODUCERS / CONSUMERS;
+        long start = System.nanoTime();
+        for (int i = 0; i < PRODUCERS; i++) {
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < PER_PRODUCER; j++)
+                        q.put(ITEM);
+                } catch (InterruptedException ignore) {
+                }
+                done.countDown();
+            }).start();
+        }
+        for (int i = 0; i < CONSUMERS; i++) {
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < perConsumer; j++)
+                        q.take();
+                } catch (InterruptedException ignore) {
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    /** 每BATCH个元素一次putAll/takeBatch */
+    static long batched(final ArrayBlockingQueue<Integer> q) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(PRODUCERS + CONSUMERS);
+        final int perConsumer = PER_PRODUCER * PRODUCERS / CONSUMERS;
+        long start = System.nanoTime();
+        for (int i = 0; i < PRODUCERS; i++) {
+            new Thread(() -> {
+                Integer[] batch = new Integer[BATCH];
+                for (int j = 0; j < BATCH; j++)
+                    batch[j] = ITEM;
+                try {
+                    for (int j = 0; j < PER_PRODUCER; j += BATCH) {
+                        Integer[] es = batch;
+                        if (PER_PRODUCER - j < BATCH)
+                            es = java.util.Arrays.copyOf(batch, PER_PRODUCER - j);
+                        for (int off = 0; off < es.length; ) {
+                            Integer[] rest = (off == 0) ? es
+                                : java.util.Arrays.copyOfRange(es, off, es.length);
+                            off += q.putAll(rest, 1, TimeUnit.SECONDS);
+                        }
+                    }
+                } catch (InterruptedException ignore) {
+                }
+                done.countDown();
+            }).start();
+        }
+        for (int i = 0; i < CONSUMERS; i++) {
+            new Thread(() -> {
+                Integer[] dst = new Integer[BATCH];
+                try {
+                    for (int j = 0; j < perConsumer; ) {
+                        int want = Math.min(BATCH, perConsumer - j);
+                        Integer[] to = (want == BATCH) ? dst : new Integer[want];
+                        j += q.takeBatch(to, 1, 1, TimeUnit.SECONDS);
+                    }
+                } catch (InterruptedException ignore) {
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long total = (long) PRODUCERS * PER_PRODUCER;
+        for (int round = 0; round < 3; round++) {
+            long s = single(new ArrayBlockingQueue<Integer>(1024));
+            long b = batched(new ArrayBlockingQueue<Integer>(1024));
+            System.out.printf("round %d: put/take %,d ops/s, putAll/takeBatch %,d ops/s%n",
+                    round, total * 1_000_000_000L / s, total * 1_000_000_000L / b);
+        }
+
+        // 基本语义
+        ArrayBlockingQueue<Integer> q = new ArrayBlockingQueue<>(4);
+        int n = q.putAll(new Integer[] {1, 2, 3, 4, 5, 6}, 10, TimeUnit.MILLISECONDS);
+        System.out.println("putAll into capacity 4: " + n + " " + q);
+        Integer[] dst = new Integer[3];
+        n = q.takeBatch(dst, 2, 0, TimeUnit.MILLISECONDS);
+        System.out.println("takeBatch: " + n + " " + java.util.Arrays.toString(dst) + " " + q);
+        mixedBatchWaiters();
+    }
+
+    /** min不同的凑批消费者：一次put必须唤醒min=1的那个，而不是只唤醒先等待的min=10 */
+    static void mixedBatchWaiters() throws InterruptedException {
+        ArrayBlockingQueue<Integer> q = new ArrayBlockingQueue<>(16);
+        Thread big = new Thread(() -> {
+            try {
+                q.takeBatch(new Integer[10], 10, 2, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        long[] waited = new long[1];
+        Thread small = new Thread(() -> {
+            try {
+                q.takeBatch(new Integer[1], 1, 2, TimeUnit.SECONDS);
+                waited[0] = System.nanoTime();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        big.start();
+        while (big.getState() != Thread.State.TIMED_WAITING)
+            Thread.sleep(1);
+        small.start();
+        while (small.getState() != Thread.State.TIMED_WAITING)
+            Thread.sleep(1);
+        long start = System.nanoTime();
+        q.put(ITEM);
+        small.join();
+        long millis = TimeUnit.NANOSECONDS.toMillis(waited[0] - start);
+        if (millis > 1000)
+            throw new AssertionError("min=1 batch waiter woke after " + millis + " ms");
+        big.interrupt();
+        big.join();
+        System.out.println("mixed batch waiters ok, " + millis + " ms");
+    }
+}
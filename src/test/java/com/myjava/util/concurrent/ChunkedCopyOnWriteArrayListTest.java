@@ -0,0 +1,121 @@
+package com.myjava.util.concurrent;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+
+public class ChunkedCopyOnWriteArrayListTest {
+
+    private static final int SIZE = 200_000;
+    private static final int UPDATES = 2_000;
+    private static final int READS = 10_000_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static void run(String name, List<Integer> list) {
+        Random r = new Random(42);
+        List<Integer> init = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++)
+            init.add(i);
+        list.addAll(init);
+
+        // 随机位置的set
+        long bytes = allocated();
+        long start = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++)
+            list.set(r.nextInt(SIZE), i);
+        long setNanos = (System.nanoTime() - start) / UPDATES;
+        long setBytes = (allocated() - bytes) / UPDATES;
+
+        // 在中间插入再删除
+        bytes = allocated();
+        start = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++) {
+            int index = r.nextInt(SIZE);
+            list.add(index, i);
+            list.remove(index);
+        }
+        long insertNanos = (System.nanoTime() - start) / UPDATES / 2;
+        long insertBytes = (allocated() - bytes) / UPDATES / 2;
+
+        // 随机读
+        long sum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++)
+            sum += list.get((int) ((i * 7919L) % SIZE));
+        double getNanos = (System.nanoTime() - start) / (double) READS;
+
+        // 顺序遍历
+        start = System.nanoTime();
+        for (int round = 0; round < 50; round++)
+            for (Integer x : list)
+                sum += x;
+        double iterNanos = (System.nanoTime() - start) / (50.0 * SIZE);
+
+        System.out.printf("%-10s set %,8d ns %,9d B | insert/remove %,8d ns %,9d B | get %.2f ns | iterate %.2f ns  (%d)%n",
+                name, setNanos, setBytes, insertNanos, insertBytes, getNanos, iterNanos, sum & 1);
+    }
+
+    /** 稀疏的removeIf之后小块被合并，spliterator和stream遍历镜像的块 */
+    static void removeIfAndStreams() {
+        ChunkedCopyOnWriteArrayList<Integer> list = new ChunkedCopyOnWriteArrayList<>();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            list.add(i);
+            if (i % 100 == 0)
+                expected.add(i);
+        }
+        list.removeIf(x -> x % 100 != 0);
+        if (!list.equals(expected))
+            throw new AssertionError("removeIf");
+        int chunks = list.getSnapshot().chunks.length;
+        int bound = (expected.size() + ChunkedCopyOnWriteArrayList.CHUNK_MASK) / ChunkedCopyOnWriteArrayList.CHUNK_SIZE + 1;
+        if (chunks > bound)
+            throw new AssertionError(chunks + " chunks for " + expected.size() + " elements");
+        for (int i = 0; i < expected.size(); i++)
+            if (!list.get(i).equals(expected.get(i)))
+                throw new AssertionError("get " + i);
+
+        list.clear();
+        long sum = 0;
+        for (int i = 0; i < SIZE; i++) {
+            list.add(i);
+            sum += i;
+        }
+        for (int i = 0; i < 1000; i++)
+            list.add(i * 97, -1); // 块大小不再一致
+        for (int i = 0; i < 1000; i++)
+            list.remove(Integer.valueOf(-1));
+        if (list.stream().mapToLong(x -> x).sum() != sum
+            || list.parallelStream().mapToLong(x -> x).sum() != sum)
+            throw new AssertionError("stream sum");
+        long[] seq = {0, 0};
+        Spliterator<Integer> sp = list.spliterator();
+        Spliterator<Integer> left = sp.trySplit();
+        for (Spliterator<Integer> part : List.of(left, sp))
+            while (part.tryAdvance(x -> {
+                if (x != seq[0]++)
+                    throw new AssertionError("order at " + x);
+                seq[1] += x;
+            }))
+                ;
+        if (seq[1] != sum)
+            throw new AssertionError("tryAdvance sum");
+        System.out.println("removeIf compaction and spliterator ok, " + chunks + " chunks");
+    }
+
+    public static void main(String[] args) {
+        removeIfAndStreams();
+        for (int i = 0; i < 2; i++) {
+            run("flat", new CopyOnWriteArrayList<Integer>());
+            run("chunked", new ChunkedCopyOnWriteArrayList<Integer>());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.myjava.util.concurrent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class CopyOnWriteArrayListTest {
+
+    private static final int SIZE = 1_000_000;
+    private static final int ROUNDS = 50;
+
+    /** 并行流对镜像求和ROUNDS次，返回每次的平均耗时(微秒) */
+    static long scan(String name, CopyOnWriteArrayList<Long> list, boolean custom) {
+        long sum = 0, start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            Stream<Long> s = custom
+                ? list.parallelStream()
+                : StreamSupport.stream(Spliterators.spliterator(
+                      list.getArray(), Spliterator.IMMUTABLE | Spliterator.ORDERED), true);
+            sum += s.mapToLong(Long::longValue).sum();
+        }
+        long micros = (System.nanoTime() - start) / ROUNDS / 1000;
+        if (sum != (long) ROUNDS * SIZE * (SIZE - 1) / 2)
+            throw new AssertionError(sum);
+        System.out.printf("%-22s %,8d us%n", name, micros);
+        return micros;
+    }
+
+    /** 批量修改只发布一次；失败时不发布；克隆和反序列化后有自己的锁 */
+    static void mutate() throws Exception {
+        CopyOnWriteArrayList<Integer> list = new CopyOnWriteArrayList<>(List.of(1, 2, 3));
+        Object[] before = list.getArray();
+        list.mutate(l -> {
+            l.remove(Integer.valueOf(2));
+            for (int i = 4; i <= 6; i++)
+                l.add(i);
+            l.set(0, 0);
+            if (list.getArray() != before)
+                throw new AssertionError("published before mutate returned");
+        });
+        if (!list.equals(List.of(0, 3, 4, 5, 6)))
+            throw new AssertionError("mutate: " + list);
+
+        try {
+            list.mutate(l -> {
+                l.clear();
+                throw new IllegalStateException();
+            });
+            throw new AssertionError("exception swallowed");
+        } catch (IllegalStateException expected) {
+        }
+        if (list.size() != 5)
+            throw new AssertionError("published after exception: " + list);
+
+        // 在action中直接修改列表
+        try {
+            list.mutate(l -> {
+                l.add(7);
+                list.add(8);
+            });
+            throw new AssertionError("direct write inside mutate not detected");
+        } catch (ConcurrentModificationException expected) {
+        }
+        if (!list.equals(List.of(0, 3, 4, 5, 6, 8)))
+            throw new AssertionError("after direct write: " + list);
+
+        @SuppressWarnings("unchecked")
+        CopyOnWriteArrayList<Integer> clone = (CopyOnWriteArrayList<Integer>) list.clone();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(list);
+        }
+        @SuppressWarnings("unchecked")
+        CopyOnWriteArrayList<Integer> copy = (CopyOnWriteArrayList<Integer>)
+                new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        if (clone.lock == list.lock || copy.lock == null || !copy.equals(list))
+            throw new AssertionError("clone or deserialization");
+        clone.add(9);
+        copy.add(9);
+        if (list.contains(9))
+            throw new AssertionError("clone shares writes");
+        System.out.println("mutate ok");
+    }
+
+    public static void main(String[] args) throws Exception {
+        mutate();
+        List<Long> init = new ArrayList<>(SIZE);
+        for (long i = 0; i < SIZE; i++)
+            init.add(i);
+        CopyOnWriteArrayList<Long> list = new CopyOnWriteArrayList<>(init);
+        System.out.println("parallelism " + java.util.concurrent.ForkJoinPool.getCommonPoolParallelism());
+        for (int i = 0; i < 3; i++) {
+            scan("Spliterators.spliterator", list, false);
+            scan("COWSpliterator", list, true);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.myjava.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+public class DelayQueueTest {
+
+    private static final int SIZE = 10_000;
+
+    static class Item implements Delayed {
+        final long deadline;
+        final int id;
+
+        Item(long deadline, int id) {
+            this.deadline = deadline;
+            this.id = id;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            Item x = (Item) o;
+            int c = Long.compare(deadline, x.deadline);
+            return (c != 0) ? c : Integer.compare(id, x.id);
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + id;
+        }
+    }
+
+    static final class Indexed extends Item implements DelayQueue.HeapIndexed {
+        int heapIndex = -1;
+
+        Indexed(long deadline, int id) {
+            super(deadline, id);
+        }
+
+        public int getHeapIndex() {
+            return heapIndex;
+        }
+
+        public void setHeapIndex(int index) {
+            heapIndex = index;
+        }
+    }
+
+    static Item item(Random r, long deadline, int id) {
+        return r.nextBoolean() ? new Indexed(deadline, id) : new Item(deadline, id);
+    }
+
+    static void checkOut(Item x) {
+        if (x instanceof Indexed && ((Indexed) x).heapIndex != -1)
+            throw new AssertionError(x + " still has heap index " + ((Indexed) x).heapIndex);
+    }
+
+    /** 随机删除一部分HeapIndexed和普通元素之后，剩下的元素仍然按到期顺序取出 */
+    static void removalOrder() {
+        Random r = new Random(42);
+        long now = System.nanoTime();
+        DelayQueue<Item> q = new DelayQueue<>();
+        List<Item> all = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            Item x = item(r, now - r.nextInt(1_000_000_000), i); // 都已经到期
+            all.add(x);
+            q.offer(x);
+        }
+        Collections.shuffle(all, r);
+        List<Item> removed = all.subList(0, SIZE / 3);
+        for (Item x : removed) {
+            if (!q.remove(x))
+                throw new AssertionError("remove " + x);
+            checkOut(x);
+        }
+        List<Item> kept = new ArrayList<>(all.subList(SIZE / 3, SIZE));
+        // 每次sift之后记录的下标都必须正确，否则contains会找不到
+        for (Item x : kept)
+            if (!q.contains(x))
+                throw new AssertionError("lost " + x);
+        for (Item x : removed)
+            if (q.contains(x) || q.remove(x))
+                throw new AssertionError("removed twice " + x);
+        Collections.sort(kept);
+        for (Item expected : kept) {
+            Item x = q.poll();
+            if (x != expected)
+                throw new AssertionError("expected " + expected + " got " + x);
+            checkOut(x);
+        }
+        if (q.poll() != null || q.size() != 0)
+            throw new AssertionError("not empty");
+    }
+
+    /** 已经取出的元素不再属于队列，包括记录的下标恰好被别的元素占用的情况 */
+    static void fired() {
+        long now = System.nanoTime();
+        DelayQueue<Item> q = new DelayQueue<>();
+        Indexed a = new Indexed(now - 2, 0);
+        Indexed b = new Indexed(now - 1, 1);
+        Item c = new Item(now, 2);
+        q.offer(a);
+        q.offer(b);
+        q.offer(c);
+        if (q.poll() != a)
+            throw new AssertionError("poll");
+        checkOut(a);
+        a.setHeapIndex(0); // 假装还记得旧的下标，现在b在那里
+        if (q.contains(a) || q.remove(a) || q.size() != 2)
+            throw new AssertionError("fired element still found");
+        a.setHeapIndex(-1);
+
+        DelayQueue<Item> other = new DelayQueue<>();
+        other.offer(a);
+        if (q.contains(a) || !other.contains(a))
+            throw new AssertionError("element of another queue");
+
+        if (q.poll() != b || q.poll() != c)
+            throw new AssertionError("order");
+        if (q.contains(b) || q.remove(b) || q.contains(c) || q.remove(c))
+            throw new AssertionError("polled element still found");
+    }
+
+    /** drainTo只取出已经到期的元素，按到期顺序，没有到期的留在队列中 */
+    static void drainTo() {
+        Random r = new Random(7);
+        long now = System.nanoTime();
+        long hour = TimeUnit.HOURS.toNanos(1);
+        DelayQueue<Item> q = new DelayQueue<>();
+        List<Item> expired = new ArrayList<>();
+        List<Item> pending = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            if (r.nextBoolean()) {
+                Item x = item(r, now - r.nextInt(1_000_000), i);
+                expired.add(x);
+                q.offer(x);
+            } else {
+                Item x = item(r, now + hour + r.nextInt(1_000_000), i);
+                pending.add(x);
+                q.offer(x);
+            }
+        }
+        Collections.sort(expired);
+        List<Item> out = new ArrayList<>();
+        if (q.drainTo(out, 0) != 0 || q.drainTo(out, 10) != 10)
+            throw new AssertionError("drainTo max");
+        int n = q.drainTo(out);
+        if (n != expired.size() - 10 || !out.equals(expired))
+            throw new AssertionError("drained " + out.size() + " of " + expired.size());
+        for (Item x : out)
+            checkOut(x);
+        if (q.size() != pending.size() || q.poll() != null)
+            throw new AssertionError("pending elements drained");
+
+        // 迭代器删除的元素同样不再留在堆中
+        int k = 0;
+        for (Iterator<Item> it = q.iterator(); it.hasNext(); ) {
+            Item x = it.next();
+            if ((k++ & 1) == 0) {
+                it.remove();
+                checkOut(x);
+                pending.remove(x);
+            }
+        }
+        Collections.sort(pending);
+        if (!new ArrayList<>(q).containsAll(pending) || q.size() != pending.size()
+            || q.peek() != pending.get(0))
+            throw new AssertionError("iterator remove");
+        q.clear();
+        for (Item x : pending)
+            checkOut(x);
+    }
+
+    public static void main(String[] args) {
+        removalOrder();
+        fired();
+        drainTo();
+        System.out.println("DelayQueue ok");
+    }
+}
@@ -0,0 +1,239 @@
+package com.myjava.util.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class MpmcArrayBlockingQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 4;
+    private static final int PER_PRODUCER = 250_000;
+
+    static volatile Throwable failure;
+
+    static void join(Thread t) throws InterruptedException {
+        t.join();
+        Throwable f = failure;
+        if (f != null)
+            throw new AssertionError("failed in " + t.getName(), f);
+    }
+
+    /** 容量向上取整为2的幂，满了之后offer失败，出队顺序和入队顺序相同 */
+    static void capacity() {
+        if (new MpmcArrayBlockingQueue<Integer>(1).capacity() != 2
+            || new MpmcArrayBlockingQueue<Integer>(5).capacity() != 8
+            || new MpmcArrayBlockingQueue<Integer>(8).capacity() != 8)
+            throw new AssertionError("capacity");
+        for (int bad : new int[] { 0, -1, (1 << 30) + 1 }) {
+            try {
+                new MpmcArrayBlockingQueue<Integer>(bad);
+                throw new AssertionError("capacity " + bad + " accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        MpmcArrayBlockingQueue<Integer> q = new MpmcArrayBlockingQueue<>(5);
+        // 转三圈，每一圈都要能放满、取空
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 8; i++)
+                if (!q.offer(i))
+                    throw new AssertionError("offer " + i + " in round " + round);
+            if (q.offer(8) || q.size() != 8 || q.remainingCapacity() != 0)
+                throw new AssertionError("full queue accepted an element");
+            if (q.peek() != 0)
+                throw new AssertionError("peek");
+            for (int i = 0; i < 8; i++) {
+                Integer x = q.poll();
+                if (x == null || x != i)
+                    throw new AssertionError("expected " + i + " got " + x);
+            }
+            if (q.poll() != null || q.peek() != null || !q.isEmpty() || q.remainingCapacity() != 8)
+                throw new AssertionError("empty queue");
+        }
+    }
+
+    /**
+     * 多个生产者和多个消费者通过一个很小的队列传递元素，每个元素恰好被取出一次，
+     * 而且每个消费者看到的同一个生产者的元素保持生产者的入队顺序
+     */
+    static void exactlyOnce(WaitStrategy ws) throws InterruptedException {
+        final MpmcArrayBlockingQueue<Integer> q = new MpmcArrayBlockingQueue<>(16, ws);
+        final int total = PRODUCERS * PER_PRODUCER;
+        final AtomicIntegerArray seen = new AtomicIntegerArray(total);
+        Thread[] threads = new Thread[PRODUCERS + CONSUMERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int base = p * PER_PRODUCER;
+            threads[p] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < PER_PRODUCER; i++)
+                        q.put(base + i);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }, "producer-" + p);
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            threads[PRODUCERS + c] = new Thread(() -> {
+                int[] last = new int[PRODUCERS];
+                Arrays.fill(last, -1);
+                try {
+                    for (int i = 0; i < total / CONSUMERS; i++) {
+                        int x = q.take();
+                        if (seen.getAndIncrement(x) != 0)
+                            throw new AssertionError(x + " taken twice");
+                        int p = x / PER_PRODUCER;
+                        if (x <= last[p])
+                            throw new AssertionError(x + " after " + last[p]);
+                        last[p] = x;
+                    }
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }, "consumer-" + c);
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            join(t);
+        for (int i = 0; i < total; i++)
+            if (seen.get(i) != 1)
+                throw new AssertionError(i + " taken " + seen.get(i) + " times");
+        if (!q.isEmpty() || q.poll() != null)
+            throw new AssertionError("not empty");
+    }
+
+    /** 在空队列上take、在满队列上put的线程挂起之后，对方的一次操作能把它唤醒 */
+    static void wakeups() throws InterruptedException {
+        final MpmcArrayBlockingQueue<Integer> q = new MpmcArrayBlockingQueue<>(2);
+        final Integer[] got = new Integer[1];
+        Thread taker = new Thread(() -> {
+            try {
+                got[0] = q.take();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }, "taker");
+        taker.start();
+        Thread.sleep(50);
+        if (!taker.isAlive())
+            throw new AssertionError("take returned on an empty queue");
+        q.put(42);
+        join(taker);
+        if (got[0] == null || got[0] != 42)
+            throw new AssertionError("take got " + got[0]);
+
+        q.put(0);
+        q.put(1);
+        Thread putter = new Thread(() -> {
+            try {
+                q.put(2);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }, "putter");
+        putter.start();
+        Thread.sleep(50);
+        if (!putter.isAlive())
+            throw new AssertionError("put returned on a full queue");
+        if (q.take() != 0)
+            throw new AssertionError("take");
+        join(putter);
+        if (q.take() != 1 || q.take() != 2 || !q.isEmpty())
+            throw new AssertionError("order after put");
+
+        // 挂起的put和take都能响应中断
+        q.put(0);
+        q.put(1);
+        final boolean[] interrupted = new boolean[2];
+        Thread blockedPut = new Thread(() -> {
+            try {
+                q.put(2);
+            } catch (InterruptedException e) {
+                interrupted[0] = true;
+            }
+        }, "blockedPut");
+        blockedPut.start();
+        Thread.sleep(20);
+        blockedPut.interrupt();
+        join(blockedPut);
+        q.clear();
+        Thread blockedTake = new Thread(() -> {
+            try {
+                q.take();
+            } catch (InterruptedException e) {
+                interrupted[1] = true;
+            }
+        }, "blockedTake");
+        blockedTake.start();
+        Thread.sleep(20);
+        blockedTake.interrupt();
+        join(blockedTake);
+        if (!interrupted[0] || !interrupted[1] || !q.isEmpty())
+            throw new AssertionError("interrupt");
+    }
+
+    /** 带超时的offer和poll等满超时才失败，等待期间对方腾出空间或者放入元素时提前成功 */
+    static void timeouts() throws InterruptedException {
+        final MpmcArrayBlockingQueue<Integer> q = new MpmcArrayBlockingQueue<>(2);
+        long timeout = TimeUnit.MILLISECONDS.toNanos(30);
+        q.put(0);
+        q.put(1);
+        long start = System.nanoTime();
+        if (q.offer(2, timeout, TimeUnit.NANOSECONDS))
+            throw new AssertionError("offer into a full queue");
+        long elapsed = System.nanoTime() - start;
+        if (elapsed < timeout)
+            throw new AssertionError("offer gave up after " + elapsed + "ns");
+        if (q.offer(2, 0L, TimeUnit.NANOSECONDS) || q.offer(2, -1L, TimeUnit.NANOSECONDS))
+            throw new AssertionError("offer without waiting");
+
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+                q.take();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }, "consumer");
+        consumer.start();
+        start = System.nanoTime();
+        if (!q.offer(2, 10, TimeUnit.SECONDS))
+            throw new AssertionError("offer not woken");
+        elapsed = System.nanoTime() - start;
+        join(consumer);
+        if (elapsed > TimeUnit.SECONDS.toNanos(5))
+            throw new AssertionError("offer woken after " + elapsed + "ns");
+        if (q.poll() != 1 || q.poll() != 2)
+            throw new AssertionError("order after offer");
+
+        start = System.nanoTime();
+        if (q.poll(timeout, TimeUnit.NANOSECONDS) != null)
+            throw new AssertionError("poll from an empty queue");
+        elapsed = System.nanoTime() - start;
+        if (elapsed < timeout)
+            throw new AssertionError("poll gave up after " + elapsed + "ns");
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> {
+            failure = e;
+            e.printStackTrace();
+        });
+        capacity();
+        wakeups();
+        timeouts();
+        System.out.println("blocking ok");
+        WaitStrategy[] strategies = {
+            WaitStrategy.blocking(),
+            WaitStrategy.backoff(100_000L),
+            WaitStrategy.yielding(),
+        };
+        for (WaitStrategy ws : strategies) {
+            long start = System.nanoTime();
+            exactlyOnce(ws);
+            System.out.printf("%-12s %d producers/%d consumers exactly once in %,d ms%n",
+                    ws.getClass().getSimpleName(), PRODUCERS, CONSUMERS,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.myjava.util.concurrent;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+public class RecyclerTest {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ROUNDS = 200_000;
+
+    private static final Recycler<byte[]> BUFFERS = new Recycler<>(() -> new byte[BUFFER_SIZE]);
+
+    static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+
+    /** 每轮取一个缓冲区写几个字节，返回每轮平均纳秒数 */
+    static double run(String name, boolean pooled) {
+        long sum = 0, gc = gcCount(), start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            byte[] buf = pooled ? BUFFERS.get() : new byte[BUFFER_SIZE];
+            buf[i & (BUFFER_SIZE - 1)] = (byte) i;
+            sum += buf[i & (BUFFER_SIZE - 1)];
+            if (pooled)
+                BUFFERS.recycle(buf);
+        }
+        double nanos = (System.nanoTime() - start) / (double) ROUNDS;
+        System.out.printf("%-10s %8.1f ns/op  %4d GCs  (%d)%n", name, nanos, gcCount() - gc, sum);
+        return nanos;
+    }
+
+    /** 生产者线程取出缓冲区，消费者线程归还，之后生产者结束，它的magazine被收回 */
+    static void handoff() throws InterruptedException {
+        java.util.concurrent.BlockingQueue<byte[]> q = new java.util.concurrent.ArrayBlockingQueue<>(64);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 10_000; i++)
+                    q.put(BUFFERS.get());
+                q.put(new byte[0]);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread consumer = new Thread(() -> {
+            try {
+                for (byte[] b; (b = q.take()).length != 0; )
+                    BUFFERS.recycle(b);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+        System.out.println("after handoff: " + BUFFERS.stats());
+        System.out.println("reclaimed " + BUFFERS.reclaimDeadThreads() + " magazines");
+        System.out.println("after reclaim: " + BUFFERS.stats());
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            run("new", false);
+            run("Recycler", true);
+        }
+        handoff();
+    }
+}
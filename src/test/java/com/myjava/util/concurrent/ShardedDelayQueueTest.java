@@ -0,0 +1,218 @@
+package com.myjava.util.concurrent;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class ShardedDelayQueueTest {
+
+    private static final int OPS = 2_000_000;
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 20_000;
+    /** 元素的延迟在[-1ms, 20ms)之间，有一部分入队时已经到期 */
+    private static final long MAX_DELAY = TimeUnit.MILLISECONDS.toNanos(20);
+
+    static volatile Throwable failure;
+
+    static final class Timeout implements Delayed {
+        final long deadline;
+        final int id;
+
+        Timeout(long delayNanos) {
+            this(delayNanos, -1);
+        }
+
+        Timeout(long delayNanos, int id) {
+            deadline = System.nanoTime() + delayNanos;
+            this.id = id;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            return Long.compare(deadline, ((Timeout) o).deadline);
+        }
+    }
+
+    /** threads个线程一共插入OPS个30秒以内到期的元素，返回耗时 */
+    static long insert(final BlockingQueue<Timeout> q, int threads) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(threads);
+        final int perThread = OPS / threads;
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int j = 0; j < perThread; j++)
+                    q.offer(new Timeout(r.nextLong(30_000_000_000L)));
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    static void join(Thread t) throws InterruptedException {
+        t.join();
+        Throwable f = failure;
+        if (f != null)
+            throw new AssertionError("failed in " + t.getName(), f);
+    }
+
+    /**
+     * 启动PRODUCERS个线程，一共插入PRODUCERS * PER_PRODUCER个元素，
+     * 每个元素插入完成后把时间记录在offeredAt中
+     */
+    static Thread[] produce(final ShardedDelayQueue<Timeout> q, final Timeout[] all,
+                            final AtomicLongArray offeredAt) {
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int base = p * PER_PRODUCER;
+            producers[p] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int i = base; i < base + PER_PRODUCER; i++) {
+                    Timeout x = new Timeout(r.nextLong(MAX_DELAY + 1_000_000L) - 1_000_000L, i);
+                    all[i] = x;
+                    q.offer(x);
+                    offeredAt.set(i, System.nanoTime());
+                    if ((i & 1023) == 0)
+                        Thread.yield(); // 让插入和扫描交错
+                }
+            }, "producer-" + p);
+        }
+        return producers;
+    }
+
+    /** 多个线程并发插入和取出，每个元素恰好被取出一次，而且取出时已经到期 */
+    static void exactlyOnce(int shards, int consumers) throws InterruptedException {
+        final ShardedDelayQueue<Timeout> q = new ShardedDelayQueue<>(shards);
+        final int total = PRODUCERS * PER_PRODUCER;
+        final AtomicIntegerArray seen = new AtomicIntegerArray(total);
+        final Timeout[] all = new Timeout[total];
+        Thread[] producers = produce(q, all, new AtomicLongArray(total));
+        Thread[] takers = new Thread[consumers];
+        for (int c = 0; c < consumers; c++) {
+            final boolean timed = (c & 1) == 1;
+            final int count = total / consumers + (c < total % consumers ? 1 : 0);
+            takers[c] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < count; ) {
+                        Timeout x = timed ? q.poll(1, TimeUnit.MILLISECONDS) : q.take();
+                        if (x == null)
+                            continue;
+                        long early = x.deadline - System.nanoTime();
+                        if (early > 0)
+                            throw new AssertionError(x.id + " taken " + early + "ns early");
+                        if (seen.getAndIncrement(x.id) != 0)
+                            throw new AssertionError(x.id + " taken twice");
+                        i++;
+                    }
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }, "consumer-" + c);
+        }
+        for (Thread t : takers)
+            t.start();
+        for (Thread t : producers)
+            t.start();
+        for (Thread t : producers)
+            join(t);
+        for (Thread t : takers)
+            join(t);
+        for (int i = 0; i < total; i++)
+            if (seen.get(i) != 1)
+                throw new AssertionError(i + " taken " + seen.get(i) + " times");
+        if (q.size() != 0 || q.poll() != null)
+            throw new AssertionError("not empty");
+    }
+
+    /**
+     * 一个消费者与多个生产者并发时检查类注释中的跨分片顺序保证：
+     * 返回的元素不晚于take开始之前已经入队并且已经到期的任何其他元素。
+     * 对于每次take，把在它开始之前已经入队并到期的元素按到期时间放进一个堆，
+     * 堆中还没有被取出的最早元素不能早于这次取出的元素
+     */
+    static void crossShardOrder(int shards) throws InterruptedException {
+        final ShardedDelayQueue<Timeout> q = new ShardedDelayQueue<>(shards);
+        final int total = PRODUCERS * PER_PRODUCER;
+        final Timeout[] all = new Timeout[total];
+        final AtomicLongArray offeredAt = new AtomicLongArray(total);
+        final Timeout[] taken = new Timeout[total];
+        final long[] startedAt = new long[total];
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 0; i < total; i++) {
+                    startedAt[i] = System.nanoTime();
+                    taken[i] = q.take();
+                }
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }, "consumer");
+        Thread[] producers = produce(q, all, offeredAt);
+        consumer.start();
+        for (Thread t : producers)
+            t.start();
+        for (Thread t : producers)
+            join(t);
+        join(consumer);
+
+        // 元素在入队完成并且到期之后才一定能被扫描看到
+        Integer[] byReady = new Integer[total];
+        for (int i = 0; i < total; i++)
+            byReady[i] = i;
+        Arrays.sort(byReady, Comparator.comparingLong(
+                (Integer i) -> Math.max(offeredAt.get(i), all[i].deadline)));
+        boolean[] out = new boolean[total];
+        PriorityQueue<Timeout> ready = new PriorityQueue<>();
+        int next = 0;
+        for (int k = 0; k < total; k++) {
+            long start = startedAt[k];
+            while (next < total) {
+                int i = byReady[next];
+                if (offeredAt.get(i) - start > 0 || all[i].deadline - start > 0)
+                    break;
+                ready.add(all[i]);
+                next++;
+            }
+            Timeout x = taken[k];
+            out[x.id] = true;
+            while (!ready.isEmpty() && out[ready.peek().id])
+                ready.poll();
+            Timeout y = ready.peek();
+            if (y != null && y.deadline < x.deadline)
+                throw new AssertionError("took " + x.id + " before " + y.id + ", "
+                        + (x.deadline - y.deadline) + "ns earlier and ready "
+                        + (start - Math.max(offeredAt.get(y.id), y.deadline)) + "ns before take");
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> {
+            failure = e;
+            e.printStackTrace();
+        });
+        for (int shards : new int[] { 1, 4, 16 }) {
+            exactlyOnce(shards, 1);
+            exactlyOnce(shards, 4);
+            crossShardOrder(shards);
+        }
+        System.out.println("ordering ok");
+        for (int threads = 1; threads <= 16; threads <<= 1) {
+            long single = insert(new DelayQueue<Timeout>(), threads);
+            long sharded = insert(new ShardedDelayQueue<Timeout>(threads), threads);
+            System.out.printf("%2d threads: DelayQueue %,d ops/s, %2d shards %,d ops/s%n",
+                    threads, OPS * 1_000_000_000L / single,
+                    threads, OPS * 1_000_000_000L / sharded);
+        }
+    }
+}
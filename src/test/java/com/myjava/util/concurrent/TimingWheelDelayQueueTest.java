@@ -0,0 +1,323 @@
+package com.myjava.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+public class TimingWheelDelayQueueTest {
+
+    private static final int PENDING = 2_000_000;
+    private static final int CHURN = 1_000_000;
+
+    static volatile Throwable failure;
+
+    static class Timeout implements Delayed {
+        final long deadline;
+
+        Timeout(long deadline) {
+            this.deadline = deadline;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            return Long.compare(deadline, ((Timeout) o).deadline);
+        }
+    }
+
+    /** 两种队列都能O(1)删除的元素 */
+    static final class Indexed extends Timeout
+            implements TimingWheelDelayQueue.WheelIndexed, DelayQueue.HeapIndexed {
+        Object wheelEntry;
+        int heapIndex = -1;
+
+        Indexed(long deadline) {
+            super(deadline);
+        }
+
+        public Object getWheelEntry() {
+            return wheelEntry;
+        }
+
+        public void setWheelEntry(Object entry) {
+            wheelEntry = entry;
+        }
+
+        public int getHeapIndex() {
+            return heapIndex;
+        }
+
+        public void setHeapIndex(int index) {
+            heapIndex = index;
+        }
+    }
+
+    static void join(Thread t) throws InterruptedException {
+        t.join();
+        Throwable f = failure;
+        if (f != null)
+            throw new AssertionError("failed in " + t.getName(), f);
+    }
+
+    /**
+     * 到期时间分布在各层的边界附近，按照到期顺序取出(同一个tick之内不保证)，不会提前。
+     * tick为1纳秒时64^4个tick约16.8毫秒，64^5个tick约1.07秒，所以两秒多的延迟会经过五层级联。
+     * 除了一个加入时已经到期的元素，其他元素都在全部加入之后才到期
+     */
+    static void expiryOrder(long tickNanos, long maxDelay) throws InterruptedException {
+        long origin = System.nanoTime(); // 和时间轮的tick 0相差不到一次构造的时间
+        TimingWheelDelayQueue<Timeout> q = new TimingWheelDelayQueue<>(tickNanos, TimeUnit.NANOSECONDS);
+        Random r = new Random(tickNanos);
+        long start = origin + 100_000_000L;
+        List<Timeout> all = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            all.add(new Timeout(start + (long) (r.nextDouble() * maxDelay)));
+        // 每一层的槽位边界两侧
+        for (long span = tickNanos; span <= maxDelay; span <<= TimingWheelDelayQueue.WHEEL_BITS) {
+            long boundary = origin + (start - origin + span - 1) / span * span;
+            for (int d = -3; d <= 3; d++)
+                all.add(new Timeout(boundary + d * tickNanos));
+        }
+        Timeout expired = new Timeout(origin - 1);
+        Collections.shuffle(all, r);
+        q.offer(expired);
+        for (Timeout x : all)
+            q.offer(r.nextBoolean() ? x : new Indexed(x.deadline));
+        if (System.nanoTime() >= start)
+            throw new AssertionError("offers took longer than 100 ms");
+        all.add(expired);
+        if (q.size() != all.size())
+            throw new AssertionError("size " + q.size());
+        if (q.take() != expired)
+            throw new AssertionError("expired element not first");
+
+        // 同一个tick内到期的元素之间没有顺序，向上取整可能再晚一个tick；
+        // 提前放置的元素重新放置时还有一次读时钟的间隔，1纳秒的tick下能看到
+        long slack = 2 * tickNanos + 1_000L;
+        long latest = origin, maxLate = 0;
+        for (int i = 1; i < all.size(); i++) {
+            Timeout x = q.take();
+            long t = System.nanoTime();
+            if (t < x.deadline)
+                throw new AssertionError("taken " + (x.deadline - t) + " ns early");
+            if (x.deadline < latest - slack)
+                throw new AssertionError("tick " + tickNanos + ": out of order by " + (latest - x.deadline)
+                        + " ns, deadline " + (x.deadline - origin) + " after " + (latest - origin));
+            if (x instanceof Indexed && ((Indexed) x).wheelEntry != null)
+                throw new AssertionError("entry not cleared");
+            latest = Math.max(latest, x.deadline);
+            maxLate = Math.max(maxLate, t - x.deadline);
+        }
+        if (q.size() != 0 || q.poll() != null)
+            throw new AssertionError("not empty");
+        System.out.printf("tick %,d ns: %d elements in order, max lateness %.2f ms%n",
+                tickNanos, all.size(), maxLate / 1e6);
+    }
+
+    /** 很久没有人取的时候，加入时已经到期的元素不能越过更早到期、还在时间轮中的元素 */
+    static void expiredOffer() throws InterruptedException {
+        TimingWheelDelayQueue<Timeout> q = new TimingWheelDelayQueue<>();
+        Timeout early = new Timeout(System.nanoTime() + 2_000_000L);
+        q.offer(early);
+        Thread.sleep(20);
+        Timeout late = new Timeout(System.nanoTime() - 1);
+        q.offer(late);
+        if (q.poll() != early || q.poll() != late)
+            throw new AssertionError("expired offer overtook an earlier element");
+    }
+
+    /** 超出时间轮范围(64^8个tick)的元素先放在最远的槽位，不会被提前取出 */
+    static void beyondRange() {
+        TimingWheelDelayQueue<Timeout> q = new TimingWheelDelayQueue<>(1, TimeUnit.NANOSECONDS);
+        Timeout far = new Timeout(System.nanoTime() + TimeUnit.DAYS.toNanos(365));
+        Timeout near = new Timeout(System.nanoTime() - 1);
+        q.offer(far);
+        q.offer(near);
+        if (q.poll() != near || q.poll() != null || q.peek() != far || q.size() != 1)
+            throw new AssertionError("beyond range");
+    }
+
+    /** 取消还没有到期的和已经被取出的元素 */
+    static void cancel() {
+        TimingWheelDelayQueue<Timeout> q = new TimingWheelDelayQueue<>();
+        long hour = System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+        List<Timeout> pending = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Timeout x = (i & 1) == 0 ? new Indexed(hour + i * 1_000_000L) : new Timeout(hour + i * 1_000_000L);
+            pending.add(x);
+            q.offer(x);
+        }
+        for (int i = 0; i < pending.size(); i += 3) {
+            Timeout x = pending.get(i);
+            if (!q.remove(x) || q.contains(x) || q.remove(x))
+                throw new AssertionError("cancel pending " + i);
+            if (x instanceof Indexed && ((Indexed) x).wheelEntry != null)
+                throw new AssertionError("entry not cleared " + i);
+        }
+        int left = pending.size() - (pending.size() + 2) / 3;
+        if (q.size() != left)
+            throw new AssertionError("size " + q.size());
+
+        Indexed fired = new Indexed(System.nanoTime() - 1);
+        Timeout plainFired = new Timeout(System.nanoTime() - 1);
+        q.offer(fired);
+        q.offer(plainFired);
+        List<Timeout> out = new ArrayList<>();
+        if (q.drainTo(out) != 2 || !out.contains(fired) || !out.contains(plainFired))
+            throw new AssertionError("drain fired");
+        if (q.remove(fired) || q.contains(fired) || q.remove(plainFired) || q.contains(plainFired))
+            throw new AssertionError("cancel fired");
+
+        // 属于另一个队列的元素
+        TimingWheelDelayQueue<Timeout> other = new TimingWheelDelayQueue<>();
+        Indexed elsewhere = new Indexed(hour);
+        other.offer(elsewhere);
+        if (q.contains(elsewhere) || q.remove(elsewhere) || !other.remove(elsewhere))
+            throw new AssertionError("element of another queue");
+
+        for (Iterator<Timeout> it = q.iterator(); it.hasNext(); ) {
+            it.next();
+            it.remove();
+        }
+        if (q.size() != 0 || q.peek() != null)
+            throw new AssertionError("iterator remove");
+    }
+
+    static Thread taker(BlockingQueue<Timeout> q, Timeout expected, long pollNanos) {
+        Thread t = new Thread(() -> {
+            try {
+                Timeout x = (pollNanos < 0) ? q.take() : q.poll(pollNanos, TimeUnit.NANOSECONDS);
+                long now = System.nanoTime();
+                if (x != expected)
+                    throw new AssertionError("got " + x);
+                if (now < x.deadline)
+                    throw new AssertionError("woke " + (x.deadline - now) + " ns early");
+                if (now - x.deadline > TimeUnit.SECONDS.toNanos(1))
+                    throw new AssertionError("woke " + (now - x.deadline) / 1_000_000 + " ms late");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }, pollNanos < 0 ? "take" : "poll");
+        t.start();
+        return t;
+    }
+
+    static void awaitWaiting(Thread t) {
+        while (t.getState() != Thread.State.WAITING && t.getState() != Thread.State.TIMED_WAITING)
+            Thread.yield();
+    }
+
+    /** 等待中的take和poll(timeout)在更早到期的元素加入时被唤醒 */
+    static void wakeups() throws InterruptedException {
+        long hour = TimeUnit.HOURS.toNanos(1);
+        for (long pollNanos : new long[] { -1L, TimeUnit.SECONDS.toNanos(10) }) {
+            // 空队列
+            TimingWheelDelayQueue<Timeout> q = new TimingWheelDelayQueue<>();
+            Timeout soon = new Timeout(System.nanoTime() + 30_000_000L);
+            Thread t = taker(q, soon, pollNanos);
+            awaitWaiting(t);
+            q.offer(soon);
+            join(t);
+
+            // leader在等一个一小时后才到期的元素
+            q.offer(new Timeout(System.nanoTime() + hour));
+            soon = new Timeout(System.nanoTime() + 30_000_000L);
+            t = taker(q, soon, pollNanos);
+            awaitWaiting(t);
+            q.offer(soon);
+            join(t);
+        }
+
+        // 两个等待的线程各取到一个
+        TimingWheelDelayQueue<Timeout> q = new TimingWheelDelayQueue<>();
+        Timeout a = new Timeout(System.nanoTime() + 20_000_000L);
+        Timeout b = new Timeout(System.nanoTime() + 40_000_000L);
+        List<Timeout> got = Collections.synchronizedList(new ArrayList<>());
+        Thread[] ts = new Thread[2];
+        for (int i = 0; i < ts.length; i++) {
+            ts[i] = new Thread(() -> {
+                try {
+                    got.add(q.take());
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            ts[i].start();
+            awaitWaiting(ts[i]);
+        }
+        q.offer(b);
+        q.offer(a);
+        for (Thread t : ts)
+            join(t);
+        if (got.size() != 2 || !got.contains(a) || !got.contains(b))
+            throw new AssertionError("two takers " + got);
+
+        // 只有一小时后才到期的元素时poll(timeout)超时返回null
+        q.offer(new Timeout(System.nanoTime() + hour));
+        long start = System.nanoTime();
+        if (q.poll(50, TimeUnit.MILLISECONDS) != null)
+            throw new AssertionError("poll returned a pending element");
+        if (System.nanoTime() - start < 50_000_000L)
+            throw new AssertionError("poll timed out early");
+    }
+
+    /**
+     * 约2M个等待中的超时：先全部加入，然后每次取消一个再加入一个新的，
+     * 和DelayQueue(HeapIndexed，删除同样不需要遍历)对比
+     */
+    static void pending(String name, BlockingQueue<Timeout> q) {
+        Random r = new Random(1);
+        long base = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        long hour = TimeUnit.HOURS.toNanos(1);
+        Indexed[] live = new Indexed[PENDING];
+        long start = System.nanoTime();
+        for (int i = 0; i < PENDING; i++)
+            q.offer(live[i] = new Indexed(base + (long) (r.nextDouble() * hour)));
+        long fill = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < CHURN; i++) {
+            int k = r.nextInt(PENDING);
+            if (!q.remove(live[k]))
+                throw new AssertionError(name + " lost a pending timeout");
+            q.offer(live[k] = new Indexed(base + (long) (r.nextDouble() * hour)));
+        }
+        long churn = System.nanoTime() - start;
+        if (q.size() != PENDING || q.poll() != null)
+            throw new AssertionError(name + " size " + q.size());
+
+        start = System.nanoTime();
+        for (Indexed x : live)
+            q.remove(x);
+        long cancel = System.nanoTime() - start;
+        if (!q.isEmpty())
+            throw new AssertionError(name + " not empty");
+        System.out.printf("%-22s %,d pending: offer %,d ns, cancel+offer %,d ns, cancel %,d ns%n",
+                name, PENDING, fill / PENDING, churn / CHURN, cancel / PENDING);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> {
+            failure = e;
+            e.printStackTrace();
+        });
+        expiryOrder(1L, 2_500_000_000L);
+        expiryOrder(1_000_000L, 300_000_000L);
+        expiredOffer();
+        beyondRange();
+        cancel();
+        wakeups();
+        System.out.println("TimingWheelDelayQueue ok");
+        for (int round = 0; round < 2; round++) {
+            pending("DelayQueue", new DelayQueue<Timeout>());
+            pending("TimingWheelDelayQueue", new TimingWheelDelayQueue<Timeout>());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.myjava.util.concurrent;
+
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+public class TwoLockArrayBlockingQueueTest {
+
+    private static final int OPS = 2_000_000;
+    private static final Integer ITEM = 1;
+
+    /** threads个生产者和threads个消费者一共传递OPS个元素 */
+    static long run(final BlockingQueue<Integer> q, int threads) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(threads * 2);
+        final int perThread = OPS / threads;
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < perThread; j++)
+                        q.put(ITEM);
+                } catch (InterruptedException ignore) {
+                }
+                done.countDown();
+            }).start();
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < perThread; j++)
+                        q.take();
+                } catch (InterruptedException ignore) {
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    /** 两个队列共用的迭代器：绕回、出队后继续遍历、Iterator.remove */
+    static void iterators(BlockingQueue<Integer> q) {
+        for (int i = 0; i < 6; i++)
+            q.add(i);
+        for (int i = 0; i < 6; i++)
+            q.remove();
+        for (int i = 0; i < 8; i++)
+            q.add(i); // takeIndex为6，元素绕回数组开头
+        Iterator<Integer> it = q.iterator();
+        if (it.next() != 0 || it.next() != 1)
+            throw new AssertionError(q.getClass().getSimpleName() + " next");
+        q.poll();
+        q.poll();
+        q.poll(); // 2已经出队，但返回1时迭代器已经取出了它
+        it.remove(); // 1已经不在队列中，什么也不删
+        int expected = 2;
+        while (it.hasNext()) {
+            int x = it.next();
+            if (x != expected++)
+                throw new AssertionError(q.getClass().getSimpleName() + " got " + x);
+            if (x == 5)
+                it.remove();
+        }
+        if (!q.toString().equals("[3, 4, 6, 7]"))
+            throw new AssertionError(q.getClass().getSimpleName() + " " + q);
+        q.clear();
+        if (it.hasNext() || q.iterator().hasNext())
+            throw new AssertionError(q.getClass().getSimpleName() + " after clear");
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        iterators(new ArrayBlockingQueue<Integer>(8));
+        iterators(new TwoLockArrayBlockingQueue<Integer>(8));
+        System.out.println("iterators ok");
+        for (int threads = 1; threads <= 16; threads <<= 1) {
+            long one = run(new ArrayBlockingQueue<Integer>(1024), threads);
+            long two = run(new TwoLockArrayBlockingQueue<Integer>(1024), threads);
+            System.out.printf("%2d producers/%2d consumers: single lock %,d ops/s, two locks %,d ops/s%n",
+                    threads, threads,
+                    OPS * 1_000_000_000L / one, OPS * 1_000_000_000L / two);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.myjava.util.concurrent;
+
+public class WaitStrategyTest {
+
+    private static final int ROUNDS = 200_000;
+    private static final Integer ITEM = 1;
+
+    /**
+     * 两个线程通过一对队列来回传递一个元素，返回平均单程延迟(纳秒)
+     */
+    static long pingPong(final BlockingQueue<Integer> ping,
+                         final BlockingQueue<Integer> pong) throws InterruptedException {
+        Thread echo = new Thread(() -> {
+            try {
+                for (int i = 0; i < ROUNDS; i++)
+                    pong.put(ping.take());
+            } catch (InterruptedException ignore) {
+            }
+        });
+        echo.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            ping.put(ITEM);
+            pong.take();
+        }
+        long elapsed = System.nanoTime() - start;
+        echo.join();
+        return elapsed / ROUNDS / 2;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        WaitStrategy[] strategies = {
+            WaitStrategy.blocking(),
+            WaitStrategy.backoff(100_000L),
+            WaitStrategy.yielding(),
+            WaitStrategy.busySpin(),
+        };
+        boolean multiCore = Runtime.getRuntime().availableProcessors() > 1;
+        for (WaitStrategy ws : strategies) {
+            // 只有一个核时自旋的线程会一直占着CPU直到时间片用完
+            if (ws == WaitStrategy.busySpin() && !multiCore)
+                continue;
+            String name = ws.getClass().getSimpleName();
+            System.out.printf("%-10s %-12s %,6d ns%n", "SPSC", name,
+                    pingPong(new SpscArrayBlockingQueue<Integer>(1024, ws),
+                             new SpscArrayBlockingQueue<Integer>(1024, ws)));
+            System.out.printf("%-10s %-12s %,6d ns%n", "MPSC", name,
+                    pingPong(new MpscArrayBlockingQueue<Integer>(1024, ws),
+                             new MpscArrayBlockingQueue<Integer>(1024, ws)));
+            System.out.printf("%-10s %-12s %,6d ns%n", "MPMC", name,
+                    pingPong(new MpmcArrayBlockingQueue<Integer>(1024, ws),
+                             new MpmcArrayBlockingQueue<Integer>(1024, ws)));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.util.function.LongSupplier;
+
+public class AtomicLongTest {
+
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 20_000_000;
+
+    static class Sequence {
+        volatile long next;
+        volatile int hits;
+        private volatile long secret;
+    }
+
+    static final AtomicLongFieldUpdater<Sequence> NEXT =
+            AtomicLongFieldUpdater.newUpdater(Sequence.class, "next");
+    static final AtomicIntegerFieldUpdater<Sequence> HITS =
+            AtomicIntegerFieldUpdater.newUpdater(Sequence.class, "hits");
+
+    static void check(boolean b, Object msg) {
+        if (!b)
+            throw new AssertionError(msg);
+    }
+
+    static void semantics() {
+        AtomicInteger i = new AtomicInteger(41);
+        check(i.incrementAndGet() == 42 && i.intValue() == 42 && i.doubleValue() == 42.0, i);
+        i.lazySet(7);
+        check(i.get() == 7 && i.getAndAdd(3) == 7 && i.get() == 10, i);
+
+        AtomicLong l = new AtomicLong(Long.MAX_VALUE - 1);
+        check(l.incrementAndGet() == Long.MAX_VALUE && l.longValue() == Long.MAX_VALUE, l);
+        check(l.getAndAccumulate(5, Math::min) == Long.MAX_VALUE && l.get() == 5, l);
+
+        AtomicLongArray a = new AtomicLongArray(4);
+        a.addAndGet(2, 10);
+        check(a.getAndIncrement(2) == 10 && a.toString().equals("[0, 0, 11, 0]"), a);
+        AtomicIntegerArray ia = new AtomicIntegerArray(new int[] {1, 2, 3});
+        check(ia.compareAndSet(1, 2, 20) && !ia.compareAndSet(1, 2, 30) && ia.get(1) == 20, ia);
+
+        Sequence s = new Sequence();
+        check(NEXT.incrementAndGet(s) == 1 && HITS.addAndGet(s, 5) == 5 && s.next == 1, s.hits);
+        try {
+            AtomicLongFieldUpdater.newUpdater(Sequence.class, "missing");
+            throw new AssertionError("no such field");
+        } catch (RuntimeException expected) {
+        }
+        try {
+            AtomicIntegerFieldUpdater.newUpdater(Sequence.class, "next");
+            throw new AssertionError("wrong type");
+        } catch (IllegalArgumentException expected) {
+        }
+        // 嵌套类是同一个nest的成员，可以访问private字段
+        check(AtomicLongFieldUpdater.newUpdater(Sequence.class, "secret").addAndGet(s, 3) == 3, s.secret);
+    }
+
+    /** 每个线程递增自己的计数器，计数器彼此相邻或者各占一个缓存行 */
+    static double run(String name, LongSupplier[] counters) throws InterruptedException {
+        Thread[] ts = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            LongSupplier c = counters[t];
+            ts[t] = new Thread(() -> {
+                for (int j = 0; j < ROUNDS; j++)
+                    c.getAsLong();
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts)
+            t.join();
+        double nanos = (System.nanoTime() - start) / (double) THREADS / ROUNDS;
+        System.out.printf("%-18s %6.2f ns/op%n", name, nanos);
+        return nanos;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        semantics();
+        System.out.println("cpus " + Runtime.getRuntime().availableProcessors());
+        for (int i = 0; i < 3; i++) {
+            // 连续分配的小对象通常相邻
+            LongSupplier[] plain = new LongSupplier[THREADS];
+            LongSupplier[] padded = new LongSupplier[THREADS];
+            AtomicLongArray array = new AtomicLongArray(THREADS);
+            LongSupplier[] elements = new LongSupplier[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                plain[t] = new AtomicLong()::incrementAndGet;
+                padded[t] = new PaddedAtomicLong()::incrementAndGet;
+                final int k = t;
+                elements[t] = () -> array.incrementAndGet(k);
+            }
+            run("AtomicLong", plain);
+            run("AtomicLongArray", elements);
+            run("PaddedAtomicLong", padded);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+public class AtomicReferenceTest {
+
+    private static final int THREADS = 8;
+    private static final int UPDATES = 20_000;
+    private static final int CONFIG_SIZE = 256;
+
+    /** 没有退避的更新循环，作为对比 */
+    static <V> V naiveUpdateAndGet(AtomicReference<V> ref, UnaryOperator<V> fn) {
+        V prev, next;
+        do {
+            prev = ref.get();
+            next = fn.apply(prev);
+        } while (!ref.compareAndSet(prev, next));
+        return next;
+    }
+
+    /** 多个线程同时向写时复制的配置中加入自己的key，返回每次更新的平均微秒数 */
+    static void storm(String name, boolean backoff) throws InterruptedException {
+        Map<String, Integer> init = new HashMap<>();
+        for (int i = 0; i < CONFIG_SIZE; i++)
+            init.put("base" + i, i);
+        AtomicReference<Map<String, Integer>> config = new AtomicReference<>(init);
+        java.util.concurrent.atomic.LongAdder copies = new java.util.concurrent.atomic.LongAdder();
+        Thread[] ts = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            final String prefix = "t" + t + "-";
+            ts[t] = new Thread(() -> {
+                for (int i = 0; i < UPDATES; i++) {
+                    final String key = prefix + (i % 64);
+                    UnaryOperator<Map<String, Integer>> fn = m -> {
+                        copies.increment();
+                        Map<String, Integer> copy = new HashMap<>(m);
+                        copy.merge(key, 1, Integer::sum);
+                        return copy;
+                    };
+                    if (backoff)
+                        config.updateAndGet(fn);
+                    else
+                        naiveUpdateAndGet(config, fn);
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts)
+            t.join();
+        long micros = (System.nanoTime() - start) / 1000;
+        int total = 0;
+        for (Map.Entry<String, Integer> e : config.get().entrySet())
+            if (e.getKey().startsWith("t"))
+                total += e.getValue();
+        if (total != THREADS * UPDATES)
+            throw new AssertionError(total);
+        System.out.printf("%-12s %8.2f us/update, %.3f copies/update%n", name,
+                (double) micros / (THREADS * UPDATES), copies.sum() / (double) (THREADS * UPDATES));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        AtomicReference<String> r = new AtomicReference<>("a");
+        if (!"a".equals(r.getAndAccumulate("b", String::concat)) || !"ab".equals(r.get()))
+            throw new AssertionError(r);
+        if (!"abc".equals(r.accumulateAndGet("c", String::concat)))
+            throw new AssertionError(r);
+        if (r.compareAndExchange("x", "y") != r.get())
+            throw new AssertionError(r);
+
+        for (int i = 0; i < 3; i++) {
+            storm("no backoff", false);
+            storm("backoff", true);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+public class ConcurrentFrequencySketchTest {
+
+    private static final int THREADS = 4;
+    private static final int KEYS = 1_000_000;
+    private static final int ROUNDS = 1_000_000;
+
+    /** 近似Zipf分布：key越小越热 */
+    static int nextKey(ThreadLocalRandom r) {
+        return (int) Math.min(KEYS - 1, Math.floor(Math.pow(KEYS, r.nextDouble())) - 1);
+    }
+
+    /** 每个线程的key序列，两种实现使用相同的输入 */
+    static final Integer[][] STREAMS = new Integer[THREADS][ROUNDS];
+
+    static {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        for (Integer[] s : STREAMS)
+            for (int j = 0; j < ROUNDS; j++)
+                s[j] = nextKey(r);
+    }
+
+    static void run(String name, Consumer<Integer> op) throws InterruptedException {
+        Thread[] ts = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            final Integer[] keys = STREAMS[i];
+            ts[i] = new Thread(() -> {
+                for (Integer k : keys)
+                    op.accept(k);
+            });
+            ts[i].start();
+        }
+        for (Thread t : ts)
+            t.join();
+        System.out.printf("%-26s %6.1f ns/op%n", name,
+                (System.nanoTime() - start) / (double) THREADS / ROUNDS);
+    }
+
+    static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long before = usedHeap();
+        ConcurrentHashMap<Integer, LongAdder> exact = new ConcurrentHashMap<>();
+        run("ConcurrentHashMap+LongAdder", k -> exact.computeIfAbsent(k, x -> new LongAdder()).increment());
+        long mapBytes = usedHeap() - before;
+
+        // 不自动老化，估计值应该不小于真实值
+        ConcurrentFrequencySketch<Integer> sketch =
+                new ConcurrentFrequencySketch<>(1 << 18, 4, 10, Long.MAX_VALUE);
+        run("ConcurrentFrequencySketch", sketch::increment);
+
+        System.out.printf("map: %d keys, %,d bytes; sketch: %d stripes, %,d bytes%n",
+                exact.size(), mapBytes, sketch.stripes(), sketch.footprint());
+
+        long maxError = 0;
+        for (Map.Entry<Integer, LongAdder> e : exact.entrySet()) {
+            long est = sketch.estimate(e.getKey()), real = e.getValue().sum();
+            if (est < real)
+                throw new AssertionError(e.getKey() + ": " + est + " < " + real);
+            maxError = Math.max(maxError, est - real);
+        }
+        System.out.println("max overestimate " + maxError + " of " + (long) THREADS * ROUNDS);
+
+        List<Map.Entry<Integer, Long>> hitters = sketch.heavyHitters();
+        System.out.println("heavy hitters " + hitters);
+        for (int k = 0; k < 5; k++) {
+            boolean found = false;
+            for (Map.Entry<Integer, Long> e : hitters)
+                found |= e.getKey() == k;
+            if (!found)
+                throw new AssertionError("missing hot key " + k);
+        }
+
+        long hot = sketch.estimate(0);
+        sketch.age();
+        checkAged(hot, sketch.estimate(0), sketch.stripes());
+        System.out.println("after aging key 0: " + hot + " -> " + sketch.estimate(0));
+
+        stripedAging();
+        widthLimits();
+    }
+
+    /**
+     * 老化把每份表分别减半，每份表的奇数计数各丢掉1/2，
+     * 所以一行的和在(sum - stripes) / 2和sum / 2之间
+     */
+    static void checkAged(long before, long after, int stripes) {
+        if (after > before >>> 1 || 2 * after < before - stripes)
+            throw new AssertionError("aged " + before + " -> " + after + " with " + stripes + " stripes");
+    }
+
+    /** 单CPU上表不会扩充，所以直接创建4份表，切换探针把计数分到每一份上 */
+    static void stripedAging() {
+        final int stripes = 4;
+        ConcurrentFrequencySketch<Integer> sketch =
+                new ConcurrentFrequencySketch<>(64, 2, 0, Long.MAX_VALUE, stripes);
+        if (sketch.stripes() != stripes)
+            throw new AssertionError("stripes " + sketch.stripes());
+        ThreadLocalRandom.current(); // 初始化探针
+        for (int s = 0; s < stripes; s++) {
+            int probe = Striped64.getProbe();
+            while ((probe & (stripes - 1)) != s)
+                probe = Striped64.advanceProbe(probe);
+            sketch.add(7, 3);
+        }
+        long before = sketch.estimate(7);
+        if (before != 3 * stripes)
+            throw new AssertionError("estimate " + before);
+        sketch.age();
+        long after = sketch.estimate(7);
+        // 每份表3 -> 1，和是4而不是6
+        if (after != stripes)
+            throw new AssertionError("aged to " + after);
+        checkAged(before, after, stripes);
+    }
+
+    static void widthLimits() {
+        for (int width : new int[] { Integer.MAX_VALUE, (1 << 30) + 1, 1 << 28 }) {
+            try {
+                new ConcurrentFrequencySketch<Integer>(width, 8, 0);
+                throw new AssertionError("accepted width " + width);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
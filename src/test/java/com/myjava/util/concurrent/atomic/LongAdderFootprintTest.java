@@ -0,0 +1,56 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntFunction;
+
+public class LongAdderFootprintTest {
+
+    private static final int ADDERS = 200_000;
+    /** 模拟竞争后表长到的大小，单CPU上不会真的长到这么大 */
+    private static final int GROWN = Math.max(8, Integer.highestOneBit(Striped64.NCPU * 2 - 1));
+
+    static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /** 强制创建n个Cell的表，相当于每个槽位都发生过竞争，每个Cell中是1 */
+    static void contend(LongAdder a, int n) {
+        Striped64.Cell[] cs = new Striped64.Cell[n];
+        for (int i = 0; i < n; i++)
+            cs[i] = new Striped64.Cell(1);
+        a.cells = cs;
+        a.contention = 1;
+    }
+
+    static void measure(String name, IntFunction<LongAdder> factory, int cells, boolean shrink) {
+        LongAdder[] adders = new LongAdder[ADDERS];
+        long before = usedHeap();
+        for (int i = 0; i < ADDERS; i++) {
+            LongAdder a = adders[i] = factory.apply(i);
+            contend(a, cells);
+            a.add(i);
+            if (shrink) {
+                a.shrink(); // 有竞争，只开始新一轮观察
+                a.shrink(); // 没有新的竞争，收回
+            }
+        }
+        long measured = usedHeap() - before;
+        long estimated = 0, sum = 0;
+        for (LongAdder a : adders) {
+            estimated += a.footprint();
+            sum += a.sum();
+        }
+        System.out.printf("%-22s measured %6.1f B/adder  estimated %6.1f B/adder  %s%n", name,
+                (double) measured / ADDERS, (double) estimated / ADDERS, adders[0].memoryReport());
+        if (sum != (long) ADDERS * (ADDERS - 1) / 2 + (long) ADDERS * cells)
+            throw new AssertionError(sum);
+    }
+
+    public static void main(String[] args) {
+        measure("LongAdder (grown)", i -> new LongAdder(), GROWN, false);
+        measure("LongAdder(2)", i -> new LongAdder(2), 2, false);
+        measure("LongAdder(2) shrunk", i -> new LongAdder(2), 2, true);
+    }
+}
@@ -0,0 +1,86 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.util.concurrent.CountDownLatch;
+
+public class LongAdderTest {
+
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int ROUNDS = 5_000_000;
+
+    /** THREADS个线程各执行ROUNDS次op，返回每次操作的平均纳秒数 */
+    static double run(String name, Runnable op) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            ts[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < ROUNDS; j++)
+                    op.run();
+            });
+            ts[i].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : ts)
+            t.join();
+        double nanos = (System.nanoTime() - t0) / (double) THREADS / ROUNDS;
+        System.out.printf("%-18s %6.2f ns/op%n", name, nanos);
+        return nanos;
+    }
+
+    static void check(boolean b, Object msg) {
+        if (!b)
+            throw new AssertionError(msg);
+    }
+
+    /** 写线程持续增加时周期性地取分段增量，各段之和应该恰好等于总数 */
+    static void intervals() throws InterruptedException {
+        LongAdder adder = new LongAdder();
+        long[] total = new long[1];
+        int[] snapshots = new int[1];
+        Thread reporter = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                total[0] += adder.intervalSum();
+                snapshots[0]++;
+                Thread.yield();
+            }
+        });
+        reporter.start();
+        run("LongAdder+interval", adder::increment);
+        reporter.interrupt();
+        reporter.join();
+        total[0] += adder.intervalSum();
+        check(total[0] == (long) THREADS * ROUNDS, total[0]);
+        System.out.println(snapshots[0] + " intervals, total " + total[0]);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        intervals();
+        long expected = (long) THREADS * ROUNDS;
+        for (int i = 0; i < 3; i++) {
+            java.util.concurrent.atomic.AtomicLong atomic = new java.util.concurrent.atomic.AtomicLong();
+            LongAdder adder = new LongAdder();
+            LongAccumulator max = new LongAccumulator(Long::max, Long.MIN_VALUE);
+            DoubleAdder dsum = new DoubleAdder();
+            DoubleAccumulator dmax = new DoubleAccumulator(Double::max, Double.NEGATIVE_INFINITY);
+
+            run("AtomicLong", atomic::incrementAndGet);
+            run("LongAdder", adder::increment);
+            run("LongAccumulator", () -> max.accumulate(Thread.currentThread().getId()));
+            run("DoubleAdder", () -> dsum.add(1.0));
+            run("DoubleAccumulator", () -> dmax.accumulate(1.5));
+
+            check(atomic.get() == expected, atomic);
+            check(adder.sum() == expected, adder);
+            check(dsum.sum() == expected, dsum);
+            check(dmax.get() == 1.5, dmax);
+            System.out.println("cells " + (adder.cells == null ? 0 : adder.cells.length)
+                    + ", max thread id " + max.get());
+            check(adder.sumThenReset() == expected && adder.sum() == 0, adder);
+        }
+    }
+}
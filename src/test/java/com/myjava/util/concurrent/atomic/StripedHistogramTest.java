@@ -0,0 +1,80 @@
+package com.myjava.util.concurrent.atomic;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
+
+public class StripedHistogramTest {
+
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int ROUNDS = 2_000_000;
+
+    /** 用一把锁保护的直方图，作为对比 */
+    static final class SynchronizedHistogram {
+        final long[] counts = new long[(64 - 4 + 1) << 4];
+
+        synchronized void record(long v) {
+            counts[StripedHistogram.bucketIndex(v, 4)]++;
+        }
+    }
+
+    static double run(String name, LongConsumer recorder) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            ts[i] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < ROUNDS; j++)
+                    recorder.accept(r.nextLong(1_000_000));
+            });
+            ts[i].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : ts)
+            t.join();
+        double nanos = (System.nanoTime() - t0) / (double) THREADS / ROUNDS;
+        System.out.printf("%-22s %6.2f ns/record%n", name, nanos);
+        return nanos;
+    }
+
+    /** 与排序后的精确百分位数比较，误差不应超过桶宽 */
+    static void accuracy() {
+        StripedHistogram h = new StripedHistogram();
+        long[] values = new long[100_000];
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(r.nextDouble(20)); // 跨越多个数量级
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+        StripedHistogram.Snapshot s = h.snapshot();
+        for (double p : new double[] {50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long approx = s.percentile(p);
+            if (approx < exact || approx > exact + exact / 16 + 1)
+                throw new AssertionError(p + ": " + exact + " vs " + approx);
+        }
+        System.out.println(s);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        accuracy();
+        for (int i = 0; i < 3; i++) {
+            SynchronizedHistogram locked = new SynchronizedHistogram();
+            StripedHistogram striped = new StripedHistogram();
+            run("synchronized", locked::record);
+            run("StripedHistogram", striped::record);
+            StripedHistogram.Snapshot s = striped.snapshot();
+            if (s.count() != (long) THREADS * ROUNDS)
+                throw new AssertionError(s.count());
+            System.out.println(s);
+        }
+    }
+}
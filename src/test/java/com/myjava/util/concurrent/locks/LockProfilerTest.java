@@ -0,0 +1,213 @@
+package com.myjava.util.concurrent.locks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class LockProfilerTest {
+
+    private static final int THREADS = 4;
+    private static final int OPS = 100_000;
+
+    static final ReentrantLock HOT = new ReentrantLock("hot");
+    static final ReentrantLock COLD = new ReentrantLock("cold");
+    static long counter;
+    static volatile Throwable failure;
+
+    static void updateFromA() {
+        HOT.lock();
+        try {
+            counter++;
+            for (int k = 0; k < 50; k++)
+                Thread.onSpinWait();
+        } finally {
+            HOT.unlock();
+        }
+    }
+
+    static void updateFromB() {
+        HOT.lock();
+        try {
+            counter++;
+        } finally {
+            HOT.unlock();
+        }
+    }
+
+    static void run() throws InterruptedException {
+        Thread[] ts = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final boolean a = (t & 1) == 0;
+            ts[t] = new Thread(() -> {
+                for (int i = 0; i < OPS; i++) {
+                    if (a)
+                        updateFromA();
+                    else
+                        updateFromB();
+                    if ((i & 1023) == 0) {
+                        COLD.lock();
+                        COLD.unlock();
+                    }
+                    if ((i & 255) == 0)
+                        Thread.yield(); // 单CPU上也制造一些等待
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts)
+            join(t);
+    }
+
+    static void join(Thread t) throws InterruptedException {
+        t.join();
+        Throwable f = failure;
+        if (f != null)
+            throw new AssertionError("failed in " + t.getName(), f);
+    }
+
+    static LockProfiler.Report report(String name) {
+        for (LockProfiler.Report r : LockProfiler.dump())
+            if (r.name.equals(name))
+                return r;
+        throw new AssertionError("no report for " + name);
+    }
+
+    static void timedOutWait(ReentrantLock lock) throws InterruptedException {
+        if (lock.tryLock(5, TimeUnit.MILLISECONDS))
+            throw new AssertionError("tryLock succeeded while held");
+    }
+
+    static void interruptedWait(ReentrantLock lock) {
+        try {
+            lock.lockInterruptibly();
+            throw new AssertionError("lockInterruptibly succeeded while held");
+        } catch (InterruptedException expected) {
+        }
+    }
+
+    /** 超时和被中断的等待也计入contended、等待时间和调用位置，不计入acquisitions */
+    static void failedWaits() throws InterruptedException {
+        ReentrantLock lock = new ReentrantLock("held");
+        lock.lock();
+        try {
+            Thread t = new Thread(() -> {
+                try {
+                    timedOutWait(lock);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }, "timed");
+            t.start();
+            join(t);
+            t = new Thread(() -> interruptedWait(lock), "interrupted");
+            t.start();
+            while (!lock.hasQueuedThread(t))
+                Thread.yield();
+            Thread.sleep(2); // 超过SLOW_WAIT_NANOS，一定记录调用位置
+            t.interrupt();
+            join(t);
+        } finally {
+            lock.unlock();
+        }
+        LockProfiler.Report r = report("held");
+        if (r.acquisitions != 1 || r.contended != 2 || r.failed != 2)
+            throw new AssertionError(r);
+        if (r.waitNanos.count() != 2 || r.waitNanos.max() < TimeUnit.MILLISECONDS.toNanos(5))
+            throw new AssertionError("wait " + r.waitNanos);
+        if (r.contentionRatio() != 2.0 / 3)
+            throw new AssertionError("ratio " + r.contentionRatio());
+        List<String> sites = r.topCallSites.stream().map(e -> e.getKey()).toList();
+        String prefix = LockProfilerTest.class.getName() + ".";
+        if (sites.size() != 2 || !sites.stream().allMatch(x -> x.startsWith(prefix + "timedOutWait(")
+                                                       || x.startsWith(prefix + "interruptedWait(")))
+            throw new AssertionError("call sites " + sites);
+    }
+
+    /** 调用位置的次数是reset()以来的累计值，不会被老化减半 */
+    static void callSiteCounts() {
+        LockProfiler.Profile p = LockProfiler.profile("counted");
+        int waits = 5000; // 超过sketch默认的老化周期10 * 256
+        for (int i = 0; i < waits; i++)
+            p.acquiredAfterWait(LockProfiler.SLOW_WAIT_NANOS);
+        List<Map.Entry<String, Long>> sites = report("counted").topCallSites;
+        if (sites.size() != 1 || sites.get(0).getValue() != waits
+            || !sites.get(0).getKey().startsWith(LockProfilerTest.class.getName() + ".callSiteCounts("))
+            throw new AssertionError("call sites " + sites);
+    }
+
+    /** 单线程无竞争的lock/unlock，打印平均纳秒数 */
+    static void uncontended(String name, ReentrantLock lock) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 10_000_000; i++) {
+                lock.lock();
+                lock.unlock();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-36s %5.1f ns/lock%n", name, best / 1e7);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> {
+            failure = e;
+            e.printStackTrace();
+        });
+        if (LockProfiler.isEnabled())
+            throw new AssertionError("enabled by default");
+        run();
+        for (LockProfiler.Report r : LockProfiler.dump())
+            if (r.acquisitions != 0)
+                throw new AssertionError("recorded while disabled: " + r);
+
+        LockProfiler.enable();
+        counter = 0;
+        run();
+        LockProfiler.disable();
+        if (counter != (long) THREADS * OPS)
+            throw new AssertionError(counter);
+
+        List<LockProfiler.Report> reports = LockProfiler.dump();
+        System.out.print(LockProfiler.dumpString());
+        LockProfiler.Report hot = reports.stream().filter(r -> r.name.equals("hot")).findFirst().get();
+        if (hot.acquisitions != (long) THREADS * OPS)
+            throw new AssertionError("acquisitions " + hot.acquisitions);
+        if (hot.holdNanos.count() != hot.acquisitions)
+            throw new AssertionError("hold count " + hot.holdNanos.count());
+        if (hot.waitNanos.count() != hot.contended || hot.failed != 0)
+            throw new AssertionError("wait count " + hot.waitNanos.count() + ", contended " + hot.contended);
+        if (hot.contended > 0 && !hot.topCallSites.get(0).getKey()
+                .startsWith(LockProfilerTest.class.getName() + ".updateFrom"))
+            throw new AssertionError("top call site " + hot.topCallSites.get(0));
+
+        LockProfiler.reset();
+        if (LockProfiler.dump().get(0).acquisitions != 0)
+            throw new AssertionError("not reset");
+
+        LockProfiler.enable();
+        failedWaits();
+        callSiteCounts();
+        LockProfiler.disable();
+        System.out.println(report("held"));
+
+        // 关闭时命名锁只多读一次开关
+        ReentrantLock named = new ReentrantLock("bench");
+        ReentrantLock unnamed = new ReentrantLock();
+        uncontended("unnamed", unnamed);
+        uncontended("named, profiler disabled", named);
+        LockProfiler.enable();
+        uncontended("named, profiler enabled", named);
+        LockProfiler.disable();
+        uncontended("jdk ReentrantLock", adapt());
+    }
+
+    static ReentrantLock adapt() {
+        // 用一个子类包装JDK的锁，作为对比
+        java.util.concurrent.locks.ReentrantLock jdk = new java.util.concurrent.locks.ReentrantLock();
+        return new ReentrantLock() {
+            @Override public void lock() { jdk.lock(); }
+            @Override public void unlock() { jdk.unlock(); }
+        };
+    }
+}
@@ -0,0 +1,340 @@
+package com.myjava.util.concurrent.locks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class ReadWriteLockTest {
+
+    private static final int THREADS = 4;
+    private static final int OPS = 500_000;
+    /** 写操作的比例是1/WRITE_RATE */
+    private static final int WRITE_RATE = 100;
+
+    /** 写线程总是同时修改a和b，读线程看到的两者必须相等 */
+    static long a, b;
+
+    /** 辅助线程中抛出的异常，由join在主线程中重新抛出 */
+    static volatile Throwable failure;
+
+    static void join(Thread t) throws InterruptedException {
+        t.join();
+        Throwable f = failure;
+        if (f != null)
+            throw new AssertionError("failed in " + t.getName(), f);
+    }
+
+    /**
+     * 99%读1%写，检查读写互斥，打印每次操作的平均纳秒数
+     */
+    static void mixed(String name, ReadWriteLock rw) throws InterruptedException {
+        a = b = 0;
+        Lock r = rw.readLock(), w = rw.writeLock();
+        Thread[] ts = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            ts[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < OPS; i++) {
+                    if (rnd.nextInt(WRITE_RATE) == 0) {
+                        w.lock();
+                        try {
+                            a++;
+                            b++;
+                        } finally {
+                            w.unlock();
+                        }
+                    } else {
+                        r.lock();
+                        try {
+                            if (a != b)
+                                throw new AssertionError(name + ": torn read " + a + " " + b);
+                        } finally {
+                            r.unlock();
+                        }
+                    }
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts)
+            join(t);
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-28s %6.1f ns/op, writes=%d%n", name, (double) nanos / (THREADS * OPS), a);
+    }
+
+    /** 同样的负载，读线程用乐观读 */
+    static void optimistic(StampedLock sl) throws InterruptedException {
+        a = b = 0;
+        Thread[] ts = new Thread[THREADS];
+        long[] retries = new long[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            ts[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < OPS; i++) {
+                    if (rnd.nextInt(WRITE_RATE) == 0) {
+                        long stamp = sl.writeLock();
+                        try {
+                            a++;
+                            b++;
+                        } finally {
+                            sl.unlockWrite(stamp);
+                        }
+                    } else {
+                        long stamp = sl.tryOptimisticRead();
+                        long x = a, y = b;
+                        if (!sl.validate(stamp)) {
+                            retries[id]++;
+                            stamp = sl.readLock();
+                            try {
+                                x = a;
+                                y = b;
+                            } finally {
+                                sl.unlockRead(stamp);
+                            }
+                        }
+                        if (x != y)
+                            throw new AssertionError("torn optimistic read " + x + " " + y);
+                    }
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts)
+            join(t);
+        long nanos = System.nanoTime() - start;
+        long n = 0;
+        for (long x : retries)
+            n += x;
+        System.out.printf("%-28s %6.1f ns/op, writes=%d, validate failures=%d%n", "StampedLock optimistic",
+                (double) nanos / (THREADS * OPS), a, n);
+    }
+
+    static void reentrantReadWriteLock() throws InterruptedException {
+        ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+        rw.readLock().lock();
+        rw.readLock().lock();
+        if (rw.getReadHoldCount() != 2 || rw.getReadLockCount() != 2)
+            throw new AssertionError("read holds " + rw.getReadHoldCount() + ", readers " + rw.getReadLockCount());
+        Thread other = new Thread(() -> {
+            if (!rw.readLock().tryLock())
+                throw new AssertionError("second reader blocked");
+            if (rw.writeLock().tryLock())
+                throw new AssertionError("write lock acquired while read locked");
+            rw.readLock().unlock();
+        });
+        other.start();
+        join(other);
+        rw.readLock().unlock();
+        rw.readLock().unlock();
+        if (rw.getReadLockCount() != 0)
+            throw new AssertionError("readers " + rw.getReadLockCount());
+
+        // 降级
+        rw.writeLock().lock();
+        rw.writeLock().lock();
+        if (rw.getWriteHoldCount() != 2)
+            throw new AssertionError("write holds " + rw.getWriteHoldCount());
+        rw.readLock().lock();
+        rw.writeLock().unlock();
+        rw.writeLock().unlock();
+        if (rw.isWriteLocked() || rw.getReadHoldCount() != 1)
+            throw new AssertionError("downgrade: " + rw);
+        rw.readLock().unlock();
+        try {
+            rw.readLock().unlock();
+            throw new AssertionError("unmatched unlock");
+        } catch (IllegalMonitorStateException expected) {
+        }
+
+        // 有写线程排队时，新的读线程不插队
+        rw.readLock().lock();
+        Thread writer = new Thread(() -> {
+            rw.writeLock().lock();
+            rw.writeLock().unlock();
+        });
+        writer.start();
+        while (!rw.hasQueuedThread(writer))
+            Thread.sleep(1);
+        Thread reader = new Thread(() -> {
+            try {
+                if (rw.readLock().tryLock(10, TimeUnit.MILLISECONDS))
+                    throw new AssertionError("reader barged ahead of a queued writer");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        reader.start();
+        join(reader);
+        rw.readLock().unlock();
+        join(writer);
+        System.out.println("ReentrantReadWriteLock ok");
+    }
+
+    static void stampedLock() throws InterruptedException {
+        StampedLock sl = new StampedLock();
+        long opt = sl.tryOptimisticRead();
+        if (opt == 0 || !StampedLock.isOptimisticReadStamp(opt) || !sl.validate(opt))
+            throw new AssertionError("optimistic stamp " + opt);
+        long ws = sl.writeLock();
+        if (sl.tryOptimisticRead() != 0 || sl.validate(opt))
+            throw new AssertionError("optimistic read valid while write locked");
+        if (sl.tryReadLock() != 0)
+            throw new AssertionError("read lock acquired while write locked");
+        long rs = sl.tryConvertToReadLock(ws);
+        if (rs == 0 || !sl.isReadLocked() || sl.isWriteLocked())
+            throw new AssertionError("convert to read: " + sl);
+        long r2 = sl.readLock();
+        if (sl.getReadLockCount() != 2)
+            throw new AssertionError("readers " + sl.getReadLockCount());
+        if (sl.tryConvertToWriteLock(rs) != 0) // 还有另一个读锁
+            throw new AssertionError("converted to write with another reader");
+        sl.unlockRead(r2);
+        ws = sl.tryConvertToWriteLock(rs);
+        if (ws == 0 || !sl.isWriteLocked())
+            throw new AssertionError("convert to write: " + sl);
+        opt = sl.tryConvertToOptimisticRead(ws);
+        if (opt == 0 || sl.isWriteLocked() || !sl.validate(opt))
+            throw new AssertionError("convert to optimistic: " + sl);
+        try {
+            sl.unlockWrite(ws);
+            throw new AssertionError("stale stamp");
+        } catch (IllegalMonitorStateException expected) {
+        }
+
+        // 读计数溢出
+        long[] stamps = new long[300];
+        for (int i = 0; i < stamps.length; i++)
+            stamps[i] = sl.readLock();
+        if (sl.getReadLockCount() != stamps.length)
+            throw new AssertionError("readers " + sl.getReadLockCount());
+        for (long s : stamps)
+            sl.unlockRead(s);
+        if (sl.isReadLocked())
+            throw new AssertionError("still read locked: " + sl);
+
+        // 阻塞的写线程在读锁释放后被唤醒
+        long s = sl.readLock();
+        Thread writer = new Thread(() -> sl.unlockWrite(sl.writeLock()));
+        writer.start();
+        Thread.sleep(10);
+        if (!writer.isAlive())
+            throw new AssertionError("writer acquired while read locked");
+        sl.unlockRead(s);
+        join(writer);
+        System.out.println("StampedLock ok");
+    }
+
+    static void readerBiased() throws InterruptedException {
+        ReaderBiasedReadWriteLock rw = new ReaderBiasedReadWriteLock();
+        if (!rw.isReadBiased())
+            throw new AssertionError("new lock not read biased");
+        rw.readLock().lock();
+        rw.readLock().lock();
+        if (rw.getReadHoldCount() != 2 || rw.getReadLockCount() != 2)
+            throw new AssertionError("read holds " + rw.getReadHoldCount() + ", readers " + rw.getReadLockCount());
+        Thread writer = new Thread(() -> {
+            if (rw.writeLock().tryLock())
+                throw new AssertionError("write lock acquired while read locked");
+            rw.writeLock().lock();
+            rw.writeLock().unlock();
+        });
+        writer.start();
+        Thread.sleep(10);
+        if (!writer.isAlive())
+            throw new AssertionError("writer acquired while read locked");
+        rw.readLock().lock(); // 写线程等待时仍然可以重入
+        rw.readLock().unlock();
+        rw.readLock().unlock();
+        rw.readLock().unlock();
+        join(writer);
+        if (rw.isReadBiased() || rw.getRevocations() != 1)
+            throw new AssertionError("biased " + rw.isReadBiased() + ", revocations " + rw.getRevocations());
+
+        // 禁止期(撤销耗时的9倍，这里包括等待读线程的时间)过后，慢速的读线程恢复偏向
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!rw.isReadBiased() && System.nanoTime() < deadline) {
+            rw.readLock().lock();
+            rw.readLock().unlock();
+            Thread.sleep(1);
+        }
+        if (!rw.isReadBiased())
+            throw new AssertionError("bias not restored");
+
+        // 降级时不恢复偏向
+        rw.writeLock().lock();
+        Thread.sleep(5);
+        rw.readLock().lock();
+        if (rw.isReadBiased())
+            throw new AssertionError("bias restored while write locked");
+        rw.writeLock().unlock();
+        rw.readLock().unlock();
+        System.out.println("ReaderBiasedReadWriteLock ok, slots=" + rw.getSlots());
+    }
+
+    /** 指示器个数取整为2的幂，超过上限的值在取整之前就被拒绝 */
+    static void readerBiasedSlots() {
+        int[][] rounded = { {1, 2}, {2, 2}, {3, 4}, {64, 64}, {65, 128} };
+        for (int[] c : rounded) {
+            int slots = new ReaderBiasedReadWriteLock(c[0]).getSlots();
+            if (slots != c[1])
+                throw new AssertionError(c[0] + " slots rounded to " + slots);
+        }
+        int max = ReaderBiasedReadWriteLock.MAX_SLOTS;
+        for (int bad : new int[] { 0, -1, max + 1, (1 << 30) + 1, Integer.MAX_VALUE }) {
+            try {
+                new ReaderBiasedReadWriteLock(bad);
+                throw new AssertionError(bad + " slots accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> {
+            failure = e;
+            e.printStackTrace();
+        });
+        reentrantReadWriteLock();
+        stampedLock();
+        readerBiased();
+        readerBiasedSlots();
+
+        // 读线程之间的缓存行争用只在多核上出现，单CPU时几种锁的差别只是路径长度
+        System.out.println("cpus=" + Runtime.getRuntime().availableProcessors());
+        for (int round = 0; round < 2; round++) {
+            mixed("ReentrantReadWriteLock", new ReentrantReadWriteLock());
+            mixed("ReentrantReadWriteLock fair", new ReentrantReadWriteLock(true));
+            mixed("jdk ReentrantReadWriteLock", new JdkReadWriteLock());
+            mixed("StampedLock view", new StampedLock().asReadWriteLock());
+            optimistic(new StampedLock());
+            ReaderBiasedReadWriteLock biased = new ReaderBiasedReadWriteLock();
+            mixed("ReaderBiasedReadWriteLock", biased);
+            System.out.println("  revocations=" + biased.getRevocations());
+        }
+    }
+
+    /** 把JDK的读写锁适配为本包的接口，作为对比 */
+    static final class JdkReadWriteLock implements ReadWriteLock {
+        final java.util.concurrent.locks.ReentrantReadWriteLock rw =
+                new java.util.concurrent.locks.ReentrantReadWriteLock();
+        final Lock r = adapt(rw.readLock()), w = adapt(rw.writeLock());
+
+        static Lock adapt(java.util.concurrent.locks.Lock l) {
+            return new Lock() {
+                @Override public void lock() { l.lock(); }
+                @Override public void lockInterruptibly() throws InterruptedException { l.lockInterruptibly(); }
+                @Override public boolean tryLock() { return l.tryLock(); }
+                @Override public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+                    return l.tryLock(time, unit);
+                }
+                @Override public void unlock() { l.unlock(); }
+                @Override public java.util.concurrent.locks.Condition newCondition() { return l.newCondition(); }
+            };
+        }
+
+        @Override public Lock readLock() { return r; }
+        @Override public Lock writeLock() { return w; }
+    }
+}
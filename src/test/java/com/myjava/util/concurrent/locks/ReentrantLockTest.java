@@ -0,0 +1,278 @@
+package com.myjava.util.concurrent.locks;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+public class ReentrantLockTest {
+
+    private static final int THREADS = 4;
+    private static final int OPS = 200_000;
+
+    static long counter;
+
+    /** 辅助线程中抛出的异常，由join在主线程中重新抛出 */
+    static volatile Throwable failure;
+
+    static void join(Thread t) throws InterruptedException {
+        t.join();
+        Throwable f = failure;
+        if (f != null)
+            throw new AssertionError("failed in " + t.getName(), f);
+    }
+
+    /** 多个线程在锁内自增，检查互斥并打印每次加锁的平均纳秒数 */
+    static void contend(String name, Runnable lock, Runnable unlock, int work) throws InterruptedException {
+        counter = 0;
+        Thread[] ts = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            ts[t] = new Thread(() -> {
+                for (int i = 0; i < OPS; i++) {
+                    lock.run();
+                    try {
+                        counter++;
+                        for (int k = 0; k < work; k++)
+                            Thread.onSpinWait();
+                    } finally {
+                        unlock.run();
+                    }
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts)
+            join(t);
+        long nanos = System.nanoTime() - start;
+        if (counter != (long) THREADS * OPS)
+            throw new AssertionError(name + ": " + counter);
+        System.out.printf("%-24s work=%-4d %6.1f ns/lock%n", name, work, (double) nanos / (THREADS * OPS));
+    }
+
+    /** 用Condition实现的有界缓冲区，检查await/signal */
+    static void boundedBuffer(ReentrantLock lock) throws InterruptedException {
+        Condition notFull = lock.newCondition(), notEmpty = lock.newCondition();
+        ArrayDeque<Integer> buf = new ArrayDeque<>();
+        final int n = 50_000, cap = 8;
+        long[] sum = new long[1];
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 0; i < n; i++) {
+                    lock.lock();
+                    try {
+                        while (buf.isEmpty())
+                            notEmpty.await();
+                        sum[0] += buf.poll();
+                        notFull.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < n; i++) {
+            lock.lock();
+            try {
+                while (buf.size() == cap)
+                    notFull.await();
+                buf.add(i);
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+        join(consumer);
+        if (sum[0] != (long) n * (n - 1) / 2)
+            throw new AssertionError(sum[0]);
+        System.out.println("bounded buffer ok");
+    }
+
+    /** 条件的等待队列检查，以及不加锁的近似计数 */
+    static void conditionIntrospection() throws InterruptedException {
+        ReentrantLock lock = new ReentrantLock();
+        Condition c = lock.newCondition();
+        final int n = 4;
+        Thread[] ts = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            final boolean timed = i == 0;
+            ts[i] = new Thread(() -> {
+                lock.lock();
+                try {
+                    if (timed)
+                        c.await(20, TimeUnit.MILLISECONDS);
+                    else
+                        c.await();
+                } catch (InterruptedException expected) {
+                } finally {
+                    lock.unlock();
+                }
+            });
+            ts[i].start();
+        }
+        while (lock.getApproximateWaitQueueLength(c) < n)
+            Thread.sleep(1);
+        lock.lock();
+        try {
+            if (!lock.hasWaiters(c) || lock.getWaitQueueLength(c) != n)
+                throw new AssertionError("waiters " + lock.getWaitQueueLength(c));
+            if (lock.getWaitingThreads(c).size() != n)
+                throw new AssertionError("waiting threads " + lock.getWaitingThreads(c));
+        } finally {
+            lock.unlock();
+        }
+        try {
+            lock.hasWaiters(c);
+            throw new AssertionError("not holding the lock");
+        } catch (IllegalMonitorStateException expected) {
+        }
+        try {
+            lock.getWaitQueueLength(new ReentrantLock().newCondition());
+            throw new AssertionError("foreign condition");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // 超时和中断的线程离开队列
+        join(ts[0]);
+        ts[1].interrupt();
+        join(ts[1]);
+        if (lock.getApproximateWaitQueueLength(c) != n - 2)
+            throw new AssertionError("approximate " + lock.getApproximateWaitQueueLength(c));
+        lock.lock();
+        try {
+            if (lock.getWaitQueueLength(c) != n - 2)
+                throw new AssertionError("waiters " + lock.getWaitQueueLength(c));
+            c.signalAll();
+            if (lock.hasWaiters(c) || lock.getApproximateWaitQueueLength(c) != 0)
+                throw new AssertionError("waiters after signalAll " + lock.getWaitQueueLength(c) +
+                        ", approximate " + lock.getApproximateWaitQueueLength(c));
+        } finally {
+            lock.unlock();
+        }
+        for (Thread t : ts)
+            join(t);
+
+        // 大量的超时等待和signal之后，近似计数回到0
+        Thread[] ws = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            ws[i] = new Thread(() -> {
+                for (int k = 0; k < 2000; k++) {
+                    lock.lock();
+                    try {
+                        c.awaitNanos(10_000);
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+            ws[i].start();
+        }
+        long polls = 0;
+        boolean running = true;
+        while (running) {
+            polls++;
+            int approx = lock.getApproximateWaitQueueLength(c);
+            if (approx < 0 || approx > n)
+                throw new AssertionError("approximate " + approx);
+            if (lock.tryLock()) {
+                try {
+                    c.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            running = false;
+            for (Thread t : ws)
+                running |= t.isAlive();
+        }
+        for (Thread t : ws)
+            join(t);
+        if (lock.getApproximateWaitQueueLength(c) != 0)
+            throw new AssertionError("approximate " + lock.getApproximateWaitQueueLength(c));
+        System.out.println("condition introspection ok, polls=" + polls);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> {
+            failure = e;
+            e.printStackTrace();
+        });
+        ReentrantLock lock = new ReentrantLock();
+        lock.lock();
+        lock.lock();
+        if (lock.getHoldCount() != 2 || !lock.isHeldByCurrentThread())
+            throw new AssertionError("hold count " + lock.getHoldCount());
+        Thread other = new Thread(() -> {
+            if (lock.tryLock())
+                throw new AssertionError("tryLock succeeded on a held lock");
+            try {
+                long start = System.nanoTime();
+                if (lock.tryLock(10, TimeUnit.MILLISECONDS))
+                    throw new AssertionError("timed tryLock succeeded on a held lock");
+                if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(10))
+                    throw new AssertionError("timed tryLock returned early");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        other.start();
+        join(other);
+        lock.unlock();
+        lock.unlock();
+        if (lock.isLocked())
+            throw new AssertionError("still locked");
+        try {
+            lock.unlock();
+            throw new AssertionError("unlock without owning");
+        } catch (IllegalMonitorStateException expected) {
+        }
+
+        // 等待中的lockInterruptibly可以被中断
+        lock.lock();
+        Thread waiter = new Thread(() -> {
+            try {
+                lock.lockInterruptibly();
+                throw new AssertionError("acquired");
+            } catch (InterruptedException expected) {
+            }
+        });
+        waiter.start();
+        while (!lock.hasQueuedThread(waiter))
+            Thread.sleep(1);
+        waiter.interrupt();
+        join(waiter);
+        lock.unlock();
+
+        Condition c = lock.newCondition();
+        lock.lock();
+        if (c.await(1, TimeUnit.MILLISECONDS))
+            throw new AssertionError("await without signal returned true");
+        lock.unlock();
+
+        boundedBuffer(new ReentrantLock());
+        boundedBuffer(new ReentrantLock(true));
+        conditionIntrospection();
+        System.out.println("basic checks ok");
+
+        // 短临界区：自旋通常能等到锁，省去park/unpark。单CPU时不自旋，结果没有差别，
+        // 多核上的收益要在多核机器上运行这里才能看到
+        System.out.println("cpus=" + Runtime.getRuntime().availableProcessors());
+        for (int round = 0; round < 2; round++) {
+            for (int work : new int[] {0, 20, 200}) {
+                ReentrantLock mine = new ReentrantLock();
+                contend("myjava ReentrantLock", mine::lock, mine::unlock, work);
+                System.out.printf("  average hold %d ns%n", mine.getAverageHoldNanos());
+                java.util.concurrent.locks.ReentrantLock jdk = new java.util.concurrent.locks.ReentrantLock();
+                contend("jdk ReentrantLock", jdk::lock, jdk::unlock, work);
+            }
+        }
+        ReentrantLock fair = new ReentrantLock(true);
+        contend("myjava fair", fair::lock, fair::unlock, 20);
+        java.util.concurrent.locks.ReentrantLock jdkFair = new java.util.concurrent.locks.ReentrantLock(true);
+        contend("jdk fair", jdkFair::lock, jdkFair::unlock, 20);
+    }
+}